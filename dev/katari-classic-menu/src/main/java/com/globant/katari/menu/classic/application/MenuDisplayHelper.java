@@ -10,6 +10,7 @@ import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.globant.katari.core.security.FilteredMenu;
 import com.globant.katari.core.security.MenuAccessFilterer;
 import com.globant.katari.core.web.MenuBar;
 import com.globant.katari.core.web.MenuNode;
@@ -41,6 +42,13 @@ public class MenuDisplayHelper {
    */
   private MenuAccessFilterer filterer;
 
+  /** The menu bar filtered according to the user permissions.
+   *
+   * It is obtained from the filterer the first time it is needed, it is null
+   * until then.
+   */
+  private FilteredMenu filteredMenu = null;
+
   /** Builds a menu display helper.
    *
    * @param menuBar The menu bar to obtain the list of menu nodes. It cannot be
@@ -123,7 +131,7 @@ public class MenuDisplayHelper {
     }
 
     List<MenuNode> filteredMenuNodes;
-    filteredMenuNodes = filterer.filterMenuNodes(node.getChildNodes());
+    filteredMenuNodes = getFilteredMenu().getChildNodes(node);
 
     for (MenuNode child : filteredMenuNodes) {
       log.debug("Checking if '" + child.getPath() + "' is selected");
@@ -192,17 +200,18 @@ public class MenuDisplayHelper {
   MenuNode findFirstDescendentLeaf(final MenuNode node) {
     Validate.notNull(node, "The menu node cannot be null");
     Validate.isTrue(!node.isLeaf(), "The menu node cannot be a leaf");
-    List<MenuNode> filteredMenuNodes;
-    filteredMenuNodes = filterer.filterMenuNodes(node.getChildNodes());
-    if (filteredMenuNodes.size() > 0) {
-      MenuNode child = filteredMenuNodes.get(0);
-      if (child.isLeaf()) {
-        return child;
-      } else {
-        return findFirstDescendentLeaf(child);
-      }
+    return getFilteredMenu().getFirstDescendentLeaf(node);
+  }
+
+  /** Returns the menu bar filtered according to the user permissions.
+   *
+   * @return the filtered menu, never null.
+   */
+  private FilteredMenu getFilteredMenu() {
+    if (filteredMenu == null) {
+      filteredMenu = filterer.getFilteredMenu(menu);
     }
-    return null;
+    return filteredMenu;
   }
 }
 
@@ -4,6 +4,7 @@ package com.globant.katari.menu.classic.application;
 
 import static org.easymock.EasyMock.createNiceMock;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.LinkedList;
 
@@ -196,5 +197,28 @@ public class MenuDisplayHelperTest extends TestCase {
     // have accessible descendants.
     assertEquals("/module/classic-menu/menu.do", nodes.get(2).getLinkPath());
   }
+
+  /* Tests that the menu is filtered only once per helper.
+   */
+  public void testGetMenuNodesForLevel_filtersOnce() {
+    final List<String> checked = new ArrayList<String>();
+    SecureUrlAccessHelper accessHelper;
+    accessHelper = createNiceMock(SecureUrlAccessHelper.class);
+    filterer = new MenuAccessFilterer(accessHelper) {
+      public boolean isAccessible(final MenuNode node) {
+        checked.add(node.getPath());
+        return true;
+      }
+    };
+
+    MenuDisplayHelper helper;
+    helper = new MenuDisplayHelper(menuBar, "/root/b/bb/b", filterer);
+    helper.getMenuNodesForLevel(1);
+    int checks = checked.size();
+    assertTrue(checks > 0);
+    helper.getMenuNodesForLevel(2);
+    helper.getMenuNodesForLevel(3);
+    assertEquals(checks, checked.size());
+  }
 }
 
@@ -0,0 +1,146 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+
+/** A bounded, thread safe cache that evicts the least recently used entry
+ * when it is full.
+ *
+ * This is intended for small in-process caches of values that are expensive
+ * to compute and cheap to hold, like resolved routes or access decisions. All
+ * operations are synchronized on the cache instance, so keep the values
+ * immutable and never compute them while holding the lock.
+ *
+ * The cache also keeps a count of hits and misses, so it can be exposed for
+ * monitoring.
+ *
+ * @param <K> the type of the keys.
+ *
+ * @param <V> the type of the values.
+ */
+public class LruCache<K, V> {
+
+  /** The default load factor of the underlying map.
+   */
+  private static final float LOAD_FACTOR = 0.75f;
+
+  /** The maximum number of entries in the cache, greater than 0.
+   */
+  private final int maxSize;
+
+  /** The cached entries, in access order.
+   *
+   * It is never null.
+   */
+  private final Map<K, V> entries;
+
+  /** The number of calls to get that found a value.
+   */
+  private long hits = 0;
+
+  /** The number of calls to get that did not find a value.
+   */
+  private long misses = 0;
+
+  /** Creates a new cache.
+   *
+   * @param theMaxSize the maximum number of entries that the cache holds. It
+   * must be greater than 0.
+   */
+  public LruCache(final int theMaxSize) {
+    Validate.isTrue(theMaxSize > 0, "The maximum size must be positive.");
+    maxSize = theMaxSize;
+    entries = new LinkedHashMap<K, V>(16, LOAD_FACTOR, true) {
+      private static final long serialVersionUID = 1;
+      protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /** Obtains a value from the cache.
+   *
+   * @param key the key of the value. It cannot be null.
+   *
+   * @return the cached value, or null if the key is not in the cache.
+   */
+  public synchronized V get(final K key) {
+    Validate.notNull(key, "The key cannot be null.");
+    V value = entries.get(key);
+    if (value == null) {
+      ++ misses;
+    } else {
+      ++ hits;
+    }
+    return value;
+  }
+
+  /** Adds a value to the cache, possibly evicting the least recently used
+   * entry.
+   *
+   * @param key the key of the value. It cannot be null.
+   *
+   * @param value the value. It cannot be null.
+   */
+  public synchronized void put(final K key, final V value) {
+    Validate.notNull(key, "The key cannot be null.");
+    Validate.notNull(value, "The value cannot be null.");
+    entries.put(key, value);
+  }
+
+  /** Removes a value from the cache.
+   *
+   * @param key the key of the value to remove. It cannot be null.
+   *
+   * @return the removed value, or null if it was not in the cache.
+   */
+  public synchronized V remove(final K key) {
+    Validate.notNull(key, "The key cannot be null.");
+    return entries.remove(key);
+  }
+
+  /** Removes all the entries from the cache.
+   *
+   * This does not reset the hit and miss counters.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /** Returns the number of entries currently in the cache.
+   *
+   * @return the number of entries, never greater than the maximum size.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the maximum number of entries this cache holds.
+   *
+   * @return the maximum size, always greater than 0.
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** Returns the number of calls to get that found a value.
+   *
+   * @return the number of hits.
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** Returns the number of calls to get that did not find a value.
+   *
+   * @return the number of misses.
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+}
+
@@ -0,0 +1,120 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.security;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+
+import com.globant.katari.core.web.MenuNode;
+
+/** A menu tree with only the nodes that a user is allowed to click.
+ *
+ * This is built once from a menu node, filtering the children of each node
+ * with MenuAccessFilterer.filterMenuNodes. By default, a non leaf node is
+ * kept only if at least one of its descendants is accessible. The result is
+ * immutable, so it can be shared among all the users with the same
+ * authorities.
+ *
+ * Obtain instances from MenuAccessFilterer.getFilteredMenu, that caches them.
+ */
+public final class FilteredMenu {
+
+  /** The root of the menu tree, never null.
+   */
+  private final MenuNode root;
+
+  /** The accessible children of each accessible non leaf node, including the
+   * root.
+   *
+   * The lists are unmodifiable. It is never null.
+   */
+  private final Map<MenuNode, List<MenuNode>> children
+    = new IdentityHashMap<MenuNode, List<MenuNode>>();
+
+  /** Builds the filtered menu tree.
+   *
+   * @param theRoot the root of the menu tree. It must be a non null, non leaf
+   * node.
+   *
+   * @param filterer decides which nodes are accessible. It cannot be null.
+   */
+  public FilteredMenu(final MenuNode theRoot,
+      final MenuAccessFilterer filterer) {
+    Validate.notNull(theRoot, "The root node cannot be null.");
+    Validate.isTrue(!theRoot.isLeaf(), "The root node cannot be a leaf.");
+    Validate.notNull(filterer, "The menu filterer cannot be null.");
+    root = theRoot;
+    filter(root, filterer);
+  }
+
+  /** Filters the children of a node and of each accessible non leaf
+   * descendant, recording the accessible children of each one.
+   *
+   * @param node the non leaf node to filter. It cannot be null.
+   *
+   * @param filterer decides which nodes are accessible. It cannot be null.
+   */
+  private void filter(final MenuNode node, final MenuAccessFilterer filterer) {
+    List<MenuNode> accessible;
+    accessible = filterer.filterMenuNodes(node.getChildNodes());
+    children.put(node, Collections.unmodifiableList(
+          new ArrayList<MenuNode>(accessible)));
+    for (MenuNode child : accessible) {
+      if (!child.isLeaf()) {
+        filter(child, filterer);
+      }
+    }
+  }
+
+  /** Returns the root of the menu tree.
+   *
+   * @return the root node, never null.
+   */
+  public MenuNode getRoot() {
+    return root;
+  }
+
+  /** Returns the accessible children of a node.
+   *
+   * @param node the node. It cannot be null.
+   *
+   * @return the unmodifiable list of accessible children of the node, in the
+   * original order. It is empty if the node is a leaf, if it is not
+   * accessible or if it does not belong to this tree. Never returns null.
+   */
+  public List<MenuNode> getChildNodes(final MenuNode node) {
+    Validate.notNull(node, "The menu node cannot be null.");
+    List<MenuNode> result = children.get(node);
+    if (result == null) {
+      return Collections.emptyList();
+    }
+    return result;
+  }
+
+  /** Finds the first accessible descendant leaf of a node.
+   *
+   * @param node the node to start looking. It must be a non leaf node. It
+   * cannot be null.
+   *
+   * @return the first accessible descendant leaf, or null if the node has no
+   * accessible descendants.
+   */
+  public MenuNode getFirstDescendentLeaf(final MenuNode node) {
+    Validate.notNull(node, "The menu node cannot be null.");
+    Validate.isTrue(!node.isLeaf(), "The menu node cannot be a leaf.");
+    MenuNode current = node;
+    while (!current.isLeaf()) {
+      List<MenuNode> accessible = getChildNodes(current);
+      if (accessible.isEmpty()) {
+        return null;
+      }
+      current = accessible.get(0);
+    }
+    return current;
+  }
+}
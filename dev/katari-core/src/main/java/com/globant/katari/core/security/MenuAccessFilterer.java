@@ -6,16 +6,25 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContextHolder;
 import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.globant.katari.core.cache.LruCache;
 import com.globant.katari.core.web.MenuNode;
+import com.globant.katari.core.web.ModuleContextRegistrar;
 
 /**
  * This class is used to filter a list of menu nodes and only return the ones
  * that the user is allowed to click.
  *
+ * It also builds the whole menu tree filtered for the current user (see
+ * getFilteredMenu). The filtered trees are cached by the authorities of the
+ * user, and discarded when the module context registrar reports that the
+ * module configuration, and so the menu, changed.
+ *
  * {@link SecureUrlAccessHelper}.
  * @see SecureUrlAccessHelper
  * @author pablo.saavedra
@@ -34,6 +43,31 @@ public class MenuAccessFilterer {
    */
   private final SecureUrlAccessHelper urlAccessHelper;
 
+  /** The default maximum number of cached filtered menus.
+   */
+  private static final int DEFAULT_CACHE_SIZE = 100;
+
+  /** The filtered menus, keyed by the root node and the authorities of the
+   * user.
+   *
+   * It is null if the cache is disabled.
+   */
+  private volatile LruCache<String, FilteredMenu> menus
+    = new LruCache<String, FilteredMenu>(DEFAULT_CACHE_SIZE);
+
+  /** The registrar that holds the module configuration, used to discard the
+   * cached menus when the menu changes.
+   *
+   * It is null if not set, in that case the cache is only discarded by
+   * clearCache.
+   */
+  private ModuleContextRegistrar contextRegistrar = null;
+
+  /** The configuration version of the registrar when the cached menus were
+   * built.
+   */
+  private volatile long configurationVersion = 0;
+
   /**
    * The MenuAccessFilterer Constructor.
    *
@@ -45,6 +79,93 @@ public class MenuAccessFilterer {
     urlAccessHelper = theUrlAccessHelper;
   }
 
+  /** Sets the module context registrar, used to discard the cached menus when
+   * the module configuration changes.
+   *
+   * @param theRegistrar the registrar. It cannot be null.
+   */
+  public void setModuleContextRegistrar(
+      final ModuleContextRegistrar theRegistrar) {
+    Validate.notNull(theRegistrar, "The registrar cannot be null");
+    contextRegistrar = theRegistrar;
+    configurationVersion = theRegistrar.getConfigurationVersion();
+  }
+
+  /** Sets the maximum number of cached filtered menus.
+   *
+   * This discards the menus cached so far.
+   *
+   * @param size the maximum number of menus, 0 to disable the cache. It
+   * cannot be negative.
+   */
+  public void setCacheSize(final int size) {
+    Validate.isTrue(size >= 0, "The cache size cannot be negative");
+    if (size == 0) {
+      menus = null;
+    } else {
+      menus = new LruCache<String, FilteredMenu>(size);
+    }
+  }
+
+  /** Discards all the cached filtered menus.
+   */
+  public void clearCache() {
+    LruCache<String, FilteredMenu> cache = menus;
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /** Returns the menu tree filtered for the current user.
+   *
+   * The tree is built once for each set of authorities and then obtained
+   * from the cache. If there is no authenticated user, the tree is not
+   * cached.
+   *
+   * @param root the root of the menu tree, usually the application menu bar.
+   * It must be a non null, non leaf node.
+   *
+   * @return the filtered menu tree, never null.
+   */
+  public FilteredMenu getFilteredMenu(final MenuNode root) {
+    log.trace("Entering getFilteredMenu()");
+    Validate.notNull(root, "The root node cannot be null");
+    Authentication authentication;
+    authentication = SecurityContextHolder.getContext().getAuthentication();
+    LruCache<String, FilteredMenu> cache = getMenus();
+    if (cache == null || authentication == null) {
+      log.trace("Leaving getFilteredMenu() with an uncached menu");
+      return new FilteredMenu(root, this);
+    }
+    String key = System.identityHashCode(root) + " "
+      + SecureUrlAccessHelper.buildAuthoritiesKey(authentication);
+    FilteredMenu menu = cache.get(key);
+    if (menu == null || menu.getRoot() != root) {
+      menu = new FilteredMenu(root, this);
+      cache.put(key, menu);
+    }
+    log.trace("Leaving getFilteredMenu()");
+    return menu;
+  }
+
+  /** Returns the cache of menus, discarding the cached menus if the module
+   * configuration changed.
+   *
+   * @return the cache, null if it is disabled.
+   */
+  private LruCache<String, FilteredMenu> getMenus() {
+    LruCache<String, FilteredMenu> cache = menus;
+    if (cache != null && contextRegistrar != null) {
+      long version = contextRegistrar.getConfigurationVersion();
+      if (version != configurationVersion) {
+        log.debug("Module configuration changed, clearing menu cache");
+        cache.clear();
+        configurationVersion = version;
+      }
+    }
+    return cache;
+  }
+
   /** It returns a filtered list of menu nodes and the filter policy is defined
    * by the {@link SecureUrlAccessHelper}.
    *
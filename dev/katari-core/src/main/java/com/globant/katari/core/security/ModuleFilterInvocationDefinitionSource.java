@@ -6,8 +6,11 @@ import org.acegisecurity.ConfigAttributeDefinition;
 import org.acegisecurity.intercept.web.AbstractFilterInvocationDefinitionSource;
 import org.acegisecurity.SecurityConfig;
 import org.acegisecurity.ConfigAttribute;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 
+import com.globant.katari.core.cache.LruCache;
+
 import com.globant.katari.core.web.ModuleContext;
 import com.globant.katari.core.web.ModuleContextRegistrar;
 import com.globant.katari.core.web.ModuleUtils;
@@ -17,6 +20,11 @@ import com.globant.katari.core.web.ModuleUtils;
  * to have a different way to look for attributes, since we do not have just
  * one definition source (url's matching roles), but each module has its own
  * source.
+ *
+ * The ConfigAttributeDefinition built for each distinct list of roles is
+ * memoized, so it is not rebuilt on each request. The returned definitions
+ * are shared, and must not be modified.
+ *
  * @author maximiliano.roman
  * @author ulises.bocchio
  */
@@ -36,6 +44,21 @@ public class ModuleFilterInvocationDefinitionSource extends
    */
   private UrlToRoleMapper defaultMapper;
 
+  /** The maximum number of memoized config attribute definitions.
+   *
+   * There is usually a small number of different role lists configured in
+   * the application.
+   */
+  private static final int MAX_DEFINITIONS = 500;
+
+  /** The config attribute definitions already built, keyed by the comma
+   * separated list of roles.
+   *
+   * It is never null.
+   */
+  private final LruCache<String, ConfigAttributeDefinition> definitions
+    = new LruCache<String, ConfigAttributeDefinition>(MAX_DEFINITIONS);
+
   /**Constructor.
    *
    * @param theModuleContextRegistrar
@@ -87,11 +110,35 @@ public class ModuleFilterInvocationDefinitionSource extends
 
       String strippedUrl = ModuleUtils.stripModuleNameFromUrl(url);
       String[] roles = moduleMapper.getRolesForUrl(strippedUrl);
-      return buildConfigAttributeDefinition(roles);
+      return getConfigAttributeDefinition(roles);
     }
 
     String[] roles = defaultMapper.getRolesForUrl(url);
-    return buildConfigAttributeDefinition(roles);
+    return getConfigAttributeDefinition(roles);
+  }
+
+  /** Obtains the memoized <code>ConfigAttributeDefinition</code> for the
+   * array of roles, building it if necessary.
+   *
+   * @param roles The roles to obtain the ConfigAttributeDefinition for. It
+   * cannot be null.
+   *
+   * @return ConfigAttributeDefinition. It returns null if an empty array is
+   * given.
+   */
+  private ConfigAttributeDefinition getConfigAttributeDefinition(
+      final String[] roles) {
+    Validate.notNull(roles, "The roles array cannot be null");
+    if (roles.length == 0) {
+      return null;
+    }
+    String key = StringUtils.join(roles, ',');
+    ConfigAttributeDefinition definition = definitions.get(key);
+    if (definition == null) {
+      definition = buildConfigAttributeDefinition(roles);
+      definitions.put(key, definition);
+    }
+    return definition;
   }
 
   /** It returns null, there's no need to implement this method it is optional.
@@ -2,15 +2,22 @@
 
 package com.globant.katari.core.security;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.acegisecurity.AccessDecisionManager;
 import org.acegisecurity.AccessDeniedException;
 import org.acegisecurity.Authentication;
 import org.acegisecurity.ConfigAttributeDefinition;
+import org.acegisecurity.GrantedAuthority;
 import org.acegisecurity.context.SecurityContextHolder;
 import org.acegisecurity.intercept.web.AbstractFilterInvocationDefinitionSource;
 
 import org.apache.commons.lang.Validate;
 
+import com.globant.katari.core.cache.LruCache;
+import com.globant.katari.core.web.ModuleContextRegistrar;
 import com.globant.katari.core.web.ModuleUtils;
 
 import org.slf4j.Logger;
@@ -22,6 +29,19 @@ import org.slf4j.LoggerFactory;
  * MenuAccessFilterer} to determine if an action is accessible for the current
  * user based on the role configuration of the target url.
  *
+ * The decisions are cached by url and by the set of authorities of the
+ * current user. The url is normalized first: the query string and the
+ * fragment are removed, and the '.' and '..' segments are resolved, so the
+ * links to the same page with different parameters share one decision. It
+ * assumes that the access decision manager only takes
+ * into account the authorities and the type of the authentication (for
+ * example, anonymous or remembered), like the acegi RoleVoter and
+ * AuthenticatedVoter do. Set the cache size to 0 to disable the cache for
+ * other access decision managers.
+ *
+ * The cache is discarded when the module context registrar reports that the
+ * module configuration changed, or when clearCache is called.
+ *
  * @author gerardo.bercovich
  */
 public class SecureUrlAccessHelper {
@@ -31,6 +51,10 @@ public class SecureUrlAccessHelper {
   private static Logger log =
     LoggerFactory.getLogger(SecureUrlAccessHelper.class);
 
+  /** The default maximum number of cached decisions.
+   */
+  private static final int DEFAULT_CACHE_SIZE = 5000;
+
   /** The acegi definition source implementation.
    *
    * It is used to obtain the ConfigAttributeDefinition with the
@@ -44,6 +68,27 @@ public class SecureUrlAccessHelper {
    */
   private final AccessDecisionManager accessDecider;
 
+  /** The cached access decisions, keyed by the authentication and the
+   * normalized module relative url.
+   *
+   * It is null if the cache is disabled.
+   */
+  private volatile LruCache<String, Boolean> decisions
+    = new LruCache<String, Boolean>(DEFAULT_CACHE_SIZE);
+
+  /** The registrar that holds the module configuration, used to discard the
+   * cached decisions when the role configuration changes.
+   *
+   * It is null if not set, in that case the cache is only discarded by
+   * clearCache.
+   */
+  private ModuleContextRegistrar contextRegistrar = null;
+
+  /** The configuration version of the registrar when the cached decisions
+   * were computed.
+   */
+  private volatile long configurationVersion = 0;
+
   /**
    * Constructor.
    *
@@ -67,6 +112,70 @@ public class SecureUrlAccessHelper {
     accessDecider = theAccessDecisionManager;
   }
 
+  /** Sets the module context registrar, used to discard the cached decisions
+   * when the module configuration changes.
+   *
+   * @param theRegistrar the registrar. It cannot be null.
+   */
+  public void setModuleContextRegistrar(
+      final ModuleContextRegistrar theRegistrar) {
+    Validate.notNull(theRegistrar, "The registrar cannot be null");
+    contextRegistrar = theRegistrar;
+    configurationVersion = theRegistrar.getConfigurationVersion();
+  }
+
+  /** Sets the maximum number of cached decisions.
+   *
+   * This discards the decisions cached so far.
+   *
+   * @param size the maximum number of decisions, 0 to disable the cache. It
+   * cannot be negative.
+   */
+  public void setCacheSize(final int size) {
+    Validate.isTrue(size >= 0, "The cache size cannot be negative");
+    if (size == 0) {
+      decisions = null;
+    } else {
+      decisions = new LruCache<String, Boolean>(size);
+    }
+  }
+
+  /** Discards all the cached decisions.
+   *
+   * Call this operation if the role configuration changes without the
+   * knowledge of the module context registrar.
+   */
+  public void clearCache() {
+    LruCache<String, Boolean> cache = decisions;
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /** Returns the number of decisions found in the cache.
+   *
+   * @return the number of cache hits, 0 if the cache is disabled.
+   */
+  public long getCacheHits() {
+    LruCache<String, Boolean> cache = decisions;
+    if (cache == null) {
+      return 0;
+    }
+    return cache.getHits();
+  }
+
+  /** Returns the number of decisions not found in the cache.
+   *
+   * @return the number of cache misses, 0 if the cache is disabled.
+   */
+  public long getCacheMisses() {
+    LruCache<String, Boolean> cache = decisions;
+    if (cache == null) {
+      return 0;
+    }
+    return cache.getMisses();
+  }
+
   /**
    * Verify if the given url is accessible by the current user based on the
    * given url and the current uri.
@@ -113,24 +222,164 @@ public class SecureUrlAccessHelper {
         "The target url does not contain any module");
       url = targetUrl.substring(globalContextPath.length());
     }
+    url = normalize(url);
+
+    LruCache<String, Boolean> cache = getDecisions();
+    String key = null;
+    if (cache != null) {
+      key = buildKey(authentication, url);
+      Boolean decision = cache.get(key);
+      if (decision != null) {
+        log.trace("Leaving canAccessUrl with cached {}", decision);
+        return decision;
+      }
+    }
+    boolean decision = decide(authentication, url);
+    if (cache != null) {
+      cache.put(key, decision);
+    }
+    return decision;
+  }
+
+  /** Returns the cache of decisions, discarding the cached decisions if the
+   * module configuration changed.
+   *
+   * @return the cache, null if it is disabled.
+   */
+  private LruCache<String, Boolean> getDecisions() {
+    LruCache<String, Boolean> cache = decisions;
+    if (cache != null && contextRegistrar != null) {
+      long version = contextRegistrar.getConfigurationVersion();
+      if (version != configurationVersion) {
+        log.debug("Module configuration changed, clearing decisions cache");
+        cache.clear();
+        configurationVersion = version;
+      }
+    }
+    return cache;
+  }
+
+  /** Normalizes a module relative url.
+   *
+   * The access decisions do not depend on the query string, see
+   * StaticUrlToRoleMapper.
+   *
+   * @param url the module relative url, starting with '/'. It cannot be null.
+   *
+   * @return the url without the query string and the fragment, with the '.'
+   * and '..' segments resolved. Never returns null.
+   */
+  static String normalize(final String url) {
+    String path = url;
+    int end = path.indexOf('?');
+    int fragment = path.indexOf('#');
+    if (fragment != -1 && (end == -1 || fragment < end)) {
+      end = fragment;
+    }
+    if (end != -1) {
+      path = path.substring(0, end);
+    }
+    String[] parts = path.split("/", -1);
+    List<String> segments = new ArrayList<String>(parts.length);
+    for (int i = 0; i < parts.length; ++i) {
+      boolean last = i == parts.length - 1;
+      if (".".equals(parts[i])) {
+        if (last) {
+          segments.add("");
+        }
+      } else if ("..".equals(parts[i])) {
+        // The first segment is the empty one before the leading '/'.
+        if (segments.size() > 1) {
+          segments.remove(segments.size() - 1);
+        }
+        if (last) {
+          segments.add("");
+        }
+      } else {
+        segments.add(parts[i]);
+      }
+    }
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < segments.size(); ++i) {
+      if (i > 0) {
+        result.append('/');
+      }
+      result.append(segments.get(i));
+    }
+    return result.toString();
+  }
+
+  /** Builds the key of a decision in the cache.
+   *
+   * @param authentication the current authentication. It cannot be null.
+   *
+   * @param url the normalized module relative url. It cannot be null.
+   *
+   * @return the key, from the authorities key and the url. Never returns
+   * null.
+   */
+  private String buildKey(final Authentication authentication,
+      final String url) {
+    return buildAuthoritiesKey(authentication) + " " + url;
+  }
 
+  /** Builds a string that identifies the users that get the same access
+   * decisions as the provided one.
+   *
+   * Other modules may use it to key their own caches of data that depends
+   * only on the access decisions, like the search module.
+   *
+   * @param authentication the authentication. It cannot be null.
+   *
+   * @return the type of the authentication followed by its sorted
+   * authorities. Never returns null.
+   */
+  public static String buildAuthoritiesKey(
+      final Authentication authentication) {
+    Validate.notNull(authentication, "The authentication cannot be null");
+    StringBuilder key = new StringBuilder();
+    key.append(authentication.getClass().getName());
+    GrantedAuthority[] authorities = authentication.getAuthorities();
+    if (authorities != null) {
+      String[] names = new String[authorities.length];
+      for (int i = 0; i < authorities.length; ++i) {
+        names[i] = authorities[i].getAuthority();
+      }
+      Arrays.sort(names);
+      for (String name : names) {
+        key.append(',').append(name);
+      }
+    }
+    return key.toString();
+  }
+
+  /** Asks the access decision manager if the current user can access the
+   * url.
+   *
+   * @param authentication the current authentication. It cannot be null.
+   *
+   * @param url the module relative url. It cannot be null.
+   *
+   * @return true if the user can access the url.
+   */
+  private boolean decide(final Authentication authentication,
+      final String url) {
     log.debug("Checking {}", url);
     ConfigAttributeDefinition attributes;
     try {
       attributes = definitionSource.lookupAttributes(url);
     } catch (AccessDeniedException e) {
-      log.trace("Leaving canAccessUrl with false. No attribute matched the"
-          + " link.");
+      log.trace("No attribute matched the link.");
       return false;
     }
     Validate.notNull(attributes, "No attribtues found for url");
     try {
       accessDecider.decide(authentication, url, attributes);
     } catch (AccessDeniedException e) {
-      log.trace("Leaving canAccessUrl with false");
+      log.trace("Access denied to {}", url);
       return false;
     }
-    log.trace("Leaving canAccessUrl with true");
+    log.trace("Access granted to {}", url);
     return true;
   }
 }
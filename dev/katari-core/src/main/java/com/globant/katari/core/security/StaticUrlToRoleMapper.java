@@ -1,10 +1,15 @@
 package com.globant.katari.core.security;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 
 import org.acegisecurity.AccessDeniedException;
 import org.apache.commons.lang.Validate;
-import org.springframework.util.AntPathMatcher;
 import org.springframework.util.PathMatcher;
 
 /**
@@ -13,21 +18,79 @@ import org.springframework.util.PathMatcher;
  *
  * It has a map, which can be injected by spring containing all roles which its
  * respective urls.
+ *
+ * The url patterns are lowercased and compiled to a trie of path segments
+ * when the mapper is created, so finding the roles for an url does not try
+ * every pattern. The first pattern that matches the url wins. The patterns
+ * are tried in the iteration order of the map if it is a LinkedHashMap or a
+ * SortedMap (spring creates LinkedHashMap instances for map elements). For
+ * other maps, whose iteration order is not defined, the most specific
+ * patterns are tried first.
+ *
  * @author maximiliano.roman
  */
 public class StaticUrlToRoleMapper implements UrlToRoleMapper {
 
+  /** Orders url patterns from the most specific to the least specific one.
+   *
+   * Patterns with less ** segments come first, then the ones with less
+   * wildcards, then the ones with more characters. Patterns that are equally
+   * specific are sorted alphabetically, so the order is always the same.
+   */
+  private static final Comparator<String> MOST_SPECIFIC_FIRST
+    = new Comparator<String>() {
+      public int compare(final String a, final String b) {
+        int result = count(a, "**") - count(b, "**");
+        if (result == 0) {
+          result = count(a, "*") + count(a, "?") - count(b, "*")
+            - count(b, "?");
+        }
+        if (result == 0) {
+          result = b.length() - a.length();
+        }
+        if (result == 0) {
+          result = a.compareTo(b);
+        }
+        return result;
+      }
+
+      private int count(final String pattern, final String token) {
+        int result = 0;
+        int position = pattern.indexOf(token);
+        while (position != -1) {
+          ++ result;
+          position = pattern.indexOf(token, position + token.length());
+        }
+        return result;
+      }
+    };
+
   /**
    * The map containing the url as a key and the roles as a value.
    * It cannot be null.
    */
   private Map<String, String[]> urlPathRolesMap;
 
+  /** The lowercased url patterns and their roles, in order of precedence.
+   *
+   * It is never null.
+   */
+  private final Map<String, String[]> lowercasePatterns
+    = new LinkedHashMap<String, String[]>();
+
+  /** The url patterns compiled to a trie.
+   *
+   * It is null if a custom path matcher was set.
+   */
+  private UrlPatternTrie<String[]> trie;
+
   /**
-   * The path matcher, to match different urls.
-   * It cannot be null.
+   * The custom path matcher, to match different urls.
+   *
+   * It is null unless set with setPathMatcher, in that case all the patterns
+   * are tried in order with this matcher.
    */
-  private PathMatcher pathMatcher;
+  private PathMatcher pathMatcher = null;
 
   /** Constructor.
    *
@@ -38,7 +101,19 @@ public class StaticUrlToRoleMapper implements UrlToRoleMapper {
     Validate.notNull(theUrlPathRolesMap, "The UrlPathRolesMap"
         + " cannot be null");
     urlPathRolesMap = theUrlPathRolesMap;
-    pathMatcher = new AntPathMatcher();
+    List<String> patterns = new ArrayList<String>(urlPathRolesMap.keySet());
+    if (!(urlPathRolesMap instanceof LinkedHashMap)
+        && !(urlPathRolesMap instanceof SortedMap)) {
+      Collections.sort(patterns, MOST_SPECIFIC_FIRST);
+    }
+    for (String urlPattern : patterns) {
+      String lowercasePattern = urlPattern.toLowerCase();
+      if (!lowercasePatterns.containsKey(lowercasePattern)) {
+        lowercasePatterns.put(lowercasePattern,
+            urlPathRolesMap.get(urlPattern));
+      }
+    }
+    trie = new UrlPatternTrie<String[]>(lowercasePatterns);
   }
 
   /** Finds the roles that are allowed to access an url.
@@ -58,10 +133,16 @@ public class StaticUrlToRoleMapper implements UrlToRoleMapper {
     if (firstQuestionMarkIndex != -1) {
       url = url.substring(0, firstQuestionMarkIndex);
     }
-    for (String urlPattern : urlPathRolesMap.keySet()) {
-      boolean matched = pathMatcher.match(urlPattern.toLowerCase(), url);
-      if (matched) {
-        return urlPathRolesMap.get(urlPattern);
+    if (trie != null) {
+      String[] roles = trie.find(url);
+      if (roles != null) {
+        return roles;
+      }
+    } else {
+      for (Map.Entry<String, String[]> entry : lowercasePatterns.entrySet()) {
+        if (pathMatcher.match(entry.getKey(), url)) {
+          return entry.getValue();
+        }
       }
     }
     throw new AccessDeniedException("The url: '" + url
@@ -69,12 +150,14 @@ public class StaticUrlToRoleMapper implements UrlToRoleMapper {
   }
   /**
    * It sets the pathMatcher. It allows to define the path matcher used for
-   * matching the url patterns with the given URLs. By default this class use
-   * an AntPathMatcher.
+   * matching the url patterns with the given URLs. By default this class
+   * compiles the patterns with the AntPathMatcher semantics. Setting a custom
+   * path matcher makes this mapper try each pattern in turn.
    * @param thePathMatcher the pathMatcher. It cannot be null.
    */
   public void setPathMatcher(final PathMatcher thePathMatcher) {
     Validate.notNull(thePathMatcher, "The pathMatcher cannot be null");
     pathMatcher = thePathMatcher;
+    trie = null;
   }
 }
@@ -0,0 +1,212 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.security;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.StringUtils;
+
+/** A set of ant style url patterns compiled to a trie of path segments.
+ *
+ * Each pattern is split in segments, and the segments are stored in a tree:
+ * literal segments are looked up in a map, segments with wildcards (like
+ * *.do) match any segment, and ** segments match any number of segments. So
+ * finding the patterns that match an url only visits the branches that can
+ * possibly match, instead of trying every pattern.
+ *
+ * The trie finds a superset of the matching patterns, the candidates are then
+ * checked with an AntPathMatcher, in order of precedence. This keeps the
+ * exact semantics of AntPathMatcher, including its corner cases with trailing
+ * slashes.
+ *
+ * Patterns have the precedence of the order they are added, the first
+ * pattern that matches wins. This class is immutable and thread safe.
+ *
+ * @param <T> the type of the values associated to the patterns.
+ */
+final class UrlPatternTrie<T> {
+
+  /** The path separator.
+   */
+  private static final String SEPARATOR = "/";
+
+  /** The matcher used to check the candidates, never null.
+   */
+  private final PathMatcher matcher = new AntPathMatcher();
+
+  /** The root of the trie, never null.
+   */
+  private final Node root = new Node();
+
+  /** The patterns, in order of precedence, never null.
+   */
+  private final List<String> patterns = new ArrayList<String>();
+
+  /** The values of the patterns, in the same order as the patterns, never
+   * null.
+   */
+  private final List<T> values = new ArrayList<T>();
+
+  /** Compiles the patterns.
+   *
+   * @param thePatterns the patterns and their associated values, in order of
+   * precedence. It cannot be null. The values cannot be null.
+   */
+  UrlPatternTrie(final Map<String, T> thePatterns) {
+    Validate.notNull(thePatterns, "The patterns cannot be null.");
+    for (Map.Entry<String, T> entry : thePatterns.entrySet()) {
+      Validate.notNull(entry.getKey(), "The pattern cannot be null.");
+      Validate.notNull(entry.getValue(), "The value cannot be null.");
+      int index = patterns.size();
+      patterns.add(entry.getKey());
+      values.add(entry.getValue());
+      Node node = root;
+      for (String segment : tokenize(entry.getKey())) {
+        node = node.getOrCreateChild(segment);
+      }
+      node.terminals.set(index);
+    }
+  }
+
+  /** Finds the value of the first pattern that matches the path.
+   *
+   * @param path the path to match. It cannot be null.
+   *
+   * @return the value of the pattern with the highest precedence that matches
+   * the path, or null if no pattern matches.
+   */
+  T find(final String path) {
+    Validate.notNull(path, "The path cannot be null.");
+    BitSet candidates = new BitSet(patterns.size());
+    root.collect(tokenize(path), 0, candidates);
+    for (int i = candidates.nextSetBit(0); i >= 0;
+        i = candidates.nextSetBit(i + 1)) {
+      String pattern = patterns.get(i);
+      if (pattern.equals(path) || matcher.match(pattern, path)) {
+        return values.get(i);
+      }
+    }
+    return null;
+  }
+
+  /** Splits a path in segments, the same way AntPathMatcher does.
+   *
+   * @param path the path. It cannot be null.
+   *
+   * @return the trimmed, non empty segments. Never returns null.
+   */
+  private static String[] tokenize(final String path) {
+    return StringUtils.tokenizeToStringArray(path, SEPARATOR);
+  }
+
+  /** A node of the trie, that corresponds to a segment of a pattern.
+   */
+  private static final class Node {
+
+    /** The children for literal segments, keyed by the segment.
+     *
+     * It is null if there are no literal children.
+     */
+    private Map<String, Node> literals = null;
+
+    /** The child for segments with wildcards, null if there is none.
+     *
+     * All the wildcard segments share the same node, the actual segment is
+     * checked when the candidate pattern is verified.
+     */
+    private Node wildcard = null;
+
+    /** The child for the ** segment, null if there is none.
+     */
+    private Node anySegments = null;
+
+    /** The indexes of the patterns that end in this node, never null.
+     */
+    private final BitSet terminals = new BitSet();
+
+    /** Returns the child that corresponds to a segment, creating it if
+     * necessary.
+     *
+     * @param segment the segment of the pattern. It cannot be null.
+     *
+     * @return the child, never null.
+     */
+    private Node getOrCreateChild(final String segment) {
+      if ("**".equals(segment)) {
+        if (anySegments == null) {
+          anySegments = new Node();
+        }
+        return anySegments;
+      }
+      if (isWildcard(segment)) {
+        if (wildcard == null) {
+          wildcard = new Node();
+        }
+        return wildcard;
+      }
+      if (literals == null) {
+        literals = new HashMap<String, Node>();
+      }
+      Node child = literals.get(segment);
+      if (child == null) {
+        child = new Node();
+        literals.put(segment, child);
+      }
+      return child;
+    }
+
+    /** Collects the indexes of the patterns that can match the remaining
+     * segments of a path.
+     *
+     * @param segments the segments of the path. It cannot be null.
+     *
+     * @param position the position of the first segment not yet matched.
+     *
+     * @param result where the indexes are collected. It cannot be null.
+     */
+    private void collect(final String[] segments, final int position,
+        final BitSet result) {
+      if (anySegments != null) {
+        for (int i = position; i <= segments.length; ++i) {
+          anySegments.collect(segments, i, result);
+        }
+      }
+      if (position == segments.length) {
+        result.or(terminals);
+        if (wildcard != null) {
+          // AntPathMatcher matches /a/* with /a/.
+          result.or(wildcard.terminals);
+        }
+        return;
+      }
+      if (literals != null) {
+        Node child = literals.get(segments[position]);
+        if (child != null) {
+          child.collect(segments, position + 1, result);
+        }
+      }
+      if (wildcard != null) {
+        wildcard.collect(segments, position + 1, result);
+      }
+    }
+
+    /** Indicates if the segment of a pattern has wildcards or uri template
+     * variables.
+     *
+     * @param segment the segment. It cannot be null.
+     *
+     * @return true if the segment may match more than one string.
+     */
+    private static boolean isWildcard(final String segment) {
+      return segment.indexOf('*') != -1 || segment.indexOf('?') != -1
+        || segment.indexOf('{') != -1;
+    }
+  }
+}
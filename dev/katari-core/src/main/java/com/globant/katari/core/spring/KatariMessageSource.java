@@ -2,9 +2,17 @@
 
 package com.globant.katari.core.spring;
 
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -12,9 +20,12 @@ import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.context.MessageSource;
 import org.springframework.context.support
   .ReloadableResourceBundleMessageSource;
 
+import com.globant.katari.core.cache.LruCache;
+
 /** A message source that is designed to make translations modularized and
  * extensible.
  *
@@ -126,6 +137,22 @@ import org.springframework.context.support
  *
  * Another limitation is that the dependency mechanism comes into play only
  * after looking for the message in every relevant locale.
+ *
+ * Resolving a message may involve looking it up in the parent twice, then in
+ * this message source and then in each dependency. So, when the bundles are
+ * never reloaded (cacheSeconds is negative, the default, and debug mode is
+ * off) in this message source, its parent and all its dependencies, the
+ * result of the resolution is cached by code and locale. The cache keeps the
+ * most recently used messages (see setResolvedCacheSize), and codes that are
+ * not found are not cached. Messages with arguments cache the MessageFormat.
+ * The cache is discarded when clearCache is called on any
+ * KatariMessageSource.
+ *
+ * Optionally, a message source can flatten all the messages it can resolve
+ * into one immutable map per locale (see setFlatten). The map is built the
+ * first time a message is requested in each locale, by resolving every code
+ * found in the bundles of this message source, its parent and its
+ * dependencies.
  */
 public class KatariMessageSource
   extends ReloadableResourceBundleMessageSource {
@@ -134,6 +161,63 @@ public class KatariMessageSource
    */
   private Logger log = LoggerFactory.getLogger(KatariMessageSource.class);
 
+  /** The pattern that splits a basename in the protocol, directory and file
+   * name.
+   */
+  private static final Pattern BASENAME_PATTERN
+    = Pattern.compile("([^:]+:)?(?:(.*)/)?([^/]+)");
+
+  /** A number that changes each time the cache of any KatariMessageSource is
+   * cleared.
+   *
+   * A message source caches messages resolved by its parent and
+   * dependencies, so it must discard its resolved messages when any of them
+   * reloads its bundles.
+   */
+  private static final AtomicLong GENERATION = new AtomicLong();
+
+  /** The default maximum number of resolved messages kept in the cache.
+   */
+  private static final int DEFAULT_RESOLVED_CACHE_SIZE = 10000;
+
+  /** The maximum number of locales with flattened messages.
+   */
+  private static final int MAX_FLATTENED_LOCALES = 16;
+
+  /** The resolved messages, keyed by locale and code.
+   *
+   * Only the messages that were found are cached, so unknown codes do not
+   * fill the cache. It is never null.
+   */
+  private volatile LruCache<String, ResolvedMessage> resolvedMessages
+    = new LruCache<String, ResolvedMessage>(DEFAULT_RESOLVED_CACHE_SIZE);
+
+  /** The flattened messages, by locale.
+   *
+   * Each map holds all the messages that this message source can resolve in
+   * the locale. It is never null.
+   */
+  private final LruCache<Locale, Map<String, ResolvedMessage>> flattened
+    = new LruCache<Locale, Map<String, ResolvedMessage>>(
+        MAX_FLATTENED_LOCALES);
+
+  /** The value of GENERATION when the resolved messages were cached.
+   */
+  private volatile long generation = GENERATION.get();
+
+  /** Whether to flatten all the messages in one map per locale.
+   *
+   * It is false by default.
+   */
+  private boolean flatten = false;
+
+  /** The number of seconds to cache the loaded properties files, as set in
+   * setCacheSeconds.
+   *
+   * It is -1 by default, meaning cache forever.
+   */
+  private int cacheSeconds = -1;
+
   /** The name of the module that this message source belongs to.
    *
    * This is null for a parent, global, message source.
@@ -257,10 +341,10 @@ public class KatariMessageSource
     log.trace("Entering calculateFilenamesForLocale('{}', '{}')", basename,
         locale);
 
-    Pattern pattern = Pattern.compile("([^:]+:)?(?:(.*)/)?([^/]+)");
-    Matcher matcher = pattern.matcher(basename);
+    Matcher matcher = BASENAME_PATTERN.matcher(basename);
     if (!matcher.matches()) {
-      throw new RuntimeException(basename + " does not match " + pattern);
+      throw new RuntimeException(basename + " does not match "
+          + BASENAME_PATTERN);
     }
     String protocol = matcher.group(1);
     if (protocol == null) {
@@ -337,10 +421,66 @@ public class KatariMessageSource
   /** {@inheritDoc}
    *
    * Overrides the default implementation to first resolve the message in the
-   * parent message source.
+   * parent message source. The result is cached if the bundles are never
+   * reloaded.
    */
   protected String getMessageInternal(final String code, final Object[] args,
       final Locale locale) {
+    if (code == null) {
+      return null;
+    }
+    Locale theLocale = locale;
+    if (theLocale == null) {
+      theLocale = Locale.getDefault();
+    }
+    if (!isResolvedCacheEnabled()) {
+      return resolveMessage(code, args, theLocale);
+    }
+    long currentGeneration = GENERATION.get();
+    if (generation != currentGeneration) {
+      log.debug("Bundles reloaded, clearing the resolved messages.");
+      resolvedMessages.clear();
+      flattened.clear();
+      generation = currentGeneration;
+    }
+    ResolvedMessage resolved;
+    if (flatten) {
+      resolved = getFlattenedMessages(theLocale).get(code);
+      if (resolved == null) {
+        return null;
+      }
+    } else {
+      // The locale string never contains a '|', so the key is unique.
+      String key = theLocale + "|" + code;
+      LruCache<String, ResolvedMessage> messages = resolvedMessages;
+      resolved = messages.get(key);
+      if (resolved == null) {
+        String message = resolveMessage(code, null, theLocale);
+        if (message == null) {
+          return null;
+        }
+        resolved = new ResolvedMessage(message);
+        messages.put(key, resolved);
+      }
+    }
+    return resolved.format(args, theLocale);
+  }
+
+  /** Resolves a message, without using the cache.
+   *
+   * It first looks in the parent, with and without the module name, then in
+   * this message source and finally in the dependencies.
+   *
+   * @param code the message code. It cannot be null.
+   *
+   * @param args the message arguments, null if none.
+   *
+   * @param locale the locale. It cannot be null.
+   *
+   * @return the resolved message, or null if not found.
+   */
+  private String resolveMessage(final String code, final Object[] args,
+      final Locale locale) {
     String message = null;
     // First look in the parent, with the module name.
     if (moduleName != null) {
@@ -358,12 +498,142 @@ public class KatariMessageSource
     if (message == null) {
       for (KatariMessageSource messageSource : dependencies) {
         message = messageSource.getMessageInternal(code, args, locale);
+        if (message != null) {
+          break;
+        }
       }
     }
-
     return message;
   }
 
+  /** Returns the flattened messages for the locale, building them if
+   * necessary.
+   *
+   * @param locale the locale. It cannot be null.
+   *
+   * @return an immutable map of codes to resolved messages, never null.
+   */
+  private Map<String, ResolvedMessage> getFlattenedMessages(
+      final Locale locale) {
+    Map<String, ResolvedMessage> messages = flattened.get(locale);
+    if (messages == null) {
+      log.debug("Flattening messages for {}", locale);
+      Set<String> codes = new HashSet<String>();
+      collectCodes(locale, codes);
+      Map<String, ResolvedMessage> result;
+      result = new HashMap<String, ResolvedMessage>(codes.size() * 2);
+      for (String code : codes) {
+        String message = resolveMessage(code, null, locale);
+        if (message != null) {
+          result.put(code, new ResolvedMessage(message));
+        }
+      }
+      messages = Collections.unmodifiableMap(result);
+      flattened.put(locale, messages);
+    }
+    return messages;
+  }
+
+  /** Collects all the codes that this message source may resolve.
+   *
+   * @param locale the locale. It cannot be null.
+   *
+   * @param codes the set where the codes are added. It cannot be null.
+   */
+  private void collectCodes(final Locale locale, final Set<String> codes) {
+    MessageSource parent = getParentMessageSource();
+    if (parent instanceof KatariMessageSource) {
+      Set<String> parentCodes = new HashSet<String>();
+      ((KatariMessageSource) parent).collectCodes(locale, parentCodes);
+      codes.addAll(parentCodes);
+      if (moduleName != null) {
+        String prefix = moduleName + ".";
+        for (String code : parentCodes) {
+          if (code.startsWith(prefix)) {
+            codes.add(code.substring(prefix.length()));
+          }
+        }
+      }
+    }
+    Enumeration<?> names;
+    names = getMergedProperties(locale).getProperties().propertyNames();
+    while (names.hasMoreElements()) {
+      codes.add((String) names.nextElement());
+    }
+    for (KatariMessageSource messageSource : dependencies) {
+      messageSource.collectCodes(locale, codes);
+    }
+  }
+
+  /** Indicates if the resolved messages can be cached.
+   *
+   * They can be cached only if this message source, its parent and its
+   * dependencies never reload their bundles, and the messages without
+   * arguments are not processed by MessageFormat.
+   *
+   * @return true if the resolved messages can be cached.
+   */
+  private boolean isResolvedCacheEnabled() {
+    if (debug || cacheSeconds >= 0 || isAlwaysUseMessageFormat()) {
+      return false;
+    }
+    MessageSource parent = getParentMessageSource();
+    if (parent != null && !(parent instanceof KatariMessageSource
+          && ((KatariMessageSource) parent).isResolvedCacheEnabled())) {
+      return false;
+    }
+    for (KatariMessageSource messageSource : dependencies) {
+      if (!messageSource.isResolvedCacheEnabled()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** {@inheritDoc}
+   *
+   * Also discards the resolved messages of all the KatariMessageSource
+   * instances.
+   */
+  public void clearCache() {
+    super.clearCache();
+    GENERATION.incrementAndGet();
+  }
+
+  /** Sets the maximum number of resolved messages kept in the cache.
+   *
+   * The least recently used messages are discarded when the cache is full.
+   *
+   * @param size the maximum number of messages. It must be greater than 0,
+   * 10000 by default.
+   */
+  public void setResolvedCacheSize(final int size) {
+    Validate.isTrue(size > 0, "The cache size must be greater than 0.");
+    resolvedMessages = new LruCache<String, ResolvedMessage>(size);
+  }
+
+  /** {@inheritDoc}
+   *
+   * A non negative value disables the cache of resolved messages.
+   */
+  public void setCacheSeconds(final int seconds) {
+    super.setCacheSeconds(seconds);
+    cacheSeconds = seconds;
+  }
+
+  /** Sets whether to flatten all the messages into one immutable map per
+   * locale.
+   *
+   * This only has effect when the resolved messages can be cached, see the
+   * class description. In this mode, a code that is not in any bundle is
+   * not resolved.
+   *
+   * @param flattenMessages true to flatten the messages, false by default.
+   */
+  public void setFlatten(final boolean flattenMessages) {
+    flatten = flattenMessages;
+  }
+
   /** Sets the debug mode.
    *
    * @param debugEnabled true to enable debug mode, false by default.
@@ -389,5 +659,54 @@ public class KatariMessageSource
       debugPrefix = "file:" + prefix;
     }
   }
-}
 
+  /** A resolved message, as cached by the message source.
+   */
+  private final class ResolvedMessage {
+
+    /** The message, without formatting the arguments, never null.
+     */
+    private final String message;
+
+    /** The message format used to format the arguments, created the first
+     * time the message is used with arguments.
+     *
+     * It is null until then.
+     */
+    private MessageFormat messageFormat = null;
+
+    /** Creates a resolved message.
+     *
+     * @param theMessage the message. It cannot be null.
+     */
+    private ResolvedMessage(final String theMessage) {
+      Validate.notNull(theMessage, "The message cannot be null.");
+      message = theMessage;
+    }
+
+    /** Formats the message with the provided arguments.
+     *
+     * @param args the arguments, null if none.
+     *
+     * @param locale the locale. It cannot be null.
+     *
+     * @return the formatted message, never null.
+     */
+    private String format(final Object[] args, final Locale locale) {
+      if (args == null || args.length == 0) {
+        return message;
+      }
+      Object[] resolvedArgs = resolveArguments(args, locale);
+      MessageFormat format;
+      synchronized (this) {
+        if (messageFormat == null) {
+          messageFormat = createMessageFormat(message, locale);
+        }
+        format = messageFormat;
+      }
+      synchronized (format) {
+        return format.format(resolvedArgs);
+      }
+    }
+  }
+}
@@ -7,9 +7,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import java.net.URL;
+import java.net.URLConnection;
 import java.net.URLDecoder;
 
 import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -43,6 +47,27 @@ import org.slf4j.LoggerFactory;
  * makes it possible to edit the resources directly from disk and see the
  * results inmediately without a redeploy. It is false by default.<br>
  *
+ * contentCacheSize: the maximum number of bytes of content that this servlet
+ * keeps in memory. 0 disables the cache. It is 16 MB by default. The cache is
+ * always disabled in debug mode.<br>
+ *
+ * contentCacheMaxEntrySize: resources larger than this number of bytes are
+ * not cached, they are streamed from their source on each request. It is 1 MB
+ * by default.<br>
+ *
+ * Cached resources are served with a strong ETag based on their content and,
+ * for text based content types, precompressed with gzip for clients that
+ * accept it. The gzip variant is sent with its own ETag. Outside debug mode,
+ * resources of known length honor the Range and If-Range headers, answering
+ * with 206 and a single range or a multipart/byteranges body. Requests with a
+ * Range header are always served from the uncompressed content. The
+ * Last-Modified header is obtained from the resource, if possible, or from the
+ * servlet initialization time. The modification time of resources that are
+ * not files, like the ones in jars, is obtained only once. Resources that are
+ * files in the file system and are not cached are sent with
+ * FileChannel.transferTo. In debug mode, only the resources read from files
+ * are sent with validators, based on the file length and modification time.
+ *
  * All other initialization parameters are ignored, so subclasses can define
  * adittional config parameters.
  */
@@ -55,9 +80,17 @@ public abstract class BaseStaticContentServlet extends HttpServlet {
    */
   private static final long serialVersionUID = 1;
 
-  /** The buffer size used to transfer bytes to the client.
+  /** The default value of contentCacheSize, 16 MB.
+   */
+  private static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+
+  /** The default value of contentCacheMaxEntrySize, 1 MB.
    */
-  private static final int BUFFER_SIZE = 4096;
+  private static final int DEFAULT_CACHE_MAX_ENTRY_SIZE = 1024 * 1024;
+
+  /** The encoding of the part headers in multipart/byteranges responses.
+   */
+  private static final String HEADER_ENCODING = "ISO-8859-1";
 
   /** The class logger.
    */
@@ -80,6 +113,27 @@ public abstract class BaseStaticContentServlet extends HttpServlet {
    */
   private boolean debug = false;
 
+  /** The cache of resources.
+   *
+   * It is null if the cache is disabled.
+   */
+  private transient StaticResourceCache cache = null;
+
+  /** The maximum size of a resource held in memory.
+   *
+   * Initialized from the contentCacheMaxEntrySize servlet parameter.
+   */
+  private int maxEntrySize = DEFAULT_CACHE_MAX_ENTRY_SIZE;
+
+  /** The last modification time of the resources that are not files, by
+   * url.
+   *
+   * These resources, usually in jars, do not change while the servlet is
+   * running. It is never null.
+   */
+  private transient Map<String, Long> urlLastModified
+    = new ConcurrentHashMap<String, Long>();
+
   /** Initializes the servlet.
    *
    * It sets the default packages for static resources.
@@ -99,6 +153,23 @@ public abstract class BaseStaticContentServlet extends HttpServlet {
     String debugValue = config.getInitParameter("debug");
     debug = Boolean.valueOf(debugValue);
 
+    long cacheSize = DEFAULT_CACHE_SIZE;
+    String cacheSizeValue = config.getInitParameter("contentCacheSize");
+    if (cacheSizeValue != null) {
+      cacheSize = Long.parseLong(cacheSizeValue.trim());
+    }
+    String maxEntrySizeValue;
+    maxEntrySizeValue = config.getInitParameter("contentCacheMaxEntrySize");
+    if (maxEntrySizeValue != null) {
+      maxEntrySize = Integer.parseInt(maxEntrySizeValue.trim());
+    }
+    if (!debug && cacheSize > 0) {
+      cache = new StaticResourceCache(cacheSize);
+    } else {
+      cache = null;
+    }
+    urlLastModified = new ConcurrentHashMap<String, Long>();
+
     log.trace("Leaving init");
   }
 
@@ -192,8 +263,17 @@ public abstract class BaseStaticContentServlet extends HttpServlet {
     }
 
     // Looks for the resource.
-    InputStream is = findInputStream(name);
-    if (is == null) {
+    StaticResource resource = null;
+    if (cache != null) {
+      resource = cache.get(name);
+    }
+    if (resource == null) {
+      resource = loadResource(name, contentType);
+      if (resource != null && cache != null && resource.isCacheable()) {
+        cache.put(name, resource);
+      }
+    }
+    if (resource == null) {
       response.sendError(HttpServletResponse.SC_NOT_FOUND);
       log.trace("Leaving findStaticResource with SC_NOT_FOUND");
       response.getWriter().write(
@@ -214,6 +294,7 @@ public abstract class BaseStaticContentServlet extends HttpServlet {
       log.warn("Invalid If-Modified-Since header value: '"
           + request.getHeader("If-Modified-Since") + "', ignoring");
     }
+    String ifNoneMatch = request.getHeader("If-None-Match");
 
     // set the content-type header
     response.setContentType(contentType);
@@ -235,49 +316,334 @@ public abstract class BaseStaticContentServlet extends HttpServlet {
       response.setHeader("Expires", "Thu, 01 Jan 1970 00:00:00 GMT");
     }
 
-    long lastModifiedMillis = lastModified.getTimeInMillis();
+    // Ranges are served from the uncompressed content.
+    boolean gzip = resource.hasGzipContent()
+      && request.getHeader("Range") == null
+      && acceptsGzip(request.getHeader("Accept-Encoding"));
+    String etag = resource.getEtag();
+    if (gzip) {
+      etag = resource.getGzipEtag();
+    }
+
+    // In debug mode, the resources that are not files have no validators.
+    boolean validate = !debug || etag != null;
+    if (validate) {
+      response.setDateHeader("Last-Modified", resource.getLastModified());
+      if (etag != null) {
+        response.setHeader("ETag", etag);
+      }
+    }
+    if (resource.hasGzipContent()) {
+      response.setHeader("Vary", "Accept-Encoding");
+    }
+
     boolean notModified;
-    notModified =  0 < requestedOn && requestedOn <= lastModifiedMillis;
-    if (!debug && notModified) {
+    if (ifNoneMatch != null) {
+      // If-None-Match takes precedence over If-Modified-Since.
+      notModified = matchesEtag(ifNoneMatch, etag);
+    } else {
+      notModified =  0 < requestedOn
+        && resource.getLastModified() <= requestedOn;
+    }
+    if (validate && notModified) {
+      resource.discard();
       response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
       log.trace("Leaving findStaticResource with SC_NOT_MODIFIED");
       return;
     }
 
-    try {
-      copy(is, response.getOutputStream());
-    } finally {
-      is.close();
+    long length = resource.getLength();
+    List<ByteRange> ranges = null;
+    if (!debug && length >= 0) {
+      response.setHeader("Accept-Ranges", "bytes");
+      String range = request.getHeader("Range");
+      if (range != null && matchesIfRange(request, resource)) {
+        ranges = ByteRange.parse(range, length);
+      }
+    }
+
+    if (ranges != null && ranges.isEmpty()) {
+      resource.discard();
+      response.setHeader("Content-Range", "bytes */" + length);
+      response.sendError(
+          HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      log.trace("Leaving findStaticResource with"
+          + " SC_REQUESTED_RANGE_NOT_SATISFIABLE");
+      return;
+    } else if (ranges != null && ranges.size() == 1) {
+      ByteRange byteRange = ranges.get(0);
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      response.setHeader("Content-Range", byteRange.toContentRange(length));
+      setContentLength(response, byteRange.getLength());
+      resource.writeTo(response.getOutputStream(), byteRange.getFirst(),
+          byteRange.getLength());
+    } else if (ranges != null) {
+      writeRanges(response, resource, contentType, ranges);
+    } else if (gzip) {
+      response.setHeader("Content-Encoding", "gzip");
+      response.setContentLength(resource.getGzipLength());
+      resource.writeGzipTo(response.getOutputStream());
+    } else {
+      setContentLength(response, length);
+      resource.writeTo(response.getOutputStream());
     }
     log.trace("Leaving findStaticResource");
   }
 
-  /**
-   * Determine the content type for the resource name.
+  /** Sends a multipart/byteranges response with the requested ranges.
+   *
+   * The parts are written directly from the resource. The length of the
+   * response is computed in advance, so the response is not chunked.
+   *
+   * @param response The response. It cannot be null.
+   *
+   * @param resource The resource. It cannot be null and its length must be
+   * known.
+   *
+   * @param contentType The content type of the resource. It cannot be null.
+   *
+   * @param ranges The ranges to send. It cannot be null.
+   *
+   * @throws IOException in case of error writing the response.
+   */
+  private void writeRanges(final HttpServletResponse response,
+      final StaticResource resource, final String contentType,
+      final List<ByteRange> ranges) throws IOException {
+    long length = resource.getLength();
+    String boundary = Long.toHexString(System.nanoTime())
+      + Integer.toHexString(System.identityHashCode(resource));
+
+    byte[][] headers = new byte[ranges.size()][];
+    long total = 0;
+    for (int i = 0; i < ranges.size(); ++i) {
+      ByteRange byteRange = ranges.get(i);
+      String header = "\r\n--" + boundary + "\r\n"
+        + "Content-Type: " + contentType + "\r\n"
+        + "Content-Range: " + byteRange.toContentRange(length) + "\r\n"
+        + "\r\n";
+      headers[i] = header.getBytes(HEADER_ENCODING);
+      total += headers[i].length + byteRange.getLength();
+    }
+    byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(
+        HEADER_ENCODING);
+    total += trailer.length;
+
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    setContentLength(response, total);
+    OutputStream output = response.getOutputStream();
+    for (int i = 0; i < ranges.size(); ++i) {
+      ByteRange byteRange = ranges.get(i);
+      output.write(headers[i]);
+      resource.writeTo(output, byteRange.getFirst(), byteRange.getLength());
+    }
+    output.write(trailer);
+    output.flush();
+  }
+
+  /** Sets the length of the response, if known.
+   *
+   * Lengths that do not fit in an int are sent in the Content-Length header.
+   *
+   * @param response The response. It cannot be null.
+   *
+   * @param length The length of the response, -1 if unknown.
+   */
+  private void setContentLength(final HttpServletResponse response,
+      final long length) {
+    if (length < 0) {
+      return;
+    } else if (length <= Integer.MAX_VALUE) {
+      response.setContentLength((int) length);
+    } else {
+      response.setHeader("Content-Length", Long.toString(length));
+    }
+  }
+
+  /** Checks the If-Range header of a request against a resource.
+   *
+   * If-Range contains either an entity tag or a date. An entity tag matches
+   * only if it is strong and equal to the tag of the resource. A date matches
+   * only if it is exactly the last modification time of the resource.
+   *
+   * @param request The request. It cannot be null.
+   *
+   * @param resource The resource. It cannot be null.
+   *
+   * @return true if there is no If-Range header or it matches the resource,
+   * so the Range header must be honored.
+   */
+  private boolean matchesIfRange(final HttpServletRequest request,
+      final StaticResource resource) {
+    String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) {
+      return true;
+    }
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      String etag = resource.getEtag();
+      return etag != null && !etag.startsWith("W/") && etag.equals(ifRange);
+    }
+    try {
+      return request.getDateHeader("If-Range") == resource.getLastModified();
+    } catch (IllegalArgumentException e) {
+      log.warn("Invalid If-Range header value: '" + ifRange + "', ignoring");
+      return false;
+    }
+  }
+
+  /** Loads a resource from its source.
+   *
+   * In debug mode, the resource is never held in memory, so files are read
+   * again on each request.
    *
    * @param name The resource name. It cannot be null.
    *
-   * @return The mime type, null if the resource name is not recognized.
+   * @param contentType The content type of the resource. It cannot be null.
+   *
+   * @return the resource, null if not found.
+   *
+   * @throws IOException if there is a problem reading the resource.
    */
-  protected abstract String getContentType(final String name);
+  private StaticResource loadResource(final String name,
+      final String contentType) throws IOException {
+    URL url = findResourceUrl(name);
+    long modified = lastModified.getTimeInMillis();
+    InputStream is;
+    if (url != null) {
+      URLConnection connection = url.openConnection();
+      if (!"file".equals(url.getProtocol())) {
+        modified = getLastModified(url, connection);
+      }
+      is = connection.getInputStream();
+    } else {
+      is = findInputStream(name);
+    }
+    if (is == null) {
+      return null;
+    }
+    if (debug) {
+      return StaticResource.load(is, url, false, 0, modified);
+    }
+    return StaticResource.load(is, url, isCompressible(contentType),
+        maxEntrySize, modified);
+  }
 
-  /**
-   * Copy bytes from the input stream to the output stream.
+  /** Obtains the last modification time of a resource that is not a file.
+   *
+   * The time is obtained from the connection the first time and remembered
+   * for the following requests.
+   *
+   * @param url The url of the resource. It cannot be null.
    *
-   * @param input The input stream
-   * @param output The output stream
-   * @throws IOException If anytSrtringhing goes wrong
+   * @param connection The connection to the url. It cannot be null.
+   *
+   * @return the last modification time, or the servlet initialization time
+   * if unknown.
    */
-  private void copy(final InputStream input, final OutputStream output) throws
-      IOException {
-    final byte[] buffer = new byte[BUFFER_SIZE];
-    int n;
-    while (-1 != (n = input.read(buffer))) {
-        output.write(buffer, 0, n);
+  private long getLastModified(final URL url,
+      final URLConnection connection) {
+    String key = url.toString();
+    Long modified = urlLastModified.get(key);
+    if (modified == null) {
+      modified = connection.getLastModified();
+      if (modified <= 0) {
+        modified = lastModified.getTimeInMillis();
+      }
+      urlLastModified.put(key, modified);
     }
-    output.flush();
+    return modified;
   }
 
+  /** Checks if a content type is worth compressing.
+   *
+   * @param contentType The content type. It cannot be null.
+   *
+   * @return true for text based content types.
+   */
+  private boolean isCompressible(final String contentType) {
+    return contentType.startsWith("text/")
+      || contentType.contains("javascript")
+      || contentType.contains("json")
+      || contentType.contains("xml");
+  }
+
+  /** Checks if the client accepts gzip encoded content.
+   *
+   * @param acceptEncoding The value of the Accept-Encoding header, may be
+   * null.
+   *
+   * @return true if gzip is accepted.
+   */
+  private boolean acceptsGzip(final String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      String name = parts[0].trim();
+      if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+        for (int i = 1; i < parts.length; ++i) {
+          String parameter = parts[i].replace(" ", "");
+          if (parameter.matches("q=0(\\.0*)?")) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Checks if the value of an If-None-Match header matches an entity tag.
+   *
+   * This uses the weak comparison function, as recommended for GET requests.
+   *
+   * @param ifNoneMatch The value of the If-None-Match header. It cannot be
+   * null.
+   *
+   * @param etag The entity tag of the resource, null if unknown.
+   *
+   * @return true if the header matches the entity tag.
+   */
+  private boolean matchesEtag(final String ifNoneMatch, final String etag) {
+    if (etag == null) {
+      return false;
+    }
+    if (ifNoneMatch.trim().equals("*")) {
+      return true;
+    }
+    String opaqueTag = stripWeak(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      if (stripWeak(candidate.trim()).equals(opaqueTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Removes the weak indicator from an entity tag.
+   *
+   * @param etag The entity tag. It cannot be null.
+   *
+   * @return the entity tag without the W/ prefix.
+   */
+  private String stripWeak(final String etag) {
+    if (etag.startsWith("W/")) {
+      return etag.substring(2);
+    }
+    return etag;
+  }
+
+  /**
+   * Determine the content type for the resource name.
+   *
+   * @param name The resource name. It cannot be null.
+   *
+   * @return The mime type, null if the resource name is not recognized.
+   */
+  protected abstract String getContentType(final String name);
+
   /** Look for a static resource in the classpath.
    *
    * In debug mode, it looks for the resource in the file system, using
@@ -293,6 +659,25 @@ public abstract class BaseStaticContentServlet extends HttpServlet {
   protected abstract InputStream findInputStream(final String name)
     throws IOException;
 
+  /** Look for the url of a static resource.
+   *
+   * Subclasses that know the url of the resource should override this. The
+   * url is used to obtain the last modification time of the resource and to
+   * serve it directly from the file system if possible. If this returns null,
+   * the content is obtained from findInputStream.
+   *
+   * This implementation returns null.
+   *
+   * @param name The resource name. It cannot be null.
+   *
+   * @return the url of the resource, null if unknown.
+   *
+   * @throws IOException If there is a problem locating the resource.
+   */
+  protected URL findResourceUrl(final String name) throws IOException {
+    return null;
+  }
+
   /** Concatenates two path names.
    *
    * This is protected as an aid for subclasses.
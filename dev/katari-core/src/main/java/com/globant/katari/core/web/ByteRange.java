@@ -0,0 +1,186 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/** A range of bytes of a resource, as requested in an http Range header.
+ *
+ * The range is always resolved against the length of the resource, so the
+ * first and last positions are absolute and inclusive.
+ *
+ * This class is immutable.
+ */
+final class ByteRange {
+
+  /** The prefix of a byte ranges specifier in the Range header.
+   */
+  private static final String BYTES_UNIT = "bytes=";
+
+  /** Orders ranges by their first position.
+   */
+  private static final Comparator<ByteRange> BY_FIRST
+    = new Comparator<ByteRange>() {
+      public int compare(final ByteRange a, final ByteRange b) {
+        if (a.first < b.first) {
+          return -1;
+        } else if (a.first > b.first) {
+          return 1;
+        }
+        return 0;
+      }
+    };
+
+  /** The position of the first byte in the range.
+   */
+  private final long first;
+
+  /** The position of the last byte in the range, inclusive.
+   */
+  private final long last;
+
+  /** Creates a range.
+   *
+   * @param theFirst the position of the first byte.
+   *
+   * @param theLast the position of the last byte, not less than theFirst.
+   */
+  private ByteRange(final long theFirst, final long theLast) {
+    first = theFirst;
+    last = theLast;
+  }
+
+  /** Parses the value of a Range header.
+   *
+   * Unsatisfiable ranges (those that start past the end of the resource) are
+   * discarded. Overlapping or adjacent ranges are coalesced, so the result is
+   * sorted by position.
+   *
+   * @param header the value of the Range header. It cannot be null.
+   *
+   * @param length the length of the resource. It cannot be negative.
+   *
+   * @return the list of ranges, empty if no range is satisfiable, or null if
+   * the header is not a valid byte ranges specifier. In that case the header
+   * must be ignored.
+   */
+  static List<ByteRange> parse(final String header, final long length) {
+    Validate.notNull(header, "The header cannot be null.");
+    Validate.isTrue(length >= 0, "The length cannot be negative.");
+    String value = header.trim();
+    if (!value.startsWith(BYTES_UNIT)) {
+      return null;
+    }
+    List<ByteRange> ranges = new ArrayList<ByteRange>();
+    for (String spec : value.substring(BYTES_UNIT.length()).split(",")) {
+      String range = spec.trim();
+      if (range.length() == 0) {
+        continue;
+      }
+      int dash = range.indexOf('-');
+      if (dash == -1) {
+        return null;
+      }
+      long first;
+      long last;
+      try {
+        if (dash == 0) {
+          // A suffix range: the last n bytes.
+          long suffix = Long.parseLong(range.substring(1));
+          if (suffix <= 0) {
+            continue;
+          }
+          first = Math.max(0, length - suffix);
+          last = length - 1;
+        } else {
+          first = Long.parseLong(range.substring(0, dash));
+          if (dash == range.length() - 1) {
+            last = length - 1;
+          } else {
+            last = Long.parseLong(range.substring(dash + 1));
+            if (last < first) {
+              return null;
+            }
+            last = Math.min(last, length - 1);
+          }
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      if (first < 0) {
+        return null;
+      }
+      if (first < length) {
+        ranges.add(new ByteRange(first, last));
+      }
+    }
+    return coalesce(ranges);
+  }
+
+  /** Merges the overlapping or adjacent ranges.
+   *
+   * @param ranges the ranges. It cannot be null.
+   *
+   * @return the merged ranges, sorted by position. Never null.
+   */
+  private static List<ByteRange> coalesce(final List<ByteRange> ranges) {
+    if (ranges.size() < 2) {
+      return ranges;
+    }
+    List<ByteRange> sorted = new ArrayList<ByteRange>(ranges);
+    Collections.sort(sorted, BY_FIRST);
+    List<ByteRange> result = new ArrayList<ByteRange>();
+    ByteRange current = sorted.get(0);
+    for (ByteRange range : sorted.subList(1, sorted.size())) {
+      if (range.first <= current.last + 1) {
+        current = new ByteRange(current.first,
+            Math.max(current.last, range.last));
+      } else {
+        result.add(current);
+        current = range;
+      }
+    }
+    result.add(current);
+    return result;
+  }
+
+  /** Returns the position of the first byte in the range.
+   *
+   * @return the position, never negative.
+   */
+  long getFirst() {
+    return first;
+  }
+
+  /** Returns the position of the last byte in the range.
+   *
+   * @return the position, inclusive.
+   */
+  long getLast() {
+    return last;
+  }
+
+  /** Returns the number of bytes in the range.
+   *
+   * @return the number of bytes, always greater than 0.
+   */
+  long getLength() {
+    return last - first + 1;
+  }
+
+  /** Returns the value of the Content-Range header for this range.
+   *
+   * @param total the length of the whole resource.
+   *
+   * @return the header value, in the form 'bytes first-last/total'. Never
+   * null.
+   */
+  String toContentRange(final long total) {
+    return "bytes " + first + "-" + last + "/" + total;
+  }
+}
@@ -2,7 +2,6 @@
 
 package com.globant.katari.core.web;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -56,6 +55,15 @@ import org.slf4j.LoggerFactory;
  * The error page template has access to the exception in a request parameter
  * called 'exception'.
  *
+ * To be able to replace the output with the error page, this filter buffers
+ * the response. By default it buffers the whole response. If you set a buffer
+ * size, the response is only buffered up to that number of bytes: once the
+ * output grows past it, the buffered data is sent to the client, the response
+ * is committed and the rest of the output is streamed directly. Errors that
+ * happen after that point cannot generate the error page, they are just
+ * propagated to the container. This keeps large responses (reports, json
+ * exports) out of the heap and lets the client start receiving data early.
+ *
  * This filter makes the following variables available to the error page:
  *
  *  - exception: contains the exception object.
@@ -77,6 +85,12 @@ public class ExceptionHandlerFilter implements Filter {
   /** Checks if the application is running in debug mode.*/
   private final boolean debugMode;
 
+  /** The maximum number of bytes buffered before streaming the response.
+   *
+   * 0 means that the whole response is buffered.
+   */
+  private int bufferSize = 0;
+
   /** The servlet context.
    *
    * This is used to generate the error page by forwarding the request to a
@@ -97,8 +111,21 @@ public class ExceptionHandlerFilter implements Filter {
     debugMode = isInDebugMode;
   }
 
-  /** A response wrapper that provides access to the data submitted to the
-   * client.
+  /** Sets the maximum number of bytes of the response that are buffered.
+   *
+   * When the response grows past this size, it is sent to the client and
+   * committed, and the error page can no longer be generated.
+   *
+   * @param size the number of bytes to buffer. 0, the default, buffers the
+   * whole response. It cannot be negative.
+   */
+  public void setBufferSize(final int size) {
+    Validate.isTrue(size >= 0, "The buffer size cannot be negative");
+    bufferSize = size;
+  }
+
+  /** A response wrapper that buffers the data submitted to the client, up to
+   * a threshold.
    */
   private static class ResponseBufferer extends ServletOutputInterceptor {
 
@@ -106,28 +133,104 @@ public class ExceptionHandlerFilter implements Filter {
      *
      * It is never null.
      */
-    private ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private SegmentedOutputStream output = new SegmentedOutputStream();
+
+    /** The maximum number of bytes to buffer, 0 for no limit.
+     */
+    private final int threshold;
+
+    /** The original output stream, once the response is streamed.
+     *
+     * It is null while the response is buffered.
+     */
+    private OutputStream originalOutput = null;
 
     /** Constructor.
      *
      * @param response the wrapped response.
+     *
+     * @param theThreshold the maximum number of bytes to buffer, 0 for no
+     * limit.
      */
-    public ResponseBufferer(final HttpServletResponse response) {
+    public ResponseBufferer(final HttpServletResponse response,
+        final int theThreshold) {
       super(response, false);
+      threshold = theThreshold;
+    }
+
+    /** Indicates if the response is being streamed to the client.
+     *
+     * @return true if the buffered data was already sent to the client and
+     * the response committed.
+     */
+    public boolean isStreaming() {
+      return originalOutput != null;
+    }
+
+    /** Sends the buffered data to the client.
+     *
+     * This does nothing if the response is being streamed.
+     *
+     * @throws IOException in case of a write error.
+     */
+    public void writeBuffered() throws IOException {
+      if (!isStreaming()) {
+        output.writeTo(getResponse().getOutputStream());
+      }
+    }
+
+    /** Discards the buffered response, returning its buffers to the pool.
+     */
+    public void release() {
+      output.release();
     }
 
-    /** Returns the generated response as a byte array.
+    /** Sends the buffered data to the client, commits the response and
+     * switches to streaming.
      *
-     * @return the byte array of the generated response, never null.
+     * @throws IOException in case of a write error.
      */
-    public byte[] toByteArray() {
-     return output.toByteArray();
+    private void startStreaming() throws IOException {
+      log.debug("Response larger than {} bytes, streaming it.", threshold);
+      originalOutput = getResponse().getOutputStream();
+      output.writeTo(originalOutput);
+      output.release();
+      getResponse().flushBuffer();
     }
 
     /** {@inheritDoc}
     */
     protected OutputStream createOutputStream() {
-      return output;
+      return new OutputStream() {
+        public void write(final int theByte) throws IOException {
+          if (originalOutput == null && threshold != 0
+              && output.size() + 1 > threshold) {
+            startStreaming();
+          }
+          if (originalOutput == null) {
+            output.write(theByte);
+          } else {
+            originalOutput.write(theByte);
+          }
+        }
+        public void write(final byte[] buffer, final int off, final int len)
+            throws IOException {
+          if (originalOutput == null && threshold != 0
+              && output.size() + len > threshold) {
+            startStreaming();
+          }
+          if (originalOutput == null) {
+            output.write(buffer, off, len);
+          } else {
+            originalOutput.write(buffer, off, len);
+          }
+        }
+        public void flush() throws IOException {
+          if (originalOutput != null) {
+            originalOutput.flush();
+          }
+        }
+      };
     }
   };
 
@@ -155,7 +258,7 @@ public class ExceptionHandlerFilter implements Filter {
     HttpServletRequest httpRequest = (HttpServletRequest) request;
     HttpServletResponse httpResponse = (HttpServletResponse) response;
 
-    ResponseBufferer wrapper = new ResponseBufferer(httpResponse);
+    ResponseBufferer wrapper = new ResponseBufferer(httpResponse, bufferSize);
 
     try {
       Cookie previewCookie = null;
@@ -170,19 +273,24 @@ public class ExceptionHandlerFilter implements Filter {
       }
       chain.doFilter(request, wrapper);
       wrapper.flushBuffer();
-      response.getOutputStream().write(wrapper.toByteArray());
+      wrapper.writeBuffered();
     } catch (RuntimeException e) {
-      if (!handleException(httpRequest, httpResponse, e)) {
+      if (wrapper.isStreaming()
+          || !handleException(httpRequest, httpResponse, e)) {
        throw e;
       }
     } catch (ServletException e) {
-      if (!handleException(httpRequest, httpResponse, e)) {
+      if (wrapper.isStreaming()
+          || !handleException(httpRequest, httpResponse, e)) {
        throw e;
       }
     } catch (IOException e) {
-      if (!handleException(httpRequest, httpResponse, e)) {
+      if (wrapper.isStreaming()
+          || !handleException(httpRequest, httpResponse, e)) {
        throw e;
       }
+    } finally {
+      wrapper.release();
     }
     log.trace("Leaving doFilter");
   }
@@ -2,7 +2,6 @@
 
 package com.globant.katari.core.web;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -71,7 +70,7 @@ public class HtmlValidationFilter implements Filter {
      *
      * It is never null.
      */
-    private ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private SegmentedOutputStream output = new SegmentedOutputStream();
 
     /** Constructor.
      *
@@ -81,12 +80,28 @@ public class HtmlValidationFilter implements Filter {
       super(response, false);
     }
 
-    /** Returns the generated response as a byte array.
+    /** Returns a stream to read the generated response.
      *
-     * @return the byte array of the generated response, never null.
+     * @return the generated response as a stream, never null.
      */
-    public byte[] toByteArray() {
-      return output.toByteArray();
+    public InputStream getInputStream() {
+      return output.getInputStream();
+    }
+
+    /** Writes the generated response to the provided stream.
+     *
+     * @param out the stream to write to. It cannot be null.
+     *
+     * @throws IOException in case of a write error.
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+      output.writeTo(out);
+    }
+
+    /** Discards the generated response, returning its buffers to the pool.
+     */
+    public void release() {
+      output.release();
     }
 
     /** Prepares the content to be shown in an html page, escaping html tags,
@@ -98,8 +113,7 @@ public class HtmlValidationFilter implements Filter {
       StringBuilder result = new StringBuilder(output.size());
       try {
 
-        InputStream capturedOutput;
-        capturedOutput = new ByteArrayInputStream(output.toByteArray());
+        InputStream capturedOutput = output.getInputStream();
         LineIterator lines;
         lines = IOUtils.lineIterator(capturedOutput, getCharacterEncoding());
 
@@ -266,56 +280,10 @@ public class HtmlValidationFilter implements Filter {
       log.debug("Checking {} for validation errors.", requestUri);
 
       ResponseWrapper wrapper = new ResponseWrapper(httpResponse);
-
-      chain.doFilter(request, wrapper);
-
-      wrapper.flushBuffer();
-
-      String contentType = httpResponse.getContentType();
-      if (contentType != null && contentType.startsWith("text/html")) {
-        Tidy tidy = new Tidy();
-        tidy.setQuiet(true);
-
-        // Set the error output and ignore it.
-        tidy.setErrout(new PrintWriter(new ByteArrayOutputStream()));
-
-        ErrorListener errors = new ErrorListener(ignoredAttributePatterns);
-        tidy.setMessageListener(errors);
-
-        InputStream inputStream;
-        inputStream = new ByteArrayInputStream(wrapper.toByteArray());
-
-        // We ignore the output.
-        tidy.parse(inputStream, new ByteArrayOutputStream());
-
-        if (errors.hasErrors()) {
-          // jtidy found an error. Log it with the page to make it easier to
-          // trace.
-          //
-          // TODO This is using a non localized string conversion.
-          String message = "There where validation errors for "
-            + requestUri + ":<br>\r"
-            + errors.getErrorMessage() + "<br>\r"
-            + "The html output was:<br>\r<pre>"
-            + new String(wrapper.getFormattedContent())
-            + "</pre>";
-
-          log.debug(message);
-          httpResponse.setStatus(500);
-          PrintWriter out = httpResponse.getWriter();
-          out.print("<html><head><title>Validation error</title></head>");
-          out.print("<body style='font-family: monospace;'/>");
-          out.print(message);
-          out.print("</body></html>");
-        } else {
-          // No error, send the response to the client.
-          log.debug("No errors found.");
-          response.getOutputStream().write(wrapper.toByteArray());
-        }
-      } else {
-        // Unknown content type, send the response to the client.
-        log.debug("Skipping validation because it is not text/html");
-        response.getOutputStream().write(wrapper.toByteArray());
+      try {
+        validate(request, httpResponse, chain, wrapper, requestUri);
+      } finally {
+        wrapper.release();
       }
     } else {
       chain.doFilter(request, response);
@@ -324,6 +292,81 @@ public class HtmlValidationFilter implements Filter {
     log.trace("Leaving doFilter.");
   }
 
+  /** Runs the rest of the chain and validates the buffered response, sending
+   * it to the client if there are no errors.
+   *
+   * @param request the request. It cannot be null.
+   *
+   * @param response the original response. It cannot be null.
+   *
+   * @param chain the rest of the filter chain. It cannot be null.
+   *
+   * @param wrapper the response wrapper that buffers the output. It cannot be
+   * null.
+   *
+   * @param requestUri the request uri, used in the error messages. It cannot
+   * be null.
+   *
+   * @throws IOException in case of an input or output error.
+   *
+   * @throws ServletException in case of any other error.
+   */
+  private void validate(final ServletRequest request,
+      final HttpServletResponse response, final FilterChain chain,
+      final ResponseWrapper wrapper, final String requestUri)
+      throws IOException, ServletException {
+
+    chain.doFilter(request, wrapper);
+
+    wrapper.flushBuffer();
+
+    String contentType = response.getContentType();
+    if (contentType != null && contentType.startsWith("text/html")) {
+      Tidy tidy = new Tidy();
+      tidy.setQuiet(true);
+
+      // Set the error output and ignore it.
+      tidy.setErrout(new PrintWriter(new ByteArrayOutputStream()));
+
+      ErrorListener errors = new ErrorListener(ignoredAttributePatterns);
+      tidy.setMessageListener(errors);
+
+      InputStream inputStream = wrapper.getInputStream();
+
+      // We ignore the output.
+      tidy.parse(inputStream, new ByteArrayOutputStream());
+
+      if (errors.hasErrors()) {
+        // jtidy found an error. Log it with the page to make it easier to
+        // trace.
+        //
+        // TODO This is using a non localized string conversion.
+        String message = "There where validation errors for "
+          + requestUri + ":<br>\r"
+          + errors.getErrorMessage() + "<br>\r"
+          + "The html output was:<br>\r<pre>"
+          + new String(wrapper.getFormattedContent())
+          + "</pre>";
+
+        log.debug(message);
+        response.setStatus(500);
+        PrintWriter out = response.getWriter();
+        out.print("<html><head><title>Validation error</title></head>");
+        out.print("<body style='font-family: monospace;'/>");
+        out.print(message);
+        out.print("</body></html>");
+      } else {
+        // No error, send the response to the client.
+        log.debug("No errors found.");
+        wrapper.writeTo(response.getOutputStream());
+      }
+    } else {
+      // Unknown content type, send the response to the client.
+      log.debug("Skipping validation because it is not text/html");
+      wrapper.writeTo(response.getOutputStream());
+    }
+  }
+
   /** Called by the container when the filter is about to be destroyed.
    *
    * This implementation is empty.
@@ -7,8 +7,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -52,6 +50,24 @@ public class ModuleContainerServlet extends HttpServlet {
   private Map<String, Map<String, ServletAndParameters>> modulesMap
     = new HashMap<String, Map<String, ServletAndParameters>>();
 
+  /** The default number of resolved paths that the router remembers.
+   */
+  private static final int DEFAULT_ROUTE_CACHE_SIZE = 1000;
+
+  /** The maximum number of resolved paths that the router remembers.
+   *
+   * It is always greater than 0.
+   */
+  private int routeCacheSize = DEFAULT_ROUTE_CACHE_SIZE;
+
+  /** The compiled snapshot of modulesMap used to dispatch the requests.
+   *
+   * It is rebuilt, and replaced as a whole, every time the modulesMap changes,
+   * so request threads never see a partially built router. It is never null.
+   */
+  private volatile ModuleServletRouter router = new ModuleServletRouter(
+      modulesMap, DEFAULT_ROUTE_CACHE_SIZE);
+
   /** Adds a module to the modulesMap.
    *
    * @param moduleName The module name. It cannot be null.
@@ -59,12 +75,25 @@ public class ModuleContainerServlet extends HttpServlet {
    * @param servletAndParams The map of urls to servlets of the module. It
    * cannot be null.
    */
-  public void addModule(final String moduleName,
+  public synchronized void addModule(final String moduleName,
       final Map<String, ServletAndParameters> servletAndParams) {
     Validate.notNull(moduleName, "The module name cannot be null");
     Validate.notNull(servletAndParams, "The servlet and parameters cannot be"
         + " null");
     modulesMap.put(moduleName, servletAndParams);
+    router = new ModuleServletRouter(modulesMap, routeCacheSize);
+  }
+
+  /** Sets the maximum number of resolved paths that this servlet remembers.
+   *
+   * Request paths usually contain ids, so this must be bounded. It takes
+   * effect on the next call to init or addModule. Defaults to 1000.
+   *
+   * @param size the number of paths. It must be greater than 0.
+   */
+  public void setRouteCacheSize(final int size) {
+    Validate.isTrue(size > 0, "The route cache size must be positive");
+    routeCacheSize = size;
   }
 
   /** Called by the servlet container to indicate to a servlet that it is being
@@ -84,6 +113,9 @@ public class ModuleContainerServlet extends HttpServlet {
       Map<String, ServletAndParameters> moduleMapping =  entry.getValue();
       initModule(servletConfig, module, moduleMapping);
     }
+    synchronized (this) {
+      router = new ModuleServletRouter(modulesMap, routeCacheSize);
+    }
     log.trace("Leaving init");
   }
 
@@ -228,71 +260,7 @@ public class ModuleContainerServlet extends HttpServlet {
    */
   public ServletData getServletFromUri(final String path) {
     Validate.notNull(path, "The path cannot be null");
-
-    // Iterates over all the modules.
-    for (Map.Entry<String, Map<String, ServletAndParameters>> entry
-        : modulesMap.entrySet()) {
-      String module = entry.getKey();
-      if (path.startsWith("/" + module + "/") || path.equals("/"
-            + module)) {
-        // Found the module, now iterate over the servlets.
-        if (log.isDebugEnabled()) {
-          log.debug("Dispatching request to module: " + module);
-        }
-        Map<String, ServletAndParameters> moduleMapping = entry.getValue();
-        String modulePath = path.substring(module.length() + 1);
-
-        return getServletFromModule(moduleMapping, module, modulePath);
-      }
-    }
-    throw new RuntimeException("No module configuration found for path "
-        + path);
-  }
-
-  /** Obtains the servlet configuration from a url path fragment.
-   *
-   * @param moduleMapping The uri to servlet mapping.
-   *
-   * @param moduleName The name of the module.
-   *
-   * @param path The url fragment that follows the name of the module.
-   *
-   * @return Returs all the data needed to forward the request to the correct
-   * servlet. It never returns null.
-   */
-  private ServletData getServletFromModule(
-      final Map<String, ServletAndParameters> moduleMapping,
-      final String moduleName, final String path) {
-
-    /*
-       requestURL = http://localhost:8080/katari-i/welcome.do
-       requestURI = /katari-i/welcome.do
-       contextPath = /katari-i
-       servletPath = /welcome.do
-       pathInfo = null
-     */
-
-    Validate.notNull(path, "The path cannot be null");
-
-    for (Map.Entry<String, ServletAndParameters> entry
-        : moduleMapping.entrySet()) {
-      String uri = entry.getKey();
-      if (log.isDebugEnabled()) {
-        log.debug("Verifying if path " + path + " matches " + uri);
-      }
-      Pattern pattern = Pattern.compile(uri);
-      Matcher matcher = pattern.matcher(path);
-      if (matcher.lookingAt()) {
-        if (log.isDebugEnabled()) {
-          log.debug("Matched " + uri);
-        }
-        ServletAndParameters servletAndParameters = entry.getValue();
-        HttpServlet servlet =  servletAndParameters.getServlet();
-        String servletPath = matcher.group();
-        return new ServletData(servlet, moduleName, servletPath);
-      }
-    }
-    throw new RuntimeException("No servlet found for path " + path);
+    return router.route(path);
   }
 
   /** Checks if the request correponds to a servlet include.
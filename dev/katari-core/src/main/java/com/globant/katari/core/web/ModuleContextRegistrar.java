@@ -86,6 +86,14 @@ public class ModuleContextRegistrar {
    */
   private boolean isInitialized = false;
 
+  /** A number that changes each time the module configuration, like the url
+   * to role mappers registered by the modules, may have changed.
+   *
+   * Caches derived from the module configuration compare this number with
+   * the one they were built with to find out if they are stale.
+   */
+  private volatile long configurationVersion = 0;
+
   /** Builds a new <code>ModuleContextRegistrar</code>.
    *
    * @param theModuleListenerProxy The listener proxy that aggregates all the
@@ -175,6 +183,7 @@ public class ModuleContextRegistrar {
         beanToModuleName, loginConfiguration);
     }
     registry.put(moduleName, context);
+    ++ configurationVersion;
     return context;
   }
 
@@ -272,6 +281,8 @@ public class ModuleContextRegistrar {
    */
   public void setInitialized() {
     isInitialized = true;
+    // The modules registered their configuration during initialization.
+    ++ configurationVersion;
   }
 
   /** Returns if the ModuleInitializer has already registered the modules.
@@ -283,5 +294,19 @@ public class ModuleContextRegistrar {
   public boolean isInitialized() {
     return isInitialized;
   }
+
+  /** Returns a number that changes each time the module configuration may
+   * have changed.
+   *
+   * This is intended for caches of information derived from the module
+   * configuration, like access decisions or filtered menus: they must be
+   * discarded when this number is different from the one they were built
+   * with.
+   *
+   * @return the configuration version.
+   */
+  public long getConfigurationVersion() {
+    return configurationVersion;
+  }
 }
 
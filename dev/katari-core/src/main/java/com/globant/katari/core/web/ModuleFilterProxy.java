@@ -4,13 +4,13 @@ package com.globant.katari.core.web;
 
 import java.io.IOException;
 import java.util.LinkedList;
-import java.util.Iterator;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.regex.Pattern;
 
 import javax.servlet.ServletException;
 import javax.servlet.Filter;
@@ -27,6 +27,8 @@ import org.apache.commons.collections.IteratorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.globant.katari.core.cache.LruCache;
+
 /** This class chains the filters provided by each module.
  *
  * Each module provides a regular expression that must match the request path,
@@ -38,6 +40,11 @@ import org.slf4j.LoggerFactory;
  * including the fragment where each module is mapped. For example, if the
  * request is made to http://server:port/module/user/remove/id/1, the string
  * /module/user/remove/id/1 is matched against each regex.
+ *
+ * The regular expressions are compiled once, when the filters are added. The
+ * list of filters that apply to a request path (the plan for that path) is
+ * computed on the first request to that path and kept in a bounded LRU cache,
+ * so further requests run the matching filters without any regex work.
  */
 public final class ModuleFilterProxy implements Filter {
 
@@ -59,6 +66,24 @@ public final class ModuleFilterProxy implements Filter {
    */
   private List<FilterMapping> filterMaps = new LinkedList<FilterMapping>();
 
+  /** The default number of request paths whose plan is cached.
+   */
+  private static final int DEFAULT_PLAN_CACHE_SIZE = 1000;
+
+  /** The maximum number of request paths whose plan is cached.
+   *
+   * It is always greater than 0.
+   */
+  private int planCacheSize = DEFAULT_PLAN_CACHE_SIZE;
+
+  /** The compiled version of filterMaps.
+   *
+   * This is replaced as a whole every time filterMaps changes, discarding all
+   * the cached plans. It is never null.
+   */
+  private volatile CompiledFilters compiledFilters = new CompiledFilters(
+      filterMaps, DEFAULT_PLAN_CACHE_SIZE);
+
   /** Builds a ModuleFilterProxy with no registered filters.
    */
   public ModuleFilterProxy() {
@@ -73,6 +98,7 @@ public final class ModuleFilterProxy implements Filter {
         + " null");
     filterMaps.addAll(initialFilters);
     sort();
+    compile();
   }
 
   /** Adds a list of filters to the chain.
@@ -89,6 +115,20 @@ public final class ModuleFilterProxy implements Filter {
         + " null");
     filterMaps.addAll(additionalFilterMappings);
     sort();
+    compile();
+  }
+
+  /** Sets the maximum number of request paths whose filter plan is cached.
+   *
+   * Request paths usually contain ids, so this must be bounded. Changing this
+   * discards the already cached plans. Defaults to 1000.
+   *
+   * @param size the number of request paths. It must be greater than 0.
+   */
+  public void setPlanCacheSize(final int size) {
+    Validate.isTrue(size > 0, "The plan cache size must be positive");
+    planCacheSize = size;
+    compile();
   }
 
   /** Comparator for filter priority, used in sort().
@@ -112,6 +152,13 @@ public final class ModuleFilterProxy implements Filter {
     Collections.sort(filterMaps, new PriorityComparator());
   }
 
+  /** Compiles the current list of filters, replacing the previously compiled
+   * ones.
+   */
+  private void compile() {
+    compiledFilters = new CompiledFilters(filterMaps, planCacheSize);
+  }
+
   /** Called by the servlet container to indicate to a servlet that it is being
    * placed into service.
    *
@@ -200,7 +247,7 @@ public final class ModuleFilterProxy implements Filter {
 
     log.trace("Entering doFilter");
 
-    Chain chain = new Chain(filterMaps, filterChain);
+    Chain chain = new Chain(compiledFilters, filterChain);
     chain.doFilter(request, response);
 
     log.trace("Leaving doFilter");
@@ -223,8 +270,95 @@ public final class ModuleFilterProxy implements Filter {
     log.trace("Leaving destroy");
   }
 
-  /** FilterChain implementation that keeps an iterator on the list of filters
-   * and to call the next filter in the chain.
+  /** The filter mappings with their regular expressions compiled, and the
+   * plans already computed for each request path.
+   *
+   * A plan is the ascending list of positions of the filters that apply to a
+   * request path.
+   */
+  private static final class CompiledFilters {
+
+    /** The filter mappings, in priority order.
+     *
+     * It is never null.
+     */
+    private final FilterMapping[] mappings;
+
+    /** The compiled regular expression of each element in mappings.
+     *
+     * It is never null.
+     */
+    private final Pattern[] patterns;
+
+    /** The plans for each request path.
+     *
+     * It is never null.
+     */
+    private final LruCache<String, int[]> plans;
+
+    /** Compiles the list of filter mappings.
+     *
+     * @param theMappings the mappings, in priority order. It cannot be null.
+     * This object does not keep a reference to this list.
+     *
+     * @param cacheSize the maximum number of plans to keep. It must be
+     * greater than 0.
+     */
+    private CompiledFilters(final List<FilterMapping> theMappings,
+        final int cacheSize) {
+      mappings = theMappings.toArray(new FilterMapping[theMappings.size()]);
+      patterns = new Pattern[mappings.length];
+      for (int i = 0; i < mappings.length; ++i) {
+        patterns[i] = Pattern.compile(mappings[i].getPattern());
+      }
+      plans = new LruCache<String, int[]>(cacheSize);
+    }
+
+    /** Obtains the plan for a request path, computing it if necessary.
+     *
+     * @param url the request path, as matched against the filter patterns. It
+     * cannot be null.
+     *
+     * @return the positions in mappings of the filters that apply to the
+     * request path, in ascending order. Never null. The caller must not
+     * modify the array.
+     */
+    private int[] getPlan(final String url) {
+      int[] plan = plans.get(url);
+      if (plan == null) {
+        int[] matching = new int[mappings.length];
+        int count = 0;
+        for (int i = 0; i < patterns.length; ++i) {
+          if (patterns[i].matcher(url).matches()) {
+            matching[count] = i;
+            ++ count;
+          }
+        }
+        plan = new int[count];
+        System.arraycopy(matching, 0, plan, 0, count);
+        plans.put(url, plan);
+      }
+      return plan;
+    }
+
+    /** Obtains the filter in the specified position.
+     *
+     * @param position the position of the filter, as returned in a plan.
+     *
+     * @return the filter, never null.
+     */
+    private Filter getFilter(final int position) {
+      return mappings[position].getFilter();
+    }
+  }
+
+  /** FilterChain implementation that follows the plan for the request path to
+   * call the next filter in the chain.
+   *
+   * A filter may wrap the request, changing the request path seen by the rest
+   * of the filters. So when the chain receives a new request object, it
+   * checks the request path again and, if it changed, continues with the plan
+   * of the new path.
    */
   private static class Chain implements FilterChain {
 
@@ -232,11 +366,11 @@ public final class ModuleFilterProxy implements Filter {
      */
     private static Logger log = LoggerFactory.getLogger(Chain.class);
 
-    /** The list of filter that filters the requests.
+    /** The compiled filters that filter the requests.
      *
      * It is never null.
      */
-    private List<FilterMapping> filterMappings;
+    private CompiledFilters filters;
 
     /** The tail of the chain.
      *
@@ -244,28 +378,48 @@ public final class ModuleFilterProxy implements Filter {
      */
     private FilterChain tailChain;
 
-    /** The current filter in the chain.
+    /** The request received in the last call to doFilter.
      *
-     * It is null until the iteration begins. The first call to doFilter
-     * initializes this iterator. It iterates on elements of filters.
+     * It is null until the first call to doFilter.
+     */
+    private ServletRequest lastRequest = null;
+
+    /** The request path of lastRequest.
+     *
+     * It is null until the first call to doFilter.
+     */
+    private String url = null;
+
+    /** The plan for url.
+     *
+     * It is null until the first call to doFilter.
+     */
+    private int[] plan = null;
+
+    /** The position in plan of the next filter to call.
      */
-    private Iterator<FilterMapping> current = null;
+    private int next = 0;
+
+    /** The position in the compiled filters of the last filter called, -1 if
+     * none.
+     */
+    private int lastCalled = -1;
 
     /** Creates a new chain.
      *
-     * @param theFilterMappings The list of filters to be ran over the
-     * request/response.
+     * @param theFilters The filters to be ran over the request/response. It
+     * cannot be null.
      *
      * @param theTailChain The original servlet chain that is logically
      * appended at the end of the filter chain. It cannot be null.
      */
-    public Chain(final List<FilterMapping> theFilterMappings, final FilterChain
+    public Chain(final CompiledFilters theFilters, final FilterChain
         theTailChain) {
       log.trace("Entering Chain");
-      Validate.notNull(theFilterMappings, "The filter mappings cannot be null");
+      Validate.notNull(theFilters, "The filters cannot be null");
       Validate.notNull(theTailChain, "The tail chain cannot be null");
 
-      filterMappings = theFilterMappings;
+      filters = theFilters;
       tailChain = theTailChain;
       log.trace("Leaving Chain");
     }
@@ -294,23 +448,26 @@ public final class ModuleFilterProxy implements Filter {
         throw new RuntimeException("Calling doFilter on an non http request");
       }
 
-      HttpServletRequest httpRequest = (HttpServletRequest) request;
-
-      if (current == null) {
-        current = filterMappings.iterator();
-      }
-      if (current.hasNext()) {
-
-        FilterMapping filterMapping = current.next();
-        String url = httpRequest.getServletPath() + httpRequest.getPathInfo();
-        if (url.matches(filterMapping.getPattern())) {
-          // Call the filter.
-          filterMapping.getFilter().doFilter(request, response, this);
-        } else {
-          // Skip current filter. The recursive implementation is easier to
-          // understand.
-          doFilter(request, response);
+      if (request != lastRequest) {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String newUrl = httpRequest.getServletPath()
+          + httpRequest.getPathInfo();
+        if (!newUrl.equals(url)) {
+          url = newUrl;
+          plan = filters.getPlan(url);
+          // Skips the filters that were already considered.
+          next = 0;
+          while (next < plan.length && plan[next] <= lastCalled) {
+            ++ next;
+          }
         }
+        lastRequest = request;
+      }
+
+      if (next < plan.length) {
+        lastCalled = plan[next];
+        ++ next;
+        filters.getFilter(lastCalled).doFilter(request, response, this);
       } else {
         tailChain.doFilter(request, response);
       }
@@ -318,4 +475,3 @@ public final class ModuleFilterProxy implements Filter {
     }
   }
 }
-
@@ -0,0 +1,317 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.web;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.globant.katari.core.cache.LruCache;
+import com.globant.katari.core.web.ModuleContainerServlet.ServletData;
+
+/** An immutable snapshot of the module to servlet mappings, optimized to
+ * resolve a request path to the servlet that must handle it.
+ *
+ * The module names are stored in a trie keyed by path segments, so finding
+ * the module does not depend on the number of modules. The url patterns of
+ * each module are compiled once, in the iteration order of the module
+ * mapping. Each pattern also keeps its leading literal text: a path that does
+ * not start with that text is discarded without running the regular
+ * expression, and patterns that are pure literals never run it.
+ *
+ * Resolved paths are kept in a small LRU cache, so the common requests skip
+ * the matching completely.
+ *
+ * When more than one module name is a prefix of the path, the longest one
+ * wins.
+ */
+final class ModuleServletRouter {
+
+  /** The class logger.
+   */
+  private static Logger log = LoggerFactory.getLogger(
+      ModuleServletRouter.class);
+
+  /** The characters that end the literal prefix of a regular expression.
+   */
+  private static final String REGEX_META_CHARACTERS = "\\[](){}.*+?^$|";
+
+  /** The root of the module name trie, never null.
+   */
+  private final Node root = new Node();
+
+  /** The cache of already resolved paths, never null.
+   */
+  private final LruCache<String, ServletData> resolved;
+
+  /** Builds a router for the provided modules.
+   *
+   * @param modules a map of module name to the map of url regular expression
+   * to servlet of the module. It cannot be null. The router does not keep a
+   * reference to this map.
+   *
+   * @param cacheSize the maximum number of resolved paths to remember. It must
+   * be greater than 0.
+   */
+  ModuleServletRouter(final Map<String, Map<String, ServletAndParameters>>
+      modules, final int cacheSize) {
+    Validate.notNull(modules, "The modules cannot be null");
+    resolved = new LruCache<String, ServletData>(cacheSize);
+    for (Map.Entry<String, Map<String, ServletAndParameters>> entry
+        : modules.entrySet()) {
+      String moduleName = entry.getKey();
+      Node node = root;
+      for (String segment : moduleName.split("/")) {
+        node = node.getOrCreateChild(segment);
+      }
+      node.module = new CompiledModule(moduleName, entry.getValue());
+    }
+  }
+
+  /** Obtains the servlet configuration from a url path fragment.
+   *
+   * @param path The url fragment that follows the container servlet path, in
+   * the form /module-name/rest-of-path. It cannot be null.
+   *
+   * @return Returns all the data needed to forward the request to the
+   * correct servlet. It never returns null.
+   */
+  ServletData route(final String path) {
+    Validate.notNull(path, "The path cannot be null");
+    ServletData servletData = resolved.get(path);
+    if (servletData == null) {
+      CompiledModule module = findModule(path);
+      if (module == null) {
+        throw new RuntimeException("No module configuration found for path "
+            + path);
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Dispatching request to module: " + module.name);
+      }
+      String modulePath = path.substring(module.name.length() + 1);
+      servletData = module.route(modulePath);
+      resolved.put(path, servletData);
+    }
+    return servletData;
+  }
+
+  /** Finds the module with the longest name that is a prefix of the path.
+   *
+   * The module name must be followed by a '/' or the end of the path.
+   *
+   * @param path The url fragment, it cannot be null.
+   *
+   * @return the module, or null if not found.
+   */
+  private CompiledModule findModule(final String path) {
+    if (!path.startsWith("/")) {
+      return null;
+    }
+    CompiledModule found = null;
+    Node node = root;
+    int start = 1;
+    while (node != null && start <= path.length()) {
+      int end = path.indexOf('/', start);
+      if (end == -1) {
+        end = path.length();
+      }
+      node = node.getChild(path.substring(start, end));
+      if (node != null && node.module != null) {
+        found = node.module;
+      }
+      start = end + 1;
+    }
+    return found;
+  }
+
+  /** A node in the module name trie.
+   */
+  private static final class Node {
+
+    /** The children of this node, keyed by path segment.
+     *
+     * It is null until the first child is added.
+     */
+    private Map<String, Node> children = null;
+
+    /** The module whose name ends in this node, null if none.
+     */
+    private CompiledModule module = null;
+
+    /** Obtains the child for the segment.
+     *
+     * @param segment the path segment, it cannot be null.
+     *
+     * @return the child node, or null if there is none.
+     */
+    private Node getChild(final String segment) {
+      if (children == null) {
+        return null;
+      }
+      return children.get(segment);
+    }
+
+    /** Obtains the child for the segment, creating it if necessary.
+     *
+     * @param segment the path segment, it cannot be null.
+     *
+     * @return the child node, never null.
+     */
+    private Node getOrCreateChild(final String segment) {
+      if (children == null) {
+        children = new HashMap<String, Node>();
+      }
+      Node child = children.get(segment);
+      if (child == null) {
+        child = new Node();
+        children.put(segment, child);
+      }
+      return child;
+    }
+  }
+
+  /** The compiled url mappings of a module.
+   */
+  private static final class CompiledModule {
+
+    /** The name of the module, never null.
+     */
+    private final String name;
+
+    /** The compiled mappings, in the order they must be tried, never null.
+     */
+    private final List<CompiledMapping> mappings
+      = new ArrayList<CompiledMapping>();
+
+    /** Compiles the url mappings of a module.
+     *
+     * @param moduleName the name of the module. It cannot be null.
+     *
+     * @param moduleMapping the map of url regular expression to servlet. It
+     * cannot be null.
+     */
+    private CompiledModule(final String moduleName,
+        final Map<String, ServletAndParameters> moduleMapping) {
+      Validate.notNull(moduleName, "The module name cannot be null");
+      Validate.notNull(moduleMapping, "The module mapping cannot be null");
+      name = moduleName;
+      for (Map.Entry<String, ServletAndParameters> entry
+          : moduleMapping.entrySet()) {
+        mappings.add(new CompiledMapping(entry.getKey(), entry.getValue()));
+      }
+    }
+
+    /** Obtains the servlet configuration from a url path fragment.
+     *
+     * @param path The url fragment that follows the name of the module. It
+     * cannot be null.
+     *
+     * @return Returs all the data needed to forward the request to the
+     * correct servlet. It never returns null.
+     */
+    private ServletData route(final String path) {
+      for (CompiledMapping mapping : mappings) {
+        String servletPath = mapping.match(path);
+        if (servletPath != null) {
+          if (log.isDebugEnabled()) {
+            log.debug("Matched " + mapping.pattern.pattern());
+          }
+          return new ServletData(mapping.servlet.getServlet(), name,
+              servletPath);
+        }
+      }
+      throw new RuntimeException("No servlet found for path " + path);
+    }
+  }
+
+  /** A url regular expression compiled once, with its servlet.
+   */
+  private static final class CompiledMapping {
+
+    /** The compiled regular expression, never null.
+     */
+    private final Pattern pattern;
+
+    /** The text that any matching path must start with, never null.
+     */
+    private final String literalPrefix;
+
+    /** True if the regular expression is just the literal prefix.
+     */
+    private final boolean literal;
+
+    /** The servlet that handles the matching paths, never null.
+     */
+    private final ServletAndParameters servlet;
+
+    /** Compiles a url mapping.
+     *
+     * @param regex the regular expression. It cannot be null.
+     *
+     * @param theServlet the servlet. It cannot be null.
+     */
+    private CompiledMapping(final String regex,
+        final ServletAndParameters theServlet) {
+      pattern = Pattern.compile(regex);
+      literalPrefix = getLiteralPrefix(regex);
+      literal = literalPrefix.length() == regex.length();
+      servlet = theServlet;
+    }
+
+    /** Matches the pattern against the beginning of the path.
+     *
+     * @param path the path to match. It cannot be null.
+     *
+     * @return the matched portion of the path, or null if it does not match.
+     */
+    private String match(final String path) {
+      if (!path.startsWith(literalPrefix)) {
+        return null;
+      }
+      if (literal) {
+        return literalPrefix;
+      }
+      Matcher matcher = pattern.matcher(path);
+      if (matcher.lookingAt()) {
+        return matcher.group();
+      }
+      return null;
+    }
+
+    /** Extracts the literal text that any match of the regular expression
+     * must start with.
+     *
+     * This is conservative: expressions with alternatives have no prefix, and
+     * a character followed by a quantifier is not part of the prefix.
+     *
+     * @param regex the regular expression. It cannot be null.
+     *
+     * @return the literal prefix, possibly empty. Never null.
+     */
+    private static String getLiteralPrefix(final String regex) {
+      if (regex.indexOf('|') != -1) {
+        return "";
+      }
+      int end = 0;
+      while (end < regex.length()
+          && REGEX_META_CHARACTERS.indexOf(regex.charAt(end)) == -1) {
+        ++ end;
+      }
+      if (end < regex.length() && end > 0) {
+        char next = regex.charAt(end);
+        if (next == '?' || next == '*' || next == '{') {
+          -- end;
+        }
+      }
+      return regex.substring(0, end);
+    }
+  }
+}
+
@@ -0,0 +1,282 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+
+/** An in memory output stream that stores the data in a list of fixed size
+ * segments.
+ *
+ * This is used to buffer response bodies. Unlike ByteArrayOutputStream, it
+ * never copies the data already written when it grows, and it can send the
+ * buffered data to another stream segment by segment, without building a
+ * single array with the whole content.
+ *
+ * The segments are taken from a pool shared by all the instances. Call
+ * release when the buffered data is no longer needed to return them to the
+ * pool. Forgetting to call release is not an error: the segments are simply
+ * garbage collected.
+ *
+ * This class is not thread safe.
+ */
+public final class SegmentedOutputStream extends OutputStream {
+
+  /** The size of each segment, in bytes.
+   */
+  static final int SEGMENT_SIZE = 8 * 1024;
+
+  /** The maximum number of segments kept in the pool, 2 MB worth.
+   */
+  private static final int MAX_POOLED_SEGMENTS = 256;
+
+  /** The free segments, never null.
+   */
+  private static final ConcurrentLinkedQueue<byte[]> POOL
+    = new ConcurrentLinkedQueue<byte[]>();
+
+  /** The number of segments in the pool.
+   *
+   * This is an approximation, it is only used to bound the pool.
+   */
+  private static final AtomicInteger POOL_SIZE = new AtomicInteger();
+
+  /** The segments that hold the written data, never null.
+   *
+   * All the segments but the last one are full.
+   */
+  private final List<byte[]> segments = new ArrayList<byte[]>();
+
+  /** The number of bytes used in the last segment.
+   */
+  private int position = SEGMENT_SIZE;
+
+  /** The total number of bytes written.
+   */
+  private int size = 0;
+
+  /** Writes the specified byte to this stream.
+   *
+   * @param theByte The byte to write.
+   */
+  @Override
+  public void write(final int theByte) {
+    if (position == SEGMENT_SIZE) {
+      addSegment();
+    }
+    segments.get(segments.size() - 1)[position] = (byte) theByte;
+    ++ position;
+    ++ size;
+  }
+
+  /** Writes len bytes from the specified byte array starting at offset off to
+   * this stream.
+   *
+   * @param buffer the data. It cannot be null.
+   *
+   * @param off the start offset in the data.
+   *
+   * @param len the number of bytes to write.
+   */
+  @Override
+  public void write(final byte[] buffer, final int off, final int len) {
+    Validate.notNull(buffer, "The buffer cannot be null");
+    if (off < 0 || len < 0 || off + len > buffer.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    int offset = off;
+    int remaining = len;
+    while (remaining > 0) {
+      if (position == SEGMENT_SIZE) {
+        addSegment();
+      }
+      int count = Math.min(remaining, SEGMENT_SIZE - position);
+      System.arraycopy(buffer, offset, segments.get(segments.size() - 1),
+          position, count);
+      position += count;
+      offset += count;
+      remaining -= count;
+    }
+    size += len;
+  }
+
+  /** Returns the number of bytes written to this stream.
+   *
+   * @return the number of bytes.
+   */
+  public int size() {
+    return size;
+  }
+
+  /** Writes all the buffered data to another stream.
+   *
+   * Each segment is written with a single bulk write, the data is not copied.
+   *
+   * @param out the target stream. It cannot be null.
+   *
+   * @throws IOException in case of a write error.
+   */
+  public void writeTo(final OutputStream out) throws IOException {
+    Validate.notNull(out, "The output stream cannot be null");
+    int last = segments.size() - 1;
+    for (int i = 0; i < last; ++i) {
+      out.write(segments.get(i), 0, SEGMENT_SIZE);
+    }
+    if (last >= 0) {
+      out.write(segments.get(last), 0, position);
+    }
+  }
+
+  /** Returns a copy of the buffered data.
+   *
+   * Prefer writeTo or getInputStream, this makes a full copy of the data.
+   *
+   * @return the buffered data, never null.
+   */
+  public byte[] toByteArray() {
+    byte[] result = new byte[size];
+    int offset = 0;
+    int last = segments.size() - 1;
+    for (int i = 0; i < last; ++i) {
+      System.arraycopy(segments.get(i), 0, result, offset, SEGMENT_SIZE);
+      offset += SEGMENT_SIZE;
+    }
+    if (last >= 0) {
+      System.arraycopy(segments.get(last), 0, result, offset, position);
+    }
+    return result;
+  }
+
+  /** Converts the buffered data to a string using the specified encoding.
+   *
+   * @param encoding the character encoding. It cannot be null.
+   *
+   * @return the buffered data as a string, never null.
+   *
+   * @throws UnsupportedEncodingException if the encoding is not supported.
+   */
+  public String toString(final String encoding)
+      throws UnsupportedEncodingException {
+    Validate.notNull(encoding, "The encoding cannot be null");
+    return new String(toByteArray(), encoding);
+  }
+
+  /** Converts the buffered data to a string using the platform default
+   * encoding.
+   *
+   * @return the buffered data as a string, never null.
+   */
+  @Override
+  public String toString() {
+    return new String(toByteArray());
+  }
+
+  /** Returns a stream to read the buffered data.
+   *
+   * The stream reads directly from the segments, so this stream must not be
+   * written to, reset or released while the returned stream is in use.
+   *
+   * @return an input stream, never null.
+   */
+  public InputStream getInputStream() {
+    return new SegmentsInputStream();
+  }
+
+  /** Discards all the buffered data, returning the segments to the pool.
+   *
+   * The stream can be used again after this call.
+   */
+  public void reset() {
+    for (byte[] segment : segments) {
+      if (POOL_SIZE.get() < MAX_POOLED_SEGMENTS) {
+        POOL_SIZE.incrementAndGet();
+        POOL.offer(segment);
+      }
+    }
+    segments.clear();
+    position = SEGMENT_SIZE;
+    size = 0;
+  }
+
+  /** Discards all the buffered data, returning the segments to the pool.
+   *
+   * This is the same as reset, it is provided to make the intent clear when
+   * the stream will no longer be used.
+   */
+  public void release() {
+    reset();
+  }
+
+  /** Adds a new empty segment at the end of the list of segments, taking it
+   * from the pool if possible.
+   */
+  private void addSegment() {
+    byte[] segment = POOL.poll();
+    if (segment == null) {
+      segment = new byte[SEGMENT_SIZE];
+    } else {
+      POOL_SIZE.decrementAndGet();
+    }
+    segments.add(segment);
+    position = 0;
+  }
+
+  /** An input stream that reads the buffered segments.
+   */
+  private final class SegmentsInputStream extends InputStream {
+
+    /** The number of bytes already read.
+     */
+    private int read = 0;
+
+    /** {@inheritDoc}
+     */
+    @Override
+    public int read() {
+      if (read >= size) {
+        return -1;
+      }
+      byte[] segment = segments.get(read / SEGMENT_SIZE);
+      int result = segment[read % SEGMENT_SIZE] & 0xff;
+      ++ read;
+      return result;
+    }
+
+    /** {@inheritDoc}
+     */
+    @Override
+    public int read(final byte[] buffer, final int off, final int len) {
+      if (off < 0 || len < 0 || off + len > buffer.length) {
+        throw new IndexOutOfBoundsException();
+      }
+      if (len == 0) {
+        return 0;
+      }
+      if (read >= size) {
+        return -1;
+      }
+      byte[] segment = segments.get(read / SEGMENT_SIZE);
+      int start = read % SEGMENT_SIZE;
+      int count = Math.min(len, Math.min(SEGMENT_SIZE - start, size - read));
+      System.arraycopy(segment, start, buffer, off, count);
+      read += count;
+      return count;
+    }
+
+    /** {@inheritDoc}
+     */
+    @Override
+    public int available() {
+      return size - read;
+    }
+  }
+}
+
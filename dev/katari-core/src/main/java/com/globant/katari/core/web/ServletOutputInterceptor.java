@@ -25,8 +25,10 @@ import org.slf4j.LoggerFactory;
  * protected abstract OutputStream createOutputStream();
  *
  * The stream you provide will receive the body sent to the response object.
- * This interceptor has a write through option that, when set, also copies the
- * output to the original response.
+ * Implementations that buffer the whole body usually return a
+ * SegmentedOutputStream, that grows without copying and can be sent to the
+ * client segment by segment. This interceptor has a write through option
+ * that, when set, also copies the output to the original response.
  */
 public abstract class ServletOutputInterceptor extends
     HttpServletResponseWrapper {
@@ -95,6 +97,40 @@ public abstract class ServletOutputInterceptor extends
       }
       outputStream.write(theByte);
     }
+
+    /** Writes len bytes from the specified byte array starting at offset off
+     * to the output stream.
+     *
+     * This avoids going through write(int) for each byte.
+     *
+     * @param buffer The data. It cannot be null.
+     *
+     * @param off The start offset in the data.
+     *
+     * @param len The number of bytes to write.
+     *
+     * @throws IOException in case of a write error.
+     */
+    @Override
+    public void write(final byte[] buffer, final int off, final int len)
+        throws IOException {
+      if (originalOutputStream != null) {
+        originalOutputStream.write(buffer, off, len);
+      }
+      outputStream.write(buffer, off, len);
+    }
+
+    /** Writes all the bytes from the specified byte array to the output
+     * stream.
+     *
+     * @param buffer The data. It cannot be null.
+     *
+     * @throws IOException in case of a write error.
+     */
+    @Override
+    public void write(final byte[] buffer) throws IOException {
+      write(buffer, 0, buffer.length);
+    }
   };
 
   /** The output stream that intercepts the data written by the servlets.
@@ -5,7 +5,8 @@ package com.globant.katari.core.web;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.File;
-import java.io.FileInputStream;
+
+import java.net.URL;
 
 import java.util.Map;
 import java.util.HashMap;
@@ -156,6 +157,20 @@ public class StaticContentServlet extends BaseStaticContentServlet {
   @Override
   protected InputStream findInputStream(final String name) throws IOException {
     log.trace("Entering findInputStream('{}')", name);
+    URL url = findResourceUrl(name);
+    if (url == null) {
+      log.trace("Leaving findInputStream with null");
+      return null;
+    }
+    log.trace("Leaving findInputStream");
+    return url.openStream();
+  }
+
+  /** {@inheritDoc}
+   */
+  @Override
+  protected URL findResourceUrl(final String name) throws IOException {
+    log.trace("Entering findResourceUrl('{}')", name);
 
     Validate.notNull(name, "The resource name cannot be null");
 
@@ -166,17 +181,16 @@ public class StaticContentServlet extends BaseStaticContentServlet {
       log.debug("In debug mode, looking for file {}", filePath);
       File file = new File(filePath);
       if (file.exists()) {
-        log.trace("Leaving findInputStream with a file resource");
-        return new FileInputStream(file);
+        log.trace("Leaving findResourceUrl with a file resource");
+        return file.toURI().toURL();
       }
     }
 
     log.debug("Looking for resource {}", resourcePath);
-    InputStream result = getResourceAsStream(resourcePath);
+    URL result = getResource(resourcePath);
 
-    log.trace("Leaving findInputStream");
+    log.trace("Leaving findResourceUrl");
 
     return result;
   }
 }
-
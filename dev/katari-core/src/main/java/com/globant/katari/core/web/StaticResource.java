@@ -0,0 +1,457 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang.Validate;
+
+/** A static resource, as served by BaseStaticContentServlet.
+ *
+ * A resource is either held in memory, with its content hash and an optional
+ * gzip compressed variant, or it is streamed from its source on each request.
+ * Only in memory resources can be cached. The gzip variant has its own entity
+ * tag, the one of the content with a -gzip suffix, so caches never confuse
+ * both representations.
+ *
+ * This class is immutable, with the exception of streamed resources created
+ * from an input stream, that can only be written once.
+ */
+final class StaticResource {
+
+  /** The buffer size used to transfer bytes from the source.
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  /** Resources smaller than this are not compressed, the saving is not worth
+   * the Content-Encoding header.
+   */
+  private static final int MIN_COMPRESSIBLE_SIZE = 256;
+
+  /** The characters used to convert the hash to hexadecimal.
+   */
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /** The content, null if this resource is streamed.
+   */
+  private final byte[] content;
+
+  /** The gzip compressed content, null if there is no compressed variant.
+   */
+  private final byte[] gzipContent;
+
+  /** The entity tag, with the quotes, null if unknown.
+   */
+  private final String etag;
+
+  /** The entity tag of the gzip compressed variant, with the quotes, null if
+   * there is no compressed variant.
+   */
+  private final String gzipEtag;
+
+  /** The last modification time of the resource in millis, never 0.
+   */
+  private final long lastModified;
+
+  /** The size of the resource in bytes, -1 if unknown.
+   */
+  private final long length;
+
+  /** The file that holds the content, for streamed resources stored in the
+   * file system. It is null otherwise.
+   */
+  private final File file;
+
+  /** The stream to read the content from, for streamed resources not stored
+   * in the file system. It is null otherwise.
+   */
+  private InputStream input;
+
+  /** Creates a resource.
+   *
+   * @param theContent the content, null for streamed resources.
+   *
+   * @param theGzipContent the compressed content, may be null.
+   *
+   * @param theEtag the entity tag, may be null.
+   *
+   * @param theLastModified the last modification time, never 0.
+   *
+   * @param theLength the length, -1 if unknown.
+   *
+   * @param theFile the file with the content, may be null.
+   *
+   * @param theInput the stream with the content, may be null.
+   */
+  private StaticResource(final byte[] theContent, final byte[] theGzipContent,
+      final String theEtag, final long theLastModified, final long theLength,
+      final File theFile, final InputStream theInput) {
+    content = theContent;
+    gzipContent = theGzipContent;
+    etag = theEtag;
+    if (theGzipContent != null) {
+      gzipEtag = theEtag.substring(0, theEtag.length() - 1) + "-gzip\"";
+    } else {
+      gzipEtag = null;
+    }
+    lastModified = theLastModified;
+    length = theLength;
+    file = theFile;
+    input = theInput;
+  }
+
+  /** Loads a resource.
+   *
+   * Resources up to maxSize bytes are read in memory. Larger ones are
+   * streamed.
+   *
+   * @param stream the stream to read the resource from. It cannot be null.
+   * This operation closes it, unless the resource is streamed and it is not
+   * a file.
+   *
+   * @param url the url of the resource, null if unknown. Used to find out if
+   * the resource is a file, whose last modification time is read on each
+   * load.
+   *
+   * @param compress whether to create a gzip variant of the resource.
+   *
+   * @param maxSize the maximum size of a resource held in memory, in bytes.
+   *
+   * @param theLastModified the last modification time of resources that are
+   * not files. It cannot be 0.
+   *
+   * @return the resource, never null.
+   *
+   * @throws IOException in case of error reading the resource.
+   */
+  static StaticResource load(final InputStream stream, final URL url,
+      final boolean compress, final int maxSize,
+      final long theLastModified) throws IOException {
+    Validate.notNull(stream, "The stream cannot be null.");
+
+    long lastModified = 0;
+    File file = null;
+    if (url != null) {
+      file = toFile(url);
+      if (file != null) {
+        lastModified = file.lastModified();
+      }
+    }
+    if (lastModified <= 0) {
+      lastModified = theLastModified;
+    }
+    // HTTP dates have a resolution of seconds.
+    lastModified = lastModified / 1000 * 1000;
+
+    if (file != null && file.length() > maxSize) {
+      stream.close();
+      return streamed(file, lastModified);
+    }
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    byte[] chunk = new byte[BUFFER_SIZE];
+    int read = 0;
+    boolean complete = false;
+    try {
+      while (buffer.size() <= maxSize && read != -1) {
+        read = stream.read(chunk);
+        if (read > 0) {
+          buffer.write(chunk, 0, read);
+        }
+      }
+      complete = read == -1 && buffer.size() <= maxSize;
+    } catch (IOException e) {
+      stream.close();
+      throw e;
+    }
+    if (complete || file != null) {
+      stream.close();
+    }
+
+    if (!complete) {
+      if (file != null) {
+        return streamed(file, lastModified);
+      }
+      InputStream rest = new SequenceInputStream(
+          new ByteArrayInputStream(buffer.toByteArray()), stream);
+      return new StaticResource(null, null, null, lastModified, -1, null,
+          rest);
+    }
+
+    byte[] content = buffer.toByteArray();
+    byte[] gzipContent = null;
+    if (compress && content.length >= MIN_COMPRESSIBLE_SIZE) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+      gzip.write(content);
+      gzip.close();
+      if (compressed.size() < content.length) {
+        gzipContent = compressed.toByteArray();
+      }
+    }
+    return new StaticResource(content, gzipContent, hash(content),
+        lastModified, content.length, null, null);
+  }
+
+  /** Creates a resource that is streamed from a file on each request.
+   *
+   * @param theFile the file. It cannot be null.
+   *
+   * @param theLastModified the last modification time, in millis.
+   *
+   * @return the resource, never null.
+   */
+  static StaticResource streamed(final File theFile,
+      final long theLastModified) {
+    Validate.notNull(theFile, "The file cannot be null.");
+    long fileLength = theFile.length();
+    String weakEtag = "W/\"" + Long.toHexString(fileLength) + "-"
+      + Long.toHexString(theLastModified) + "\"";
+    return new StaticResource(null, null, weakEtag, theLastModified,
+        fileLength, theFile, null);
+  }
+
+  /** Creates a resource that is streamed once from an input stream.
+   *
+   * @param stream the stream. It cannot be null.
+   *
+   * @param theLastModified the last modification time, in millis.
+   *
+   * @return the resource, never null.
+   */
+  static StaticResource streamed(final InputStream stream,
+      final long theLastModified) {
+    Validate.notNull(stream, "The stream cannot be null.");
+    return new StaticResource(null, null, null, theLastModified / 1000 * 1000,
+        -1, null, stream);
+  }
+
+  /** Indicates if this resource is held in memory and can be cached.
+   *
+   * @return true if the resource is in memory.
+   */
+  boolean isCacheable() {
+    return content != null;
+  }
+
+  /** Returns the entity tag of this resource, with the quotes.
+   *
+   * @return the entity tag, null if unknown.
+   */
+  String getEtag() {
+    return etag;
+  }
+
+  /** Returns the entity tag of the gzip compressed variant, with the quotes.
+   *
+   * @return the entity tag. Only valid if hasGzipContent is true.
+   */
+  String getGzipEtag() {
+    return gzipEtag;
+  }
+
+  /** Returns the last modification time of the resource.
+   *
+   * @return the time in millis, rounded to seconds. Never 0.
+   */
+  long getLastModified() {
+    return lastModified;
+  }
+
+  /** Returns the size of the resource.
+   *
+   * @return the size in bytes, -1 if unknown.
+   */
+  long getLength() {
+    return length;
+  }
+
+  /** Returns the approximate memory taken by this resource.
+   *
+   * @return the number of bytes held in memory.
+   */
+  long getMemorySize() {
+    long size = 0;
+    if (content != null) {
+      size += content.length;
+    }
+    if (gzipContent != null) {
+      size += gzipContent.length;
+    }
+    return size;
+  }
+
+  /** Indicates if this resource has a gzip compressed variant.
+   *
+   * @return true if there is a compressed variant.
+   */
+  boolean hasGzipContent() {
+    return gzipContent != null;
+  }
+
+  /** Returns the size of the gzip compressed variant.
+   *
+   * @return the size in bytes. Only valid if hasGzipContent is true.
+   */
+  int getGzipLength() {
+    return gzipContent.length;
+  }
+
+  /** Writes the gzip compressed variant to the output stream.
+   *
+   * @param output the stream to write to. It cannot be null.
+   *
+   * @throws IOException in case of error.
+   */
+  void writeGzipTo(final OutputStream output) throws IOException {
+    output.write(gzipContent, 0, gzipContent.length);
+    output.flush();
+  }
+
+  /** Writes the content to the output stream.
+   *
+   * Files are transferred with FileChannel.transferTo, that lets the platform
+   * avoid copying the data through the java heap when possible.
+   *
+   * @param output the stream to write to. It cannot be null.
+   *
+   * @throws IOException in case of error.
+   */
+  void writeTo(final OutputStream output) throws IOException {
+    writeTo(output, 0, length);
+  }
+
+  /** Writes a range of the content to the output stream.
+   *
+   * @param output the stream to write to. It cannot be null.
+   *
+   * @param start the position of the first byte to write.
+   *
+   * @param count the number of bytes to write, or -1 to write up to the end
+   * of the content.
+   *
+   * @throws IOException in case of error.
+   */
+  void writeTo(final OutputStream output, final long start, final long count)
+      throws IOException {
+    Validate.notNull(output, "The output stream cannot be null.");
+    if (content != null) {
+      output.write(content, (int) start, (int) count);
+    } else if (file != null) {
+      FileInputStream fileInput = new FileInputStream(file);
+      try {
+        FileChannel channel = fileInput.getChannel();
+        WritableByteChannel target = Channels.newChannel(output);
+        long position = start;
+        long end = start + count;
+        while (position < end) {
+          position += channel.transferTo(position, end - position, target);
+        }
+      } finally {
+        fileInput.close();
+      }
+    } else {
+      InputStream source = input;
+      Validate.notNull(source, "The resource was already written.");
+      input = null;
+      try {
+        source.skip(start);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = count;
+        int read = 0;
+        while (remaining != 0 && read != -1) {
+          int max = BUFFER_SIZE;
+          if (remaining > 0 && remaining < BUFFER_SIZE) {
+            max = (int) remaining;
+          }
+          read = source.read(buffer, 0, max);
+          if (read > 0) {
+            output.write(buffer, 0, read);
+            if (remaining > 0) {
+              remaining -= read;
+            }
+          }
+        }
+      } finally {
+        source.close();
+      }
+    }
+    output.flush();
+  }
+
+  /** Releases the stream held by a resource that is streamed once, when the
+   * content will not be written.
+   *
+   * This does nothing for other resources.
+   *
+   * @throws IOException in case of error closing the stream.
+   */
+  void discard() throws IOException {
+    if (input != null) {
+      input.close();
+      input = null;
+    }
+  }
+
+  /** Obtains the file from a file url.
+   *
+   * @param url the url. It cannot be null.
+   *
+   * @return the file, or null if the url does not point to a file.
+   */
+  private static File toFile(final URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      File result = new File(url.toURI());
+      if (result.isFile()) {
+        return result;
+      }
+      return null;
+    } catch (URISyntaxException e) {
+      return null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Generates a strong entity tag from the content.
+   *
+   * @param data the content. It cannot be null.
+   *
+   * @return the quoted md5 of the content in hexadecimal, never null.
+   */
+  private static String hash(final byte[] data) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("MD5 not available", e);
+    }
+    byte[] hash = digest.digest(data);
+    StringBuilder result = new StringBuilder(hash.length * 2 + 2);
+    result.append('"');
+    for (byte b : hash) {
+      result.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+    }
+    result.append('"');
+    return result.toString();
+  }
+}
+
@@ -0,0 +1,99 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.web;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A cache of static resources, bounded by the memory taken by the cached
+ * content.
+ *
+ * When adding a resource makes the cache grow past its capacity, the least
+ * recently used resources are evicted. This class is thread safe.
+ */
+final class StaticResourceCache {
+
+  /** The class logger.
+   */
+  private static Logger log = LoggerFactory.getLogger(
+      StaticResourceCache.class);
+
+  /** The maximum number of bytes of content held by the cache.
+   */
+  private final long capacity;
+
+  /** The cached resources, by name, in access order.
+   *
+   * It is never null.
+   */
+  private final Map<String, StaticResource> resources
+    = new LinkedHashMap<String, StaticResource>(16, 0.75f, true);
+
+  /** The number of bytes of content currently held by the cache.
+   */
+  private long size = 0;
+
+  /** Creates a new cache.
+   *
+   * @param theCapacity the maximum number of bytes of content to hold. It
+   * must be greater than 0.
+   */
+  StaticResourceCache(final long theCapacity) {
+    Validate.isTrue(theCapacity > 0, "The capacity must be positive.");
+    capacity = theCapacity;
+  }
+
+  /** Obtains a resource from the cache.
+   *
+   * @param name the name of the resource. It cannot be null.
+   *
+   * @return the resource, null if not in the cache.
+   */
+  synchronized StaticResource get(final String name) {
+    return resources.get(name);
+  }
+
+  /** Adds a resource to the cache.
+   *
+   * Resources larger than the capacity of the cache are ignored.
+   *
+   * @param name the name of the resource. It cannot be null.
+   *
+   * @param resource the resource. It cannot be null, and it must be
+   * cacheable.
+   */
+  synchronized void put(final String name, final StaticResource resource) {
+    Validate.notNull(name, "The name cannot be null.");
+    Validate.isTrue(resource.isCacheable(), "The resource is not cacheable.");
+    long resourceSize = resource.getMemorySize();
+    if (resourceSize > capacity) {
+      return;
+    }
+    StaticResource previous = resources.put(name, resource);
+    if (previous != null) {
+      size -= previous.getMemorySize();
+    }
+    size += resourceSize;
+    Iterator<StaticResource> eldest = resources.values().iterator();
+    while (size > capacity) {
+      StaticResource evicted = eldest.next();
+      size -= evicted.getMemorySize();
+      eldest.remove();
+    }
+    log.debug("Cached {}, cache size is {} bytes.", name, size);
+  }
+
+  /** Returns the number of bytes of content held by the cache.
+   *
+   * @return the number of bytes.
+   */
+  synchronized long getSize() {
+    return size;
+  }
+}
+
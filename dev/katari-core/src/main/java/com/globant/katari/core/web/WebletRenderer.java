@@ -165,6 +165,7 @@ public class WebletRenderer {
     }
 
     String htmlPage = wrappedResponse.getResponseAsString();
+    wrappedResponse.release();
 
     if (oldInstance != null) {
       request.setAttribute("instance", oldInstance);
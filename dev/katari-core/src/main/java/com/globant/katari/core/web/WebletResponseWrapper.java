@@ -2,7 +2,6 @@
 
 package com.globant.katari.core.web;
 
-import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 
 import javax.servlet.http.HttpServletResponse;
@@ -22,11 +21,11 @@ public class WebletResponseWrapper extends ServletOutputInterceptor {
   private static Logger log = LoggerFactory.getLogger(
       WebletResponseWrapper.class);
 
-  /** A stream that gets the data and buffers it in a byte array.
+  /** A stream that gets the data and buffers it in memory.
    *
    * It is never null.
    */
-  private ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+  private SegmentedOutputStream outputStream = new SegmentedOutputStream();
 
   /** Creates a new WebletResponseWrapper.
    *
@@ -84,5 +83,14 @@ public class WebletResponseWrapper extends ServletOutputInterceptor {
     log.trace("Leaving toString");
     return result;
   }
+
+  /** Discards the data written by the servlets, returning the buffers to the
+   * pool.
+   *
+   * Call this after getResponseAsString, when the wrapper is no longer used.
+   */
+  public void release() {
+    outputStream.release();
+  }
 }
 
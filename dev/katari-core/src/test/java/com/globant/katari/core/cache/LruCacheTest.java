@@ -0,0 +1,51 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.cache;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+
+  @Test
+  public void testGet_evictsLeastRecentlyUsed() {
+    LruCache<String, String> cache = new LruCache<String, String>(2);
+    cache.put("a", "1");
+    cache.put("b", "2");
+    // Touches a, so b is the least recently used.
+    assertEquals("1", cache.get("a"));
+    cache.put("c", "3");
+
+    assertEquals(2, cache.size());
+    assertEquals("1", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals("3", cache.get("c"));
+  }
+
+  @Test
+  public void testGet_countsHitsAndMisses() {
+    LruCache<String, String> cache = new LruCache<String, String>(2);
+    cache.put("a", "1");
+    cache.get("a");
+    cache.get("a");
+    cache.get("b");
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testClear() {
+    LruCache<String, String> cache = new LruCache<String, String>(2);
+    cache.put("a", "1");
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertNull(cache.get("a"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCreate_zeroSize() {
+    new LruCache<String, String>(0);
+  }
+}
+
@@ -0,0 +1,96 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.security;
+
+import static org.easymock.EasyMock.createNiceMock;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.core.web.MenuBar;
+import com.globant.katari.core.web.MenuNode;
+
+public class FilteredMenuTest {
+
+  private MenuBar menuBar;
+
+  private MenuNode a;
+
+  private MenuNode b;
+
+  private MenuAccessFilterer filterer;
+
+  @Before
+  public void setUp() {
+    /*         root        */
+    /*        /    \       */
+    /*       a      b      */
+    /*      / \    / \     */
+    /*    a_a a_b b_a b_b  */
+    menuBar = new MenuBar("root", "root");
+    a = new MenuNode(menuBar, "a", "a", 0, null);
+    b = new MenuNode(menuBar, "b", "b", 0, null);
+    new MenuNode(a, "a_a", "a_a", 0, null, "/module/m/a_a.do");
+    new MenuNode(a, "a_b", "a_b", 0, null, "/module/m/a_b.do");
+    new MenuNode(b, "b_a", "b_a", 0, null, "/module/m/b_a.do");
+    new MenuNode(b, "b_b", "b_b", 0, null, "/module/m/b_b.do");
+
+    // Only a_b and b_b are accessible.
+    SecureUrlAccessHelper helper;
+    helper = createNiceMock(SecureUrlAccessHelper.class);
+    filterer = new MenuAccessFilterer(helper) {
+      public boolean isAccessible(final MenuNode node) {
+        return node.getName().endsWith("_b");
+      }
+    };
+  }
+
+  @Test
+  public void testGetChildNodes() {
+    FilteredMenu menu = new FilteredMenu(menuBar, filterer);
+    assertThat(menu.getRoot(), is((MenuNode) menuBar));
+
+    List<MenuNode> children = menu.getChildNodes(menuBar);
+    assertThat(children.size(), is(2));
+    assertThat(children.get(0), is(a));
+    assertThat(children.get(1), is(b));
+
+    assertThat(menu.getChildNodes(a).size(), is(1));
+    assertThat(menu.getChildNodes(a).get(0).getName(), is("a_b"));
+    assertThat(menu.getChildNodes(a.getChildNodes().get(1)).size(), is(0));
+  }
+
+  @Test
+  public void testGetChildNodes_noAccessibleDescendants() {
+    new MenuNode(new MenuNode(menuBar, "c", "c", 0, null), "c_a", "c_a", 0,
+        null, "/module/m/c_a.do");
+    FilteredMenu menu = new FilteredMenu(menuBar, filterer);
+    assertThat(menu.getChildNodes(menuBar).size(), is(2));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testGetChildNodes_unmodifiable() {
+    FilteredMenu menu = new FilteredMenu(menuBar, filterer);
+    menu.getChildNodes(menuBar).clear();
+  }
+
+  @Test
+  public void testGetFirstDescendentLeaf() {
+    FilteredMenu menu = new FilteredMenu(menuBar, filterer);
+    assertThat(menu.getFirstDescendentLeaf(menuBar).getName(), is("a_b"));
+    assertThat(menu.getFirstDescendentLeaf(b).getName(), is("b_b"));
+  }
+
+  @Test
+  public void testGetFirstDescendentLeaf_none() {
+    MenuNode c = new MenuNode(menuBar, "c", "c", 0, null);
+    new MenuNode(c, "c_a", "c_a", 0, null, "/module/m/c_a.do");
+    FilteredMenu menu = new FilteredMenu(menuBar, filterer);
+    assertThat(menu.getFirstDescendentLeaf(c), is(nullValue()));
+  }
+}
@@ -5,6 +5,7 @@ import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertThat;
@@ -15,7 +16,16 @@ import org.junit.Test;
 
 import org.easymock.EasyMock;
 
+import org.acegisecurity.Authentication;
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.GrantedAuthorityImpl;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.acegisecurity.providers.TestingAuthenticationToken;
+import org.junit.After;
+
+import com.globant.katari.core.web.MenuBar;
 import com.globant.katari.core.web.MenuNode;
+import com.globant.katari.core.web.ModuleContextRegistrar;
 import com.globant.katari.tools.ListFactory;
 
 public class MenuAccessFiltererTest {
@@ -242,4 +252,104 @@ public class MenuAccessFiltererTest {
     assertThat(filteredNodes.get(1), is(grantedRootNode3));
     assertThat(filteredNodes.get(2), is(grantedRootNode4));
   }
+
+  @After
+  public void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  /** Sets an authentication with the provided authorities. */
+  private void authenticate(final String ... roles) {
+    GrantedAuthority[] authorities = new GrantedAuthority[roles.length];
+    for (int i = 0; i < roles.length; ++i) {
+      authorities[i] = new GrantedAuthorityImpl(roles[i]);
+    }
+    Authentication authentication;
+    authentication = new TestingAuthenticationToken("user", "", authorities);
+    SecurityContextHolder.getContext().setAuthentication(authentication);
+  }
+
+  /** Creates a menu bar with two leaves. */
+  private MenuBar createMenuBar() {
+    MenuBar menuBar = new MenuBar("root", "root");
+    MenuNode branch = new MenuNode(menuBar, "a", "a", 0, null);
+    new MenuNode(branch, "a_a", "a_a", 0, null, GRANTED_URL);
+    new MenuNode(menuBar, "b", "b", 0, null, DENIED_URL);
+    return menuBar;
+  }
+
+  /** Creates a filterer that records the checked nodes. */
+  private MenuAccessFilterer createFilterer(final List<String> checked) {
+    return new MenuAccessFilterer(accessHelper) {
+      public boolean isAccessible(final MenuNode node) {
+        checked.add(node.getPath());
+        return super.isAccessible(node);
+      }
+    };
+  }
+
+  @Test
+  public void testGetFilteredMenu_cachedByAuthorities() {
+    List<String> checked = new ArrayList<String>();
+    filterer = createFilterer(checked);
+    MenuBar menuBar = createMenuBar();
+
+    authenticate("ROLE_A", "ROLE_B");
+    FilteredMenu menu = filterer.getFilteredMenu(menuBar);
+    assertThat(menu.getChildNodes(menuBar).size(), is(1));
+    // filterMenuNodes checks a_a for the root and again for a.
+    assertThat(checked.size(), is(3));
+
+    authenticate("ROLE_B", "ROLE_A");
+    assertThat(filterer.getFilteredMenu(menuBar), is(menu));
+    assertThat(checked.size(), is(3));
+
+    authenticate("ROLE_A");
+    FilteredMenu other = filterer.getFilteredMenu(menuBar);
+    assertThat(other, is(not(menu)));
+    assertThat(checked.size(), is(6));
+  }
+
+  @Test
+  public void testGetFilteredMenu_notAuthenticated() {
+    List<String> checked = new ArrayList<String>();
+    filterer = createFilterer(checked);
+    MenuBar menuBar = createMenuBar();
+    filterer.getFilteredMenu(menuBar);
+    filterer.getFilteredMenu(menuBar);
+    assertThat(checked.size(), is(6));
+  }
+
+  @Test
+  public void testGetFilteredMenu_configurationChanged() {
+    ModuleContextRegistrar registrar = createMock(ModuleContextRegistrar.class);
+    expect(registrar.getConfigurationVersion()).andReturn(1L).times(2);
+    expect(registrar.getConfigurationVersion()).andReturn(2L).times(2);
+    replay(registrar);
+
+    List<String> checked = new ArrayList<String>();
+    filterer = createFilterer(checked);
+    filterer.setModuleContextRegistrar(registrar);
+    MenuBar menuBar = createMenuBar();
+    authenticate("ROLE_A");
+
+    FilteredMenu menu = filterer.getFilteredMenu(menuBar);
+    assertThat(filterer.getFilteredMenu(menuBar), is(not(menu)));
+    assertThat(checked.size(), is(6));
+    filterer.getFilteredMenu(menuBar);
+    assertThat(checked.size(), is(6));
+    verify(registrar);
+  }
+
+  @Test
+  public void testGetFilteredMenu_cacheDisabled() {
+    List<String> checked = new ArrayList<String>();
+    filterer = createFilterer(checked);
+    filterer.setCacheSize(0);
+    MenuBar menuBar = createMenuBar();
+    authenticate("ROLE_A");
+    filterer.getFilteredMenu(menuBar);
+    filterer.getFilteredMenu(menuBar);
+    assertThat(checked.size(), is(6));
+  }
 }
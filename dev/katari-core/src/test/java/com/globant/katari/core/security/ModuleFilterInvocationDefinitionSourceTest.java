@@ -0,0 +1,76 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.security;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.acegisecurity.ConfigAttributeDefinition;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.core.web.ModuleContext;
+import com.globant.katari.core.web.ModuleContextRegistrar;
+
+public class ModuleFilterInvocationDefinitionSourceTest {
+
+  private ModuleFilterInvocationDefinitionSource source;
+
+  @Before
+  public void setUp() {
+    Map<String, String[]> moduleRoles = new LinkedHashMap<String, String[]>();
+    moduleRoles.put("/edit.do", new String[] {"ROLE_ADMIN"});
+    moduleRoles.put("/public.do", new String[0]);
+    moduleRoles.put("/**", new String[] {"ROLE_USER", "ROLE_ADMIN"});
+
+    ModuleContext context = createMock(ModuleContext.class);
+    expect(context.getUrlToRoleMapper()).andReturn(
+        new StaticUrlToRoleMapper(moduleRoles)).anyTimes();
+    replay(context);
+
+    ModuleContextRegistrar registrar;
+    registrar = createMock(ModuleContextRegistrar.class);
+    expect(registrar.getModuleContext("test")).andReturn(context).anyTimes();
+    replay(registrar);
+
+    Map<String, String[]> rootRoles = new LinkedHashMap<String, String[]>();
+    rootRoles.put("/**", new String[] {"ROLE_USER", "ROLE_ADMIN"});
+
+    source = new ModuleFilterInvocationDefinitionSource(registrar,
+        new StaticUrlToRoleMapper(rootRoles));
+  }
+
+  @Test
+  public void testLookupAttributes() {
+    ConfigAttributeDefinition definition;
+    definition = source.lookupAttributes("/module/test/edit.do");
+    assertEquals(1, definition.size());
+    definition = source.lookupAttributes("/module/test/list.do");
+    assertEquals(2, definition.size());
+    assertNull(source.lookupAttributes("/module/test/public.do"));
+  }
+
+  @Test
+  public void testLookupAttributes_memoized() {
+    ConfigAttributeDefinition edit;
+    edit = source.lookupAttributes("/module/test/edit.do");
+    assertSame(edit, source.lookupAttributes("/module/test/edit.do"));
+
+    ConfigAttributeDefinition list;
+    list = source.lookupAttributes("/module/test/list.do");
+    assertNotSame(edit, list);
+    // The same roles in another module, or in the root mapper, share the
+    // definition.
+    assertSame(list, source.lookupAttributes("/module/test/view.do"));
+    assertSame(list, source.lookupAttributes("/index.html"));
+  }
+}
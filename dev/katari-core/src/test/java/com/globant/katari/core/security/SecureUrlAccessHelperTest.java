@@ -14,6 +14,8 @@ import org.acegisecurity.context.SecurityContextHolder;
 
 import org.apache.commons.lang.Validate;
 
+import com.globant.katari.core.web.ModuleContextRegistrar;
+
 import static org.easymock.EasyMock.*;
 
 /**
@@ -78,6 +80,158 @@ public class SecureUrlAccessHelperTest extends TestCase {
     helper = new SecureUrlAccessHelper(sourceMock, new DummyDecisionManager());
   }
 
+  /** Creates a definition source that expects to be called a number of
+   * times for the granted url.
+   */
+  private AbstractFilterInvocationDefinitionSource createCountingSource(
+      final int times) {
+    AbstractFilterInvocationDefinitionSource countingSource =
+        createMock(AbstractFilterInvocationDefinitionSource.class);
+    expect(countingSource.lookupAttributes(ABSOLUTE_GRANTED))
+      .andReturn(new GrantAccess()).times(times);
+    replay(countingSource);
+    return countingSource;
+  }
+
+  /** Sets an authentication with the provided authorities. */
+  private void authenticate(final String ... roles) {
+    GrantedAuthority[] authorities = new GrantedAuthority[roles.length];
+    for (int i = 0; i < roles.length; ++i) {
+      GrantedAuthority authority = createMock(GrantedAuthority.class);
+      expect(authority.getAuthority()).andReturn(roles[i]).anyTimes();
+      replay(authority);
+      authorities[i] = authority;
+    }
+    Authentication authentication = createMock(Authentication.class);
+    expect(authentication.getAuthorities()).andReturn(authorities).anyTimes();
+    replay(authentication);
+    SecurityContextHolder.getContext().setAuthentication(authentication);
+  }
+
+  /** Test that a repeated check is answered from the cache. */
+  public void testCanAccessUrl_cached() {
+    AbstractFilterInvocationDefinitionSource countingSource;
+    countingSource = createCountingSource(1);
+    helper = new SecureUrlAccessHelper(countingSource,
+        new DummyDecisionManager());
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "/ctx" + ABSOLUTE_GRANTED));
+    verify(countingSource);
+    assertEquals(1, helper.getCacheHits());
+    assertEquals(1, helper.getCacheMisses());
+  }
+
+  /** Test that the links that only differ in the query string share the
+   * cached decision. */
+  public void testCanAccessUrl_cachedWithoutQuery() {
+    AbstractFilterInvocationDefinitionSource countingSource;
+    countingSource = createCountingSource(1);
+    helper = new SecureUrlAccessHelper(countingSource,
+        new DummyDecisionManager());
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do?id=1"));
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do?id=2"));
+    verify(countingSource);
+    assertEquals(1, helper.getCacheHits());
+    assertEquals(1, helper.getCacheMisses());
+  }
+
+  /** Test that the dot segments are resolved before looking up the url. */
+  public void testCanAccessUrl_dotSegments() {
+    assertTrue(helper.canAccessUrl("/ctx/module/m/sub/list.do",
+          "../edit.do#top"));
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "./edit.do"));
+    assertFalse(helper.canAccessUrl(SOURCE_URI, "x/../../m/delete.do"));
+  }
+
+  /** Test the normalization of the urls. */
+  public void testNormalize() {
+    assertEquals("/module/m/edit.do",
+        SecureUrlAccessHelper.normalize("/module/m/edit.do?a=b#c"));
+    assertEquals("/module/m/edit.do",
+        SecureUrlAccessHelper.normalize("/module/m/edit.do#c?a=b"));
+    assertEquals("/module/x.do",
+        SecureUrlAccessHelper.normalize("/module/m/./../x.do"));
+    assertEquals("/module/m/",
+        SecureUrlAccessHelper.normalize("/module/m/x/.."));
+    assertEquals("/x.do", SecureUrlAccessHelper.normalize("/../../x.do"));
+  }
+
+  /** Test that the cached decisions are not shared among users with
+   * different authorities, and shared among users with the same ones.
+   */
+  public void testCanAccessUrl_cachedByAuthorities() {
+    AbstractFilterInvocationDefinitionSource countingSource;
+    countingSource = createCountingSource(2);
+    helper = new SecureUrlAccessHelper(countingSource,
+        new DummyDecisionManager());
+    authenticate("ROLE_A", "ROLE_B");
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    authenticate("ROLE_B", "ROLE_A");
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    authenticate("ROLE_A");
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    verify(countingSource);
+    assertEquals(1, helper.getCacheHits());
+    assertEquals(2, helper.getCacheMisses());
+  }
+
+  /** Test that denied decisions are also cached. */
+  public void testCanAccessUrl_deniedCached() {
+    assertFalse(helper.canAccessUrl(SOURCE_URI, "delete.do"));
+    assertFalse(helper.canAccessUrl(SOURCE_URI, "delete.do"));
+    assertFalse(helper.canAccessUrl(SOURCE_URI, "/ctx" + MODULE_ROOT));
+    assertFalse(helper.canAccessUrl(SOURCE_URI, "/ctx" + MODULE_ROOT));
+    assertEquals(2, helper.getCacheHits());
+    assertEquals(2, helper.getCacheMisses());
+  }
+
+  /** Test that the cache is discarded when the module configuration
+   * changes.
+   */
+  public void testCanAccessUrl_configurationChanged() {
+    ModuleContextRegistrar registrar = createMock(ModuleContextRegistrar.class);
+    expect(registrar.getConfigurationVersion()).andReturn(1L).times(3);
+    expect(registrar.getConfigurationVersion()).andReturn(2L).times(2);
+    replay(registrar);
+
+    AbstractFilterInvocationDefinitionSource countingSource;
+    countingSource = createCountingSource(2);
+    helper = new SecureUrlAccessHelper(countingSource,
+        new DummyDecisionManager());
+    helper.setModuleContextRegistrar(registrar);
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    verify(countingSource);
+    verify(registrar);
+  }
+
+  /** Test that clearCache discards the cached decisions. */
+  public void testClearCache() {
+    AbstractFilterInvocationDefinitionSource countingSource;
+    countingSource = createCountingSource(2);
+    helper = new SecureUrlAccessHelper(countingSource,
+        new DummyDecisionManager());
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    helper.clearCache();
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    verify(countingSource);
+  }
+
+  /** Test that a cache size of 0 disables the cache. */
+  public void testSetCacheSize_disabled() {
+    AbstractFilterInvocationDefinitionSource countingSource;
+    countingSource = createCountingSource(2);
+    helper = new SecureUrlAccessHelper(countingSource,
+        new DummyDecisionManager());
+    helper.setCacheSize(0);
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    assertTrue(helper.canAccessUrl(SOURCE_URI, "edit.do"));
+    verify(countingSource);
+    assertEquals(0, helper.getCacheHits());
+  }
+
   /**
    * Test grant access to relative edit url from valid uri location.
    */
@@ -1,8 +1,12 @@
 package com.globant.katari.core.security;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.acegisecurity.AccessDeniedException;
+import org.springframework.util.AntPathMatcher;
+
 import junit.framework.TestCase;
 
 public class StaticUrlToRoleMapperTest extends TestCase {
@@ -43,4 +47,51 @@ public class StaticUrlToRoleMapperTest extends TestCase {
   public void testGetRolesForUrl_withParamsAndSlash() {
     assertEquals(2, mapper.getRolesForUrl("/edit.do?param=/root/x").length);
   }
+
+  public void testGetRolesForUrl_caseInsensitive() {
+    assertEquals(2, mapper.getRolesForUrl("/EDIT.do").length);
+  }
+
+  public void testGetRolesForUrl_noMatch() {
+    Map<String, String[]> urlsToRoles = new LinkedHashMap<String, String[]>();
+    urlsToRoles.put("/edit.do", new String[] {"ROLE_A"});
+    mapper = new StaticUrlToRoleMapper(urlsToRoles);
+    try {
+      mapper.getRolesForUrl("/list.do");
+      fail("AccessDeniedException expected");
+    } catch (AccessDeniedException e) {
+    }
+  }
+
+  public void testGetRolesForUrl_declarationOrder() {
+    Map<String, String[]> urlsToRoles = new LinkedHashMap<String, String[]>();
+    urlsToRoles.put("/**/*", new String[] {"ROLE_A"});
+    urlsToRoles.put("/Edit.do", new String[] {"ROLE_A", "ROLE_B"});
+    mapper = new StaticUrlToRoleMapper(urlsToRoles);
+    assertEquals(1, mapper.getRolesForUrl("/edit.do").length);
+  }
+
+  public void testGetRolesForUrl_unorderedMapMostSpecificFirst() {
+    Map<String, String[]> urlsToRoles = new HashMap<String, String[]>();
+    urlsToRoles.put("/**", new String[] {"ROLE_A"});
+    urlsToRoles.put("/report/**", new String[] {"ROLE_A", "ROLE_B"});
+    urlsToRoles.put("/report/*.do", new String[] {"ROLE_A", "ROLE_B",
+        "ROLE_C"});
+    urlsToRoles.put("/report/edit.do", new String[] {"ROLE_A", "ROLE_B",
+        "ROLE_C", "ROLE_D"});
+    mapper = new StaticUrlToRoleMapper(urlsToRoles);
+    assertEquals(4, mapper.getRolesForUrl("/report/edit.do").length);
+    assertEquals(3, mapper.getRolesForUrl("/report/list.do").length);
+    assertEquals(2, mapper.getRolesForUrl("/report/x/list.do").length);
+    assertEquals(1, mapper.getRolesForUrl("/user/list.do").length);
+  }
+
+  public void testGetRolesForUrl_customPathMatcher() {
+    mapper.setPathMatcher(new AntPathMatcher() {
+      public boolean match(final String pattern, final String path) {
+        return pattern.equals("/**/*");
+      }
+    });
+    assertEquals(1, mapper.getRolesForUrl("/edit.do").length);
+  }
 }
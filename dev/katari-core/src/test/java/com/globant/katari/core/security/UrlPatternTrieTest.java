@@ -0,0 +1,78 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+
+public class UrlPatternTrieTest {
+
+  private static final String[] PATTERNS = new String[] {
+    "/edit.do", "/report/*.do", "/report/**/view.do", "/a/*", "/a/b/",
+    "/**/*.js", "/user/{id}/edit.do", "/user/?ist.do", "/x/**", "/**/y/**",
+    "/**"
+  };
+
+  private static final String[] PATHS = new String[] {
+    "/edit.do", "/edit.do/", "/report/list.do", "/report/list.txt",
+    "/report/view.do", "/report/a/b/view.do", "/a/", "/a", "/a/b", "/a/b/",
+    "/a/b/c", "/lib/jquery.js", "/user/12/edit.do", "/user/list.do",
+    "/user/lists.do", "/x", "/x/", "/x/1/2", "/1/y/2", "/y", "/", "",
+    "/report//list.do", "/ report /list.do"
+  };
+
+  private Map<String, Integer> buildPatterns(final int count) {
+    Map<String, Integer> patterns = new LinkedHashMap<String, Integer>();
+    for (int i = 0; i < count; ++i) {
+      patterns.put(PATTERNS[i], i);
+    }
+    return patterns;
+  }
+
+  /** Finds the first pattern that matches with a linear scan. */
+  private Integer linearFind(final Map<String, Integer> patterns,
+      final String path) {
+    AntPathMatcher matcher = new AntPathMatcher();
+    for (Map.Entry<String, Integer> entry : patterns.entrySet()) {
+      if (matcher.match(entry.getKey(), path)) {
+        return entry.getValue();
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void testFind_sameAsAntPathMatcher() {
+    for (int count = 0; count <= PATTERNS.length; ++count) {
+      Map<String, Integer> patterns = buildPatterns(count);
+      UrlPatternTrie<Integer> trie = new UrlPatternTrie<Integer>(patterns);
+      for (String path : PATHS) {
+        assertEquals("Patterns " + patterns.keySet() + ", path " + path,
+            linearFind(patterns, path), trie.find(path));
+      }
+    }
+  }
+
+  @Test
+  public void testFind_precedence() {
+    Map<String, Integer> patterns = new LinkedHashMap<String, Integer>();
+    patterns.put("/**", 1);
+    patterns.put("/edit.do", 2);
+    UrlPatternTrie<Integer> trie = new UrlPatternTrie<Integer>(patterns);
+    assertEquals(Integer.valueOf(1), trie.find("/edit.do"));
+  }
+
+  @Test
+  public void testFind_noMatch() {
+    Map<String, Integer> patterns = new LinkedHashMap<String, Integer>();
+    patterns.put("/edit.do", 1);
+    UrlPatternTrie<Integer> trie = new UrlPatternTrie<Integer>(patterns);
+    assertNull(trie.find("/list.do"));
+  }
+}
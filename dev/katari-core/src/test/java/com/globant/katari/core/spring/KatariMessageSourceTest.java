@@ -214,5 +214,135 @@ public class KatariMessageSourceTest {
     // Bonjour is overriden by the parent.
     assertThat(message, is("hey you"));
   }
-}
 
+  @Test public void getMessage_firstDependencyWins() {
+    KatariMessageSource parent = new KatariMessageSource(Locale.US);
+    parent.setBasename(
+        "classpath:com/globant/katari/core/spring/katariMessageSource2");
+
+    KatariMessageSource dependency = new KatariMessageSource(Locale.US);
+    dependency.setBasename(
+        "classpath:com/globant/katari/core/spring/katariMessageSourceDep");
+
+    KatariMessageSource other = new KatariMessageSource(Locale.US);
+    other.setBasename(
+        "classpath:com/globant/katari/core/spring/katariMessageSource2");
+
+    ArrayList<KatariMessageSource> dependencies;
+    dependencies = new ArrayList<KatariMessageSource>();
+    dependencies.add(dependency);
+    dependencies.add(other);
+
+    KatariMessageSource messageSource;
+    messageSource = new KatariMessageSource("local-login", parent,
+        dependencies);
+    messageSource.setBasename("classpath:katariMessageSource");
+
+    // The second dependency does not have the message, it must not hide the
+    // one found in the first dependency.
+    String message = messageSource.getMessage("dependency1", null, Locale.US);
+    assertThat(message, is("message from dependency"));
+  }
+
+  @Test public void getMessage_cachedWithArguments() {
+    KatariMessageSource parent = new KatariMessageSource(Locale.US);
+    parent.setBasename(
+        "classpath:com/globant/katari/core/spring/katariMessageSource2");
+
+    KatariMessageSource dependency = new KatariMessageSource(Locale.US);
+    dependency.setBasename(
+        "classpath:com/globant/katari/core/spring/katariMessageSourceDep");
+
+    KatariMessageSource messageSource;
+    messageSource = new KatariMessageSource("local-login", parent,
+        Arrays.asList(dependency));
+    messageSource.setBasename("classpath:katariMessageSource");
+
+    String message = messageSource.getMessage("greeting",
+        new Object[] {"John", 2}, Locale.US);
+    assertThat(message, is("Hello John, you have 2 messages"));
+
+    // Second time, from the cache.
+    message = messageSource.getMessage("greeting",
+        new Object[] {"Mary", 3}, Locale.US);
+    assertThat(message, is("Hello Mary, you have 3 messages"));
+
+    message = messageSource.getMessage("greeting", null, Locale.US);
+    assertThat(message, is("Hello {0}, you have {1} messages"));
+
+    message = messageSource.getMessage("unknown", null, "default",
+        Locale.US);
+    assertThat(message, is("default"));
+  }
+
+  @Test public void getMessage_clearCache() throws Exception {
+    KatariMessageSource parent = new KatariMessageSource(Locale.US);
+    parent.setBasename(
+        "classpath:com/globant/katari/core/spring/katariMessageSource2");
+
+    File file = new File("target/katariMessageSourceCache.properties");
+    try {
+      FileCopyUtils.copy("cached=first".getBytes(), file);
+
+      KatariMessageSource dependency = new KatariMessageSource(Locale.US);
+      dependency.setBasename("file:target/katariMessageSourceCache");
+
+      KatariMessageSource messageSource;
+      messageSource = new KatariMessageSource("local-login", parent,
+          Arrays.asList(dependency));
+      messageSource.setBasename("classpath:katariMessageSource2");
+      messageSource.setResolvedCacheSize(1);
+
+      assertThat(messageSource.getMessage("cached", null, Locale.US),
+          is("first"));
+
+      FileCopyUtils.copy("cached=second".getBytes(), file);
+      // The bundles are cached forever.
+      assertThat(messageSource.getMessage("cached", null, Locale.US),
+          is("first"));
+
+      // Unknown codes are not cached, so they do not evict the message.
+      assertThat(messageSource.getMessage("unknown", null, "none",
+            Locale.US), is("none"));
+      assertThat(messageSource.getMessage("cached", null, Locale.US),
+          is("first"));
+
+      // Clearing the cache of the dependency also discards the messages
+      // resolved by the module.
+      dependency.clearCache();
+      assertThat(messageSource.getMessage("cached", null, Locale.US),
+          is("second"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void getMessage_flatten() {
+    KatariMessageSource parent = new KatariMessageSource(Locale.US);
+    parent.setBasename(
+        "classpath:com/globant/katari/core/spring/katariMessageSource");
+
+    KatariMessageSource dependency = new KatariMessageSource(Locale.US);
+    dependency.setBasename(
+        "classpath:com/globant/katari/core/spring/katariMessageSourceDep");
+
+    KatariMessageSource messageSource;
+    messageSource = new KatariMessageSource("local-login", parent,
+        Arrays.asList(dependency));
+    messageSource.setBasename("classpath:katariMessageSource");
+    messageSource.setFlatten(true);
+
+    assertThat(messageSource.getMessage("test1", null, Locale.US),
+        is("overriden_1"));
+    assertThat(messageSource.getMessage("test2", null, Locale.US),
+        is("overriden_2_for_module_name"));
+    assertThat(messageSource.getMessage("dependency1", null, Locale.US),
+        is("message from dependency"));
+    assertThat(messageSource.getMessage("dependency2", null, Locale.US),
+        is("hey you"));
+    assertThat(messageSource.getMessage("greeting", new Object[] {"John", 1},
+          Locale.US), is("Hello John, you have 1 messages"));
+    assertThat(messageSource.getMessage("unknown", null, "none", Locale.US),
+        is("none"));
+  }
+}
@@ -0,0 +1,71 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.web;
+
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ByteRangeTest {
+
+  @Test
+  public void testParse_simple() {
+    List<ByteRange> ranges = ByteRange.parse("bytes=10-19", 100);
+    assertEquals(1, ranges.size());
+    assertEquals(10, ranges.get(0).getFirst());
+    assertEquals(19, ranges.get(0).getLast());
+    assertEquals(10, ranges.get(0).getLength());
+    assertEquals("bytes 10-19/100", ranges.get(0).toContentRange(100));
+  }
+
+  @Test
+  public void testParse_openEnded() {
+    List<ByteRange> ranges = ByteRange.parse("bytes=90-", 100);
+    assertEquals(1, ranges.size());
+    assertEquals(90, ranges.get(0).getFirst());
+    assertEquals(99, ranges.get(0).getLast());
+  }
+
+  @Test
+  public void testParse_suffix() {
+    List<ByteRange> ranges = ByteRange.parse("bytes=-200", 100);
+    assertEquals(1, ranges.size());
+    assertEquals(0, ranges.get(0).getFirst());
+    assertEquals(99, ranges.get(0).getLast());
+  }
+
+  @Test
+  public void testParse_lastPastTheEnd() {
+    List<ByteRange> ranges = ByteRange.parse("bytes=50-500", 100);
+    assertEquals(99, ranges.get(0).getLast());
+  }
+
+  @Test
+  public void testParse_coalesce() {
+    List<ByteRange> ranges = ByteRange.parse(
+        "bytes=50-59, 0-9, 10-19, 55-70", 100);
+    assertEquals(2, ranges.size());
+    assertEquals(0, ranges.get(0).getFirst());
+    assertEquals(19, ranges.get(0).getLast());
+    assertEquals(50, ranges.get(1).getFirst());
+    assertEquals(70, ranges.get(1).getLast());
+  }
+
+  @Test
+  public void testParse_unsatisfiable() {
+    assertTrue(ByteRange.parse("bytes=100-", 100).isEmpty());
+    assertTrue(ByteRange.parse("bytes=-0", 100).isEmpty());
+    assertEquals(1, ByteRange.parse("bytes=200-300, 1-1", 100).size());
+  }
+
+  @Test
+  public void testParse_invalid() {
+    assertNull(ByteRange.parse("items=0-1", 100));
+    assertNull(ByteRange.parse("bytes=1", 100));
+    assertNull(ByteRange.parse("bytes=5-3", 100));
+    assertNull(ByteRange.parse("bytes=a-3", 100));
+    assertNull(ByteRange.parse("bytes=1--3", 100));
+  }
+}
+
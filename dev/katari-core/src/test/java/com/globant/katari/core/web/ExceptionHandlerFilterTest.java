@@ -105,16 +105,58 @@ public class ExceptionHandlerFilterTest {
     assertThat(response.getCookies()[0].getName(), is("previewErrorPage"));
   }
 
+  @Test
+  public void testDoFilter_bufferedUnderThreshold() throws Exception {
+    filter = new ExceptionHandlerFilter("/module/decorator/error.ftl", false);
+    filter.setBufferSize(100);
+    filter.init(filterConfig);
+    FilterChain chain = new FilterChainMock("RuntimeException", "partial");
+    filter.doFilter(request, response, chain);
+    assertThat(response.getIncludedUrl(), is("/module/decorator/error.ftl"));
+    assertThat(response.getContentAsString(), is(""));
+  }
+
+  @Test
+  public void testDoFilter_streamedOverThreshold() throws Exception {
+    filter = new ExceptionHandlerFilter("/module/decorator/error.ftl", false);
+    filter.setBufferSize(4);
+    filter.init(filterConfig);
+    FilterChain chain = new FilterChainMock(null, "0123456789");
+    filter.doFilter(request, response, chain);
+    assertThat(response.getContentAsString(), is("0123456789"));
+    assertThat(response.isCommitted(), is(true));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testDoFilter_errorAfterStreaming() throws Exception {
+    filter = new ExceptionHandlerFilter("/module/decorator/error.ftl", false);
+    filter.setBufferSize(4);
+    filter.init(filterConfig);
+    FilterChain chain = new FilterChainMock("RuntimeException", "0123456789");
+    filter.doFilter(request, response, chain);
+  }
+
   private static class FilterChainMock implements FilterChain {
 
     private String exceptionName;
 
+    private String output = null;
+
     public FilterChainMock(final String theExceptionName) {
       exceptionName = theExceptionName;
     }
 
+    public FilterChainMock(final String theExceptionName,
+        final String theOutput) {
+      exceptionName = theExceptionName;
+      output = theOutput;
+    }
+
     public void doFilter(final ServletRequest request,
         final ServletResponse response) throws IOException, ServletException {
+      if (output != null) {
+        response.getOutputStream().write(output.getBytes());
+      }
       if ("RuntimeException".equals(exceptionName)) {
         throw new RuntimeException("1 - Message");
       } else if ("ServletException".equals(exceptionName)) {
@@ -81,5 +81,21 @@ public class ModuleContextRegistrarTest {
       .getPropertyValue("menuBar");
     assertThat(contextMenuBar, is(nullValue()));
   }
-}
 
+  @Test
+  public void testGetConfigurationVersion() {
+    LoginConfigurationSetter loginConfig;
+    loginConfig = createMock(LoginConfigurationSetter.class);
+    ModuleContextRegistrar registrar = new ModuleContextRegistrar(
+        new ModuleListenerProxy(), new ModuleFilterProxy(),
+        new ModuleContainerServlet(), new KatariMessageSource(Locale.US),
+        new MenuBar(), loginConfig);
+
+    long initial = registrar.getConfigurationVersion();
+    registrar.getNewModuleContext("test");
+    long afterModule = registrar.getConfigurationVersion();
+    assertThat(afterModule, not(initial));
+    registrar.setInitialized();
+    assertThat(registrar.getConfigurationVersion(), not(afterModule));
+  }
+}
@@ -21,6 +21,7 @@ import javax.servlet.FilterChain;
 import javax.servlet.ServletContext;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 
 import static org.easymock.EasyMock.*;
 
@@ -292,6 +293,73 @@ public class ModuleFilterProxyTest extends TestCase {
     assertEquals(0, filter3.parameterCount);
   }
 
+  /* Tests that a filter that wraps the request with a different path changes
+   * the filters applied after it.
+   */
+  public final void testDoFilter_wrappedRequest() throws Exception {
+
+    final HttpServletRequest wrapped = new HttpServletRequestWrapper(request) {
+      public String getServletPath() {
+        return "/module/other/";
+      }
+      public String getPathInfo() {
+        return "page.do";
+      }
+    };
+
+    chain = createMock(FilterChain.class);
+    chain.doFilter(wrapped, response);
+    replay(chain);
+
+    Filter wrapper = new TestFilter() {
+      public void doFilter(final ServletRequest request, final ServletResponse
+          response, final FilterChain filterChain) throws ServletException,
+             IOException {
+        filterChain.doFilter(wrapped, response);
+      }
+    };
+
+    filters = new LinkedList<FilterMapping>();
+    filters.add(new FilterMapping(".*/user/.*", new FilterAndParameters(
+            wrapper), 1));
+    filters.add(new FilterMapping(".*/user/.*",
+          new FilterAndParameters(filter1), 2));
+    filters.add(new FilterMapping(".*/other/.*",
+          new FilterAndParameters(filter2), 3));
+
+    ModuleFilterProxy filter = new ModuleFilterProxy();
+    filter.addFilters(filters);
+
+    filter.doFilter(request, response, chain);
+
+    assertTrue(!filter1.called);
+    assertTrue(filter2.called);
+    verify(chain);
+  }
+
+  /* Tests that the plan cached for a request path is discarded when new
+   * filters are added.
+   */
+  public final void testDoFilter_addFiltersAfterRequest() throws Exception {
+
+    chain = createMock(FilterChain.class);
+    chain.doFilter(request, response);
+    expectLastCall().times(2);
+    replay(chain);
+
+    ModuleFilterProxy filter = new ModuleFilterProxy();
+    filter.addFilters(filters.subList(0, 1));
+    filter.doFilter(request, response, chain);
+    assertTrue(filter1.called);
+    assertTrue(!filter2.called);
+
+    filter.addFilters(filters.subList(1, 2));
+    filter1.order = 0;
+    filter.doFilter(request, response, chain);
+    assertTrue(filter2.called);
+    verify(chain);
+  }
+
   /* Tests if destroy is properly disptached to each filter.
   */
   public final void testDestroy() throws Exception {
@@ -0,0 +1,100 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.web;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServlet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.core.web.ModuleContainerServlet.ServletData;
+
+public class ModuleServletRouterTest {
+
+  private HttpServlet doServlet = new HttpServlet() {
+    private static final long serialVersionUID = 1L;
+  };
+
+  private HttpServlet testServlet = new HttpServlet() {
+    private static final long serialVersionUID = 1L;
+  };
+
+  private HttpServlet literalServlet = new HttpServlet() {
+    private static final long serialVersionUID = 1L;
+  };
+
+  private ModuleServletRouter router;
+
+  @Before
+  public void setUp() {
+    Map<String, ServletAndParameters> userMap;
+    userMap = new LinkedHashMap<String, ServletAndParameters>();
+    userMap.put("/static/", new ServletAndParameters(literalServlet));
+    userMap.put(".*\\.do", new ServletAndParameters(doServlet));
+    userMap.put(".*/test", new ServletAndParameters(testServlet));
+
+    Map<String, ServletAndParameters> nestedMap;
+    nestedMap = new LinkedHashMap<String, ServletAndParameters>();
+    nestedMap.put("/x.*", new ServletAndParameters(testServlet));
+
+    Map<String, Map<String, ServletAndParameters>> modules;
+    modules = new HashMap<String, Map<String, ServletAndParameters>>();
+    modules.put("user", userMap);
+    modules.put("user/nested", nestedMap);
+    router = new ModuleServletRouter(modules, 10);
+  }
+
+  @Test
+  public void testRoute_regex() {
+    ServletData data = router.route("/user/welcome.do");
+    assertSame(doServlet, data.getServlet());
+    assertEquals("user", data.getModuleName());
+    assertEquals("/welcome.do", data.getServletPath());
+  }
+
+  @Test
+  public void testRoute_literal() {
+    ServletData data = router.route("/user/static/a.css");
+    assertSame(literalServlet, data.getServlet());
+    assertEquals("/static/", data.getServletPath());
+  }
+
+  @Test
+  public void testRoute_order() {
+    // Matches both .*\.do and .*/test, the first one in the map wins.
+    ServletData data = router.route("/user/a.do/test");
+    assertSame(doServlet, data.getServlet());
+    assertEquals("/a.do", data.getServletPath());
+  }
+
+  @Test
+  public void testRoute_longestModule() {
+    ServletData data = router.route("/user/nested/xyz");
+    assertSame(testServlet, data.getServlet());
+    assertEquals("user/nested", data.getModuleName());
+    assertEquals("/xyz", data.getServletPath());
+  }
+
+  @Test
+  public void testRoute_cached() {
+    assertSame(router.route("/user/welcome.do"),
+        router.route("/user/welcome.do"));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testRoute_unknownModule() {
+    router.route("/users/welcome.do");
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testRoute_unknownServlet() {
+    router.route("/user/welcome.htm");
+  }
+}
+
@@ -0,0 +1,62 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.core.web;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class SegmentedOutputStreamTest {
+
+  /* Creates an array of the specified size with predictable content.
+   */
+  private byte[] createData(final int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; ++i) {
+      data[i] = (byte) i;
+    }
+    return data;
+  }
+
+  @Test
+  public final void testWrite_acrossSegments() throws Exception {
+    byte[] data = createData(SegmentedOutputStream.SEGMENT_SIZE * 2 + 10);
+
+    SegmentedOutputStream stream = new SegmentedOutputStream();
+    stream.write(data[0]);
+    stream.write(data, 1, data.length - 1);
+
+    assertEquals(data.length, stream.size());
+    assertArrayEquals(data, stream.toByteArray());
+
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    stream.writeTo(target);
+    assertArrayEquals(data, target.toByteArray());
+
+    assertArrayEquals(data, IOUtils.toByteArray(stream.getInputStream()));
+  }
+
+  @Test
+  public final void testWriteTo_empty() throws Exception {
+    SegmentedOutputStream stream = new SegmentedOutputStream();
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    stream.writeTo(target);
+    assertEquals(0, target.size());
+    assertEquals(-1, stream.getInputStream().read());
+  }
+
+  @Test
+  public final void testRelease() throws Exception {
+    SegmentedOutputStream stream = new SegmentedOutputStream();
+    stream.write(createData(100), 0, 100);
+    stream.release();
+    assertEquals(0, stream.size());
+
+    stream.write("reused".getBytes("utf-8"));
+    assertEquals("reused", stream.toString("utf-8"));
+  }
+}
+
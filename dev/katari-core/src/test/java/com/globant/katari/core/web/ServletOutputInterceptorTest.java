@@ -73,6 +73,40 @@ public class ServletOutputInterceptorTest {
     verify(response);
   }
 
+  /* Tests that bulk writes reach both the output stream and the original
+   * output stream.
+   */
+  @Test
+  public final void testOutputStream_bulkWriteThrough() throws Exception {
+
+    final ByteArrayOutputStream original = new ByteArrayOutputStream();
+    ServletOutputStream outputStream = new ServletOutputStream() {
+      public void write(final int theByte) throws IOException {
+        fail("write(int) called on a bulk write");
+      }
+      public void write(final byte[] buffer, final int off, final int len) {
+        original.write(buffer, off, len);
+      }
+    };
+
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    expect(response.getOutputStream()).andReturn(outputStream);
+    replay(response);
+
+    final SegmentedOutputStream stream = new SegmentedOutputStream();
+    ServletOutputInterceptor wrapper = new ServletOutputInterceptor(response,
+        true) {
+      protected OutputStream createOutputStream() {
+        return stream;
+      }
+    };
+    wrapper.getOutputStream().write("0123456789".getBytes(), 2, 5);
+
+    assertEquals("23456", stream.toString());
+    assertEquals("23456", original.toString());
+    verify(response);
+  }
+
   /* Tests that two successive calls to getOutputStream succeeds.
    */
   @Test
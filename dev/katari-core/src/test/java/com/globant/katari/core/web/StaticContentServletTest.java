@@ -4,11 +4,14 @@ package com.globant.katari.core.web;
 
 import java.util.Hashtable;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.StringWriter;
 import java.io.PrintWriter;
 
+import java.util.zip.GZIPInputStream;
+
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletOutputStream;
@@ -16,6 +19,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.IOUtils;
+
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockServletConfig;
@@ -44,6 +49,12 @@ public class StaticContentServletTest {
     expect(request.getServletPath()).andReturn("/test_image.gif");
     expectLastCall().anyTimes();
     expect(request.getDateHeader("If-Modified-Since")).andReturn(0l);
+    expect(request.getHeader("If-None-Match")).andReturn(null);
+    expectLastCall().anyTimes();
+    expect(request.getHeader("Accept-Encoding")).andReturn(null);
+    expectLastCall().anyTimes();
+    expect(request.getHeader("Range")).andReturn(null);
+    expectLastCall().anyTimes();
     expect(request.getContextPath()).andReturn("/katari-web");
     expectLastCall().anyTimes();
     expect(request.getMethod()).andReturn("GET");
@@ -117,6 +128,10 @@ public class StaticContentServletTest {
     expectLastCall().anyTimes();
     response.setDateHeader(same("Last-Modified"), anyLong());
     expectLastCall().anyTimes();
+    response.setHeader(same("ETag"), (String)anyObject());
+    expectLastCall().anyTimes();
+    response.setHeader("Accept-Ranges", "bytes");
+    response.setContentLength(776);
 
     replay(response);
 
@@ -241,8 +256,219 @@ public class StaticContentServletTest {
     staticContentServlet.service(request, response);
     output = response.getContentAsString().trim();
     assertEquals("Sample is now modified.", output);
+    String etag = (String) response.getHeader("ETag");
+    assertTrue(etag.startsWith("W/"));
+
+    request.addHeader("If-None-Match", etag);
+    response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+    assertEquals(304, response.getStatus());
+
+    // The file changes, so the servlet sends the new content.
+    out = new FileWriter(sample);
+    out.write("Sample was modified again.");
+    out.close();
+    response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+    assertEquals(200, response.getStatus());
+    output = response.getContentAsString().trim();
+    assertEquals("Sample was modified again.", output);
 
     assertTrue(staticContentServlet.isInDebugMode());
   }
-}
 
+  /* Creates a servlet that serves text files from the test resources.
+   */
+  private StaticContentServlet createTextServlet() throws Exception {
+    MockServletConfig config = new MockServletConfig();
+    config.addInitParameter("mimeType_txt", "text/plain");
+    config.addInitParameter("staticContentPath",
+        "com/globant/katari/core/web");
+    config.addInitParameter("requestCacheContent", "true");
+    StaticContentServlet staticContentServlet = new StaticContentServlet();
+    staticContentServlet.init(config);
+    return staticContentServlet;
+  }
+
+  /* Tests that the servlet answers 304 when the ETag matches.
+   */
+  @Test
+  public void testService_ifNoneMatch() throws Exception {
+    StaticContentServlet staticContentServlet = createTextServlet();
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/sample.txt");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+    assertEquals(200, response.getStatus());
+    String etag = (String) response.getHeader("ETag");
+    assertNotNull(etag);
+    assertNotNull(response.getHeader("Last-Modified"));
+
+    request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/sample.txt");
+    request.addHeader("If-None-Match", "\"other\", " + etag);
+    response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+    assertEquals(304, response.getStatus());
+    assertEquals(0, response.getContentAsByteArray().length);
+  }
+
+  /* Tests that the servlet sends the gzip variant to clients that accept it.
+   */
+  @Test
+  public void testService_gzip() throws Exception {
+    StaticContentServlet staticContentServlet = createTextServlet();
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/large.txt");
+    request.addHeader("Accept-Encoding", "deflate, gzip");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+
+    assertEquals("gzip", response.getHeader("Content-Encoding"));
+    assertEquals("Accept-Encoding", response.getHeader("Vary"));
+    byte[] body = response.getContentAsByteArray();
+    assertEquals(body.length, response.getContentLength());
+    String content = IOUtils.toString(new GZIPInputStream(
+          new ByteArrayInputStream(body)));
+    assertTrue(content.startsWith("A line of compressible text."));
+    String gzipEtag = (String) response.getHeader("ETag");
+    assertTrue(gzipEtag.endsWith("-gzip\""));
+
+    request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/large.txt");
+    response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+    assertNull(response.getHeader("Content-Encoding"));
+    assertEquals(2900, response.getContentAsByteArray().length);
+    String etag = (String) response.getHeader("ETag");
+    assertFalse(etag.equals(gzipEtag));
+
+    // A client that does not accept gzip never revalidates the gzip variant.
+    request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/large.txt");
+    request.addHeader("If-None-Match", gzipEtag);
+    response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+    assertEquals(200, response.getStatus());
+    assertEquals("Accept-Encoding", response.getHeader("Vary"));
+    assertEquals(2900, response.getContentAsByteArray().length);
+
+    request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/large.txt");
+    request.addHeader("Accept-Encoding", "gzip");
+    request.addHeader("If-None-Match", gzipEtag);
+    response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+    assertEquals(304, response.getStatus());
+    assertEquals(gzipEtag, response.getHeader("ETag"));
+  }
+
+  /* Tests that the servlet sends a single range with 206.
+   */
+  @Test
+  public void testService_range() throws Exception {
+    StaticContentServlet staticContentServlet = createTextServlet();
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/large.txt");
+    request.addHeader("Range", "bytes=2-5");
+    request.addHeader("Accept-Encoding", "gzip");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+
+    assertEquals(206, response.getStatus());
+    assertEquals("bytes", response.getHeader("Accept-Ranges"));
+    assertEquals("bytes 2-5/2900", response.getHeader("Content-Range"));
+    assertNull(response.getHeader("Content-Encoding"));
+    assertEquals(4, response.getContentLength());
+    assertEquals("line", response.getContentAsString());
+  }
+
+  /* Tests that the servlet sends several ranges as multipart/byteranges.
+   */
+  @Test
+  public void testService_multipleRanges() throws Exception {
+    StaticContentServlet staticContentServlet = createTextServlet();
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/large.txt");
+    request.addHeader("Range", "bytes=-5, 0-0");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+
+    assertEquals(206, response.getStatus());
+    String contentType = response.getContentType();
+    assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+    String boundary = contentType.substring(contentType.indexOf('=') + 1);
+    String body = response.getContentAsString();
+    assertEquals(body.length(), response.getContentLength());
+    assertEquals("\r\n--" + boundary + "\r\n"
+        + "Content-Type: text/plain\r\n"
+        + "Content-Range: bytes 0-0/2900\r\n"
+        + "\r\n"
+        + "A"
+        + "\r\n--" + boundary + "\r\n"
+        + "Content-Type: text/plain\r\n"
+        + "Content-Range: bytes 2895-2899/2900\r\n"
+        + "\r\n"
+        + "ext.\n"
+        + "\r\n--" + boundary + "--\r\n", body);
+  }
+
+  /* Tests that the servlet ignores the range if If-Range does not match.
+   */
+  @Test
+  public void testService_ifRangeMismatch() throws Exception {
+    StaticContentServlet staticContentServlet = createTextServlet();
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/large.txt");
+    request.addHeader("Range", "bytes=0-9");
+    request.addHeader("If-Range", "\"stale\"");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+
+    assertEquals(200, response.getStatus());
+    assertNull(response.getHeader("Content-Range"));
+    assertEquals(2900, response.getContentAsByteArray().length);
+    String etag = (String) response.getHeader("ETag");
+
+    request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/large.txt");
+    request.addHeader("Range", "bytes=0-9");
+    request.addHeader("If-Range", etag);
+    response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+    assertEquals(206, response.getStatus());
+    assertEquals("A line of ", response.getContentAsString());
+  }
+
+  /* Tests that the servlet answers 416 to unsatisfiable ranges.
+   */
+  @Test
+  public void testService_rangeNotSatisfiable() throws Exception {
+    StaticContentServlet staticContentServlet = createTextServlet();
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setMethod("GET");
+    request.setServletPath("/large.txt");
+    request.addHeader("Range", "bytes=5000-");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    staticContentServlet.service(request, response);
+
+    assertEquals(416, response.getStatus());
+    assertEquals("bytes */2900", response.getHeader("Content-Range"));
+  }
+}
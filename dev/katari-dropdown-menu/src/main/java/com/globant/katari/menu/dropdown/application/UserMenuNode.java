@@ -9,6 +9,7 @@ import java.util.LinkedList;
 
 import com.globant.katari.core.web.MenuNode;
 
+import com.globant.katari.core.security.FilteredMenu;
 import com.globant.katari.core.security.MenuAccessFilterer;
 
 /** A menu tree accesible by the logged in user.
@@ -30,7 +31,9 @@ public class UserMenuNode {
   /** Create a UserMenuNode for a menu node.
    *
    * The UserMenuNode contains the tree of all menu items accesible by the
-   * user, as determined by the filterer.
+   * user, as determined by the filterer. The tree is built from the filtered
+   * menu cached by the filterer, so the access to each leaf is not checked
+   * again on each request.
    *
    * @param theMenuNode The menu node. It cannot be null.
    *
@@ -45,7 +48,7 @@ public class UserMenuNode {
     Validate.notNull(filterer, "The menu filterer cannot be null");
 
     menuNode = theMenuNode;
-    children = getChildren(menuNode, filterer);
+    children = getChildren(menuNode, filterer.getFilteredMenu(menuNode));
   }
 
   /** Create a UserMenuNode for a leaf menu node.
@@ -79,33 +82,27 @@ public class UserMenuNode {
    * This class returns a list of UserMenuNode that wraps the children of the
    * parent node, keeping its order. The resulting list only contains nodes
    * that has, as descendent, at least one accessible leaf node, as decided by
-   * the filterer.
+   * the filtered menu.
    *
    * @param parentNode The node that contains the children to wrap. It must be
    * a non null, non leaf node.
    *
-   * @param filterer Decides if a leaf node is accessible or not. This cannot
-   * be null.
+   * @param filteredMenu The menu with only the nodes accessible by the user.
+   * This cannot be null.
    *
    * @return a list of UserMenuNode that wraps the accessible children of
    * parentNode. It never returns null.
    */
   private List<UserMenuNode> getChildren(final MenuNode parentNode,
-      final MenuAccessFilterer filterer) {
+      final FilteredMenu filteredMenu) {
     Validate.notNull(parentNode, "The menu node cannot be null.");
     Validate.isTrue(!parentNode.isLeaf(), "The menu node cannot be a leaf.");
     List<UserMenuNode> result = new LinkedList<UserMenuNode>();
-    List<UserMenuNode> currentChildren;
-    for (MenuNode node : parentNode.getChildNodes()) {
+    for (MenuNode node : filteredMenu.getChildNodes(parentNode)) {
       if (node.isLeaf()) {
-        if (filterer.isAccessible(node)) {
-          result.add(new UserMenuNode(node));
-        }
+        result.add(new UserMenuNode(node));
       } else {
-        currentChildren = getChildren(node, filterer);
-        if (currentChildren.size() > 0) {
-          result.add(new UserMenuNode(node, currentChildren));
-        }
+        result.add(new UserMenuNode(node, getChildren(node, filteredMenu)));
       }
     }
     return result;
@@ -11,8 +11,6 @@ import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
-import java.util.ArrayList;
-
 import javax.servlet.FilterChain;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -20,7 +18,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import junit.framework.TestCase;
 
+import com.globant.katari.core.security.FilteredMenu;
 import com.globant.katari.core.security.MenuAccessFilterer;
+import com.globant.katari.core.security.SecureUrlAccessHelper;
 import com.globant.katari.core.web.MenuBar;
 import com.globant.katari.core.web.MenuNode;
 import com.globant.katari.core.web.ModuleContextRegistrar;
@@ -71,8 +71,8 @@ public class MenuSupportFilterTest extends TestCase {
 
     MenuBar menuBar = new MenuBar();
     new MenuNode(menuBar, "Node", "Node", 1, "");
-    expect(filterer.filterMenuNodes(menuBar.getChildNodes())).andReturn(
-        menuBar.getChildNodes()).anyTimes();
+    expect(filterer.getFilteredMenu(menuBar)).andReturn(
+        createFilteredMenu(menuBar)).anyTimes();
     expect(registrar.getMenuBar()).andReturn(menuBar);
     expectLastCall(). anyTimes();
     replay(filterer);
@@ -95,8 +95,8 @@ public class MenuSupportFilterTest extends TestCase {
     MenuBar menuBar = new MenuBar();
     MenuNode node = new MenuNode(menuBar, "Node", "Node", 1, "");
     node.getName();
-    expect(filterer.filterMenuNodes(menuBar.getChildNodes())).andReturn(
-        menuBar.getChildNodes()).anyTimes();
+    expect(filterer.getFilteredMenu(menuBar)).andReturn(
+        createFilteredMenu(menuBar)).anyTimes();
 
     expect(registrar.getMenuBar()).andReturn(menuBar);
     expectLastCall(). anyTimes();
@@ -117,8 +117,8 @@ public class MenuSupportFilterTest extends TestCase {
   public final void testDoFilter_noMenuNodes() throws Exception {
 
     MenuBar menuBar = new MenuBar();
-    expect(filterer.filterMenuNodes(menuBar.getChildNodes())).andReturn(
-        new ArrayList<MenuNode>()).anyTimes();
+    expect(filterer.getFilteredMenu(menuBar)).andReturn(
+        createFilteredMenu(menuBar)).anyTimes();
     expect(registrar.getMenuBar()).andReturn(menuBar).anyTimes();
     replay(filterer);
     replay(registrar);
@@ -130,5 +130,17 @@ public class MenuSupportFilterTest extends TestCase {
 
     verify(request);
   }
-}
 
+  /* Creates a filtered menu where all the nodes are accessible.
+   */
+  private FilteredMenu createFilteredMenu(final MenuBar menuBar) {
+    SecureUrlAccessHelper helper;
+    helper = createNiceMock(SecureUrlAccessHelper.class);
+    MenuAccessFilterer all = new MenuAccessFilterer(helper) {
+      public boolean isAccessible(final MenuNode node) {
+        return true;
+      }
+    };
+    return new FilteredMenu(menuBar, all);
+  }
+}
@@ -0,0 +1,405 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.email.application;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.globant.katari.email.domain.DeliveryStatus;
+import com.globant.katari.email.domain.OutboxEmail;
+import com.globant.katari.email.domain.OutboxEmailRepository;
+
+/** Sends the emails in the outbox in the background.
+ *
+ * The emails are stored in the outbox table, so they survive a restart and
+ * are sent after the transaction that queued them commits. A fixed number of
+ * worker threads take the ready emails in batches, and send each batch over a
+ * single smtp connection. Failed emails are retried with an exponential
+ * backoff, up to a maximum number of attempts.
+ *
+ * The workers start sending when an email is queued, and also poll the
+ * outbox periodically, to retry the failed emails and to send the emails
+ * queued by other servers. Two servers never send the same email: the emails
+ * are taken with optimistic locking.
+ *
+ * This class is thread safe.
+ */
+public class EmailOutbox {
+
+  /** The class logger. */
+  private static Logger log = LoggerFactory.getLogger(EmailOutbox.class);
+
+  /** The default number of worker threads. */
+  private static final int DEFAULT_WORKERS = 2;
+
+  /** The default number of emails sent over one connection. */
+  private static final int DEFAULT_BATCH_SIZE = 20;
+
+  /** The default number of attempts to send an email. */
+  private static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+  /** The default time until the first retry, one minute in milliseconds. */
+  private static final long DEFAULT_RETRY_DELAY = 60 * 1000;
+
+  /** The default time between polls, 30 seconds in milliseconds. */
+  private static final long DEFAULT_POLL_INTERVAL = 30 * 1000;
+
+  /** The default time a worker keeps an email, ten minutes in milliseconds.
+   */
+  private static final long DEFAULT_LEASE_TIME = 10 * 60 * 1000;
+
+  /** The maximum number of times the retry delay is doubled. */
+  private static final int MAX_BACKOFF_SHIFT = 16;
+
+  /** The client that talks to the smtp server, never null. */
+  private final SmtpClient smtpClient;
+
+  /** The repository of the emails in the outbox, never null. */
+  private final OutboxEmailRepository repository;
+
+  /** Runs the outbox operations in transactions, never null. */
+  private final TransactionTemplate transactionTemplate;
+
+  /** The worker threads, never null. */
+  private final ScheduledExecutorService executor;
+
+  /** The lock held by the workers while they take emails, so that two
+   * workers in this server do not take the same emails. Never null.
+   */
+  private final Object takeLock = new Object();
+
+  /** The number of emails sent over one connection. */
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  /** The number of attempts to send an email before giving up. */
+  private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+  /** The time until the first retry, in milliseconds. */
+  private long retryDelay = DEFAULT_RETRY_DELAY;
+
+  /** The time between polls, in milliseconds. */
+  private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+  /** The time a worker keeps an email, in milliseconds. */
+  private long leaseTime = DEFAULT_LEASE_TIME;
+
+  /** Sends the ready emails in the outbox until there are no more.
+   */
+  private final Runnable deliverTask = new Runnable() {
+    public void run() {
+      try {
+        while (deliver() == batchSize) {
+          log.debug("Sending the next batch of emails");
+        }
+      } catch (RuntimeException e) {
+        log.error("Error sending the emails in the outbox", e);
+      }
+    }
+  };
+
+  /** Creates an outbox with the default number of workers.
+   *
+   * @param theSmtpClient the client that talks to the smtp server. It cannot
+   * be null.
+   *
+   * @param theRepository the repository of the emails in the outbox. It
+   * cannot be null.
+   *
+   * @param theTransactionManager the transaction manager of the repository.
+   * It cannot be null.
+   */
+  public EmailOutbox(final SmtpClient theSmtpClient,
+      final OutboxEmailRepository theRepository,
+      final PlatformTransactionManager theTransactionManager) {
+    this(theSmtpClient, theRepository, theTransactionManager,
+        DEFAULT_WORKERS);
+  }
+
+  /** Creates an outbox.
+   *
+   * @param theSmtpClient the client that talks to the smtp server. It cannot
+   * be null.
+   *
+   * @param theRepository the repository of the emails in the outbox. It
+   * cannot be null.
+   *
+   * @param theTransactionManager the transaction manager of the repository.
+   * It cannot be null.
+   *
+   * @param theWorkers the number of batches that can be sent at the same
+   * time. It must be greater than 0.
+   */
+  public EmailOutbox(final SmtpClient theSmtpClient,
+      final OutboxEmailRepository theRepository,
+      final PlatformTransactionManager theTransactionManager,
+      final int theWorkers) {
+    Validate.notNull(theSmtpClient, "The smtp client cannot be null.");
+    Validate.notNull(theRepository, "The repository cannot be null.");
+    Validate.notNull(theTransactionManager,
+        "The transaction manager cannot be null.");
+    Validate.isTrue(theWorkers > 0, "The workers must be greater than 0.");
+    smtpClient = theSmtpClient;
+    repository = theRepository;
+    transactionTemplate = new TransactionTemplate(theTransactionManager);
+    executor = Executors.newScheduledThreadPool(theWorkers,
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+          public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "katari-email-worker-"
+                + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /** Sets the number of emails sent over one connection.
+   *
+   * @param theBatchSize the batch size. It must be greater than 0.
+   */
+  public void setBatchSize(final int theBatchSize) {
+    Validate.isTrue(theBatchSize > 0, "The batch size must be positive.");
+    batchSize = theBatchSize;
+  }
+
+  /** Sets the number of attempts to send an email before giving up.
+   *
+   * @param theMaxAttempts the number of attempts. It must be greater than 0.
+   */
+  public void setMaxAttempts(final int theMaxAttempts) {
+    Validate.isTrue(theMaxAttempts > 0, "The max attempts must be positive.");
+    maxAttempts = theMaxAttempts;
+  }
+
+  /** Sets the time until the first retry of a failed email.
+   *
+   * The time is doubled on each following retry.
+   *
+   * @param theRetryDelay the time in milliseconds. It cannot be negative.
+   */
+  public void setRetryDelay(final long theRetryDelay) {
+    Validate.isTrue(theRetryDelay >= 0,
+        "The retry delay cannot be negative.");
+    retryDelay = theRetryDelay;
+  }
+
+  /** Sets the time between polls of the outbox.
+   *
+   * Only used by start.
+   *
+   * @param thePollInterval the time in milliseconds. It must be greater than
+   * 0.
+   */
+  public void setPollInterval(final long thePollInterval) {
+    Validate.isTrue(thePollInterval > 0,
+        "The poll interval must be positive.");
+    pollInterval = thePollInterval;
+  }
+
+  /** Sets the time a worker keeps an email before other workers can take
+   * it again.
+   *
+   * This must be longer than the time needed to send a batch.
+   *
+   * @param theLeaseTime the time in milliseconds. It must be greater than 0.
+   */
+  public void setLeaseTime(final long theLeaseTime) {
+    Validate.isTrue(theLeaseTime > 0, "The lease time must be positive.");
+    leaseTime = theLeaseTime;
+  }
+
+  /** Starts polling the outbox.
+   */
+  public void start() {
+    executor.scheduleWithFixedDelay(deliverTask, pollInterval, pollInterval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops the workers.
+   *
+   * The emails that are being sent are taken again after their lease
+   * expires.
+   */
+  public void destroy() {
+    executor.shutdownNow();
+  }
+
+  /** Adds an email to the outbox.
+   *
+   * The email is saved in the current transaction, if any, and the workers
+   * start sending it after the transaction commits.
+   *
+   * @param email the email to add. It cannot be null.
+   *
+   * @return the id of the email in the outbox.
+   */
+  public long add(final OutboxEmail email) {
+    Validate.notNull(email, "The email cannot be null.");
+    transactionTemplate.execute(new TransactionCallback() {
+      public Object doInTransaction(final TransactionStatus status) {
+        repository.save(email);
+        return null;
+      }
+    });
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            public void afterCommit() {
+              wakeUp();
+            }
+          });
+    } else {
+      wakeUp();
+    }
+    return email.getId();
+  }
+
+  /** Obtains the delivery status of an email.
+   *
+   * @param id the id of the email in the outbox.
+   *
+   * @return the status, null if there is no email with that id.
+   */
+  public DeliveryStatus getStatus(final long id) {
+    return (DeliveryStatus) transactionTemplate.execute(
+        new TransactionCallback() {
+          public Object doInTransaction(final TransactionStatus status) {
+            OutboxEmail email = repository.findOutboxEmail(id);
+            if (email == null) {
+              return null;
+            }
+            return email.getStatus();
+          }
+        });
+  }
+
+  /** Sends one batch of the ready emails in the outbox.
+   *
+   * The workers call this operation. It takes the ready emails, sends them
+   * over one connection, and records the result of each email in its own
+   * transaction. If another worker took an email after its lease expired,
+   * the result of that email is not recorded, and the other emails are not
+   * affected.
+   *
+   * @return the number of emails in the batch, 0 if there were no emails
+   * ready.
+   */
+  public int deliver() {
+    List<OutboxEmail> batch = take();
+    if (batch.isEmpty()) {
+      return 0;
+    }
+    Map<OutboxEmail, String> failures = smtpClient.deliver(batch);
+    Date now = new Date();
+    for (OutboxEmail email : batch) {
+      try {
+        record(email, failures.get(email), now);
+      } catch (OptimisticLockingFailureException e) {
+        log.warn("Email " + email.getId() + " was taken by another worker,"
+            + " its result is not recorded", e);
+      }
+    }
+    return batch.size();
+  }
+
+  /** Records the result of sending an email.
+   *
+   * @param email the email that was sent. It cannot be null.
+   *
+   * @param error the description of the error, null if the email was sent.
+   *
+   * @param now the time the batch was sent. It cannot be null.
+   */
+  private void record(final OutboxEmail email, final String error,
+      final Date now) {
+    transactionTemplate.execute(new TransactionCallback() {
+      public Object doInTransaction(final TransactionStatus status) {
+        if (error == null) {
+          email.sent();
+        } else {
+          email.failed(error, retryAt(email, now));
+          log.warn("Error sending email " + email.getId() + ", attempt "
+              + email.getAttempts() + ": " + error);
+        }
+        repository.save(email);
+        return null;
+      }
+    });
+  }
+
+  /** Takes the ready emails in the outbox, up to the batch size.
+   *
+   * @return the emails, never null. It is empty if there are no ready emails
+   * or another server took them first.
+   */
+  @SuppressWarnings("unchecked")
+  private List<OutboxEmail> take() {
+    synchronized (takeLock) {
+      try {
+        return (List<OutboxEmail>) transactionTemplate.execute(
+            new TransactionCallback() {
+              public Object doInTransaction(final TransactionStatus status) {
+                Date now = new Date();
+                Date leaseEnd = new Date(now.getTime() + leaseTime);
+                List<OutboxEmail> emails;
+                emails = repository.findReady(now, batchSize);
+                for (OutboxEmail email : emails) {
+                  email.take(leaseEnd);
+                }
+                return emails;
+              }
+            });
+      } catch (OptimisticLockingFailureException e) {
+        log.debug("Another server took the emails", e);
+        return new ArrayList<OutboxEmail>();
+      }
+    }
+  }
+
+  /** Calculates the time of the next attempt to send a failed email.
+   *
+   * @param email the email that failed. It cannot be null.
+   *
+   * @param now the current time. It cannot be null.
+   *
+   * @return the time of the next attempt, null if the email already used all
+   * its attempts.
+   */
+  private Date retryAt(final OutboxEmail email, final Date now) {
+    int attempts = email.getAttempts() + 1;
+    if (attempts >= maxAttempts) {
+      return null;
+    }
+    long delay = retryDelay << Math.min(attempts - 1, MAX_BACKOFF_SHIFT);
+    return new Date(now.getTime() + delay);
+  }
+
+  /** Asks a worker to send the ready emails.
+   */
+  private void wakeUp() {
+    try {
+      executor.execute(deliverTask);
+    } catch (RejectedExecutionException e) {
+      log.debug("The outbox is stopped", e);
+    }
+  }
+}
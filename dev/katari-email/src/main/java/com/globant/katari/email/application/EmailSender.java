@@ -8,10 +8,11 @@ import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.Validate;
-import org.apache.commons.mail.DefaultAuthenticator;
 import org.apache.commons.mail.EmailException;
 import org.apache.commons.mail.HtmlEmail;
 
+import com.globant.katari.email.domain.DeliveryStatus;
+import com.globant.katari.email.domain.OutboxEmail;
 import com.globant.katari.email.model.EmailModel;
 
 import freemarker.template.Configuration;
@@ -23,28 +24,27 @@ import freemarker.template.TemplateException;
  * With this class, you can send emails in html and plain text, based in a
  * freemarker template.
  *
+ * The send operation talks to the smtp server in the caller thread. The
+ * sendAsync operation only renders the email and stores it in the outbox, the
+ * EmailOutbox workers send it later, in batches over one smtp connection.
+ * Both talk to the smtp server through the same SmtpClient.
+ *
  * @author waabox (emiliano[dot]arango[at]globant[dot]com)
  */
 public class EmailSender {
 
-  /** The smtp hostname, never null. */
-  private final String hostname;
-
-  /** The smtp post, never null. */
-  private final Integer smtpPort;
-
-  /** The account name, never null. */
-  private final String username;
-
-  /** The account password, never null. */
-  private final String password;
-
-  /** true if the server is secure TLS. */
-  private final boolean secure;
+  /** The client of the smtp server, never null. */
+  private final SmtpClient smtpClient;
 
   /** Freemarker configuration. */
   private final Configuration freemarkerConfiguration;
 
+  /** The outbox of the emails sent with sendAsync.
+   *
+   * It is null if sendAsync is not available.
+   */
+  private EmailOutbox outbox = null;
+
   /** Builds a new instance of the configurer with all his dependencies.
    *
    * @param host the smtp hostname. Cannot be null.
@@ -59,20 +59,35 @@ public class EmailSender {
   public EmailSender(final String host, final Integer port,
       final String user, final String passwd, final boolean isSecure,
       final Configuration templateConfig) {
-    Validate.notNull(host, "The hostname cannot be null");
-    Validate.notNull(port, "The port cannot be null");
-    Validate.notNull(user, "The username cannot be null");
-    Validate.notNull(passwd, "The password cannot be null");
+    this(new SmtpClient(host, port, user, passwd, isSecure), templateConfig);
+  }
+
+  /** Builds a new instance that talks to the smtp server through a client
+   * shared with the outbox.
+   *
+   * @param theSmtpClient the client of the smtp server. It cannot be null.
+   *
+   * @param templateConfig the Freemarker freemarkerConfiguration. It cannot be
+   * null.
+   */
+  public EmailSender(final SmtpClient theSmtpClient,
+      final Configuration templateConfig) {
+    Validate.notNull(theSmtpClient, "The smtp client cannot be null");
     Validate.notNull(templateConfig,
         "The freemarker configuration cannot be null");
-    hostname = host;
-    smtpPort = port;
-    username = user;
-    password = passwd;
-    secure = isSecure;
+    smtpClient = theSmtpClient;
     freemarkerConfiguration = templateConfig;
   }
 
+  /** Sets the outbox of the emails sent with sendAsync.
+   *
+   * @param theOutbox the outbox. It cannot be null.
+   */
+  public void setOutbox(final EmailOutbox theOutbox) {
+    Validate.notNull(theOutbox, "The outbox cannot be null");
+    outbox = theOutbox;
+  }
+
   /** Create a new instance of an email with all the server information.
    * If the boolean value "send" is set to true, will invoke the email's send
    * method.
@@ -83,21 +98,12 @@ public class EmailSender {
   public void send(final EmailModel emailModel, final String template) {
     Validate.notNull(emailModel, "The email model cannot be null");
     Validate.notNull(template, "The template cannot be null");
-    HtmlEmail email = new HtmlEmail();
+    HtmlEmail email;
     try {
-      email.setHostName(hostname);
-      email.setSmtpPort(smtpPort);
-      if (!username.trim().equals("")) {
-        email.setAuthenticator(new DefaultAuthenticator(username, password));
-      }
-      email.setTLS(secure);
-      for (String recipment : emailModel.getRecipments()) {
-        email.addTo(recipment);
-      }
-      email.setSubject(emailModel.getSubject());
-      email.setFrom(emailModel.getSender());
-      email.setHtmlMsg(createHtml(template, emailModel.getModel()));
-      email.setTextMsg(emailModel.getPlainTextMessage());
+      email = smtpClient.createEmail(emailModel.getSender(),
+          emailModel.getRecipments(), emailModel.getSubject(),
+          createHtml(template, emailModel.getModel()),
+          emailModel.getPlainTextMessage());
     } catch (final EmailException e) {
       throw new RuntimeException(e);
     }
@@ -108,6 +114,45 @@ public class EmailSender {
     }
   }
 
+  /** Renders an email and queues it in the outbox, without waiting for the
+   * smtp server.
+   *
+   * If there is a transaction in progress, the email is saved in that
+   * transaction and sent after it commits, so it is not sent if the
+   * transaction rolls back.
+   *
+   * @param emailModel the model of the email. Cannot be null.
+   * @param template the template name. Cannot be null.
+   *
+   * @return the id of the email in the outbox, to query its delivery status.
+   */
+  public long sendAsync(final EmailModel emailModel, final String template) {
+    Validate.notNull(emailModel, "The email model cannot be null");
+    Validate.notNull(template, "The template cannot be null");
+    if (outbox == null) {
+      throw new IllegalStateException("The email sender has no outbox");
+    }
+    OutboxEmail email = new OutboxEmail(emailModel.getSender(),
+        emailModel.getRecipments(), emailModel.getSubject(),
+        createHtml(template, emailModel.getModel()),
+        emailModel.getPlainTextMessage());
+    return outbox.add(email);
+  }
+
+  /** Obtains the delivery status of an email sent with sendAsync.
+   *
+   * @param id the id returned by sendAsync.
+   *
+   * @return the status, null if there is no email with that id in the
+   * outbox.
+   */
+  public DeliveryStatus getDeliveryStatus(final long id) {
+    if (outbox == null) {
+      throw new IllegalStateException("The email sender has no outbox");
+    }
+    return outbox.getStatus(id);
+  }
+
   /** Generates a new HTML representation from the given model and template.
    *
    * @param templateName the template name.
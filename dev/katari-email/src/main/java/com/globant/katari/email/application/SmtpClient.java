@@ -0,0 +1,161 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.email.application;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.mail.DefaultAuthenticator;
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.HtmlEmail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.globant.katari.email.domain.OutboxEmail;
+
+/** Talks to the smtp server on behalf of the EmailSender and the
+ * EmailOutbox.
+ *
+ * Both use the same smtp client, so the outbox does not depend on the sender
+ * that queues the emails in it.
+ */
+public class SmtpClient {
+
+  /** The class logger. */
+  private static Logger log = LoggerFactory.getLogger(SmtpClient.class);
+
+  /** The smtp hostname, never null. */
+  private final String hostname;
+
+  /** The smtp post, never null. */
+  private final Integer smtpPort;
+
+  /** The account name, never null. */
+  private final String username;
+
+  /** The account password, never null. */
+  private final String password;
+
+  /** true if the server is secure TLS. */
+  private final boolean secure;
+
+  /** Creates a client of an smtp server.
+   *
+   * @param host the smtp hostname. Cannot be null.
+   * @param port the smtp port. Cannot be null.
+   * @param user the email account user. Cannot be null.
+   * @param passwd the password of the email account. Cannot be null.
+   * @param isSecure true if the server is TLS.
+   */
+  public SmtpClient(final String host, final Integer port, final String user,
+      final String passwd, final boolean isSecure) {
+    Validate.notNull(host, "The hostname cannot be null");
+    Validate.notNull(port, "The port cannot be null");
+    Validate.notNull(user, "The username cannot be null");
+    Validate.notNull(passwd, "The password cannot be null");
+    hostname = host;
+    smtpPort = port;
+    username = user;
+    password = passwd;
+    secure = isSecure;
+  }
+
+  /** Sends a batch of emails over a single smtp connection.
+   *
+   * The emails are not modified.
+   *
+   * @param emails the emails to send. It cannot be null.
+   *
+   * @return the emails that could not be sent, with the description of the
+   * error. It is never null.
+   */
+  Map<OutboxEmail, String> deliver(final List<OutboxEmail> emails) {
+    Validate.notNull(emails, "The emails cannot be null");
+    Map<OutboxEmail, String> failures = new HashMap<OutboxEmail, String>();
+    if (emails.isEmpty()) {
+      return failures;
+    }
+    Transport transport = null;
+    try {
+      for (OutboxEmail email : emails) {
+        try {
+          HtmlEmail htmlEmail = createEmail(email.getSender(),
+              email.getRecipients(), email.getSubject(),
+              email.getHtmlMessage(), email.getTextMessage());
+          htmlEmail.buildMimeMessage();
+          MimeMessage message = htmlEmail.getMimeMessage();
+          if (transport == null) {
+            Transport connecting = htmlEmail.getMailSession().getTransport();
+            try {
+              connecting.connect();
+            } catch (MessagingException e) {
+              // No email in this batch can be sent.
+              log.debug("Error connecting to the smtp server", e);
+              for (OutboxEmail unsent : emails) {
+                if (!failures.containsKey(unsent)) {
+                  failures.put(unsent, e.toString());
+                }
+              }
+              return failures;
+            }
+            transport = connecting;
+          }
+          transport.sendMessage(message, message.getAllRecipients());
+        } catch (EmailException e) {
+          log.debug("Error sending email " + email.getId(), e);
+          failures.put(email, e.toString());
+        } catch (MessagingException e) {
+          log.debug("Error sending email " + email.getId(), e);
+          failures.put(email, e.toString());
+        }
+      }
+    } finally {
+      if (transport != null) {
+        try {
+          transport.close();
+        } catch (MessagingException e) {
+          log.debug("Error closing the smtp connection", e);
+        }
+      }
+    }
+    return failures;
+  }
+
+  /** Creates an email with all the server information, ready to send.
+   *
+   * @param sender the sender address. It cannot be null.
+   * @param recipients the recipient addresses. It cannot be null.
+   * @param subject the subject. It cannot be null.
+   * @param html the html message. It cannot be null.
+   * @param text the plain text message. It cannot be null.
+   *
+   * @return the email, never null.
+   *
+   * @throws EmailException if the email could not be created.
+   */
+  HtmlEmail createEmail(final String sender, final List<String> recipients,
+      final String subject, final String html, final String text)
+    throws EmailException {
+    HtmlEmail email = new HtmlEmail();
+    email.setHostName(hostname);
+    email.setSmtpPort(smtpPort);
+    if (!username.trim().equals("")) {
+      email.setAuthenticator(new DefaultAuthenticator(username, password));
+    }
+    email.setTLS(secure);
+    for (String recipment : recipients) {
+      email.addTo(recipment);
+    }
+    email.setSubject(subject);
+    email.setFrom(sender);
+    email.setHtmlMsg(html);
+    email.setTextMsg(text);
+    return email;
+  }
+}
@@ -0,0 +1,28 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.email.domain;
+
+/** The delivery states of an email in the outbox.
+ */
+public enum DeliveryStatus {
+
+  /** The email is waiting to be sent, for the first time or for a retry. */
+  PENDING,
+
+  /** A worker took the email to send it. */
+  SENDING,
+
+  /** The smtp server accepted the email. */
+  SENT,
+
+  /** The email could not be sent after the maximum number of attempts. */
+  FAILED;
+
+  /** Whether the email in this state will not change anymore.
+   *
+   * @return true for SENT and FAILED.
+   */
+  public boolean isFinished() {
+    return this == SENT || this == FAILED;
+  }
+}
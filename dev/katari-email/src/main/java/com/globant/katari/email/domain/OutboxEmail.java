@@ -0,0 +1,274 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.email.domain;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.Version;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+/** An email waiting in the outbox to be sent, or already sent.
+ *
+ * The email is stored already rendered, so it can be sent by any server,
+ * after the request that created it finished.
+ *
+ * An email starts PENDING. A worker takes it (SENDING) until a lease time, and
+ * then marks it as SENT, or back to PENDING with the time of the next attempt.
+ * After the maximum number of attempts, the email is FAILED. If the worker
+ * dies, the email is taken again when its lease expires.
+ */
+@Entity
+@Table(name = "email_outbox")
+public class OutboxEmail {
+
+  /** The length in characters of the email addresses. */
+  private static final int ADDRESS_LENGTH = 255;
+
+  /** The length in characters of the list of recipients. */
+  private static final int RECIPIENTS_LENGTH = 4000;
+
+  /** The length in characters of the subject. */
+  private static final int SUBJECT_LENGTH = 255;
+
+  /** The length in characters of the last error. */
+  private static final int ERROR_LENGTH = 1000;
+
+  /** The length in characters of the status column. */
+  private static final int STATUS_LENGTH = 10;
+
+  /** The separator of the recipients. */
+  private static final String SEPARATOR = ",";
+
+  /** The id of the email, 0 for a new email.
+   */
+  @Id
+  @GeneratedValue(strategy = GenerationType.AUTO)
+  @Column(name = "id", nullable = false)
+  private long id = 0;
+
+  /** The hibernate version for optimistic locking, so that two servers do
+   * not take the same email.
+   */
+  @SuppressWarnings("unused")
+  @Version
+  @Column(name = "version")
+  private long version;
+
+  /** The sender address, never null.
+   */
+  @Column(name = "sender", nullable = false, length = ADDRESS_LENGTH)
+  private String sender;
+
+  /** The recipient addresses, separated by commas, never null.
+   */
+  @Column(name = "recipients", nullable = false, length = RECIPIENTS_LENGTH)
+  private String recipients;
+
+  /** The subject, never null.
+   */
+  @Column(name = "subject", nullable = false, length = SUBJECT_LENGTH)
+  private String subject;
+
+  /** The rendered html message, never null.
+   */
+  @Lob
+  @Column(name = "html_message", nullable = false)
+  private String htmlMessage;
+
+  /** The plain text message, never null.
+   */
+  @Lob
+  @Column(name = "text_message", nullable = false)
+  private String textMessage;
+
+  /** The delivery status, never null.
+   */
+  @Enumerated(EnumType.STRING)
+  @Column(name = "status", nullable = false, length = STATUS_LENGTH)
+  private DeliveryStatus status = DeliveryStatus.PENDING;
+
+  /** The number of failed attempts to send the email.
+   */
+  @Column(name = "attempts", nullable = false)
+  private int attempts = 0;
+
+  /** When the email can be taken to be sent, never null.
+   *
+   * For a PENDING email, the time of the next attempt. For a SENDING email,
+   * the end of the lease of the worker that took it.
+   */
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "next_attempt", nullable = false)
+  private Date nextAttempt;
+
+  /** The error of the last failed attempt, null if none.
+   */
+  @Column(name = "last_error", nullable = true, length = ERROR_LENGTH)
+  private String lastError = null;
+
+  /** The default constructor to make hibernate happy.
+   */
+  protected OutboxEmail() {
+  }
+
+  /** Creates a pending email, to be sent as soon as possible.
+   *
+   * @param theSender the sender address. It cannot be null.
+   *
+   * @param theRecipients the recipient addresses. It cannot be empty.
+   *
+   * @param theSubject the subject. It cannot be null.
+   *
+   * @param theHtmlMessage the rendered html message. It cannot be null.
+   *
+   * @param theTextMessage the plain text message. It cannot be null.
+   */
+  public OutboxEmail(final String theSender, final List<String> theRecipients,
+      final String theSubject, final String theHtmlMessage,
+      final String theTextMessage) {
+    Validate.notNull(theSender, "The sender cannot be null.");
+    Validate.notEmpty(theRecipients, "The recipients cannot be empty.");
+    Validate.notNull(theSubject, "The subject cannot be null.");
+    Validate.notNull(theHtmlMessage, "The html message cannot be null.");
+    Validate.notNull(theTextMessage, "The text message cannot be null.");
+    sender = theSender;
+    recipients = StringUtils.join(theRecipients, SEPARATOR);
+    subject = theSubject;
+    htmlMessage = theHtmlMessage;
+    textMessage = theTextMessage;
+    nextAttempt = new Date();
+  }
+
+  /** Takes the email to send it.
+   *
+   * @param leaseEnd the time when other workers can take the email again if
+   * this one did not finish. It cannot be null.
+   */
+  public void take(final Date leaseEnd) {
+    Validate.notNull(leaseEnd, "The lease end cannot be null.");
+    Validate.isTrue(!status.isFinished(), "The email was already delivered.");
+    status = DeliveryStatus.SENDING;
+    nextAttempt = leaseEnd;
+  }
+
+  /** Marks the email as sent.
+   */
+  public void sent() {
+    status = DeliveryStatus.SENT;
+    lastError = null;
+  }
+
+  /** Records a failed attempt to send the email.
+   *
+   * @param error the description of the error. It cannot be null.
+   *
+   * @param retryAt the time of the next attempt, null to give up and mark the
+   * email as FAILED.
+   */
+  public void failed(final String error, final Date retryAt) {
+    Validate.notNull(error, "The error cannot be null.");
+    ++attempts;
+    lastError = StringUtils.abbreviate(error, ERROR_LENGTH);
+    if (retryAt == null) {
+      status = DeliveryStatus.FAILED;
+    } else {
+      status = DeliveryStatus.PENDING;
+      nextAttempt = retryAt;
+    }
+  }
+
+  /** Returns the id of the email.
+   *
+   * @return the id, 0 if the email was not saved yet.
+   */
+  public long getId() {
+    return id;
+  }
+
+  /** Returns the sender address.
+   *
+   * @return the sender, never null.
+   */
+  public String getSender() {
+    return sender;
+  }
+
+  /** Returns the recipient addresses.
+   *
+   * @return the recipients, never empty.
+   */
+  public List<String> getRecipients() {
+    return Arrays.asList(recipients.split(SEPARATOR));
+  }
+
+  /** Returns the subject.
+   *
+   * @return the subject, never null.
+   */
+  public String getSubject() {
+    return subject;
+  }
+
+  /** Returns the rendered html message.
+   *
+   * @return the html message, never null.
+   */
+  public String getHtmlMessage() {
+    return htmlMessage;
+  }
+
+  /** Returns the plain text message.
+   *
+   * @return the text message, never null.
+   */
+  public String getTextMessage() {
+    return textMessage;
+  }
+
+  /** Returns the delivery status.
+   *
+   * @return the status, never null.
+   */
+  public DeliveryStatus getStatus() {
+    return status;
+  }
+
+  /** Returns the number of failed attempts to send the email.
+   *
+   * @return the number of failed attempts.
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /** Returns when the email can be taken to be sent.
+   *
+   * @return the time of the next attempt, never null.
+   */
+  public Date getNextAttempt() {
+    return nextAttempt;
+  }
+
+  /** Returns the error of the last failed attempt.
+   *
+   * @return the error, null if the email did not fail.
+   */
+  public String getLastError() {
+    return lastError;
+  }
+}
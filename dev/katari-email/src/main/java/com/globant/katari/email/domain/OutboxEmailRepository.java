@@ -0,0 +1,60 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.email.domain;
+
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+
+/** The repository of the emails in the outbox.
+ */
+public class OutboxEmailRepository extends HibernateDaoSupport {
+
+  /** Saves an email in the outbox.
+   *
+   * @param email the email to save. It cannot be null.
+   */
+  public void save(final OutboxEmail email) {
+    Validate.notNull(email, "The email cannot be null.");
+    getHibernateTemplate().saveOrUpdate(email);
+  }
+
+  /** Finds an email by id.
+   *
+   * @param id the id of the email.
+   *
+   * @return the email, or null if there is no email with that id.
+   */
+  public OutboxEmail findOutboxEmail(final long id) {
+    return (OutboxEmail) getHibernateTemplate().get(OutboxEmail.class, id);
+  }
+
+  /** Finds the emails that can be taken to be sent.
+   *
+   * These are the PENDING emails whose next attempt time has passed, and the
+   * SENDING emails whose lease expired, in the order they were created.
+   *
+   * @param now the current time. It cannot be null.
+   *
+   * @param maxResults the maximum number of emails to return. It must be
+   * greater than 0.
+   *
+   * @return the emails, never null.
+   */
+  @SuppressWarnings("unchecked")
+  public List<OutboxEmail> findReady(final Date now, final int maxResults) {
+    Validate.notNull(now, "The current time cannot be null.");
+    Validate.isTrue(maxResults > 0, "The max results must be positive.");
+    return getSession().createCriteria(OutboxEmail.class)
+      .add(Restrictions.in("status", new Object[] {DeliveryStatus.PENDING,
+            DeliveryStatus.SENDING}))
+      .add(Restrictions.le("nextAttempt", now))
+      .addOrder(Order.asc("id"))
+      .setMaxResults(maxResults)
+      .list();
+  }
+}
@@ -0,0 +1,257 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.email.application;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.hibernate3.HibernateTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.globant.katari.email.domain.DeliveryStatus;
+import com.globant.katari.email.domain.OutboxEmail;
+import com.globant.katari.email.domain.OutboxEmailRepository;
+import com.globant.katari.email.model.EmailModel;
+import com.globant.katari.tools.DummySmtpServer;
+import com.globant.katari.tools.HibernateTestUtils;
+import com.globant.katari.tools.MockSmtpServer;
+
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.template.Configuration;
+
+/** Tests the email outbox.
+ *
+ * It uses its own in memory database and a local smtp server.
+ */
+public class EmailOutboxTest {
+
+  private static final String TEMPLATE =
+      "com/globant/katari/email/view/templateTestEmail.ftl";
+
+  private DummySmtpServer smtpServer;
+
+  private SessionFactory sessionFactory;
+
+  private HibernateTransactionManager transactionManager;
+
+  private OutboxEmailRepository repository;
+
+  private Configuration freemarker;
+
+  private EmailSender emailSender;
+
+  private EmailOutbox outbox;
+
+  /** The email that the repository fails to save as sent, as if another
+   * worker had taken it. 0 for none.
+   */
+  private long conflictId = 0;
+
+  @Before
+  public void setUp() throws Exception {
+    smtpServer = DummySmtpServer.start(0);
+
+    sessionFactory = HibernateTestUtils.createConfiguration("outbox",
+        OutboxEmail.class).buildSessionFactory();
+    transactionManager = new HibernateTransactionManager(sessionFactory);
+    repository = new OutboxEmailRepository() {
+      @Override
+      public void save(final OutboxEmail email) {
+        if (email.getId() == conflictId
+            && email.getStatus() == DeliveryStatus.SENT) {
+          throw new OptimisticLockingFailureException("Taken by other");
+        }
+        super.save(email);
+      }
+    };
+    repository.setSessionFactory(sessionFactory);
+
+    freemarker = new Configuration();
+    freemarker.setTemplateLoader(new ClassTemplateLoader(getClass(), "/"));
+    SmtpClient smtpClient = new SmtpClient("localhost",
+        smtpServer.getPortNumber(), "", "", false);
+    emailSender = new EmailSender(smtpClient, freemarker);
+    outbox = new EmailOutbox(smtpClient, repository, transactionManager, 1);
+    outbox.setRetryDelay(0);
+    outbox.setMaxAttempts(2);
+    emailSender.setOutbox(outbox);
+  }
+
+  @After
+  public void tearDown() {
+    outbox.destroy();
+    smtpServer.stop();
+    sessionFactory.close();
+  }
+
+  /** Waits until the email is sent, or 5 seconds.
+   */
+  private DeliveryStatus waitUntilSent(final EmailSender sender,
+      final long id) throws Exception {
+    for (int i = 0; i < 100; ++i) {
+      if (sender.getDeliveryStatus(id) == DeliveryStatus.SENT) {
+        break;
+      }
+      Thread.sleep(50);
+    }
+    return sender.getDeliveryStatus(id);
+  }
+
+  private EmailModel model(final String subject) {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("oneKey", "a value");
+    return new EmailModel("from@none", "to@none", values, "plain text",
+        subject);
+  }
+
+  @Test
+  public void testSendAsync() throws Exception {
+    long id = emailSender.sendAsync(model("the subject"), TEMPLATE);
+    assertEquals(DeliveryStatus.SENT, waitUntilSent(emailSender, id));
+    assertEquals(1, smtpServer.getReceivedEmailSize());
+    String body = smtpServer.iterator().next().getBody();
+    assertTrue(body.contains("just a test a value"));
+    assertTrue(body.contains("plain text"));
+  }
+
+  /** Sends an email through the outbox to the mock smtp server that the
+   * module documentation suggests for manual testing.
+   */
+  @Test
+  public void testSendAsync_mockSmtpServer() throws Exception {
+    outbox.destroy();
+    Thread serverThread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          MockSmtpServer.main(new String[] {"0", "10"});
+        } catch (Exception e) {
+          throw new RuntimeException("Error running the smtp server", e);
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+    EmailOutbox mockOutbox = null;
+    try {
+      for (int i = 0; i < 100 && MockSmtpServer.getPortNumber() == 0; ++i) {
+        Thread.sleep(50);
+      }
+      assertTrue(MockSmtpServer.getPortNumber() != 0);
+
+      SmtpClient smtpClient = new SmtpClient("localhost",
+          MockSmtpServer.getPortNumber(), "", "", false);
+      EmailSender sender = new EmailSender(smtpClient, freemarker);
+      mockOutbox = new EmailOutbox(smtpClient, repository,
+          transactionManager, 1);
+      sender.setOutbox(mockOutbox);
+
+      long id = sender.sendAsync(model("the subject"), TEMPLATE);
+      assertEquals(DeliveryStatus.SENT, waitUntilSent(sender, id));
+    } finally {
+      if (mockOutbox != null) {
+        mockOutbox.destroy();
+      }
+      MockSmtpServer.stop();
+      serverThread.join(1000);
+    }
+    assertFalse(serverThread.isAlive());
+  }
+
+  @Test
+  public void testDeliver_batch() throws Exception {
+    // The test sends the emails itself, without the workers.
+    outbox.destroy();
+    long[] ids = new long[3];
+    for (int i = 0; i < ids.length; ++i) {
+      ids[i] = emailSender.sendAsync(model("subject " + i), TEMPLATE);
+      assertEquals(DeliveryStatus.PENDING, emailSender.getDeliveryStatus(
+            ids[i]));
+    }
+    outbox.setBatchSize(2);
+    assertEquals(2, outbox.deliver());
+    assertEquals(2, smtpServer.getReceivedEmailSize());
+    assertEquals(DeliveryStatus.SENT, emailSender.getDeliveryStatus(ids[1]));
+    assertEquals(DeliveryStatus.PENDING,
+        emailSender.getDeliveryStatus(ids[2]));
+
+    assertEquals(1, outbox.deliver());
+    assertEquals(0, outbox.deliver());
+    assertEquals(3, smtpServer.getReceivedEmailSize());
+    assertEquals(DeliveryStatus.SENT, emailSender.getDeliveryStatus(ids[2]));
+  }
+
+  @Test
+  public void testDeliver_conflict() throws Exception {
+    outbox.destroy();
+    long[] ids = new long[3];
+    for (int i = 0; i < ids.length; ++i) {
+      ids[i] = emailSender.sendAsync(model("subject " + i), TEMPLATE);
+    }
+    conflictId = ids[1];
+    assertEquals(3, outbox.deliver());
+    assertEquals(3, smtpServer.getReceivedEmailSize());
+    // The conflict only loses the result of its own email.
+    assertEquals(DeliveryStatus.SENT, emailSender.getDeliveryStatus(ids[0]));
+    assertEquals(DeliveryStatus.SENDING,
+        emailSender.getDeliveryStatus(ids[1]));
+    assertEquals(DeliveryStatus.SENT, emailSender.getDeliveryStatus(ids[2]));
+  }
+
+  @Test
+  public void testDeliver_retry() throws Exception {
+    outbox.destroy();
+    smtpServer.stop();
+    long id = emailSender.sendAsync(model("the subject"), TEMPLATE);
+
+    assertEquals(1, outbox.deliver());
+    assertEquals(DeliveryStatus.PENDING, emailSender.getDeliveryStatus(id));
+
+    assertEquals(1, outbox.deliver());
+    assertEquals(DeliveryStatus.FAILED, emailSender.getDeliveryStatus(id));
+    assertEquals(0, outbox.deliver());
+  }
+
+  @Test
+  public void testDeliver_backoff() throws Exception {
+    outbox.destroy();
+    outbox.setRetryDelay(60000);
+    smtpServer.stop();
+    long id = emailSender.sendAsync(model("the subject"), TEMPLATE);
+
+    assertEquals(1, outbox.deliver());
+    // The next attempt is a minute later.
+    assertEquals(0, outbox.deliver());
+    assertEquals(DeliveryStatus.PENDING, emailSender.getDeliveryStatus(id));
+  }
+
+  @Test
+  public void testSendAsync_rollback() throws Exception {
+    outbox.destroy();
+    Long id = (Long) new TransactionTemplate(transactionManager).execute(
+        new TransactionCallback() {
+          public Object doInTransaction(final TransactionStatus status) {
+            long id = emailSender.sendAsync(model("the subject"), TEMPLATE);
+            status.setRollbackOnly();
+            return id;
+          }
+        });
+    assertNull(emailSender.getDeliveryStatus(id));
+    assertEquals(0, outbox.deliver());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSendAsync_noOutbox() throws Exception {
+    EmailSender sender = new EmailSender("localhost", 25, "", "", false,
+        new Configuration());
+    sender.sendAsync(model("the subject"), TEMPLATE);
+  }
+}
@@ -0,0 +1,63 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.email.domain;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests the delivery states of an outbox email.
+ */
+public class OutboxEmailTest {
+
+  private OutboxEmail email;
+
+  @Before
+  public void setUp() {
+    email = new OutboxEmail("from@none", Arrays.asList("a@none", "b@none"),
+        "subject", "<html/>", "text");
+  }
+
+  @Test
+  public void testCreate() {
+    assertEquals(DeliveryStatus.PENDING, email.getStatus());
+    assertEquals(Arrays.asList("a@none", "b@none"), email.getRecipients());
+    assertEquals(0, email.getAttempts());
+    assertFalse(email.getNextAttempt().after(new Date()));
+  }
+
+  @Test
+  public void testTake() {
+    Date leaseEnd = new Date(System.currentTimeMillis() + 1000);
+    email.take(leaseEnd);
+    assertEquals(DeliveryStatus.SENDING, email.getStatus());
+    assertEquals(leaseEnd, email.getNextAttempt());
+    email.sent();
+    assertEquals(DeliveryStatus.SENT, email.getStatus());
+  }
+
+  @Test
+  public void testFailed() {
+    Date retryAt = new Date(System.currentTimeMillis() + 1000);
+    email.take(new Date());
+    email.failed("connection refused", retryAt);
+    assertEquals(DeliveryStatus.PENDING, email.getStatus());
+    assertEquals(1, email.getAttempts());
+    assertEquals(retryAt, email.getNextAttempt());
+    assertEquals("connection refused", email.getLastError());
+
+    email.failed("connection refused", null);
+    assertEquals(DeliveryStatus.FAILED, email.getStatus());
+    assertEquals(2, email.getAttempts());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTake_sent() {
+    email.sent();
+    email.take(new Date());
+  }
+}
@@ -15,6 +15,7 @@ import javax.persistence.DiscriminatorType;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
 
 import org.apache.commons.lang.Validate;
 
@@ -33,6 +34,10 @@ import org.compass.annotations.SearchableProperty;
  * Modules implementing user management must be aware of this class. The
  * intended usage is for modules to inherit from CoreUser, and map the rest of
  * the user properties.
+ *
+ * The user name is mapped as the natural id, so that the users can be looked
+ * up by name with Restrictions.naturalId() in a cacheable criteria, using the
+ * NATURAL_ID_REGION query cache region.
  */
 @Entity
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
@@ -42,6 +47,11 @@ import org.compass.annotations.SearchableProperty;
 @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public abstract class CoreUser {
 
+  /** The name of the query cache region for the user lookups by natural id.
+   */
+  public static final String NATURAL_ID_REGION
+    = "com.globant.katari.hibernate.coreuser.domain.CoreUser.naturalId";
+
   /** The length in characters of the user name.
    */
   private static final int USER_NAME_LENGTH = 100;
@@ -58,10 +68,12 @@ public abstract class CoreUser {
 
   /** The name of the user.
    *
-   * This is never null. User name must be unique.
+   * This is never null. User name must be unique. It is the natural id of the
+   * user, mutable because users can be renamed.
    */
   @Column(name = "name", nullable = false, unique = true,
       length = USER_NAME_LENGTH)
+  @NaturalId(mutable = true)
   @SearchableProperty
   private String name;
 
@@ -2,10 +2,11 @@
 
 package com.globant.katari.hibernate.coreuser.domain;
 
-import java.util.List;
-
 import org.apache.commons.lang.Validate;
 
+import org.hibernate.Session;
+import org.hibernate.criterion.Restrictions;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 /** This class provides read only access to the user.
@@ -27,24 +28,30 @@ public class CoreUserRepository extends HibernateDaoSupport {
   }
 
   /** Finds the user with the specified name.
+   *
+   * The user is looked up by its natural id, so the query result is cached in
+   * the CoreUser.NATURAL_ID_REGION region when the query cache is enabled.
+   * The query runs in the hibernate template, that releases the session if
+   * there is no transaction.
    *
    * @param name The name of the user to search for. It cannot be null.
    *
    * @return Returns the user with the specified name, or null if no such user
    * exists.
    */
-  @SuppressWarnings("unchecked")
   public CoreUser findUserByName(final String name) {
 
     Validate.notNull(name, "The user name cannot be null");
 
-    List<CoreUser> users = getHibernateTemplate().find(
-        "from CoreUser user where user.name = ?", name);
-    if (users.isEmpty()) {
-      return null;
-    } else {
-      return users.get(0);
-    }
+    return getHibernateTemplate().execute(new HibernateCallback<CoreUser>() {
+      public CoreUser doInHibernate(final Session session) {
+        return (CoreUser) session.createCriteria(CoreUser.class)
+          .add(Restrictions.naturalId().set("name", name))
+          .setCacheable(true)
+          .setCacheRegion(CoreUser.NATURAL_ID_REGION)
+          .uniqueResult();
+      }
+    });
   }
 }
 
@@ -14,6 +14,9 @@ import javax.persistence.DiscriminatorColumn;
 import javax.persistence.DiscriminatorType;
 import javax.persistence.DiscriminatorValue;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import org.compass.annotations.Searchable;
 import org.compass.annotations.SearchableId;
 import org.compass.annotations.SearchableProperty;
@@ -28,6 +31,7 @@ import org.apache.commons.lang.Validate;
     discriminatorType = DiscriminatorType.STRING)
 @DiscriminatorValue("role")
 @Table(name = "roles")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Searchable(root = false)
 public class Role {
 
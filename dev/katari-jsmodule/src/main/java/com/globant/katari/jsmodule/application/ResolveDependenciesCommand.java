@@ -51,6 +51,11 @@ public class ResolveDependenciesCommand implements Command<JsonRepresentation> {
    */
   private BundleCache cache;
 
+  /**
+   * The bundler used to compress the files, it's never null.
+   */
+  private DependenciesBundler bundler;
+
   /**
    * The list of files whose dependencies are going to be fetched, it's never
    * null.
@@ -59,6 +64,10 @@ public class ResolveDependenciesCommand implements Command<JsonRepresentation> {
 
   /** Constructs a new {@link ResolveDependenciesCommand} to list the files
    * dependencies.
+   *
+   * The files are compressed sequentially in the calling thread, without
+   * caching the compressed files.
+   *
    * @param theResolver The {@link DependenciesResolver} used to resolve the
    * dependencies of the given list of files. Cannot be null.
    * @param theCache The {@link BundleCache} contains a Map with the cache of
@@ -68,11 +77,31 @@ public class ResolveDependenciesCommand implements Command<JsonRepresentation> {
    */
   public ResolveDependenciesCommand(final DependenciesResolver theResolver,
       final BundleCache theCache, final boolean theDebugMode) {
+    this(theResolver, theCache, new DependenciesBundler(1, 1), theDebugMode);
+  }
+
+  /** Constructs a new {@link ResolveDependenciesCommand} to list the files
+   * dependencies.
+   * @param theResolver The {@link DependenciesResolver} used to resolve the
+   * dependencies of the given list of files. Cannot be null.
+   * @param theCache The {@link BundleCache} contains a Map with the cache of
+   * the bundled files. Cannot be null.
+   * @param theBundler The {@link DependenciesBundler} used to compress the
+   * files. It is usually shared among commands, so the compressed files are
+   * cached. Cannot be null.
+   * @param theDebugMode If it's true means the application is running in debug
+   * mode, false otherwise.
+   */
+  public ResolveDependenciesCommand(final DependenciesResolver theResolver,
+      final BundleCache theCache, final DependenciesBundler theBundler,
+      final boolean theDebugMode) {
     Validate.notNull(theResolver, "The dependencies resolver cannot be null.");
     Validate.notNull(theCache, "The Bundle Cache cannot be null.");
+    Validate.notNull(theBundler, "The bundler cannot be null.");
     resolver = theResolver;
     debugMode = theDebugMode;
     cache = theCache;
+    bundler = theBundler;
   }
 
   /**
@@ -120,8 +149,7 @@ public class ResolveDependenciesCommand implements Command<JsonRepresentation> {
       String bundledName = cache.findKey(files);
       if (bundledName == null) {
         List<String> dependencies = resolver.resolve(files);
-        DependenciesBundler depBundler = new DependenciesBundler();
-        String bundledFileContent = depBundler.bundleFiles(dependencies);
+        String bundledFileContent = bundler.bundleFiles(dependencies);
         bundledName = cache.store(files, bundledFileContent);
       }
       dependenciesFound.add(ContentModuleServlet.BUNDLE_PATH + bundledName);
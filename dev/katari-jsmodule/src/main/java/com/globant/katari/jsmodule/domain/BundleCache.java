@@ -2,42 +2,241 @@
 
 package com.globant.katari.jsmodule.domain;
 
-import java.nio.charset.Charset;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
 
 import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.globant.katari.core.cache.LruCache;
 
 /** Manages the cache of the bundled files.
+ *
+ * Bundles are kept in memory as UTF-8 encoded bytes, in a bounded cache that
+ * discards the least recently used bundles when full. This class is thread
+ * safe: it is shared by the ContentModuleServlet and the
+ * ResolveDependenciesCommand.
+ *
+ * Optionally, bundles can also be stored in a directory in the file system
+ * (see setDirectory). Bundles not found in memory are then looked for in that
+ * directory, so bundles survive restarts, and cluster nodes that point to the
+ * same directory share the bundles generated by any of them. Bundles are
+ * written to a temporary file that is then renamed, so other nodes never see
+ * a partially written bundle.
+ *
+ * Bundles generated at build time by BundlePrecompiler are registered by
+ * loadPrecompiledBundles, and read from the classpath the first time they are
+ * requested, so the compressor is never run for them.
+ *
+ * The bundle keys include the version of the javascript files (see
+ * setVersion). After a redeploy that changes a javascript file, the bundles
+ * persisted in the directory or precompiled from the old files are never
+ * served, and nodes that run different versions never share bundles.
  *
  * @author ivan.bedecarats@globant.com.
  */
 public class BundleCache {
 
-  /** Map that contains the cache of the bundled files.
+  /** The class logger.
+   */
+  private static Logger log = LoggerFactory.getLogger(BundleCache.class);
+
+  /** The default maximum number of bundles kept in memory.
+   */
+  private static final int DEFAULT_MAX_SIZE = 200;
+
+  /** The encoding of the bundles.
+   */
+  private static final String ENCODING = "UTF-8";
+
+  /** The format of the keys, an md5 hash in hexadecimal followed by .js.
+   *
+   * Keys are received from the client, so they are checked against this
+   * pattern before being used as file names.
+   */
+  private static final Pattern KEY_PATTERN
+    = Pattern.compile("[0-9a-f]{32}\\.js");
+
+  /** The md5 digest used to generate the keys, one per thread.
+   *
+   * MessageDigest is not thread safe, and obtaining a new instance on each
+   * lookup is expensive.
+   */
+  private static final ThreadLocal<MessageDigest> DIGEST
+    = new ThreadLocal<MessageDigest>() {
+      protected MessageDigest initialValue() {
+        try {
+          return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+          throw new RuntimeException("Unable to generate the MD5 hash.", e);
+        }
+      }
+    };
+
+  /** The cache of the bundled files.
    *
    * The key is a {@link String} generated by concatenating an MD5 hash with
-   * ".js". This MD5 hash was created by concatenating the paths of those files
-   * which had been used for looking for the dependency files of the bundled
-   * file. Each concatenated file path is ordered alphabetically and separated
-   * by a |.
-   * The value is a {@link String} which represents the content of the bundled
-   * file cached in the Map.
+   * ".js". This MD5 hash was created by concatenating the version of the
+   * javascript files and the paths of those files which had been used for
+   * looking for the dependency files of the bundled file. Each concatenated
+   * file path is ordered alphabetically and separated by a |.
+   * The value is the content of the bundled file, encoded in UTF-8.
+   *
+   * It is never null.
+   */
+  private LruCache<String, byte[]> bundledFiles
+    = new LruCache<String, byte[]>(DEFAULT_MAX_SIZE);
+
+  /** The url of the precompiled bundles, keyed by bundle key.
    *
+   * It is never null. It is replaced, never modified, by
+   * loadPrecompiledBundles.
    */
-  private Map<String, String> bundledFiles =
-    new HashMap<String, String>();
+  private volatile Map<String, URL> precompiled
+    = Collections.<String, URL>emptyMap();
+
+  /** The directory where the bundles are persisted.
+   *
+   * It is null if the bundles are only kept in memory.
+   */
+  private File directory = null;
+
+  /** The version of the javascript files, included in the bundle keys.
+   *
+   * It is never null.
+   */
+  private String version = "";
+
+  /** Sets the maximum number of bundles kept in memory.
+   *
+   * This discards the bundles currently held in memory, so it should only be
+   * called on initialization. It is 200 by default.
+   *
+   * @param maxSize the maximum number of bundles. It must be greater than 0.
+   */
+  public void setMaxSize(final int maxSize) {
+    bundledFiles = new LruCache<String, byte[]>(maxSize);
+  }
+
+  /** Sets the directory where the bundles are persisted.
+   *
+   * The directory is created if it does not exist. By default, bundles are
+   * only kept in memory. This must only be called on initialization.
+   *
+   * @param theDirectory the name of the directory. It cannot be null. An empty
+   * string disables the persistence of bundles, so this can be configured
+   * from a StringHolder.
+   */
+  public void setDirectory(final String theDirectory) {
+    Validate.notNull(theDirectory, "The directory cannot be null.");
+    if (theDirectory.trim().length() == 0) {
+      directory = null;
+      return;
+    }
+    directory = new File(theDirectory.trim());
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new RuntimeException("Unable to create the bundle directory "
+          + directory);
+    }
+    log.info("Storing bundles in {}", directory);
+  }
+
+  /** Sets the version of the javascript files.
+   *
+   * The version is included in the bundle keys, so it must change whenever a
+   * javascript file changes. It is usually obtained from
+   * ResourceSets.computeVersion. It is empty by default. This must only be
+   * called on initialization.
+   *
+   * @param theVersion the version. It cannot be null.
+   */
+  public void setVersion(final String theVersion) {
+    Validate.notNull(theVersion, "The version cannot be null.");
+    version = theVersion;
+    log.info("Using javascript files version {}", version);
+  }
+
+  /** Registers the bundles generated by BundlePrecompiler and packaged in
+   * the classpath.
+   *
+   * This reads all the META-INF/katari-bundles.properties indexes found by
+   * the class loader of this class. It is intended to be called on
+   * initialization.
+   */
+  public void loadPrecompiledBundles() {
+    loadPrecompiledBundles(BundleCache.class.getClassLoader());
+  }
+
+  /** Registers the bundles generated by BundlePrecompiler and packaged in
+   * the classpath.
+   *
+   * @param classLoader the class loader used to find the indexes and the
+   * bundles. It cannot be null.
+   */
+  public void loadPrecompiledBundles(final ClassLoader classLoader) {
+    Validate.notNull(classLoader, "The class loader cannot be null.");
+    Map<String, URL> bundles = new HashMap<String, URL>();
+    Enumeration<URL> indexes;
+    try {
+      indexes = classLoader.getResources(BundlePrecompiler.INDEX);
+    } catch (IOException e) {
+      throw new RuntimeException("Error loading " + BundlePrecompiler.INDEX,
+          e);
+    }
+    while (indexes.hasMoreElements()) {
+      URL indexUrl = indexes.nextElement();
+      log.debug("Found precompiled bundles in {}", indexUrl);
+      Properties index = new Properties();
+      InputStream input = null;
+      try {
+        input = indexUrl.openStream();
+        index.load(input);
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading " + indexUrl, e);
+      } finally {
+        IOUtils.closeQuietly(input);
+      }
+      Enumeration<?> keys = index.propertyNames();
+      while (keys.hasMoreElements()) {
+        String key = (String) keys.nextElement();
+        URL bundleUrl = classLoader.getResource(index.getProperty(key));
+        if (bundleUrl == null) {
+          log.warn("Precompiled bundle {} not found, ignored.", key);
+        } else {
+          bundles.put(key, bundleUrl);
+        }
+      }
+    }
+    log.info("Registered {} precompiled bundles.", bundles.size());
+    precompiled = bundles;
+  }
 
   /** Generates a Key for a bundled file which will be cached in the Map.
    *
-   * Implementation note: the key is generated by concatenating the list of
-   * files separated by '|', calculating its MD5 hash, and concatenating a .js
-   * suffix. The key is order dependent (no sorting is done to calculate the
-   * key.)
+   * Implementation note: the key is generated by concatenating the version,
+   * if not empty, and the list of files separated by '|', calculating its MD5
+   * hash, and concatenating a .js suffix. The key is order dependent (no
+   * sorting is done to calculate the key.)
+   *
+   * @param theVersion The version of the javascript files. Cannot be null.
    *
    * @param files The files used for generating the Key. These files are the
    * ones used for looking for the dependency files of bundled file.
@@ -45,28 +244,51 @@ public class BundleCache {
    *
    * @return A unique key generated from the source files. Never return null.
    */
-  private String generateKey(final List<String> files) {
+  static String generateKey(final String theVersion,
+      final List<String> files) {
+    Validate.notNull(theVersion, "The version cannot be null.");
     Validate.notEmpty(files, "There must be at least one file.");
-    StringBuilder concatenatedFile = new StringBuilder();
-    String generatedKey = null;
+    StringBuilder concatenatedFile = new StringBuilder(theVersion);
     for (int i = 0; i < files.size(); i++) {
       if (concatenatedFile.length() != 0) {
         concatenatedFile.append("|");
       }
       concatenatedFile.append(files.get(i));
     }
-    MessageDigest messageDigest;
-    try {
-      messageDigest = MessageDigest.getInstance("MD5");
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException("Unable to generate the MD5 hash.", e);
-    }
+    MessageDigest messageDigest = DIGEST.get();
     messageDigest.reset();
-    String inputForHash = concatenatedFile.toString();
-    messageDigest.update(inputForHash.getBytes(Charset.forName("UTF8")));
-    byte[] resultBytes = messageDigest.digest();
-    generatedKey = new String(Hex.encodeHex(resultBytes)) + ".js";
-    return generatedKey;
+    byte[] resultBytes = messageDigest.digest(
+        toBytes(concatenatedFile.toString()));
+    return new String(Hex.encodeHex(resultBytes)) + ".js";
+  }
+
+  /** Finds the content of a bundled file, encoded in UTF-8.
+   *
+   * @param key The key of the bundled file. Cannot be null nor empty.
+   *
+   * @return the content of the bundled file, or null if there is no cached
+   * file for the key. The caller must not modify the returned array.
+   */
+  public byte[] findBytes(final String key) {
+    Validate.notEmpty(key, "The Key cannot be null nor empty.");
+    byte[] content = bundledFiles.get(key);
+    if (content == null) {
+      URL url = precompiled.get(key);
+      if (url != null) {
+        content = read(url);
+        if (content != null) {
+          bundledFiles.put(key, content);
+        }
+      }
+    }
+    if (content == null && directory != null
+        && KEY_PATTERN.matcher(key).matches()) {
+      content = read(key);
+      if (content != null) {
+        bundledFiles.put(key, content);
+      }
+    }
+    return content;
   }
 
   /** Finds a {@link String} which represents the content of the Bundled File
@@ -79,8 +301,15 @@ public class BundleCache {
    * the given files then it returns null.
    */
   public String findContent(final String key) {
-    Validate.notEmpty(key, "The Key cannot be null nor empty.");
-    return bundledFiles.get(key);
+    byte[] content = findBytes(key);
+    if (content == null) {
+      return null;
+    }
+    try {
+      return new String(content, ENCODING);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("UTF-8 not supported", e);
+    }
   }
 
   /** Finds the key in Map that contains the cache of the bundled files.
@@ -93,14 +322,16 @@ public class BundleCache {
    */
   public String findKey(final List<String> files) {
     Validate.notEmpty(files, "There must be at least one file.");
-    String generatedKey = generateKey(files);
-    if (bundledFiles.containsKey(generatedKey)) {
+    String generatedKey = generateKey(version, files);
+    if (findBytes(generatedKey) != null) {
       return generatedKey;
     }
     return null;
   }
 
   /** Stores a bundled file for the given files in the Map of Cached Files.
+   *
+   * If a directory was configured, the bundle is also written there.
    *
    * @param files The files used for generating the Key. These files are the
    * ones used for looking for the dependency files which were later on bundled.
@@ -115,9 +346,97 @@ public class BundleCache {
     Validate.notEmpty(files, "There must be at least one file.");
     Validate.notEmpty(bundledContent,
         "The bundled content cannot be null");
-    String bundleKey = generateKey(files);
-    bundledFiles.put(bundleKey, bundledContent);
+    String bundleKey = generateKey(version, files);
+    byte[] content = toBytes(bundledContent);
+    bundledFiles.put(bundleKey, content);
+    if (directory != null) {
+      write(bundleKey, content);
+    }
     return bundleKey;
   }
-}
 
+  /** Reads a bundle from the directory.
+   *
+   * @param key the key of the bundle, a valid file name. It cannot be null.
+   *
+   * @return the content of the bundle, null if not found or it could not be
+   * read.
+   */
+  private byte[] read(final String key) {
+    File file = new File(directory, key);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      return read(file.toURI().toURL());
+    } catch (MalformedURLException e) {
+      throw new RuntimeException("Invalid bundle file " + file, e);
+    }
+  }
+
+  /** Reads a bundle from a url.
+   *
+   * @param url the url of the bundle. It cannot be null.
+   *
+   * @return the content of the bundle, null if it could not be read.
+   */
+  private byte[] read(final URL url) {
+    InputStream input = null;
+    try {
+      input = url.openStream();
+      return IOUtils.toByteArray(input);
+    } catch (IOException e) {
+      log.warn("Unable to read bundle " + url, e);
+      return null;
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  /** Writes a bundle to the directory.
+   *
+   * Errors are logged and ignored, the bundle is still available in memory.
+   *
+   * @param key the key of the bundle, a valid file name. It cannot be null.
+   *
+   * @param content the content of the bundle. It cannot be null.
+   */
+  private void write(final String key, final byte[] content) {
+    File target = new File(directory, key);
+    File temp = null;
+    OutputStream output = null;
+    try {
+      temp = File.createTempFile(key, ".tmp", directory);
+      output = new FileOutputStream(temp);
+      output.write(content);
+      output.close();
+      output = null;
+      if (!temp.renameTo(target)) {
+        // Another thread or node probably wrote the same bundle.
+        log.debug("Unable to rename {} to {}", temp, target);
+        temp.delete();
+      }
+    } catch (IOException e) {
+      log.warn("Unable to write bundle " + target, e);
+      if (temp != null) {
+        temp.delete();
+      }
+    } finally {
+      IOUtils.closeQuietly(output);
+    }
+  }
+
+  /** Encodes a string in UTF-8.
+   *
+   * @param value the string to encode. It cannot be null.
+   *
+   * @return the encoded string, never null.
+   */
+  private static byte[] toBytes(final String value) {
+    try {
+      return value.getBytes(ENCODING);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("UTF-8 not supported", e);
+    }
+  }
+}
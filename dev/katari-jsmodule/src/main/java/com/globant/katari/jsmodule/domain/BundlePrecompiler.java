@@ -0,0 +1,249 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.jsmodule.domain;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.globant.katari.jsmodule.view.ResourceSets;
+
+/** Compresses and bundles javascript files at build time.
+ *
+ * This finds all the javascript files (excluding the .dep.js files) served by
+ * the resource sets available in the classpath, and generates a bundle for
+ * each one, with all its transitive dependencies. Additional bundles for
+ * lists of files that are usually requested together can also be generated.
+ *
+ * The bundles are written under META-INF/katari-bundles in an output
+ * directory, with an index in META-INF/katari-bundles.properties. When this
+ * directory is packaged in a jar, BundleCache.loadPrecompiledBundles makes
+ * those bundles available without running the compressor.
+ *
+ * The bundle keys include the version of the javascript files (see
+ * ResourceSets.computeVersion), so the precompiler must run with the same
+ * javascript files in the classpath as the application. Otherwise, the
+ * application ignores the precompiled bundles.
+ *
+ * This class can be run from the command line, see main. For example, with
+ * the exec-maven-plugin java goal in the process-classes phase, passing
+ * ${project.build.outputDirectory} as the first argument.
+ */
+public class BundlePrecompiler {
+
+  /** The class logger.
+   */
+  private static Logger log = LoggerFactory.getLogger(BundlePrecompiler.class);
+
+  /** The classpath location of the bundle index.
+   */
+  public static final String INDEX = "META-INF/katari-bundles.properties";
+
+  /** The classpath location of the bundles.
+   */
+  public static final String BUNDLE_DIRECTORY = "META-INF/katari-bundles/";
+
+  /** The dependencies resolver, never null.
+   */
+  private final DependenciesResolver resolver;
+
+  /** The bundler used to compress the files, never null.
+   */
+  private final DependenciesBundler bundler;
+
+  /** The version of the javascript files, included in the bundle keys, never
+   * null.
+   */
+  private final String version;
+
+  /** The generated bundles, keyed by the bundle key, never null.
+   *
+   * It is sorted to generate a stable index.
+   */
+  private final Map<String, String> bundles = new TreeMap<String, String>();
+
+  /** Builds a new precompiler.
+   *
+   * @param theResolver the resolver used to find the dependencies of each
+   * file. It cannot be null. It should not be in debug mode.
+   *
+   * @param theBundler the bundler used to compress the files. It cannot be
+   * null.
+   *
+   * @param theVersion the version of the javascript files, as configured in
+   * the BundleCache of the application. It cannot be null.
+   */
+  public BundlePrecompiler(final DependenciesResolver theResolver,
+      final DependenciesBundler theBundler, final String theVersion) {
+    Validate.notNull(theResolver, "The resolver cannot be null.");
+    Validate.notNull(theBundler, "The bundler cannot be null.");
+    Validate.notNull(theVersion, "The version cannot be null.");
+    resolver = theResolver;
+    bundler = theBundler;
+    version = theVersion;
+  }
+
+  /** Finds all the javascript files served by the resource sets available in
+   * the classpath.
+   *
+   * @param resourceSets the resource sets. It cannot be null.
+   *
+   * @return the path of the files, as requested to the ContentModuleServlet,
+   * sorted. Never returns null.
+   */
+  public List<String> findFiles(final ResourceSets resourceSets) {
+    Validate.notNull(resourceSets, "The resource sets cannot be null.");
+    List<String> files = new ArrayList<String>();
+    Map<String, URL> javascriptFiles = resourceSets.findJavascriptFiles();
+    for (String file : javascriptFiles.keySet()) {
+      if (!file.endsWith(".dep.js")) {
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+  /** Generates the bundle for a list of files.
+   *
+   * The bundle has the same key that BundleCache generates when the list of
+   * files is requested to ResolveDependenciesCommand. Files that cannot be
+   * resolved or compressed are logged and skipped.
+   *
+   * @param files the list of files. It cannot be null nor empty.
+   *
+   * @return true if the bundle was generated.
+   */
+  public boolean precompile(final List<String> files) {
+    Validate.notEmpty(files, "There must be at least one file.");
+    List<String> sortedFiles = new ArrayList<String>(files);
+    // ResolveDependenciesCommand sorts the files before generating the key.
+    Collections.sort(sortedFiles);
+    String content;
+    try {
+      content = bundler.bundleFiles(resolver.resolve(sortedFiles));
+    } catch (RuntimeException e) {
+      log.warn("Unable to bundle " + sortedFiles + ", skipped.", e);
+      return false;
+    }
+    if (content.length() == 0) {
+      return false;
+    }
+    String key = BundleCache.generateKey(version, sortedFiles);
+    log.debug("Bundled {} as {}", sortedFiles, key);
+    bundles.put(key, content);
+    return true;
+  }
+
+  /** Writes the generated bundles and the index to a directory.
+   *
+   * @param outputDirectory the directory to write the bundles to, usually
+   * the directory that is packaged as the jar. It cannot be null.
+   *
+   * @throws IOException in case of error writing the files.
+   */
+  public void write(final File outputDirectory) throws IOException {
+    Validate.notNull(outputDirectory, "The output directory cannot be null.");
+    File bundleDirectory = new File(outputDirectory, BUNDLE_DIRECTORY);
+    if (!bundleDirectory.isDirectory() && !bundleDirectory.mkdirs()) {
+      throw new IOException("Unable to create " + bundleDirectory);
+    }
+    Properties index = new Properties();
+    for (Map.Entry<String, String> bundle : bundles.entrySet()) {
+      writeFile(new File(bundleDirectory, bundle.getKey()),
+          bundle.getValue().getBytes("UTF-8"));
+      index.setProperty(bundle.getKey(), BUNDLE_DIRECTORY + bundle.getKey());
+    }
+    OutputStream output = new FileOutputStream(new File(outputDirectory,
+          INDEX));
+    try {
+      index.store(output, "Bundles generated by BundlePrecompiler");
+    } finally {
+      output.close();
+    }
+    log.info("Wrote {} bundles to {}", bundles.size(), outputDirectory);
+  }
+
+  /** Returns the number of bundles generated so far.
+   *
+   * @return the number of bundles.
+   */
+  public int getBundleCount() {
+    return bundles.size();
+  }
+
+  /** Writes the content to a file.
+   *
+   * @param file the file. It cannot be null.
+   *
+   * @param content the content of the file. It cannot be null.
+   *
+   * @throws IOException in case of error.
+   */
+  private void writeFile(final File file, final byte[] content)
+      throws IOException {
+    OutputStream output = new FileOutputStream(file);
+    try {
+      IOUtils.write(content, output);
+    } finally {
+      output.close();
+    }
+  }
+
+  /** Precompiles the bundles for all the javascript files in the classpath.
+   *
+   * The first argument is the output directory. Each additional argument is a
+   * comma separated list of files that are requested together, for example
+   * /com/globant/jslib/jquery/jquery.js,/com/example/app.js. A bundle is
+   * generated for each one of those lists, in addition to one bundle for each
+   * javascript file found.
+   *
+   * @param args the command line arguments. It cannot be null.
+   *
+   * @throws IOException in case of error writing the bundles.
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: BundlePrecompiler output-directory"
+          + " [file1.js,file2.js ...]");
+      System.exit(1);
+    }
+    DependenciesResolver resolver;
+    resolver = new DependenciesResolver(new DependenciesFinder(false));
+    DependenciesBundler bundler = new DependenciesBundler();
+    ResourceSets resourceSets = new ResourceSets();
+    BundlePrecompiler precompiler;
+    precompiler = new BundlePrecompiler(resolver, bundler,
+        resourceSets.computeVersion());
+
+    for (String file : precompiler.findFiles(resourceSets)) {
+      precompiler.precompile(Arrays.asList(file));
+    }
+    for (int i = 1; i < args.length; ++i) {
+      List<String> files = new ArrayList<String>();
+      for (String file : args[i].split(",")) {
+        if (file.trim().length() != 0) {
+          files.add(file.trim());
+        }
+      }
+      if (!files.isEmpty()) {
+        precompiler.precompile(files);
+      }
+    }
+    bundler.destroy();
+    precompiler.write(new File(args[0]));
+  }
+}
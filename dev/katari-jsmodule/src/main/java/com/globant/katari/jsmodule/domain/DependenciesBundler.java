@@ -2,11 +2,24 @@
 
 package com.globant.katari.jsmodule.domain;
 
+import java.io.ByteArrayInputStream;
 import java.io.CharArrayWriter;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.Validate;
 import org.mozilla.javascript.ErrorReporter;
@@ -14,10 +27,18 @@ import org.mozilla.javascript.EvaluatorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.globant.katari.core.cache.LruCache;
 import com.yahoo.platform.yui.compressor.JavaScriptCompressor;
 
 /** Bundles a list of files by minifying each one and then concatenating the
  * resulting files.
+ *
+ * The files are compressed in parallel, in a bounded pool of daemon threads,
+ * and concatenated in the original order. Each compressed file is cached,
+ * keyed by the md5 hash of its content, so bundles that share files only
+ * compress the files not seen before.
+ *
+ * This class is thread safe. Call destroy to stop the compression threads.
  */
 public class DependenciesBundler {
 
@@ -57,6 +78,53 @@ public class DependenciesBundler {
    */
   private static final boolean DISABLE_OPTIMIZATIONS = false;
 
+  /** The default maximum number of compression threads.
+   */
+  private static final int DEFAULT_MAX_THREADS = 4;
+
+  /** The default number of compressed files to cache.
+   */
+  private static final int DEFAULT_CACHE_SIZE = 1000;
+
+  /** The number of threads used to compress the files, greater than 0.
+   */
+  private final int threads;
+
+  /** The compressed files, keyed by the md5 of the original content.
+   *
+   * It is never null.
+   */
+  private final LruCache<String, String> compressedFiles;
+
+  /** The pool that compresses the files.
+   *
+   * It is created on the first bundle with more than one file to compress,
+   * null before that.
+   */
+  private ExecutorService executor = null;
+
+  /** Creates a bundler that uses up to 4 threads, but no more than the
+   * number of processors, and caches up to 1000 compressed files.
+   */
+  public DependenciesBundler() {
+    this(Math.min(DEFAULT_MAX_THREADS,
+          Runtime.getRuntime().availableProcessors()), DEFAULT_CACHE_SIZE);
+  }
+
+  /** Creates a bundler.
+   *
+   * @param theThreads the maximum number of threads used to compress the
+   * files. It must be greater than 0.
+   *
+   * @param cacheSize the maximum number of compressed files to cache. It
+   * must be greater than 0.
+   */
+  public DependenciesBundler(final int theThreads, final int cacheSize) {
+    Validate.isTrue(theThreads > 0, "The number of threads must be positive.");
+    threads = theThreads;
+    compressedFiles = new LruCache<String, String>(cacheSize);
+  }
+
   /** Bundles a list of files by minifying each of them, and then concatenating
    * the minified files.
    *
@@ -66,35 +134,175 @@ public class DependenciesBundler {
   public String bundleFiles(final List<String> resources) {
     Validate.notNull(resources, "The files to be bundled cannot be null.");
 
-    StringBuilder bundle = new StringBuilder();
+    // The compressed content of each resource, in order. The elements are
+    // either strings or futures that compute the string.
+    List<Object> parts = new ArrayList<Object>(resources.size());
+    List<Callable<String>> pending = new ArrayList<Callable<String>>();
     for (String resource : resources) {
+      final String name = resource;
+      final byte[] content = readResource(resource);
+      final String hash = hash(content);
+      String compressed = compressedFiles.get(hash);
+      if (compressed != null) {
+        parts.add(compressed);
+      } else {
+        Callable<String> task = new Callable<String>() {
+          public String call() {
+            String result = compressFile(name, content);
+            compressedFiles.put(hash, result);
+            return result;
+          }
+        };
+        parts.add(task);
+        pending.add(task);
+      }
+    }
+
+    if (pending.size() > 1 && threads > 1) {
+      ExecutorService pool = getExecutor();
+      for (int i = 0; i < parts.size(); ++i) {
+        if (parts.get(i) instanceof Callable) {
+          @SuppressWarnings("unchecked")
+          Callable<String> task = (Callable<String>) parts.get(i);
+          parts.set(i, pool.submit(task));
+        }
+      }
+    }
+
+    StringBuilder bundle = new StringBuilder();
+    for (int i = 0; i < resources.size(); ++i) {
       bundle.append("/***************************************************\n");
-      bundle.append(" * Bundled from '" + resource + "'\n");
+      bundle.append(" * Bundled from '" + resources.get(i) + "'\n");
       bundle.append(" ***************************************************/\n");
-      bundle.append(compressFile(resource));
+      bundle.append(getResult(parts.get(i), resources.get(i)));
       bundle.append("\n");
     }
     return bundle.toString();
   }
 
+  /** Stops the compression threads.
+   *
+   * The bundler can still be used after this call, a new pool is created if
+   * needed.
+   */
+  public synchronized void destroy() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  /** Obtains the compressed content from an element of the bundle parts.
+   *
+   * @param part a string, a future or a callable that has not been
+   * submitted. It cannot be null.
+   *
+   * @param resource the name of the resource, for error reporting. It cannot
+   * be null.
+   *
+   * @return the compressed content, never null.
+   */
+  @SuppressWarnings("unchecked")
+  private String getResult(final Object part, final String resource) {
+    try {
+      if (part instanceof Future) {
+        return ((Future<String>) part).get();
+      } else if (part instanceof Callable) {
+        return ((Callable<String>) part).call();
+      }
+      return (String) part;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        // Rethrow, don't wrap a runtime.
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException("Error compressing " + resource,
+          e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted compressing " + resource, e);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException("Error compressing " + resource, e);
+    }
+  }
+
+  /** Returns the pool that compresses the files, creating it if necessary.
+   *
+   * @return the pool, never null.
+   */
+  private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+          public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "katari-js-compressor-"
+                + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+    return executor;
+  }
+
+  /** Reads a resource from the class path.
+   *
+   * @param resource the resource name. The resource will be loaded from the
+   * current class' class loader. It cannot be null.
+   *
+   * @return the content of the resource, never null.
+   */
+  private byte[] readResource(final String resource) {
+    Validate.notNull(resource, "The resource cannot be null.");
+    InputStream resourceContent = getClass().getResourceAsStream(resource);
+    if (resourceContent == null) {
+      throw new RuntimeException("Resource " + resource + " not found.");
+    }
+    try {
+      return IOUtils.toByteArray(resourceContent);
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading " + resource, e);
+    } finally {
+      IOUtils.closeQuietly(resourceContent);
+    }
+  }
+
+  /** Calculates the md5 hash of the content of a resource.
+   *
+   * @param content the content. It cannot be null.
+   *
+   * @return the hash in hexadecimal, never null.
+   */
+  private static String hash(final byte[] content) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      return new String(Hex.encodeHex(digest.digest(content)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Unable to generate the MD5 hash.", e);
+    }
+  }
+
   /** Compresses a single js file.
    *
-   * @param resource the resource name of the file to compress. The resource
-   * will be loaded from the current class' class loader. It cannot be null.
+   * @param resource the resource name of the file to compress, for error
+   * reporting. It cannot be null.
+   *
+   * @param content the content of the file, in UTF-8. It cannot be null.
    *
    * @return a string with the compressed file. It never returns null.
    */
-  private String compressFile(final String resource) {
+  private String compressFile(final String resource, final byte[] content) {
     Validate.notNull(resource, "The resource cannot be null.");
 
     JavaScriptCompressor compressor;
-    InputStream resourceContent = getClass().getResourceAsStream(resource);
 
     // This writer does not need to be closed.
     CharArrayWriter compressedFile;
     try {
       compressor = new JavaScriptCompressor(
-          new InputStreamReader(resourceContent, "UTF-8"),
+          new InputStreamReader(new ByteArrayInputStream(content), "UTF-8"),
           new CompressorErrorReporter());
       compressedFile = new CharArrayWriter();
       compressor.compress(compressedFile, LINE_BREAK_POSTION, MUNGE,
@@ -104,8 +312,6 @@ public class DependenciesBundler {
       throw e;
     } catch (Exception e) {
       throw new RuntimeException("Error compressing " + resource, e);
-    } finally {
-      IOUtils.closeQuietly(resourceContent);
     }
     return compressedFile.toString();
   }
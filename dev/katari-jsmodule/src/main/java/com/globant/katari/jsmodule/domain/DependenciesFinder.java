@@ -11,6 +11,7 @@ import java.io.InputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.io.IOUtils;
@@ -19,6 +20,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.globant.katari.core.cache.LruCache;
 import com.globant.katari.jsmodule.view.ResourceSets;
 import com.globant.katari.jsmodule.view.ResourceSet;
 
@@ -39,10 +41,22 @@ public class DependenciesFinder {
    */
   private ResourceSets resourceSets = new ResourceSets();
 
+  /** The maximum number of files whose dependencies are cached.
+   */
+  private static final int CACHE_SIZE = 2000;
+
   /** True if the application is running in debug mode, false otherwise.
    */
   private boolean debugMode;
 
+  /** The immediate dependencies of each file, keyed by the file path.
+   *
+   * This is bounded because the file paths come from the client. It is never
+   * null.
+   */
+  private final LruCache<String, CachedDependencies> dependencies
+    = new LruCache<String, CachedDependencies>(CACHE_SIZE);
+
   /** Constructs a new {@link DependenciesFinder}.
    * 
    * @param theDebugMode true if the application is running in debug mode,
@@ -59,44 +73,50 @@ public class DependenciesFinder {
    * couldn't be parsed or if a {@link JSONArray} named "js" couldn't be
    * obtained from it.
    *
+   * The dependencies of each file are parsed once and cached. In debug mode,
+   * they are parsed again when the .dep.js file in the file system changes.
+   *
    * @param fileToBeResolved The path of the file whose dependencies are going
    * to be fetched. Cannot be null nor empty.
    *
-   * @return The list of paths of the dependencies of the given file. Never
-   * returns null. Returns an empty {@link List} if no dependencies are found or
-   * if the given file doesn't exist (because we don't support .dep.js files
-   * with empty {@link JSONArray} for .js with no dependencies).
+   * @return The unmodifiable list of paths of the dependencies of the given
+   * file. Never returns null. Returns an empty {@link List} if no dependencies
+   * are found or if the given file doesn't exist (because we don't support
+   * .dep.js files with empty {@link JSONArray} for .js with no dependencies).
    */
   public List<String> find(final String fileToBeResolved) {
     Validate.notEmpty(fileToBeResolved, "The file cannot be null nor empty");
 
-    List<String> foundDependencies = new ArrayList<String>();
     String fileName = getPathWithDepJsExtension(fileToBeResolved);
 
-    InputStream fileContent = null;
-
+    File file = null;
     if (debugMode) {
-      ResourceSet resourceSet = resourceSets.find(fileName);
-      if (resourceSet != null) {
-        String filePath = buildPath(resourceSet.getDebugPrefix(), fileName);
-        log.debug("In debug mode, looking for file {}", filePath);
-        File file = new File(filePath);
-        if (file.exists()) {
-          log.debug("Found {} in debug mode.", filePath);
-          try {
-            fileContent = new FileInputStream(file);
-          } catch (FileNotFoundException e) {
-            throw new RuntimeException ("Error opening file " + filePath, e);
-          }
-        }
-      }
-      if (fileContent == null) {
-        fileContent = getClass().getResourceAsStream(fileName);
+      file = findDebugFile(fileName);
+    }
+    long lastModified = 0;
+    if (file != null) {
+      lastModified = file.lastModified();
+    }
+
+    CachedDependencies cached = dependencies.get(fileToBeResolved);
+    if (cached != null && cached.lastModified == lastModified) {
+      return cached.files;
+    }
+
+    InputStream fileContent = null;
+    if (file != null) {
+      log.debug("Found {} in debug mode.", file);
+      try {
+        fileContent = new FileInputStream(file);
+      } catch (FileNotFoundException e) {
+        throw new RuntimeException ("Error opening file " + file, e);
       }
     } else {
       fileContent = getClass().getResourceAsStream(fileName);
     }
 
+    List<String> foundDependencies = new ArrayList<String>();
+
     // if the file was found that means it has dependencies files. Otherwise,
     // it hasn't.
     if (fileContent != null) {
@@ -127,7 +147,29 @@ public class DependenciesFinder {
       }
     }
 
-    return foundDependencies;
+    List<String> result = Collections.unmodifiableList(foundDependencies);
+    dependencies.put(fileToBeResolved,
+        new CachedDependencies(result, lastModified));
+    return result;
+  }
+
+  /** Looks for a .dep.js file in the file system, for debug mode.
+   *
+   * @param fileName The classpath name of the .dep.js file. It cannot be null.
+   *
+   * @return the file, or null if it is not in the file system.
+   */
+  private File findDebugFile(final String fileName) {
+    ResourceSet resourceSet = resourceSets.find(fileName);
+    if (resourceSet != null) {
+      String filePath = buildPath(resourceSet.getDebugPrefix(), fileName);
+      log.debug("In debug mode, looking for file {}", filePath);
+      File file = new File(filePath);
+      if (file.exists()) {
+        return file;
+      }
+    }
+    return null;
   }
 
   /** Returns the file with the .dep.js depency extension.
@@ -166,5 +208,31 @@ public class DependenciesFinder {
     }
     return prefix + "/" +  name;
   }
-}
 
+  /** The immediate dependencies of a file, as parsed from its .dep.js.
+   */
+  private static final class CachedDependencies {
+
+    /** The unmodifiable list of dependencies, never null.
+     */
+    private final List<String> files;
+
+    /** The last modification time of the .dep.js file in debug mode, 0 if it
+     * was read from the classpath.
+     */
+    private final long lastModified;
+
+    /** Constructor.
+     *
+     * @param theFiles the unmodifiable list of dependencies. It cannot be
+     * null.
+     *
+     * @param theLastModified the modification time of the .dep.js file.
+     */
+    private CachedDependencies(final List<String> theFiles,
+        final long theLastModified) {
+      files = theFiles;
+      lastModified = theLastModified;
+    }
+  }
+}
@@ -3,37 +3,78 @@
 package com.globant.katari.jsmodule.domain;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.lang.Validate;
 
+import com.globant.katari.core.cache.LruCache;
+
 /** Fetches the dependencies for a list of file's paths.
  *
  * The dependencies are returned in a list that contains their paths. The
  * returned list of dependencies doesn't contain repeated dependencies and are
  * ordered accordingly.
  *
+ * The dependencies are resolved with a depth first traversal of the
+ * dependency graph, visiting each file once, so resolution is linear in the
+ * number of files and dependencies. The immediate dependencies of each file
+ * are cached by the DependenciesFinder. Outside debug mode, the result for
+ * each requested list of files is also cached.
+ *
  * @author ivan.bedecarats@globant.com
  */
 public class DependenciesResolver {
 
+  /** The maximum number of resolved lists of files to remember.
+   */
+  private static final int RESULT_CACHE_SIZE = 500;
+
   /**
    * The Dependencies Finder, never null.
    */
   private DependenciesFinder dependenciesFinder;
 
+  /** The resolved dependencies, keyed by the list of requested files.
+   *
+   * The values are unmodifiable. It is null in debug mode, where the
+   * dependencies can change at any time.
+   */
+  private LruCache<List<String>, List<String>> resolved = null;
+
   /** Makes a new instance for the {@link DependenciesResolver} with the given
    * parameter.
+   *
+   * The resolved dependencies are cached, as when not in debug mode.
+   *
    * @param theDependenciesFinder The {@link DependenciesFinder} used to look
    * for the dependencies. It's never null.
    */
   public DependenciesResolver(
       final DependenciesFinder theDependenciesFinder) {
+    this(theDependenciesFinder, false);
+  }
+
+  /** Makes a new instance for the {@link DependenciesResolver} with the given
+   * parameters.
+   *
+   * @param theDependenciesFinder The {@link DependenciesFinder} used to look
+   * for the dependencies. It's never null.
+   *
+   * @param theDebugMode true if the application is running in debug mode. In
+   * debug mode, the resolved dependencies are not cached.
+   */
+  public DependenciesResolver(final DependenciesFinder theDependenciesFinder,
+      final boolean theDebugMode) {
     Validate.notNull(theDependenciesFinder,
         "The immediate dependencies resolver cannot be null.");
     dependenciesFinder = theDependenciesFinder;
+    if (!theDebugMode) {
+      resolved = new LruCache<List<String>, List<String>>(RESULT_CACHE_SIZE);
+    }
   }
 
   /** Fetches all the dependencies for a given list of files.
@@ -47,77 +88,52 @@ public class DependenciesResolver {
   public List<String> resolve(final List<String> filesToBeResolved) {
     Validate.notNull(filesToBeResolved,
         "The filesToBeResolved cannot be null.");
-    return resolve(filesToBeResolved, new HashSet<String>());
+    List<String> key = new ArrayList<String>(filesToBeResolved);
+    List<String> result = null;
+    if (resolved != null) {
+      result = resolved.get(key);
+    }
+    if (result == null) {
+      Set<String> fetchedDependencies = new LinkedHashSet<String>();
+      resolve(filesToBeResolved, fetchedDependencies, new HashSet<String>());
+      result = Collections.unmodifiableList(
+          new ArrayList<String>(fetchedDependencies));
+      if (resolved != null) {
+        resolved.put(key, result);
+      }
+    }
+    return new ArrayList<String>(result);
   }
 
-  /** It looks for the dependencies for a given list of files.
+  /** Adds the dependencies of a list of files, followed by each file, to the
+   * fetched dependencies.
    *
-   * It stores the dependency ancestors to see if it finds a circular
-   * dependency. If that happens a {@link RuntimeException} is thrown.
+   * Files already fetched are not visited again. The files currently being
+   * visited are kept in ancestors to detect circular dependencies. If that
+   * happens a {@link RuntimeException} is thrown.
    *
    * @param filesToBeResolved The list of files whose dependencies are going to
    * be fetched.  It's never null.
    *
-   * @param ancestors A {@link Set} containing the ancestors for a dependency.
-   * It's never null.
+   * @param fetchedDependencies The dependencies found so far, in order. It's
+   * never null.
    *
-   * @return A List containing all the dependencies for the given list of
-   * files.  Never returns null.
+   * @param ancestors A {@link Set} containing the files being visited. It's
+   * never null.
    */
-  private List<String> resolve(final List<String> filesToBeResolved,
-      final Set<String> ancestors) {
-    Validate.notNull(filesToBeResolved,
-        "The filesToBeResolved cannot be null.");
-    Validate.notNull(ancestors, "The ancestors cannot be null.");
-    List<String> fetchedDependencies = new ArrayList<String>();
-
+  private void resolve(final List<String> filesToBeResolved,
+      final Set<String> fetchedDependencies, final Set<String> ancestors) {
     for (String file : filesToBeResolved) {
       if (ancestors.contains(file)) {
         throw new RuntimeException("Circular dependency found: " + file
             + " is in the list of its ancestors. Ancestors are " + ancestors);
-      } else {
-        HashSet<String> newAncestors = new HashSet<String>();
-        newAncestors.addAll(ancestors);
-        newAncestors.add(file);
-        List<String> dependenciesFound = dependenciesFinder.find(file);
-        addIgnoreDuplicates(fetchedDependencies,
-            resolve(dependenciesFound, newAncestors));
       }
-      addIgnoreDuplicate(fetchedDependencies, file);
-    }
-    return fetchedDependencies;
-  }
-
-  /** Adds a list of files to another list of source files. If any of the files
-   * already exists in the source list, then it won't be added.
-   * @param sourceFiles The list where the new files will be added if they are
-   * not duplicated. It's never null.
-   * @param filesToBeAdded The list of files to be added. If any of them exists
-   * in the source list, then it won't be added. It's never null.
-   */
-  private void addIgnoreDuplicates(final List<String> sourceFiles,
-      final List<String> filesToBeAdded) {
-    Validate.notNull(sourceFiles, "The list of source files cannot be null.");
-    Validate.notNull(filesToBeAdded,
-        "The list of files to be added cannot be null.");
-    for (String fileToBeAdded : filesToBeAdded) {
-      addIgnoreDuplicate(sourceFiles, fileToBeAdded);
-    }
-  }
-
-  /** Adds a file to a list of files if that file doesn't already exist in the
-   * list.
-   * @param sourceFiles The list where the new file will be added if it doesn't
-   * already exist in the list. It's never null.
-   * @param fileToBeAdded The file to be added in the list. If it already exist
-   * in the list, then it won't be added. It's never null.
-   */
-  private void addIgnoreDuplicate(final List<String> sourceFiles,
-      final String fileToBeAdded) {
-    Validate.notNull(sourceFiles, "The list of source files cannot be null.");
-    Validate.notNull(fileToBeAdded, "The files to be added cannot be null.");
-    if (!sourceFiles.contains(fileToBeAdded)) {
-      sourceFiles.add(fileToBeAdded);
+      if (!fetchedDependencies.contains(file)) {
+        ancestors.add(file);
+        resolve(dependenciesFinder.find(file), fetchedDependencies, ancestors);
+        ancestors.remove(file);
+        fetchedDependencies.add(file);
+      }
     }
   }
 }
@@ -14,7 +14,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 
 import javax.servlet.ServletException;
 import java.util.Enumeration;
@@ -165,12 +164,34 @@ public class ContentModuleServlet extends BaseStaticContentServlet {
 
     if (path.contains(BUNDLE_PATH)) {
       String bundleName = path.substring(path.lastIndexOf("/") + 1);
-      String bundleContent = cache.findContent(bundleName);
-      if (StringUtils.isNotEmpty(bundleName)) {
+      byte[] bundleContent = cache.findBytes(bundleName);
+      if (bundleContent != null) {
         log.trace("Leaving findInputStream with a file resource");
-        return new ByteArrayInputStream(bundleContent.getBytes("UTF-8"));
+        return new ByteArrayInputStream(bundleContent);
       }
     } else {
+      URL url = findResourceUrl(path);
+      if (url != null) {
+        log.trace("Leaving findInputStream with a resource");
+        return url.openStream();
+      }
+    }
+
+    log.trace("Leaving findInputStream");
+    return null;
+  }
+
+  /** {@inheritDoc}
+   *
+   * Bundles do not have a url, this returns null for them.
+   */
+  @Override
+  protected URL findResourceUrl(final String path) throws IOException {
+    log.trace("Entering findResourceUrl('{}')", path);
+
+    Validate.notNull(path, "The resource path cannot be null");
+
+    if (!path.contains(BUNDLE_PATH)) {
       ResourceSet set = resourceSets.find(path);
       if (set != null) {
         if (isInDebugMode()) {
@@ -178,8 +199,8 @@ public class ContentModuleServlet extends BaseStaticContentServlet {
           log.debug("In debug mode, looking for file {}", filePath);
           File file = new File(filePath);
           if (file.exists()) {
-            log.trace("Leaving findInputStream with a file resource");
-            return new FileInputStream(file);
+            log.trace("Leaving findResourceUrl with a file resource");
+            return file.toURI().toURL();
           }
         }
         // The resource path must not start with '/', or it will fail under
@@ -192,11 +213,13 @@ public class ContentModuleServlet extends BaseStaticContentServlet {
         }
 
         log.debug("Looking for resource {}", resource);
-        return getResourceAsStream(resource);
+        URL url = getResource(resource);
+        log.trace("Leaving findResourceUrl");
+        return url;
       }
     }
 
-    log.trace("Leaving findInputStream");
+    log.trace("Leaving findResourceUrl with null");
     return null;
   }
 
@@ -11,11 +11,23 @@ import java.util.Enumeration;
 import java.net.URL;
 
 import java.io.IOException;
+import java.io.InputStream;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
 /** Manages the result sets for all available packages.
  */
 public class ResourceSets {
@@ -70,6 +82,85 @@ public class ResourceSets {
     return null;
   }
 
+  /** Returns the base paths of all the available resource sets.
+   *
+   * @return the base paths, sorted. It never returns null.
+   */
+  public Set<String> getBasePaths() {
+    return Collections.unmodifiableSet(resourceSets.keySet());
+  }
+
+  /** Finds all the javascript files, including the .dep.js files, served by
+   * the resource sets.
+   *
+   * @return the url of each file, keyed by the path of the file as requested
+   * to the ContentModuleServlet. If many urls have the same path, the first
+   * one in the classpath is returned. It never returns null.
+   */
+  public SortedMap<String, URL> findJavascriptFiles() {
+    ResourcePatternResolver patternResolver;
+    patternResolver = new PathMatchingResourcePatternResolver();
+    SortedMap<String, URL> files = new TreeMap<String, URL>();
+    for (String basePath : getBasePaths()) {
+      String base = basePath;
+      if (base.startsWith("/")) {
+        base = base.substring(1);
+      }
+      if (!base.endsWith("/")) {
+        base = base + "/";
+      }
+      try {
+        Resource[] resources = patternResolver.getResources("classpath*:"
+            + base + "**/*.js");
+        for (Resource resource : resources) {
+          URL url = resource.getURL();
+          String location = url.toString();
+          int position = location.lastIndexOf(base);
+          if (position != -1) {
+            String file = "/" + location.substring(position);
+            if (!files.containsKey(file)) {
+              files.put(file, url);
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Error scanning " + basePath, e);
+      }
+    }
+    return files;
+  }
+
+  /** Computes a version of the javascript files served by the resource sets.
+   *
+   * The version is an md5 hash of the path and content of all the javascript
+   * files, so it changes whenever a file is added, removed or modified.
+   *
+   * @return the version, in hexadecimal. It never returns null.
+   */
+  public String computeVersion() {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Unable to generate the MD5 hash.", e);
+    }
+    for (Map.Entry<String, URL> file : findJavascriptFiles().entrySet()) {
+      InputStream input = null;
+      try {
+        digest.update(file.getKey().getBytes("UTF-8"));
+        input = file.getValue().openStream();
+        digest.update(IOUtils.toByteArray(input));
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading " + file.getValue(), e);
+      } finally {
+        IOUtils.closeQuietly(input);
+      }
+    }
+    String version = new String(Hex.encodeHex(digest.digest()));
+    log.debug("The javascript files version is {}", version);
+    return version;
+  }
+
   public String getContentType(final String path) {
     ResourceSet set = find(path);
     if (set != null) {
@@ -5,10 +5,12 @@ package com.globant.katari.jsmodule.domain;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 /** Represents the Test Cases for the {@link BundleCache}.
@@ -134,4 +136,75 @@ public class BundleCacheTest {
     cache.findKey(new ArrayList<String>());
   }
 
+  @Test
+  public void findBytes() throws Exception {
+    List<String> files = Arrays.asList("a.js");
+    BundleCache cache = new BundleCache();
+    String key = cache.store(files, "var a='\u00e1';");
+    assertThat(new String(cache.findBytes(key), "UTF-8"),
+        is("var a='\u00e1';"));
+  }
+
+  @Test
+  public void store_bounded() {
+    BundleCache cache = new BundleCache();
+    cache.setMaxSize(2);
+    String key1 = cache.store(Arrays.asList("1.js"), "var a;");
+    String key2 = cache.store(Arrays.asList("2.js"), "var b;");
+    String key3 = cache.store(Arrays.asList("3.js"), "var c;");
+    assertThat(cache.findContent(key1), is(nullValue()));
+    assertThat(cache.findContent(key2), is("var b;"));
+    assertThat(cache.findContent(key3), is("var c;"));
+  }
+
+  @Test
+  public void store_directory() throws Exception {
+    File directory = new File("target/bundle-cache-test");
+    FileUtils.deleteDirectory(directory);
+
+    List<String> files = Arrays.asList("a.js", "b.js");
+    BundleCache cache = new BundleCache();
+    cache.setDirectory(directory.getPath());
+    String key = cache.store(files, "var a;");
+    assertThat(new File(directory, key).isFile(), is(true));
+
+    // A new cache, as after a restart, finds the stored bundle.
+    BundleCache restarted = new BundleCache();
+    restarted.setDirectory(directory.getPath());
+    assertThat(restarted.findKey(files), is(key));
+    assertThat(restarted.findContent(key), is("var a;"));
+  }
+
+  @Test
+  public void store_directoryNewVersion() throws Exception {
+    File directory = new File("target/bundle-cache-test");
+    FileUtils.deleteDirectory(directory);
+
+    List<String> files = Arrays.asList("a.js", "b.js");
+    BundleCache cache = new BundleCache();
+    cache.setDirectory(directory.getPath());
+    cache.setVersion("1");
+    String key = cache.store(files, "var a;");
+
+    // After a redeploy with other files, the stored bundle is not found.
+    BundleCache redeployed = new BundleCache();
+    redeployed.setDirectory(directory.getPath());
+    redeployed.setVersion("2");
+    assertThat(redeployed.findKey(files), is(nullValue()));
+    String newKey = redeployed.store(files, "var b;");
+    assertThat(newKey, is(not(key)));
+    assertThat(redeployed.findContent(newKey), is("var b;"));
+  }
+
+  @Test
+  public void findContent_invalidKeyNotReadFromDirectory() throws Exception {
+    File directory = new File("target/bundle-cache-test");
+    directory.mkdirs();
+    FileUtils.writeStringToFile(new File(directory, "not-a-key.js"), "x");
+    BundleCache cache = new BundleCache();
+    cache.setDirectory(directory.getPath());
+    assertThat(cache.findContent("not-a-key.js"), is(nullValue()));
+    assertThat(cache.findContent("../bundle-cache-test/not-a-key.js"),
+        is(nullValue()));
+  }
 }
@@ -0,0 +1,98 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.jsmodule.domain;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.jsmodule.view.ResourceSets;
+
+public class BundlePrecompilerTest {
+
+  private BundlePrecompiler precompiler;
+
+  private File output = new File("target/precompiled-bundles");
+
+  @Before
+  public void setUp() throws Exception {
+    FileUtils.deleteDirectory(output);
+    DependenciesResolver resolver;
+    resolver = new DependenciesResolver(new DependenciesFinder(false));
+    precompiler = new BundlePrecompiler(resolver, new DependenciesBundler(),
+        "1");
+  }
+
+  @Test
+  public void findFiles() {
+    List<String> files = precompiler.findFiles(new ResourceSets());
+    assertThat(files.contains(
+          "/com/globant/katari/jsmodule/testfile/compress-test-1.js"),
+        is(true));
+    assertThat(files.contains(
+          "/com/globant/katari/jsmodule/testfile/action.dep.js"), is(false));
+  }
+
+  @Test
+  public void precompile_skipsBrokenFiles() {
+    assertThat(precompiler.precompile(Arrays.asList(
+          "/com/globant/katari/jsmodule/testfile/invalidJson.js")),
+        is(false));
+    assertThat(precompiler.getBundleCount(), is(0));
+  }
+
+  @Test
+  public void write_loadedByBundleCache() throws Exception {
+    List<String> files = Arrays.asList(
+        "/com/globant/katari/jsmodule/testfile/compress-test-2.js",
+        "/com/globant/katari/jsmodule/testfile/compress-test-1.js");
+    assertThat(precompiler.precompile(files), is(true));
+    precompiler.write(output);
+
+    assertThat(new File(output, BundlePrecompiler.INDEX).isFile(), is(true));
+
+    ClassLoader loader = new URLClassLoader(
+        new URL[] {output.toURI().toURL()}, null);
+    BundleCache cache = new BundleCache();
+    cache.setVersion("1");
+    cache.loadPrecompiledBundles(loader);
+
+    // The files are sorted, as ResolveDependenciesCommand does.
+    String key = cache.findKey(Arrays.asList(
+        "/com/globant/katari/jsmodule/testfile/compress-test-1.js",
+        "/com/globant/katari/jsmodule/testfile/compress-test-2.js"));
+    assertThat(key, is(BundleCache.generateKey("1", Arrays.asList(
+        "/com/globant/katari/jsmodule/testfile/compress-test-1.js",
+        "/com/globant/katari/jsmodule/testfile/compress-test-2.js"))));
+    String content = cache.findContent(key);
+    assertThat(content.contains("var testFunction=function(){var a=10};"),
+        is(true));
+
+    // Bundles precompiled from other files are ignored.
+    BundleCache other = new BundleCache();
+    other.setVersion("2");
+    other.loadPrecompiledBundles(loader);
+    assertThat(other.findKey(Arrays.asList(
+        "/com/globant/katari/jsmodule/testfile/compress-test-1.js",
+        "/com/globant/katari/jsmodule/testfile/compress-test-2.js")),
+        is(nullValue()));
+  }
+
+  @Test
+  public void computeVersion() {
+    ResourceSets resourceSets = new ResourceSets();
+    String version = resourceSets.computeVersion();
+    assertThat(version.matches("[0-9a-f]{32}"), is(true));
+    assertThat(resourceSets.computeVersion(), is(version));
+  }
+}
+
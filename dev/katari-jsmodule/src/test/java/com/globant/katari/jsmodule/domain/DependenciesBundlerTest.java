@@ -74,5 +74,45 @@ public class DependenciesBundlerTest {
     DependenciesBundler bundler = new DependenciesBundler();
     bundler.bundleFiles(null);
   }
-}
 
+  @Test
+  public void bundle_parallelKeepsOrder() {
+    List<String> scriptToCompress = Arrays.asList(
+        "/com/globant/katari/jsmodule/testfile/compress-test-4.js",
+        "/com/globant/katari/jsmodule/testfile/compress-test-3.js",
+        "/com/globant/katari/jsmodule/testfile/compress-test-2.js",
+        "/com/globant/katari/jsmodule/testfile/compress-test-1.js");
+    DependenciesBundler sequential = new DependenciesBundler(1, 10);
+    DependenciesBundler parallel = new DependenciesBundler(4, 10);
+    try {
+      String expected = sequential.bundleFiles(scriptToCompress);
+      assertThat(parallel.bundleFiles(scriptToCompress), is(expected));
+      // Now from the cache.
+      assertThat(parallel.bundleFiles(scriptToCompress), is(expected));
+    } finally {
+      parallel.destroy();
+    }
+  }
+
+  @Test
+  public void bundle_cachedByContent() {
+    DependenciesBundler bundler = new DependenciesBundler(2, 10);
+    try {
+      String first = bundler.bundleFiles(Arrays.asList(
+          "/com/globant/katari/jsmodule/testfile/compress-test-1.js"));
+      String second = bundler.bundleFiles(Arrays.asList(
+          "/com/globant/katari/jsmodule/testfile/compress-test-1.js",
+          "/com/globant/katari/jsmodule/testfile/compress-test-2.js"));
+      assertThat(second.startsWith(first), is(true));
+    } finally {
+      bundler.destroy();
+    }
+  }
+
+  @Test (expected = RuntimeException.class)
+  public void bundleFiles_notFound() {
+    DependenciesBundler bundler = new DependenciesBundler();
+    bundler.bundleFiles(Arrays.asList(
+          "/com/globant/katari/jsmodule/testfile/not-found.js"));
+  }
+}
@@ -5,6 +5,7 @@ package com.globant.katari.jsmodule.domain;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -107,4 +108,40 @@ public class DependenciesFinderTest {
   public void find_invalidJsFile() {
     (new DependenciesFinder(true)).find("file.txt");
   }
+
+  @Test
+  public void find_cached() {
+    DependenciesFinder depFinder = new DependenciesFinder(false);
+    List<String> depsFound = depFinder.find(
+        "/com/globant/katari/jsmodule/testfile/calendar.js");
+    assertThat(depFinder.find(
+          "/com/globant/katari/jsmodule/testfile/calendar.js") == depsFound,
+        is(true));
+  }
+
+  /* In debug mode, the dep file is parsed again when it changes.
+   */
+  @Test
+  public void find_debugModeFileChanged() {
+    File depFile = new File(
+        "src/test/resources/com/globant/katari/jsmodule/testfile/"
+        + "calendar.dep.js");
+    long lastModified = depFile.lastModified();
+    try {
+      DependenciesFinder depFinder = new DependenciesFinder(true);
+      List<String> depsFound = depFinder.find(
+          "/com/globant/katari/jsmodule/testfile/calendar.js");
+      assertThat(depFinder.find(
+            "/com/globant/katari/jsmodule/testfile/calendar.js") == depsFound,
+          is(true));
+
+      depFile.setLastModified(lastModified + 2000);
+      List<String> reloaded = depFinder.find(
+          "/com/globant/katari/jsmodule/testfile/calendar.js");
+      assertThat(reloaded == depsFound, is(false));
+      assertThat(reloaded, is(depsFound));
+    } finally {
+      depFile.setLastModified(lastModified);
+    }
+  }
 }
@@ -241,9 +241,8 @@ public class DependenciesResolverTest {
     expect(dependenciesFinder.find("x.js")).andReturn(xDeps);
     expect(dependenciesFinder.find("j.js")).andReturn(jDeps);
 
+    // j.js was already visited from a.js.
     expect(dependenciesFinder.find("b.js")).andReturn(bDeps);
-
-    expect(dependenciesFinder.find("j.js")).andReturn(jDeps);
     expect(dependenciesFinder.find("k.js")).andReturn(kDeps);
 
     replay(dependenciesFinder);
@@ -269,21 +268,13 @@ public class DependenciesResolverTest {
     expect(dependenciesFinder.find("i.js")).andReturn(iDeps);
     expect(dependenciesFinder.find("j.js")).andReturn(jDeps);
 
-    // dependencies that will be called by file b.js
+    // dependencies that will be called by file b.js, each file is visited
+    // only once.
     expect(dependenciesFinder.find("b.js")).andReturn(bDeps);
-    expect(dependenciesFinder.find("j.js")).andReturn(jDeps);
     expect(dependenciesFinder.find("k.js")).andReturn(kDeps);
 
     // dependencies that will be called by file f.js
     expect(dependenciesFinder.find("f.js")).andReturn(fDeps);
-    expect(dependenciesFinder.find("a.js")).andReturn(aDeps);
-    expect(dependenciesFinder.find("h.js")).andReturn(hDeps);
-    expect(dependenciesFinder.find("i.js")).andReturn(iDeps);
-    expect(dependenciesFinder.find("x.js")).andReturn(xDeps);
-    expect(dependenciesFinder.find("j.js")).andReturn(jDeps);
-    expect(dependenciesFinder.find("k.js")).andReturn(kDeps);
-
-    expect(dependenciesFinder.find("x.js")).andReturn(xDeps);
 
     replay(dependenciesFinder);
 
@@ -323,4 +314,41 @@ public class DependenciesResolverTest {
 
     result = resolver.resolve(files);
   }
+
+  @Test
+  public void resolve_cached() {
+    expect(dependenciesFinder.find("b.js")).andReturn(bDeps);
+    expect(dependenciesFinder.find("j.js")).andReturn(jDeps);
+    expect(dependenciesFinder.find("k.js")).andReturn(kDeps);
+    replay(dependenciesFinder);
+
+    files.add("b.js");
+
+    result = resolver.resolve(files);
+    // The second time, the finder is not called.
+    List<String> cached = resolver.resolve(Arrays.asList("b.js"));
+    expectedResult = Arrays.asList("j.js", "k.js", "b.js");
+    assertThat(result, is(expectedResult));
+    assertThat(cached, is(expectedResult));
+
+    verify(dependenciesFinder);
+  }
+
+  @Test
+  public void resolve_notCachedInDebugMode() {
+    expect(dependenciesFinder.find("b.js")).andReturn(bDeps).times(2);
+    expect(dependenciesFinder.find("j.js")).andReturn(jDeps).times(2);
+    expect(dependenciesFinder.find("k.js")).andReturn(kDeps).times(2);
+    replay(dependenciesFinder);
+
+    resolver = new DependenciesResolver(dependenciesFinder, true);
+    files.add("b.js");
+
+    resolver.resolve(files);
+    result = resolver.resolve(files);
+    expectedResult = Arrays.asList("j.js", "k.js", "b.js");
+    assertThat(result, is(expectedResult));
+
+    verify(dependenciesFinder);
+  }
 }
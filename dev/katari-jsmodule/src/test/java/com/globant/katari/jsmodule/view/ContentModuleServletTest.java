@@ -75,7 +75,8 @@ public class ContentModuleServletTest {
     MockServletConfig config = new MockServletConfig();
 
     String content = "var testFunction;";
-    expect(cache.findContent("md5_hash_key.js")).andReturn(content);
+    expect(cache.findBytes("md5_hash_key.js")).andReturn(
+        content.getBytes("UTF-8"));
     replay(cache);
 
     ContentModuleServlet servlet = new ContentModuleServlet(cache);
@@ -5,6 +5,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.globant.katari.core.application.Command;
+import com.globant.katari.report.domain.CompiledReportCache;
 import com.globant.katari.report.domain.JasperReportRepository;
 import com.globant.katari.report.domain.ReportDefinition;
 
@@ -22,6 +23,12 @@ public class DeleteReportCommand implements Command<Void> {
   /** The report repository. It is never null. */
   private JasperReportRepository reportRepository;
 
+  /** The compiled reports, invalidated when the report is deleted.
+   *
+   * It is null if there is no cache to invalidate.
+   */
+  private CompiledReportCache compiledReports = null;
+
   /** The report id to be deleted. It is never used without initializing. */
   private long reportId;
 
@@ -38,6 +45,22 @@ public class DeleteReportCommand implements Command<Void> {
     reportRepository = theReportRepository;
   }
 
+  /**
+   * Creates a new Command that also invalidates the compiled report.
+   *
+   * @param theReportRepository the reportDefinition repository. It cannot be
+   * null.
+   *
+   * @param theCompiledReports the compiled reports. It cannot be null.
+   */
+  public DeleteReportCommand(final JasperReportRepository theReportRepository,
+      final CompiledReportCache theCompiledReports) {
+    this(theReportRepository);
+    Validate.notNull(theCompiledReports,
+        "the compiled report cache cannot be null");
+    compiledReports = theCompiledReports;
+  }
+
   /**
    * Gets the ReportId.
    *
@@ -70,6 +93,9 @@ public class DeleteReportCommand implements Command<Void> {
     ReportDefinition reportDefinition;
     reportDefinition = reportRepository.findReportDefinitionById(reportId);
     reportRepository.remove(reportDefinition);
+    if (compiledReports != null) {
+      compiledReports.invalidate(reportId);
+    }
 
     log.trace("Leaving execute");
     return null;
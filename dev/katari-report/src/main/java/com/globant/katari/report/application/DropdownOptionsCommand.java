@@ -0,0 +1,263 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.application;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.globant.katari.core.application.Command;
+import com.globant.katari.core.application.JsonRepresentation;
+import com.globant.katari.report.domain.CompiledReportCache;
+import com.globant.katari.report.domain.DropdownOptions;
+import com.globant.katari.report.domain.JasperReportRepository;
+import com.globant.katari.report.domain.ParameterDefinition;
+import com.globant.katari.report.domain.ReportDefinition;
+import com.globant.katari.report.domain.ReportSecurityUtils;
+
+/** Command to obtain a page of the options of a report parameter dropdown.
+ *
+ * The parameter form uses this command to fetch the options as the user types
+ * part of the label, so large lists of options are never loaded in full.
+ *
+ * It returns a json object like:
+ *
+ * <code>
+ * {
+ *   "options": [{"value": "1", "label": "Argentina"}, ...],
+ *   "more": true
+ * }
+ * </code>
+ *
+ * where more is true if there are options after the last one in the page. To
+ * get the next page, set afterLabel and afterValue to the label and value of
+ * the last option.
+ */
+public class DropdownOptionsCommand implements Command<JsonRepresentation> {
+
+  /** The class logger. */
+  private static Logger log =
+    LoggerFactory.getLogger(DropdownOptionsCommand.class);
+
+  /** The page size used for parameters that do not define one. */
+  private static final int DEFAULT_PAGE_SIZE = 20;
+
+  /** The repository. It is never null. */
+  private final JasperReportRepository repository;
+
+  /** The cache of the parsed parameter definitions.
+   *
+   * It is null if the parameters are parsed from the report on each request.
+   */
+  private final CompiledReportCache compiledReports;
+
+  /** The id of the report definition owning the parameter. */
+  private long reportId;
+
+  /** The name of the dropdown parameter. It is null until set. */
+  private String parameterName = null;
+
+  /** The values of the other parameters, used by the dropdown query.
+   *
+   * It is never null.
+   */
+  private Map<String, String> values = new HashMap<String, String>();
+
+  /** The text the user typed, null to return all the options. */
+  private String filter = null;
+
+  /** The last label of the previous page, null for the first page. */
+  private String afterLabel = null;
+
+  /** The last value of the previous page, null for the first page. */
+  private String afterValue = null;
+
+  /** Constructor.
+   *
+   * @param theRepository the repository for retrieving the report definition.
+   * It cannot be null.
+   */
+  public DropdownOptionsCommand(final JasperReportRepository theRepository) {
+    this(theRepository, null);
+  }
+
+  /** Constructor.
+   *
+   * @param theRepository the repository for retrieving the report definition.
+   * It cannot be null.
+   *
+   * @param theCompiledReports the cache of the parameter definitions, so the
+   * report is not parsed on every keystroke. If null, the parameters are
+   * parsed from the report on each request.
+   */
+  public DropdownOptionsCommand(final JasperReportRepository theRepository,
+      final CompiledReportCache theCompiledReports) {
+    Validate.notNull(theRepository, "The report repository cannot be null");
+    repository = theRepository;
+    compiledReports = theCompiledReports;
+  }
+
+  /** Gets the report id.
+   *
+   * @return the id of the report.
+   */
+  public long getReportId() {
+    return reportId;
+  }
+
+  /** Sets the report id.
+   *
+   * @param theReportId the id of the report. It must be greater than 0.
+   */
+  public void setReportId(final long theReportId) {
+    reportId = theReportId;
+  }
+
+  /** Gets the name of the dropdown parameter.
+   *
+   * @return the parameter name, null if not set.
+   */
+  public String getParameterName() {
+    return parameterName;
+  }
+
+  /** Sets the name of the dropdown parameter.
+   *
+   * @param theParameterName the parameter name. It cannot be null.
+   */
+  public void setParameterName(final String theParameterName) {
+    Validate.notNull(theParameterName, "The parameter name cannot be null.");
+    parameterName = theParameterName;
+  }
+
+  /** Gets the values of the other parameters.
+   *
+   * @return the values, never null.
+   */
+  public Map<String, String> getValues() {
+    return values;
+  }
+
+  /** Sets the values of the other parameters.
+   *
+   * @param theValues the values. It cannot be null.
+   */
+  public void setValues(final Map<String, String> theValues) {
+    Validate.notNull(theValues, "The values cannot be null.");
+    values = theValues;
+  }
+
+  /** Gets the text the user typed.
+   *
+   * @return the filter, null if not set.
+   */
+  public String getFilter() {
+    return filter;
+  }
+
+  /** Sets the text the user typed.
+   *
+   * @param theFilter the start of the labels to return, null to return all
+   * the options.
+   */
+  public void setFilter(final String theFilter) {
+    filter = theFilter;
+  }
+
+  /** Gets the last label of the previous page.
+   *
+   * @return the label, null for the first page.
+   */
+  public String getAfterLabel() {
+    return afterLabel;
+  }
+
+  /** Sets the last label of the previous page.
+   *
+   * @param theAfterLabel the label, null for the first page.
+   */
+  public void setAfterLabel(final String theAfterLabel) {
+    afterLabel = theAfterLabel;
+  }
+
+  /** Gets the last value of the previous page.
+   *
+   * @return the value, null for the first page.
+   */
+  public String getAfterValue() {
+    return afterValue;
+  }
+
+  /** Sets the last value of the previous page.
+   *
+   * @param theAfterValue the value, null for the first page. It is required
+   * if the after label is set.
+   */
+  public void setAfterValue(final String theAfterValue) {
+    afterValue = theAfterValue;
+  }
+
+  /** Obtains the page of options.
+   *
+   * @return a json representation of the page, never null.
+   */
+  public JsonRepresentation execute() {
+    log.trace("Entering execute");
+    Validate.isTrue(reportId > 0, "The report id should be greater than 0.");
+    Validate.notNull(parameterName, "The parameter name cannot be null.");
+
+    ReportDefinition report = repository.findReportDefinitionById(reportId);
+    Validate.notNull(report, "The report id must exist in the repository.");
+    Validate.isTrue(ReportSecurityUtils.isAccesible(report),
+        "User has not rigths to access this report");
+
+    List<ParameterDefinition> definitions;
+    if (compiledReports == null) {
+      definitions = report.getParameterDefinitions();
+    } else {
+      definitions = compiledReports.getParameterDefinitions(report);
+    }
+    ParameterDefinition parameter = null;
+    for (ParameterDefinition definition : definitions) {
+      if (definition.getName().equals(parameterName)) {
+        parameter = definition;
+        break;
+      }
+    }
+    Validate.isTrue(parameter != null && parameter.isDropdown(),
+        "The report has no dropdown parameter named " + parameterName);
+
+    int pageSize = parameter.getDropdownPageSize();
+    if (pageSize == 0) {
+      pageSize = DEFAULT_PAGE_SIZE;
+    }
+    // Asks for one more option to know if there is a next page.
+    List<DropdownOptions> options;
+    options = repository.getDropdownOptionsPage(reportId, parameter, values,
+        filter, afterLabel, afterValue, pageSize + 1);
+
+    try {
+      JSONArray jsonOptions = new JSONArray();
+      for (int i = 0; i < options.size() && i < pageSize; ++i) {
+        JSONObject option = new JSONObject();
+        option.put("value", options.get(i).getValue());
+        option.put("label", options.get(i).getLabel());
+        jsonOptions.put(option);
+      }
+      JSONObject page = new JSONObject();
+      page.put("options", jsonOptions);
+      page.put("more", options.size() > pageSize);
+      log.trace("Leaving execute");
+      return new JsonRepresentation(page);
+    } catch (JSONException e) {
+      throw new RuntimeException("Error generating the json options", e);
+    }
+  }
+}
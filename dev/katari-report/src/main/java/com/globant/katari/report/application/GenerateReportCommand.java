@@ -26,6 +26,8 @@ import com.globant.katari.report.domain.JasperReportGenerator;
 import com.globant.katari.report.domain.JasperReportRepository;
 import com.globant.katari.report.domain.ParameterDefinition;
 import com.globant.katari.report.domain.ReportDefinition;
+import com.globant.katari.report.domain.ReportJob;
+import com.globant.katari.report.domain.ReportJobQueue;
 import com.globant.katari.report.domain.ReportSecurityUtils;
 import com.globant.katari.report.domain.ReportType;
 
@@ -63,6 +65,12 @@ public class GenerateReportCommand implements ValidatableCommand<Void>,
    */
   private DataSource dataSource;
 
+  /** The queue that generates the reports in the background.
+   *
+   * It is null if the reports are generated in the request thread.
+   */
+  private ReportJobQueue jobQueue = null;
+
   /**
    * The report generator writes the report output to this stream.
    *
@@ -101,6 +109,33 @@ public class GenerateReportCommand implements ValidatableCommand<Void>,
     dataSource = theDataSource;
   }
 
+  /**
+   * Constructor for a command that generates the report in the background.
+   *
+   * @param theRepository the repository for retrieving the report definition.
+   * It cannot be null.
+   * @param theGenerator the repository generator. It cannot be null.
+   * @param theDataSource the data source a data source for connecting to a
+   * database. It cannot be null.
+   * @param theJobQueue the queue that generates the report. It cannot be
+   * null.
+   */
+  public GenerateReportCommand(final JasperReportRepository theRepository,
+      final JasperReportGenerator theGenerator,
+      final DataSource theDataSource, final ReportJobQueue theJobQueue) {
+    this(theRepository, theGenerator, theDataSource);
+    Validate.notNull(theJobQueue, "The report job queue cannot be null");
+    jobQueue = theJobQueue;
+  }
+
+  /** Whether the report is generated in the background.
+   *
+   * @return true if submit() must be used instead of execute().
+   */
+  public boolean isAsynchronous() {
+    return jobQueue != null;
+  }
+
   /**
    * Gets the reportId.
    *
@@ -204,27 +239,11 @@ public class GenerateReportCommand implements ValidatableCommand<Void>,
   public Void execute() {
     Validate.notNull(values, "the parameter values map cannot be null.");
     Validate.notNull(outputStream, "The output stream cannot be null");
-    Map<String, Object> map = new HashMap<String, Object>();
     ReportDefinition report = repository.findReportDefinitionById(reportId);
     Validate.isTrue(ReportSecurityUtils.isAccesible(report),
         "User has not rigths to generate this report");
+    Map<String, Object> map = convertValues(report);
 
-    List<ParameterDefinition> definitions = report.getParameterDefinitions();
-    for (ParameterDefinition parameter : definitions) {
-      String parameterName = parameter.getName();
-      String parameterValue = values.get(parameterName);
-      if (parameter.isOptional() && StringUtils.isBlank(parameterValue)) {
-        break;
-      }
-      try {
-        map.put(parameter.getName(), parameter.convertValue(parameterValue));
-      } catch (RuntimeException e) {
-        throw e;
-      } catch (Exception e) {
-        throw new RuntimeException("Error converting parameter "
-            + parameterName, e);
-      }
-    }
     // Generates the report and writes it in the output stream.
     Connection connection = null;
     try {
@@ -253,13 +272,69 @@ public class GenerateReportCommand implements ValidatableCommand<Void>,
     return null;
   }
 
+  /**
+   * Queues the report to be generated in the background.
+   *
+   * You must call setValues before calling submit. The command must have been
+   * created with a report job queue.
+   *
+   * @return the queued job, never null.
+   */
+  public ReportJob submit() {
+    Validate.notNull(jobQueue, "This command has no report job queue.");
+    Validate.notNull(values, "the parameter values map cannot be null.");
+    ReportDefinition report = repository.findReportDefinitionById(reportId);
+    Validate.isTrue(ReportSecurityUtils.isAccesible(report),
+        "User has not rigths to generate this report");
+    Map<String, Object> map = convertValues(report);
+    return jobQueue.submit(ReportSecurityUtils.getCurrentUserName(), report,
+        map, reportType);
+  }
+
+  /**
+   * Converts the posted values to the types of the report parameters.
+   *
+   * @param report the report definition. It cannot be null.
+   *
+   * @return a map of parameter names to converted values, never null.
+   */
+  private Map<String, Object> convertValues(final ReportDefinition report) {
+    Map<String, Object> map = new HashMap<String, Object>();
+    List<ParameterDefinition> definitions = report.getParameterDefinitions();
+    for (ParameterDefinition parameter : definitions) {
+      String parameterName = parameter.getName();
+      String parameterValue = values.get(parameterName);
+      if (parameter.isOptional() && StringUtils.isBlank(parameterValue)) {
+        break;
+      }
+      try {
+        map.put(parameter.getName(), parameter.convertValue(parameterValue));
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException("Error converting parameter "
+            + parameterName, e);
+      }
+    }
+    return map;
+  }
+
   /**
    * Validation method.
    *
+   * When the report is generated in the background, it also checks that the
+   * user did not reach the limit of reports in progress.
+   *
    * @param errors Holder for all the validation errors. It cannot be null.
    */
   public void validate(final Errors errors) {
     Validate.notNull(errors, "The errors holder cannot be null.");
+    if (jobQueue != null) {
+      String owner = ReportSecurityUtils.getCurrentUserName();
+      if (owner != null && !jobQueue.canSubmit(owner)) {
+        errors.reject("error.tooManyJobs");
+      }
+    }
     ReportDefinition report = repository.findReportDefinitionById(reportId);
     List<ParameterDefinition> definitions;
     definitions = report.getParameterDefinitions();
@@ -309,8 +384,8 @@ public class GenerateReportCommand implements ValidatableCommand<Void>,
       final ParameterDefinition theParameter) {
     Map<String, String> dropdownOptions = new LinkedHashMap<String, String>();
 
-    List<DropdownOptions> options = repository.getDropdownOptions(theParameter,
-        values);
+    List<DropdownOptions> options = repository.getDropdownOptions(reportId,
+        theParameter, values);
     // parse results and insert them into dropDownOptions
     String firstValue = null;
     if (options.size() != 0) {
@@ -0,0 +1,126 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.application;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.globant.katari.core.application.Command;
+import com.globant.katari.report.domain.ReportJob;
+import com.globant.katari.report.domain.ReportJobQueue;
+import com.globant.katari.report.domain.ReportSecurityUtils;
+
+/**
+ * Command to check the state of a report generated in the background, and to
+ * cancel it.
+ *
+ * Users can only see and cancel their own jobs.
+ */
+public class ReportJobCommand implements Command<ReportJob> {
+
+  /** The class logger. */
+  private static Logger log = LoggerFactory.getLogger(ReportJobCommand.class);
+
+  /** The report job queue. It is never null. */
+  private ReportJobQueue jobQueue;
+
+  /** The id of the job. It is null until set. */
+  private String jobId = null;
+
+  /** Whether to cancel the job. */
+  private boolean cancel = false;
+
+  /** Whether the user wants to download the generated report. */
+  private boolean download = false;
+
+  /**
+   * Creates a new command.
+   *
+   * @param theJobQueue the report job queue. It cannot be null.
+   */
+  public ReportJobCommand(final ReportJobQueue theJobQueue) {
+    Validate.notNull(theJobQueue, "The report job queue cannot be null");
+    jobQueue = theJobQueue;
+  }
+
+  /**
+   * Gets the job id.
+   *
+   * @return the job id, null if not set.
+   */
+  public String getJobId() {
+    return jobId;
+  }
+
+  /**
+   * Sets the job id.
+   *
+   * @param theJobId the job id. It cannot be null.
+   */
+  public void setJobId(final String theJobId) {
+    Validate.notNull(theJobId, "The job id cannot be null.");
+    jobId = theJobId;
+  }
+
+  /**
+   * Whether the command cancels the job.
+   *
+   * @return true to cancel the job.
+   */
+  public boolean isCancel() {
+    return cancel;
+  }
+
+  /**
+   * Sets whether the command cancels the job.
+   *
+   * @param theCancel true to cancel the job.
+   */
+  public void setCancel(final boolean theCancel) {
+    cancel = theCancel;
+  }
+
+  /**
+   * Whether the user wants to download the generated report.
+   *
+   * @return true to download the report.
+   */
+  public boolean isDownload() {
+    return download;
+  }
+
+  /**
+   * Sets whether the user wants to download the generated report.
+   *
+   * @param theDownload true to download the report.
+   */
+  public void setDownload(final boolean theDownload) {
+    download = theDownload;
+  }
+
+  /**
+   * Obtains the job, cancelling it if requested.
+   *
+   * @return the job, or null if it does not exist or it expired.
+   */
+  public ReportJob execute() {
+    log.trace("Entering execute");
+    Validate.notNull(jobId, "The job id cannot be null.");
+
+    ReportJob job = jobQueue.getJob(jobId);
+    if (job == null) {
+      log.trace("Leaving execute with no job");
+      return null;
+    }
+    if (!job.getOwner().equals(ReportSecurityUtils.getCurrentUserName())) {
+      throw new RuntimeException("User has not rigths to access this job");
+    }
+    if (cancel) {
+      jobQueue.cancel(jobId);
+    }
+
+    log.trace("Leaving execute");
+    return job;
+  }
+}
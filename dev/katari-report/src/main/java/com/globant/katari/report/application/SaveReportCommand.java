@@ -23,6 +23,7 @@ import org.springframework.validation.ValidationUtils;
 import com.globant.katari.core.application.ValidatableCommand;
 import com.globant.katari.hibernate.coreuser.domain.Role;
 import com.globant.katari.hibernate.coreuser.domain.RoleRepository;
+import com.globant.katari.report.domain.CompiledReportCache;
 import com.globant.katari.report.domain.JasperReportRepository;
 import com.globant.katari.report.domain.ReportDefinition;
 
@@ -42,6 +43,12 @@ public class SaveReportCommand implements ValidatableCommand<Void> {
   /** The Role repository. It is never null. */
   private RoleRepository roleRepository;
 
+  /** The compiled reports, invalidated when the report is modified.
+   *
+   * It is null if there is no cache to invalidate.
+   */
+  private CompiledReportCache compiledReports = null;
+
   /**
    * The report definition id. The default value (zero) represents that the
    * Report Definition a new one.
@@ -90,6 +97,24 @@ public class SaveReportCommand implements ValidatableCommand<Void> {
     roleRepository = theRoleRepository;
   }
 
+  /**
+   * Creates a new SaveReportCommand that invalidates the compiled report.
+   *
+   * @param theReportDefinition the client repository. It cannot be null.
+   *
+   * @param theRoleRepository The role repository. It cannot be null.
+   *
+   * @param theCompiledReports The compiled reports. It cannot be null.
+   */
+  public SaveReportCommand(final JasperReportRepository theReportDefinition,
+      final RoleRepository theRoleRepository,
+      final CompiledReportCache theCompiledReports) {
+    this(theReportDefinition, theRoleRepository);
+    Validate.notNull(theCompiledReports,
+        "The compiled report cache cannot be null");
+    compiledReports = theCompiledReports;
+  }
+
   /**
    * Gets the report id.
    *
@@ -259,6 +284,10 @@ public class SaveReportCommand implements ValidatableCommand<Void> {
 
     jasperReportRepository.save(aReportDefinition);
 
+    if (compiledReports != null && reportId != 0 && reportContent != null) {
+      compiledReports.invalidate(reportId);
+    }
+
     return null;
   }
 
@@ -0,0 +1,425 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRPropertiesMap;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.design.JasperDesign;
+import net.sf.jasperreports.engine.util.JRLoader;
+import net.sf.jasperreports.engine.util.JRSaver;
+import net.sf.jasperreports.engine.xml.JRXmlLoader;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.globant.katari.core.cache.LruCache;
+
+/** Keeps the compiled jasper reports, so that a report is compiled only once
+ * for each version of its content.
+ *
+ * Compiled reports are keyed by the report id. Each entry remembers the
+ * digest of the jrxml it was compiled from. When the content of the report
+ * definition changes, the digest does not match and the report is compiled
+ * again, even if nobody invalidated the entry.
+ *
+ * Optionally, the compiled report is serialized to a .jasper file in a
+ * directory, so that it survives restarts. The file name includes the report
+ * id and the content digest.
+ *
+ * The cache can also add properties, like the jdbc fetch size, to the main
+ * dataset of every compiled report. Properties defined in the report design
+ * take precedence.
+ *
+ * It also keeps the parameter definitions parsed from the jrxml, keyed and
+ * validated the same way as the compiled reports, so that code that only
+ * needs the parameters does not parse the report on every request.
+ *
+ * This class is thread safe.
+ */
+public class CompiledReportCache {
+
+  /** The class logger. */
+  private static Logger log = LoggerFactory.getLogger(
+      CompiledReportCache.class);
+
+  /** The default number of compiled reports to keep in memory. */
+  private static final int DEFAULT_SIZE = 50;
+
+  /** The prefix of the serialized report file names. */
+  private static final String FILE_PREFIX = "report-";
+
+  /** The extension of the serialized report file names. */
+  private static final String FILE_EXTENSION = ".jasper";
+
+  /** The compiled reports, by report id. It is never null. */
+  private final LruCache<Long, CompiledReport> cache;
+
+  /** The parsed parameter definitions, by report id. It is never null. */
+  private final LruCache<Long, ParsedParameters> parameters;
+
+  /** The directory where the compiled reports are serialized to.
+   *
+   * It is null if the compiled reports are only kept in memory.
+   */
+  private File jasperDirectory = null;
+
+  /** The properties added to the main dataset of the compiled reports.
+   *
+   * It is never null.
+   */
+  private Map<String, String> reportProperties = new HashMap<String, String>();
+
+  /** Creates a compiled report cache with the default size.
+   */
+  public CompiledReportCache() {
+    this(DEFAULT_SIZE);
+  }
+
+  /** Creates a compiled report cache.
+   *
+   * @param theSize the maximum number of compiled reports to keep in memory.
+   * It must be greater than 0.
+   */
+  public CompiledReportCache(final int theSize) {
+    Validate.isTrue(theSize > 0, "The size must be greater than 0.");
+    cache = new LruCache<Long, CompiledReport>(theSize);
+    parameters = new LruCache<Long, ParsedParameters>(theSize);
+  }
+
+  /** Sets the directory where the compiled reports are serialized to.
+   *
+   * The directory is created if it does not exist.
+   *
+   * @param theDirectory the directory name. If null or blank, the compiled
+   * reports are only kept in memory.
+   */
+  public void setJasperDirectory(final String theDirectory) {
+    if (theDirectory == null || theDirectory.trim().length() == 0) {
+      jasperDirectory = null;
+      return;
+    }
+    File directory = new File(theDirectory.trim());
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new RuntimeException("Could not create " + directory);
+    }
+    jasperDirectory = directory;
+  }
+
+  /** Sets the properties to add to the main dataset of the compiled
+   * reports, unless the report design already defines them.
+   *
+   * This is used to configure how the report queries the database, for
+   * example with net.sf.jasperreports.jdbc.fetch.size. Call it before
+   * generating any report, the reports already compiled are not modified.
+   *
+   * @param theProperties the properties. It cannot be null.
+   */
+  public void setReportProperties(final Map<String, String> theProperties) {
+    Validate.notNull(theProperties, "The properties cannot be null.");
+    reportProperties = new HashMap<String, String>(theProperties);
+  }
+
+  /** Obtains the compiled report for the report definition.
+   *
+   * @param theReport the report definition. It cannot be null.
+   *
+   * @return the compiled report, never null. It is shared among callers, so
+   * it must not be modified.
+   */
+  public JasperReport getJasperReport(final ReportDefinition theReport) {
+    Validate.notNull(theReport, "The report cannot be null.");
+    Long id = theReport.getId();
+    byte[] content = theReport.getReportContent();
+    String digest = digest(content);
+
+    CompiledReport compiled = cache.get(id);
+    if (compiled != null && compiled.digest.equals(digest)) {
+      return compiled.report;
+    }
+
+    JasperReport report = load(theReport.getId(), digest);
+    if (report == null) {
+      report = compile(content);
+      save(theReport.getId(), digest, report);
+    }
+    // After saving, so the serialized report only has the design properties.
+    addProperties(report);
+    cache.put(id, new CompiledReport(digest, report));
+    return report;
+  }
+
+  /** Obtains the parameter definitions of the report definition.
+   *
+   * The parameters are parsed from the jrxml only when the content of the
+   * report changed since the last call for the same report id.
+   *
+   * @param theReport the report definition. It cannot be null.
+   *
+   * @return the unmodifiable list of parameter definitions, never null. It is
+   * shared among callers.
+   */
+  public List<ParameterDefinition> getParameterDefinitions(
+      final ReportDefinition theReport) {
+    Validate.notNull(theReport, "The report cannot be null.");
+    Long id = theReport.getId();
+    String digest = digest(theReport.getReportContent());
+
+    ParsedParameters parsed = parameters.get(id);
+    if (parsed != null && parsed.digest.equals(digest)) {
+      return parsed.definitions;
+    }
+
+    List<ParameterDefinition> definitions;
+    definitions = Collections.unmodifiableList(
+        new ArrayList<ParameterDefinition>(
+          theReport.getParameterDefinitions()));
+    parameters.put(id, new ParsedParameters(digest, definitions));
+    return definitions;
+  }
+
+  /** Removes the compiled report from the cache and deletes its serialized
+   * files, if any.
+   *
+   * Called when the report definition is modified or removed.
+   *
+   * @param theReportId the id of the report. It must be greater than 0.
+   */
+  public void invalidate(final long theReportId) {
+    Validate.isTrue(theReportId > 0, "The report id must be greater than 0.");
+    log.trace("Invalidating report {}", theReportId);
+    cache.remove(theReportId);
+    parameters.remove(theReportId);
+    if (jasperDirectory != null) {
+      final String prefix = FILE_PREFIX + theReportId + "-";
+      File[] files = jasperDirectory.listFiles(new FileFilter() {
+        public boolean accept(final File file) {
+          return file.getName().startsWith(prefix);
+        }
+      });
+      if (files != null) {
+        for (File file : files) {
+          if (!file.delete()) {
+            log.warn("Could not delete {}", file);
+          }
+        }
+      }
+    }
+  }
+
+  /** Removes all the compiled reports and parameter definitions from
+   * memory.
+   *
+   * The serialized files are kept.
+   */
+  public void clear() {
+    cache.clear();
+    parameters.clear();
+  }
+
+  /** The number of compiled reports in memory.
+   *
+   * @return the number of compiled reports.
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /** The number of times a report was found already compiled in memory.
+   *
+   * @return the number of hits.
+   */
+  public long getHits() {
+    return cache.getHits();
+  }
+
+  /** The number of times a report was not found in memory.
+   *
+   * @return the number of misses.
+   */
+  public long getMisses() {
+    return cache.getMisses();
+  }
+
+  /** Compiles the jrxml content of a report.
+   *
+   * @param theContent the jrxml. It cannot be null.
+   *
+   * @return the compiled report, never null.
+   */
+  private JasperReport compile(final byte[] theContent) {
+    try {
+      log.trace("Compiling report...");
+      JasperDesign design;
+      design = JRXmlLoader.load(new ByteArrayInputStream(theContent));
+      JasperReport report = JasperCompileManager.compileReport(design);
+      report.setWhenNoDataType(
+          JasperReport.WHEN_NO_DATA_TYPE_ALL_SECTIONS_NO_DETAIL);
+      return report;
+    } catch (JRException e) {
+      throw new RuntimeException("Error compiling the report", e);
+    }
+  }
+
+  /** Adds the report properties to the main dataset of a report, unless the
+   * report already defines them.
+   *
+   * @param theReport the compiled report, not yet shared. It cannot be null.
+   */
+  private void addProperties(final JasperReport theReport) {
+    JRPropertiesMap properties;
+    properties = theReport.getMainDataset().getPropertiesMap();
+    for (Map.Entry<String, String> property : reportProperties.entrySet()) {
+      if (!properties.containsProperty(property.getKey())) {
+        properties.setProperty(property.getKey(), property.getValue());
+      }
+    }
+  }
+
+  /** Loads the serialized report, if there is one.
+   *
+   * @param theReportId the report id.
+   *
+   * @param theDigest the digest of the report content. It cannot be null.
+   *
+   * @return the compiled report, or null if there is no serialized report for
+   * the id and digest, or it could not be read.
+   */
+  private JasperReport load(final long theReportId, final String theDigest) {
+    File file = getJasperFile(theReportId, theDigest);
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    try {
+      log.trace("Loading compiled report from {}", file);
+      return (JasperReport) JRLoader.loadObject(file);
+    } catch (JRException e) {
+      log.warn("Could not load " + file + ", compiling again", e);
+      return null;
+    }
+  }
+
+  /** Serializes the compiled report, if there is a jasper directory.
+   *
+   * Older versions of the same report are deleted.
+   *
+   * @param theReportId the report id.
+   *
+   * @param theDigest the digest of the report content. It cannot be null.
+   *
+   * @param theReport the compiled report. It cannot be null.
+   */
+  private void save(final long theReportId, final String theDigest,
+      final JasperReport theReport) {
+    if (jasperDirectory == null) {
+      return;
+    }
+    invalidate(theReportId);
+    File file = getJasperFile(theReportId, theDigest);
+    try {
+      JRSaver.saveObject(theReport, file);
+    } catch (JRException e) {
+      // The report is still usable from memory.
+      log.warn("Could not save " + file, e);
+    }
+  }
+
+  /** Obtains the file that holds the serialized report.
+   *
+   * @param theReportId the report id.
+   *
+   * @param theDigest the digest of the report content. It cannot be null.
+   *
+   * @return the file, or null if there is no jasper directory.
+   */
+  private File getJasperFile(final long theReportId, final String theDigest) {
+    if (jasperDirectory == null) {
+      return null;
+    }
+    return new File(jasperDirectory, FILE_PREFIX + theReportId + "-"
+        + theDigest + FILE_EXTENSION);
+  }
+
+  /** Calculates the hexadecimal md5 digest of the report content.
+   *
+   * @param theContent the content. It cannot be null.
+   *
+   * @return the digest, never null.
+   */
+  private static String digest(final byte[] theContent) {
+    Validate.notNull(theContent, "The report content cannot be null.");
+    MessageDigest md5;
+    try {
+      md5 = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("MD5 not available", e);
+    }
+    byte[] hash = md5.digest(theContent);
+    StringBuilder result = new StringBuilder(hash.length * 2);
+    for (byte b : hash) {
+      result.append(Character.forDigit((b >> 4) & 0xf, 16));
+      result.append(Character.forDigit(b & 0xf, 16));
+    }
+    return result.toString();
+  }
+
+  /** A compiled report and the digest of the content it was compiled from.
+   */
+  private static final class CompiledReport {
+
+    /** The digest of the report content, never null. */
+    private final String digest;
+
+    /** The compiled report, never null. */
+    private final JasperReport report;
+
+    /** Constructor.
+     *
+     * @param theDigest the content digest. It cannot be null.
+     *
+     * @param theReport the compiled report. It cannot be null.
+     */
+    private CompiledReport(final String theDigest,
+        final JasperReport theReport) {
+      digest = theDigest;
+      report = theReport;
+    }
+  }
+
+  /** The parameter definitions of a report and the digest of the content
+   * they were parsed from.
+   */
+  private static final class ParsedParameters {
+
+    /** The digest of the report content, never null. */
+    private final String digest;
+
+    /** The unmodifiable parameter definitions, never null. */
+    private final List<ParameterDefinition> definitions;
+
+    /** Constructor.
+     *
+     * @param theDigest the content digest. It cannot be null.
+     *
+     * @param theDefinitions the parameter definitions. It cannot be null.
+     */
+    private ParsedParameters(final String theDigest,
+        final List<ParameterDefinition> theDefinitions) {
+      digest = theDigest;
+      definitions = theDefinitions;
+    }
+  }
+}
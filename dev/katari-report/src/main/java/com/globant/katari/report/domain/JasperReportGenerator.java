@@ -1,25 +1,26 @@
 package com.globant.katari.report.domain;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.OutputStream;
 import java.sql.Connection;
+import java.util.HashMap;
 import java.util.Map;
 
 import net.sf.jasperreports.engine.JREmptyDataSource;
 import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JRExporterParameter;
-import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JRParameter;
 import net.sf.jasperreports.engine.JasperExportManager;
-import net.sf.jasperreports.engine.JasperFillManager;
 import net.sf.jasperreports.engine.JasperPrint;
 import net.sf.jasperreports.engine.JasperReport;
 
-import net.sf.jasperreports.engine.design.JasperDesign;
 import net.sf.jasperreports.engine.export.JRHtmlExporter;
 import net.sf.jasperreports.engine.export.JRXlsExporter;
 import net.sf.jasperreports.engine.export.JRHtmlExporterParameter;
-
-import net.sf.jasperreports.engine.xml.JRXmlLoader;
+import net.sf.jasperreports.engine.fill.JRBaseFiller;
+import net.sf.jasperreports.engine.fill.JRFiller;
+import net.sf.jasperreports.engine.fill.JRSwapFileVirtualizer;
+import net.sf.jasperreports.engine.util.JRSwapFile;
 
 import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
@@ -28,6 +29,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Service class that generates jasper reports.
  *
+ * Large reports can be filled with a swap file virtualizer: only a bounded
+ * number of filled pages is kept in memory, the rest are written to a swap
+ * file until they are exported. The virtualizer is disabled by default, see
+ * setVirtualizerMaxPages.
+ *
  * @author sergio.sobek
  *
  */
@@ -36,17 +42,72 @@ public final class JasperReportGenerator {
   /** The class logger. */
   private static Logger log = LoggerFactory.getLogger(JasperReportGenerator.class);
 
+  /** The size of the blocks in the swap file, in bytes. */
+  private static final int SWAP_BLOCK_SIZE = 4096;
+
+  /** The number of blocks the swap file grows at a time. */
+  private static final int SWAP_GROW_COUNT = 256;
+
   /** The report repository. It cannot be null. */
   private JasperReportRepository repository;
 
+  /** The compiled reports. It is never null. */
+  private CompiledReportCache compiledReports;
+
+  /** The number of filled pages kept in memory.
+   *
+   * 0 disables the virtualizer, and all the pages are kept in memory.
+   */
+  private int virtualizerMaxPages = 0;
+
+  /** The directory of the swap files, never null. */
+  private String swapDirectory = System.getProperty("java.io.tmpdir");
+
   /**
    * Constructor.
    *
    * @param theRepository the jasper report repository. It cannot be null.
    */
   protected JasperReportGenerator(final JasperReportRepository theRepository) {
+    this(theRepository, new CompiledReportCache());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param theRepository the jasper report repository. It cannot be null.
+   *
+   * @param theCompiledReports the cache of compiled reports, shared with the
+   * commands that modify the report definitions. It cannot be null.
+   */
+  protected JasperReportGenerator(final JasperReportRepository theRepository,
+      final CompiledReportCache theCompiledReports) {
     Validate.notNull(theRepository, "The the repository cannot be null");
+    Validate.notNull(theCompiledReports,
+        "The compiled report cache cannot be null");
     repository = theRepository;
+    compiledReports = theCompiledReports;
+  }
+
+  /** Sets the number of filled pages kept in memory.
+   *
+   * @param theMaxPages the number of pages. 0 disables the virtualizer. It
+   * cannot be negative.
+   */
+  public void setVirtualizerMaxPages(final int theMaxPages) {
+    Validate.isTrue(theMaxPages >= 0, "The max pages cannot be negative.");
+    virtualizerMaxPages = theMaxPages;
+  }
+
+  /** Sets the directory where the virtualizer creates the swap files.
+   *
+   * @param theDirectory the directory. It must exist. It cannot be null.
+   */
+  public void setSwapDirectory(final String theDirectory) {
+    Validate.notNull(theDirectory, "The swap directory cannot be null.");
+    Validate.isTrue(new File(theDirectory).isDirectory(),
+        "The swap directory must exist.");
+    swapDirectory = theDirectory;
   }
 
   /**
@@ -66,35 +127,77 @@ public final class JasperReportGenerator {
   public OutputStream generate(final long reportId,
       final Map<String, Object> parameters, final ReportType theReportType,
       final OutputStream theOutputStream, final Connection connection) {
+    return generate(reportId, parameters, theReportType, theOutputStream,
+        connection, null);
+  }
+
+  /**
+   * Generate the output report for a background job.
+   *
+   * The filler is registered in the job while the report is filled, so that
+   * cancelling the job stops the fill and cancels its running query.
+   *
+   * @param reportId the id of the report definition. It must be greater than 0.
+   * @param parameters map of the values of the report's parameters. It cannot
+   * be null.
+   * @param theReportType with the type of output for the report. It cannot be
+   * null.
+   * @param theOutputStream (output parameter) The output stream where the
+   * generated report is written to. It cannot be null.
+   * @param connection to the database.
+   * @param job the job that generates the report, null if none.
+   *
+   * @return OutputStream - An output stream with the generated report.
+   */
+  OutputStream generate(final long reportId,
+      final Map<String, Object> parameters, final ReportType theReportType,
+      final OutputStream theOutputStream, final Connection connection,
+      final ReportJob job) {
     Validate.isTrue(reportId > 0, "The reportId must be greater than 0");
     Validate.notNull(parameters, "The parameters map cannot be null.");
     Validate.notNull(theReportType, "The reportType cannot be null.");
     Validate.notNull(theOutputStream, "The outputStream cannot be null.");
 
     ReportDefinition rt = repository.findReportDefinitionById(reportId);
+    JRSwapFileVirtualizer virtualizer = null;
     try {
       log.trace("Loading report...");
 
-      JasperDesign jasperDesign = JRXmlLoader.load(new ByteArrayInputStream(rt
-          .getReportContent()));
-
-      log.trace("Compiling report...");
-
-      JasperReport jasperReport = JasperCompileManager
-          .compileReport(jasperDesign);
-      jasperReport.setWhenNoDataType(
-          JasperReport.WHEN_NO_DATA_TYPE_ALL_SECTIONS_NO_DETAIL);
+      JasperReport jasperReport = compiledReports.getJasperReport(rt);
 
       log.trace("Filling report...");
 
+      // The filler adds the built in parameters to the map.
+      Map<String, Object> fillParameters;
+      fillParameters = new HashMap<String, Object>(parameters);
+      if (virtualizerMaxPages > 0) {
+        virtualizer = new JRSwapFileVirtualizer(virtualizerMaxPages,
+            new JRSwapFile(swapDirectory, SWAP_BLOCK_SIZE, SWAP_GROW_COUNT),
+            true);
+        fillParameters.put(JRParameter.REPORT_VIRTUALIZER, virtualizer);
+      }
+
+      JRBaseFiller filler = JRFiller.createFiller(jasperReport);
+      if (job != null && !job.startFill(filler)) {
+        throw new IllegalStateException("The job " + job.getId()
+            + " was cancelled.");
+      }
       JasperPrint filledReport;
+      try {
+        if (connection == null) {
+          filledReport = filler.fill(fillParameters, new JREmptyDataSource());
+        } else {
+          filledReport = filler.fill(fillParameters, connection);
+        }
+      } finally {
+        if (job != null) {
+          job.endFill();
+        }
+      }
 
-      if (connection == null) {
-        filledReport = JasperFillManager.fillReport(jasperReport, parameters,
-            new JREmptyDataSource());
-      } else {
-        filledReport = JasperFillManager.fillReport(jasperReport, parameters,
-            connection);
+      if (virtualizer != null) {
+        // No more pages are added, the exporters only read them back.
+        virtualizer.setReadOnly(true);
       }
 
       if (ReportType.PDF.equals(theReportType)) {
@@ -125,6 +228,11 @@ public final class JasperReportGenerator {
       throw new RuntimeException("Oops: reports engine exception", e);
     } catch (Exception e) {
       throw new RuntimeException("Oops: General Reports Engine exception", e);
+    } finally {
+      if (virtualizer != null) {
+        // Removes the swap file.
+        virtualizer.cleanup();
+      }
     }
     return theOutputStream;
   }
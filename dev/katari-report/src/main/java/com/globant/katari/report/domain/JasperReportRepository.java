@@ -1,19 +1,24 @@
 package com.globant.katari.report.domain;
 
-import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.collections.ListUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.hibernate.Hibernate;
 import org.hibernate.Query;
 import org.hibernate.transform.AliasToBeanConstructorResultTransformer;
+import org.hibernate.transform.ResultTransformer;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
+import com.globant.katari.core.cache.LruCache;
 import com.globant.katari.hibernate.coreuser.domain.Role;
 
 /**
@@ -30,6 +35,37 @@ public class JasperReportRepository extends HibernateDaoSupport {
   /** The entity class name. */
   private static final String CLASS_NAME = ReportDefinition.class.getName();
 
+  /** The default number of dropdown option lists kept in the cache. */
+  private static final int DEFAULT_DROPDOWN_CACHE_SIZE = 500;
+
+  /** The number of milliseconds in a second. */
+  private static final long MILLIS_PER_SECOND = 1000;
+
+  /** Creates the dropdown options from the value and label columns.
+   *
+   * The transformer keeps no state, so it is shared by all the queries. It is
+   * never null.
+   */
+  private static final ResultTransformer DROPDOWN_TRANSFORMER;
+
+  static {
+    try {
+      DROPDOWN_TRANSFORMER = new AliasToBeanConstructorResultTransformer(
+          DropdownOptions.class.getConstructor(String.class, String.class));
+    } catch (NoSuchMethodException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** The cached dropdown options, by report, parameter, query and bound
+   * values.
+   *
+   * Only the options of parameters with a dropdown cache time are kept here.
+   * It is never null.
+   */
+  private LruCache<List<Object>, CachedOptions> dropdownCache
+    = new LruCache<List<Object>, CachedOptions>(DEFAULT_DROPDOWN_CACHE_SIZE);
+
   /**
    * Gets a list with all the report definitions.
    *
@@ -162,39 +198,189 @@ public class JasperReportRepository extends HibernateDaoSupport {
    * label is shown to the user and the value gets post when the user selects
    * the corresponding option.
    *
+   * If the parameter defines a dropdown cache time, the options are kept for
+   * that time, by report, parameter and the values bound to the query.
+   *
+   * @param reportId the id of the report that defines the parameter.
    * @param parameter the parameter definition, it cannot be null.
    * @param parameterValues the parameter values, it cannot be null.
    *
-   * @return a list of options.
+   * @return a list of options. The list cannot be modified.
    */
-  @SuppressWarnings({ "unchecked", "deprecation" })
-  public List<DropdownOptions> getDropdownOptions(final ParameterDefinition
-      parameter, final Map<String, String> parameterValues) {
+  public List<DropdownOptions> getDropdownOptions(final long reportId,
+      final ParameterDefinition parameter,
+      final Map<String, String> parameterValues) {
     Validate.notNull(parameter, "the parameter cannnot be null.");
     Validate.notNull(parameterValues, "the parameterValues cannnot be null.");
-    Constructor constructor;
-    try {
-      constructor = DropdownOptions.class.getConstructor(
-          new Class[] {String.class, String.class});
-    } catch (NoSuchMethodException e) {
-      log.error("Error obtaining constructor DropdownOptions(String, String)",
-          e);
-      throw new RuntimeException("Error obtaining constructor", e);
+    return findDropdownOptions(reportId, parameter, parameterValues,
+        parameter.getDropdownQuery(), new HashMap<String, Object>(), 0, true);
+  }
+
+  /** Builds a page of the options of a drop down, in label and value order.
+   *
+   * This wraps the dropdown query to return the options with a label that
+   * starts with the filter (ignoring case), after the last option of the
+   * previous page. This way, large lists of options are never loaded in full.
+   * The dropdown query must not include an order by clause. Options with the
+   * same label are ordered by value, so none of them is skipped between
+   * pages.
+   *
+   * Only the unfiltered first page is cached, like in getDropdownOptions.
+   * The pages for what the user types are not cached, so they do not evict
+   * the lists that are used often.
+   *
+   * @param reportId the id of the report that defines the parameter.
+   * @param parameter the parameter definition, it cannot be null.
+   * @param parameterValues the parameter values, it cannot be null.
+   * @param filter the start of the labels to return. Null or blank returns
+   * all the options.
+   * @param afterLabel the label of the last option of the previous page, null
+   * for the first page.
+   * @param afterValue the value of the last option of the previous page. It
+   * cannot be null if afterLabel is not null.
+   * @param maxResults the maximum number of options to return. It must be
+   * greater than 0.
+   *
+   * @return a list with at most maxResults options, ordered by label and
+   * value. The list cannot be modified.
+   */
+  public List<DropdownOptions> getDropdownOptionsPage(final long reportId,
+      final ParameterDefinition parameter,
+      final Map<String, String> parameterValues, final String filter,
+      final String afterLabel, final String afterValue,
+      final int maxResults) {
+    Validate.notNull(parameter, "the parameter cannnot be null.");
+    Validate.notNull(parameterValues, "the parameterValues cannnot be null.");
+    Validate.isTrue(afterLabel == null || afterValue != null,
+        "the after value cannot be null if there is an after label.");
+    Validate.isTrue(maxResults > 0, "the max results must be positive.");
+
+    Map<String, Object> pageValues = new HashMap<String, Object>();
+    StringBuilder sql = new StringBuilder();
+    sql.append("select value, label from (");
+    sql.append(parameter.getDropdownQuery());
+    sql.append(") dropdown_options where 1 = 1");
+    if (!StringUtils.isBlank(filter)) {
+      sql.append(" and lower(label) like :dropdownFilter");
+      pageValues.put("dropdownFilter", filter.trim().toLowerCase() + "%");
+    }
+    if (afterLabel != null) {
+      sql.append(" and (label > :dropdownAfterLabel");
+      sql.append(" or (label = :dropdownAfterLabel");
+      sql.append(" and value > :dropdownAfterValue))");
+      pageValues.put("dropdownAfterLabel", afterLabel);
+      pageValues.put("dropdownAfterValue", afterValue);
     }
-    Query query = getSession().createSQLQuery(parameter.getDropdownQuery())
+    sql.append(" order by label, value");
+    boolean firstPage = StringUtils.isBlank(filter) && afterLabel == null;
+    return findDropdownOptions(reportId, parameter, parameterValues,
+        sql.toString(), pageValues, maxResults, firstPage);
+  }
+
+  /** Sets the maximum number of dropdown option lists kept in the cache.
+   *
+   * This discards the cached options.
+   *
+   * @param theSize the number of lists. It must be greater than 0.
+   */
+  public void setDropdownCacheSize(final int theSize) {
+    Validate.isTrue(theSize > 0, "the cache size must be positive.");
+    dropdownCache = new LruCache<List<Object>, CachedOptions>(theSize);
+  }
+
+  /** Discards all the cached dropdown options.
+   */
+  public void clearDropdownCache() {
+    dropdownCache.clear();
+  }
+
+  /** Runs a dropdown query, or obtains its result from the cache.
+   *
+   * @param reportId the id of the report that defines the parameter.
+   * @param parameter the parameter definition, it cannot be null.
+   * @param parameterValues the parameter values, it cannot be null.
+   * @param sql the query to run. It cannot be null.
+   * @param queryValues values for the named parameters of the query that do
+   * not come from the report parameters. It cannot be null.
+   * @param maxResults the maximum number of options to return, 0 for all of
+   * them.
+   * @param cacheable whether the result can be cached, if the parameter
+   * defines a dropdown cache time.
+   *
+   * @return a list of options, empty if the query needs a parameter value
+   * that is missing. It is never null.
+   */
+  @SuppressWarnings({ "unchecked", "deprecation" })
+  private List<DropdownOptions> findDropdownOptions(final long reportId,
+      final ParameterDefinition parameter,
+      final Map<String, String> parameterValues, final String sql,
+      final Map<String, Object> queryValues, final int maxResults,
+      final boolean cacheable) {
+    Query query = getSession().createSQLQuery(sql)
       .addScalar("value", Hibernate.STRING)
       .addScalar("label", Hibernate.STRING)
-      .setResultTransformer(new AliasToBeanConstructorResultTransformer(
-          constructor));
+      .setResultTransformer(DROPDOWN_TRANSFORMER);
 
+    // The cache key: the report, the parameter, the query and every value
+    // bound to it.
+    List<Object> key = new ArrayList<Object>();
+    key.add(reportId);
+    key.add(parameter.getName());
+    key.add(sql);
+    key.add(maxResults);
     for (String name : query.getNamedParameters()) {
-      String value = parameterValues.get(name);
+      Object value = queryValues.get(name);
+      if (value == null) {
+        value = parameterValues.get(name);
+      }
       if (value == null) {
         return ListUtils.EMPTY_LIST;
       }
       query.setParameter(name, value);
+      key.add(name);
+      key.add(value);
+    }
+    if (maxResults > 0) {
+      query.setMaxResults(maxResults);
     }
 
-    return query.list();
+    int cacheSeconds = parameter.getDropdownCacheSeconds();
+    if (cacheSeconds == 0 || !cacheable) {
+      return Collections.unmodifiableList(query.list());
+    }
+    CachedOptions cached = dropdownCache.get(key);
+    long now = System.currentTimeMillis();
+    if (cached != null && cached.expiration > now) {
+      return cached.options;
+    }
+    log.debug("Querying dropdown options for {}", parameter.getName());
+    List<DropdownOptions> options;
+    options = Collections.unmodifiableList(query.list());
+    dropdownCache.put(key, new CachedOptions(options,
+          now + cacheSeconds * MILLIS_PER_SECOND));
+    return options;
+  }
+
+  /** A list of dropdown options in the cache, with its expiration time.
+   */
+  private static class CachedOptions {
+
+    /** The options, never null. */
+    private final List<DropdownOptions> options;
+
+    /** When the options expire, in milliseconds since the epoch. */
+    private final long expiration;
+
+    /** Creates a cache entry.
+     *
+     * @param theOptions the options. It cannot be null.
+     * @param theExpiration when the options expire, in milliseconds since the
+     * epoch.
+     */
+    CachedOptions(final List<DropdownOptions> theOptions,
+        final long theExpiration) {
+      options = theOptions;
+      expiration = theExpiration;
+    }
   }
 }
@@ -40,6 +40,19 @@ public class ParameterDefinition {
    */
   private String dropdownQuery = null;
 
+  /** The number of seconds the dropdown options are cached.
+   *
+   * 0 means that the options are queried every time.
+   */
+  private int dropdownCacheSeconds = 0;
+
+  /** The number of dropdown options fetched at a time.
+   *
+   * 0 means that all the options are loaded in the form. Otherwise, the user
+   * types part of the label and the options are fetched in pages of this size.
+   */
+  private int dropdownPageSize = 0;
+
   /** A set with all the accepted types of parameters.
    *
    * This is used to check if the parameter is created correctly.
@@ -69,6 +82,27 @@ public class ParameterDefinition {
   public ParameterDefinition(final String theName, final String theType,
       final boolean isOptional,
       final String theDropdownQuery) {
+    this(theName, theType, isOptional, theDropdownQuery, 0, 0);
+  }
+
+  /** ParameterDefinition constructor for dropdowns with cached or paged
+   * options.
+   *
+   * @param theName the name of the parameter. It cannot be null.
+   * @param theType the type of the parameter, represented as a fully qualified
+   * class name. See the other constructor for the accepted values. It cannot
+   * be null.
+   * @param isOptional define if the parameter value is optional.
+   * @param theDropdownQuery Query used to retrieve the drop down options. If
+   * null, the parameter is not a drop down.
+   * @param theCacheSeconds the number of seconds the dropdown options are
+   * cached, 0 to not cache them. It cannot be negative.
+   * @param thePageSize the number of dropdown options fetched at a time, 0 to
+   * load all of them in the form. It cannot be negative.
+   */
+  public ParameterDefinition(final String theName, final String theType,
+      final boolean isOptional, final String theDropdownQuery,
+      final int theCacheSeconds, final int thePageSize) {
 
     Validate.notNull(theName, "The name of the parameter cannot be null");
     Validate.notNull(theType, "The type of the parameter cannot be null");
@@ -77,7 +111,12 @@ public class ParameterDefinition {
     name = theName;
     type = theType;
     optional = isOptional;
+    Validate.isTrue(theCacheSeconds >= 0,
+        "The cache seconds cannot be negative.");
+    Validate.isTrue(thePageSize >= 0, "The page size cannot be negative.");
     dropdownQuery = theDropdownQuery;
+    dropdownCacheSeconds = theCacheSeconds;
+    dropdownPageSize = thePageSize;
   }
 
   /** Gets the name of the parameter.
@@ -167,6 +206,30 @@ public class ParameterDefinition {
     return dropdownQuery;
   }
 
+  /** The number of seconds the dropdown options are cached.
+   *
+   * @return the seconds, 0 if the options are not cached.
+   */
+  public int getDropdownCacheSeconds() {
+    return dropdownCacheSeconds;
+  }
+
+  /** The number of dropdown options fetched at a time.
+   *
+   * @return the page size, 0 if all the options are loaded in the form.
+   */
+  public int getDropdownPageSize() {
+    return dropdownPageSize;
+  }
+
+  /** Says if the dropdown options are fetched in pages as the user types.
+   *
+   * @return true if the parameter is a dropdown with a page size.
+   */
+  public boolean isPagedDropdown() {
+    return isDropdown() && dropdownPageSize > 0;
+  }
+
   /** Says if it is optional parameter.
    * @return true if the parameter is optional.
    */
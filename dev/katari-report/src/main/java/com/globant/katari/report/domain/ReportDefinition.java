@@ -27,6 +27,7 @@ import net.sf.jasperreports.engine.xml.JRXmlLoader;
 
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.math.NumberUtils;
 
 import com.globant.katari.hibernate.coreuser.domain.Role;
 
@@ -223,8 +224,15 @@ public class ReportDefinition {
           // 'true','yes' or 'on' values makes the parameter optional. Every
           // other thing, including null, is false.
           optional = BooleanUtils.toBoolean(optionalValue);
+          // The dropdown options are cached for dropdownCacheSeconds, and
+          // fetched in pages of dropdownPageSize. Both are 0 by default.
+          int cacheSeconds = NumberUtils.toInt(parameter.getPropertiesMap()
+              .getProperty("dropdownCacheSeconds"), 0);
+          int pageSize = NumberUtils.toInt(parameter.getPropertiesMap()
+              .getProperty("dropdownPageSize"), 0);
           result.add(new ParameterDefinition(parameter.getName(),
-              parameter.getValueClassName(), optional, dropdownQuery));
+              parameter.getValueClassName(), optional, dropdownQuery,
+              Math.max(cacheSeconds, 0), Math.max(pageSize, 0)));
         }
       }
     } catch (JRException ex) {
@@ -0,0 +1,345 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.domain;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.fill.JRBaseFiller;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A request to generate a report in the background.
+ *
+ * The job holds the converted report parameters, the output type and, once
+ * the report is generated, the file with the result. Jobs are created and
+ * run by the ReportJobQueue.
+ *
+ * This class is thread safe.
+ */
+public class ReportJob {
+
+  /** The class logger. */
+  private static Logger log = LoggerFactory.getLogger(ReportJob.class);
+
+  /** The job id, never null. */
+  private final String id;
+
+  /** The id of the report definition to generate. */
+  private final long reportId;
+
+  /** The name of the report, never null. */
+  private final String reportName;
+
+  /** The name of the user that requested the report, never null. */
+  private final String owner;
+
+  /** The output type, never null. */
+  private final ReportType reportType;
+
+  /** The report parameters, already converted. It is never null. */
+  private final Map<String, Object> parameters;
+
+  /** When the job was created, in milliseconds. */
+  private final long creationTime;
+
+  /** The state of the job, never null. */
+  private ReportJobStatus status = ReportJobStatus.QUEUED;
+
+  /** When the job finished, in milliseconds. 0 if it is not finished. */
+  private long finishTime = 0;
+
+  /** The generated report. It is null unless the status is DONE. */
+  private File result = null;
+
+  /** The reason of the failure. It is null unless the status is FAILED. */
+  private String errorMessage = null;
+
+  /** The task running the job, used to drop it from the workers queue on
+   * cancel.
+   *
+   * It is null until the job is handed to the workers.
+   */
+  private Future<?> future = null;
+
+  /** The filler of the report, used to stop the fill and its running query
+   * on cancel.
+   *
+   * It is null unless the report is being filled.
+   */
+  private JRBaseFiller filler = null;
+
+  /** Whether a worker thread is running the job.
+   *
+   * It stays true after the job is cancelled, until the worker exits.
+   */
+  private boolean running = false;
+
+  /** Creates a queued job.
+   *
+   * @param theId the job id. It cannot be null.
+   *
+   * @param theReport the report to generate. It cannot be null.
+   *
+   * @param theOwner the name of the user requesting the report. It cannot be
+   * null.
+   *
+   * @param theParameters the converted report parameters. It cannot be null.
+   *
+   * @param theReportType the output type. It cannot be null.
+   */
+  ReportJob(final String theId, final ReportDefinition theReport,
+      final String theOwner, final Map<String, Object> theParameters,
+      final ReportType theReportType) {
+    Validate.notNull(theId, "The id cannot be null.");
+    Validate.notNull(theReport, "The report cannot be null.");
+    Validate.notNull(theOwner, "The owner cannot be null.");
+    Validate.notNull(theParameters, "The parameters cannot be null.");
+    Validate.notNull(theReportType, "The report type cannot be null.");
+    id = theId;
+    reportId = theReport.getId();
+    reportName = theReport.getName();
+    owner = theOwner;
+    parameters = Collections.unmodifiableMap(
+        new HashMap<String, Object>(theParameters));
+    reportType = theReportType;
+    creationTime = System.currentTimeMillis();
+  }
+
+  /** The job id.
+   *
+   * @return the id, never null.
+   */
+  public String getId() {
+    return id;
+  }
+
+  /** The id of the report definition.
+   *
+   * @return the report id.
+   */
+  public long getReportId() {
+    return reportId;
+  }
+
+  /** The name of the report.
+   *
+   * @return the report name, never null.
+   */
+  public String getReportName() {
+    return reportName;
+  }
+
+  /** The user that requested the report.
+   *
+   * @return the user name, never null.
+   */
+  public String getOwner() {
+    return owner;
+  }
+
+  /** The output type.
+   *
+   * @return the report type, never null.
+   */
+  public ReportType getReportType() {
+    return reportType;
+  }
+
+  /** The report parameters.
+   *
+   * @return an unmodifiable map of parameter names to values, never null.
+   */
+  public Map<String, Object> getParameters() {
+    return parameters;
+  }
+
+  /** When the job was created.
+   *
+   * @return the creation date, never null.
+   */
+  public Date getCreationTime() {
+    return new Date(creationTime);
+  }
+
+  /** When the job finished.
+   *
+   * @return the finish date, or null if the job is not finished.
+   */
+  public synchronized Date getFinishTime() {
+    if (finishTime == 0) {
+      return null;
+    }
+    return new Date(finishTime);
+  }
+
+  /** The state of the job.
+   *
+   * @return the status, never null.
+   */
+  public synchronized ReportJobStatus getStatus() {
+    return status;
+  }
+
+  /** The file with the generated report.
+   *
+   * @return the file, or null if the job is not DONE or the result expired.
+   */
+  public synchronized File getResult() {
+    return result;
+  }
+
+  /** The reason of the failure.
+   *
+   * @return the error message, or null if the job did not fail.
+   */
+  public synchronized String getErrorMessage() {
+    return errorMessage;
+  }
+
+  /** Whether the job finished before the given time.
+   *
+   * @param theTime the time in milliseconds.
+   *
+   * @return true if the job is finished and expired.
+   */
+  synchronized boolean isFinishedBefore(final long theTime) {
+    return !isActive() && finishTime < theTime;
+  }
+
+  /** Whether the job is queued or running.
+   *
+   * A cancelled job is still active until its worker exits, so it keeps
+   * counting against the limit of jobs of the owner.
+   *
+   * @return true if the job is not finished or its worker did not exit.
+   */
+  synchronized boolean isActive() {
+    return !status.isFinished() || running;
+  }
+
+  /** Sets the task that runs this job.
+   *
+   * @param theFuture the task. It cannot be null.
+   */
+  synchronized void setFuture(final Future<?> theFuture) {
+    Validate.notNull(theFuture, "The future cannot be null.");
+    future = theFuture;
+  }
+
+  /** Marks the job as running.
+   *
+   * @return false if the job was cancelled and must not run.
+   */
+  synchronized boolean start() {
+    if (status != ReportJobStatus.QUEUED) {
+      return false;
+    }
+    status = ReportJobStatus.RUNNING;
+    running = true;
+    return true;
+  }
+
+  /** Marks that the worker running the job exited.
+   */
+  synchronized void exited() {
+    running = false;
+  }
+
+  /** Sets the filler of the report, so that cancel stops the fill.
+   *
+   * @param theFiller the filler. It cannot be null.
+   *
+   * @return false if the job was cancelled and must not be filled.
+   */
+  synchronized boolean startFill(final JRBaseFiller theFiller) {
+    Validate.notNull(theFiller, "The filler cannot be null.");
+    if (status == ReportJobStatus.CANCELLED) {
+      return false;
+    }
+    filler = theFiller;
+    return true;
+  }
+
+  /** Clears the filler once the report is filled.
+   */
+  synchronized void endFill() {
+    filler = null;
+  }
+
+  /** Marks the job as done.
+   *
+   * If the job was cancelled while running, the result is deleted.
+   *
+   * @param theResult the generated report. It cannot be null.
+   */
+  synchronized void finish(final File theResult) {
+    Validate.notNull(theResult, "The result cannot be null.");
+    if (status == ReportJobStatus.CANCELLED) {
+      theResult.delete();
+      return;
+    }
+    status = ReportJobStatus.DONE;
+    result = theResult;
+    finishTime = System.currentTimeMillis();
+  }
+
+  /** Marks the job as failed, unless it was cancelled.
+   *
+   * @param theMessage the reason of the failure. It can be null.
+   */
+  synchronized void fail(final String theMessage) {
+    if (status == ReportJobStatus.CANCELLED) {
+      return;
+    }
+    status = ReportJobStatus.FAILED;
+    errorMessage = theMessage;
+    finishTime = System.currentTimeMillis();
+  }
+
+  /** Cancels the job.
+   *
+   * A queued job is removed from the workers queue. If the report is being
+   * filled, the fill is cancelled, which also cancels the running query.
+   *
+   * @return true if the job was cancelled, false if it was already finished.
+   */
+  boolean cancel() {
+    JRBaseFiller currentFiller;
+    synchronized (this) {
+      if (status.isFinished()) {
+        return false;
+      }
+      status = ReportJobStatus.CANCELLED;
+      finishTime = System.currentTimeMillis();
+      if (future != null) {
+        future.cancel(false);
+      }
+      currentFiller = filler;
+    }
+    if (currentFiller != null) {
+      try {
+        currentFiller.cancelFill();
+      } catch (JRException e) {
+        log.warn("Error cancelling the fill of job " + id + " - ignored.", e);
+      }
+    }
+    return true;
+  }
+
+  /** Deletes the generated report, if any.
+   */
+  synchronized void deleteResult() {
+    if (result != null) {
+      result.delete();
+      result = null;
+    }
+  }
+}
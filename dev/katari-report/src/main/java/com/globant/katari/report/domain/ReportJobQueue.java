@@ -0,0 +1,375 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.domain;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Generates reports in the background.
+ *
+ * Report jobs are queued with their parameters and run by a fixed number of
+ * worker threads. Each worker fills and exports the report to a file in the
+ * store directory. The user then downloads the file from there.
+ *
+ * Each user can have a limited number of queued or running jobs. Finished
+ * jobs, and their files, are removed after a time to live.
+ *
+ * This class is thread safe.
+ */
+public class ReportJobQueue {
+
+  /** The class logger. */
+  private static Logger log = LoggerFactory.getLogger(ReportJobQueue.class);
+
+  /** The default number of worker threads. */
+  private static final int DEFAULT_WORKERS = 2;
+
+  /** The default number of active jobs per user. */
+  private static final int DEFAULT_MAX_JOBS_PER_USER = 2;
+
+  /** The default time to keep finished jobs, one hour in milliseconds. */
+  private static final long DEFAULT_TIME_TO_LIVE = 60 * 60 * 1000;
+
+  /** The report generator, never null. */
+  private final JasperReportGenerator generator;
+
+  /** The data source the reports query, never null. */
+  private final DataSource dataSource;
+
+  /** The worker threads, never null. */
+  private final ExecutorService executor;
+
+  /** The jobs, by id, in creation order.
+   *
+   * It is never null. Access is synchronized on this queue.
+   */
+  private final Map<String, ReportJob> jobs
+    = new LinkedHashMap<String, ReportJob>();
+
+  /** The maximum number of queued or running jobs per user. */
+  private int maxJobsPerUser = DEFAULT_MAX_JOBS_PER_USER;
+
+  /** The time to keep the finished jobs, in milliseconds. */
+  private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+  /** The directory where the generated reports are written, never null. */
+  private File storeDirectory = new File(System.getProperty("java.io.tmpdir"),
+      "katari-reports");
+
+  /** Creates a queue with the default number of workers.
+   *
+   * @param theGenerator the report generator. It cannot be null.
+   *
+   * @param theDataSource the data source the reports query. It cannot be
+   * null.
+   */
+  public ReportJobQueue(final JasperReportGenerator theGenerator,
+      final DataSource theDataSource) {
+    this(theGenerator, theDataSource, DEFAULT_WORKERS);
+  }
+
+  /** Creates a queue.
+   *
+   * @param theGenerator the report generator. It cannot be null.
+   *
+   * @param theDataSource the data source the reports query. It cannot be
+   * null.
+   *
+   * @param theWorkers the number of reports that can be generated at the
+   * same time. It must be greater than 0.
+   */
+  public ReportJobQueue(final JasperReportGenerator theGenerator,
+      final DataSource theDataSource, final int theWorkers) {
+    Validate.notNull(theGenerator, "The generator cannot be null.");
+    Validate.notNull(theDataSource, "The data source cannot be null.");
+    Validate.isTrue(theWorkers > 0, "The workers must be greater than 0.");
+    generator = theGenerator;
+    dataSource = theDataSource;
+    executor = Executors.newFixedThreadPool(theWorkers, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+      public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(runnable, "katari-report-worker-"
+            + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /** Sets the maximum number of queued or running jobs per user.
+   *
+   * @param theMaxJobs the maximum. It must be greater than 0.
+   */
+  public void setMaxJobsPerUser(final int theMaxJobs) {
+    Validate.isTrue(theMaxJobs > 0, "The max jobs must be greater than 0.");
+    maxJobsPerUser = theMaxJobs;
+  }
+
+  /** Sets how long the finished jobs and their files are kept.
+   *
+   * @param theTimeToLive the time in milliseconds. It cannot be negative.
+   */
+  public void setTimeToLive(final long theTimeToLive) {
+    Validate.isTrue(theTimeToLive >= 0,
+        "The time to live cannot be negative.");
+    timeToLive = theTimeToLive;
+  }
+
+  /** Sets the directory where the generated reports are written.
+   *
+   * @param theDirectory the directory name. It cannot be null.
+   */
+  public void setStoreDirectory(final String theDirectory) {
+    Validate.notNull(theDirectory, "The directory cannot be null.");
+    storeDirectory = new File(theDirectory);
+  }
+
+  /** Whether the user can submit another job.
+   *
+   * @param theOwner the user name. It cannot be null.
+   *
+   * @return false if the user already has the maximum number of queued or
+   * running jobs.
+   */
+  public synchronized boolean canSubmit(final String theOwner) {
+    Validate.notNull(theOwner, "The owner cannot be null.");
+    int active = 0;
+    for (ReportJob job : jobs.values()) {
+      if (job.getOwner().equals(theOwner) && job.isActive()) {
+        ++active;
+      }
+    }
+    return active < maxJobsPerUser;
+  }
+
+  /** Queues a report for generation.
+   *
+   * The caller must check that the user can access the report.
+   *
+   * @param theOwner the name of the user requesting the report. It cannot be
+   * null.
+   *
+   * @param theReport the report to generate. It cannot be null.
+   *
+   * @param theParameters the converted report parameters. It cannot be null.
+   *
+   * @param theReportType the output type. It cannot be null.
+   *
+   * @return the queued job, never null.
+   *
+   * @throws IllegalStateException if the user already has the maximum
+   * number of active jobs.
+   */
+  public ReportJob submit(final String theOwner,
+      final ReportDefinition theReport,
+      final Map<String, Object> theParameters,
+      final ReportType theReportType) {
+    purgeExpired();
+    final ReportJob job;
+    synchronized (this) {
+      if (!canSubmit(theOwner)) {
+        throw new IllegalStateException("The user " + theOwner
+            + " already has " + maxJobsPerUser + " reports in progress.");
+      }
+      job = new ReportJob(UUID.randomUUID().toString(), theReport, theOwner,
+          theParameters, theReportType);
+      jobs.put(job.getId(), job);
+    }
+    log.debug("Queued job {} for report {}", job.getId(), job.getReportName());
+    Future<?> future = executor.submit(new Runnable() {
+      public void run() {
+        generate(job);
+      }
+    });
+    job.setFuture(future);
+    return job;
+  }
+
+  /** Obtains a job.
+   *
+   * @param theJobId the job id. It cannot be null.
+   *
+   * @return the job, or null if there is no such job or it expired.
+   */
+  public ReportJob getJob(final String theJobId) {
+    Validate.notNull(theJobId, "The job id cannot be null.");
+    purgeExpired();
+    synchronized (this) {
+      return jobs.get(theJobId);
+    }
+  }
+
+  /** Obtains the jobs of a user.
+   *
+   * @param theOwner the user name. It cannot be null.
+   *
+   * @return the jobs of the user in creation order, never null.
+   */
+  public List<ReportJob> getJobs(final String theOwner) {
+    Validate.notNull(theOwner, "The owner cannot be null.");
+    purgeExpired();
+    List<ReportJob> result = new ArrayList<ReportJob>();
+    synchronized (this) {
+      for (ReportJob job : jobs.values()) {
+        if (job.getOwner().equals(theOwner)) {
+          result.add(job);
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Cancels a queued or running job.
+   *
+   * @param theJobId the job id. It cannot be null.
+   *
+   * @return true if the job was cancelled, false if it does not exist or it
+   * already finished.
+   */
+  public boolean cancel(final String theJobId) {
+    ReportJob job = getJob(theJobId);
+    if (job == null) {
+      return false;
+    }
+    log.debug("Cancelling job {}", theJobId);
+    return job.cancel();
+  }
+
+  /** Removes the jobs that finished more than the time to live ago, and
+   * deletes their files.
+   */
+  public void purgeExpired() {
+    long limit = System.currentTimeMillis() - timeToLive;
+    List<ReportJob> expired = new ArrayList<ReportJob>();
+    synchronized (this) {
+      Iterator<ReportJob> it = jobs.values().iterator();
+      while (it.hasNext()) {
+        ReportJob job = it.next();
+        if (job.isFinishedBefore(limit)) {
+          it.remove();
+          expired.add(job);
+        }
+      }
+    }
+    for (ReportJob job : expired) {
+      log.debug("Removing expired job {}", job.getId());
+      job.deleteResult();
+    }
+  }
+
+  /** Stops the workers and deletes all the generated reports.
+   */
+  public void destroy() {
+    executor.shutdownNow();
+    synchronized (this) {
+      for (ReportJob job : jobs.values()) {
+        job.cancel();
+        job.deleteResult();
+      }
+      jobs.clear();
+    }
+  }
+
+  /** Fills and exports the report of a job to a file in the store directory.
+   *
+   * Runs in a worker thread.
+   *
+   * @param job the job to run. It cannot be null.
+   */
+  private void generate(final ReportJob job) {
+    if (!job.start()) {
+      // Cancelled while queued.
+      return;
+    }
+    try {
+      run(job);
+    } finally {
+      job.exited();
+    }
+  }
+
+  /** Fills and exports the report of a job that was started.
+   *
+   * @param job the job to run. It cannot be null.
+   */
+  private void run(final ReportJob job) {
+    log.debug("Running job {}", job.getId());
+    File file = null;
+    boolean generated = false;
+    OutputStream output = null;
+    Connection connection = null;
+    try {
+      if (!storeDirectory.exists() && !storeDirectory.mkdirs()) {
+        throw new IOException("Could not create " + storeDirectory);
+      }
+      file = File.createTempFile("report-", "."
+          + job.getReportType().getExtension(), storeDirectory);
+      output = new BufferedOutputStream(new FileOutputStream(file));
+      connection = dataSource.getConnection();
+      // The generator adds the built in parameters to the map.
+      Map<String, Object> parameters;
+      parameters = new HashMap<String, Object>(job.getParameters());
+      generator.generate(job.getReportId(), parameters, job.getReportType(),
+          output, connection, job);
+      output.close();
+      output = null;
+      generated = true;
+    } catch (Exception e) {
+      if (job.getStatus() == ReportJobStatus.CANCELLED) {
+        // Cancelling interrupts the fill, this is not an error.
+        log.debug("Job " + job.getId() + " stopped by its cancellation", e);
+      } else {
+        log.error("Error generating report for job " + job.getId(), e);
+        job.fail(e.getMessage());
+      }
+    } finally {
+      if (output != null) {
+        try {
+          output.close();
+        } catch (IOException e) {
+          log.warn("Unexpected error closing the report file - ignored.", e);
+        }
+      }
+      if (connection != null) {
+        try {
+          connection.rollback();
+        } catch (SQLException e) {
+          log.warn("Unexpected error rolling back a connection - ignored.", e);
+        }
+        try {
+          connection.close();
+        } catch (SQLException e) {
+          log.warn("Unexpected error closing connection - ignored.", e);
+        }
+      }
+    }
+    if (generated) {
+      job.finish(file);
+    } else if (file != null) {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.domain;
+
+/** The states of a report job.
+ */
+public enum ReportJobStatus {
+
+  /** The job is waiting for a free worker. */
+  QUEUED,
+
+  /** A worker is filling and exporting the report. */
+  RUNNING,
+
+  /** The report was generated and can be downloaded. */
+  DONE,
+
+  /** The report generation failed. */
+  FAILED,
+
+  /** The user cancelled the job. */
+  CANCELLED;
+
+  /** Whether the job in this state will not change anymore.
+   *
+   * @return true for DONE, FAILED and CANCELLED.
+   */
+  public boolean isFinished() {
+    return this == DONE || this == FAILED || this == CANCELLED;
+  }
+}
@@ -9,6 +9,9 @@ import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.Predicate;
 import org.apache.commons.collections.functors.OrPredicate;
 
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContextHolder;
+
 import com.globant.katari.hibernate.coreuser.domain.Role;
 import com.globant.katari.hibernate.coreuser.domain.RoleSecurityUtils;
 
@@ -60,6 +63,20 @@ public final class ReportSecurityUtils {
     return definitions;
   }
 
+  /** Returns the name of the currently logged on user.
+   *
+   * @return the user name. It returns null only if the user has not logged in
+   * yet.
+   */
+  public static String getCurrentUserName() {
+    Authentication authentication;
+    authentication = SecurityContextHolder.getContext().getAuthentication();
+    if (authentication == null) {
+      return null;
+    }
+    return authentication.getName();
+  }
+
   /** Verify if the current user can access all reports.
    * @return true if the current user can access to all reports
    */
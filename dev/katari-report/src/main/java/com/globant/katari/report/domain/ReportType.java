@@ -7,15 +7,49 @@ package com.globant.katari.report.domain;
 public enum ReportType {
 
   /** HTML Report Type. */
-  HTML,
+  HTML("text/html", "html"),
 
   /** PDF Report Type. */
-  PDF,
+  PDF("application/pdf", "pdf"),
 
   /** EXCEL Report Type. */
-  EXCEL,
+  EXCEL("application/vnd.ms-excel", "xls"),
 
   /** XML Report Type. */
-  XML,
+  XML("text/xml", "xml");
+
+  /** The content type of the generated report, never null. */
+  private final String contentType;
+
+  /** The file extension of the generated report, never null. */
+  private final String extension;
+
+  /** Constructor.
+   *
+   * @param theContentType the content type. It cannot be null.
+   *
+   * @param theExtension the file extension, without the dot. It cannot be
+   * null.
+   */
+  private ReportType(final String theContentType, final String theExtension) {
+    contentType = theContentType;
+    extension = theExtension;
+  }
+
+  /** The content type of the reports of this type.
+   *
+   * @return the content type, never null.
+   */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /** The file extension of the reports of this type.
+   *
+   * @return the extension, without the dot, never null.
+   */
+  public String getExtension() {
+    return extension;
+  }
 }
 
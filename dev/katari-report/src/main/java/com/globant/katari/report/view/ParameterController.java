@@ -21,6 +21,7 @@ import org.springframework.web.servlet.mvc.SimpleFormController;
 
 import com.globant.katari.core.application.Initializable;
 import com.globant.katari.report.application.GenerateReportCommand;
+import com.globant.katari.report.domain.ReportJob;
 import com.globant.katari.report.domain.ReportType;
 
 /**
@@ -84,6 +85,10 @@ public abstract class ParameterController extends SimpleFormController {
   /**
    * Submits the form.
    *
+   * If the command generates the report in the background, the job is queued
+   * and the user is redirected to the job status page. Otherwise, the report
+   * is written to the response.
+   *
    * @param request the servlet request.
    * @param response the servlet response.
    * @param command the command object associated with the form.
@@ -100,18 +105,13 @@ public abstract class ParameterController extends SimpleFormController {
     GenerateReportCommand parameterCommand;
     parameterCommand = (GenerateReportCommand) command;
 
-    ReportType reportType = parameterCommand.getReportType();
-
-    if (ReportType.PDF.equals(reportType)) {
-      response.setContentType("application/pdf");
-    } else if (ReportType.XML.equals(reportType)) {
-      response.setContentType("text/xml");
-    } else if (ReportType.EXCEL.equals(reportType)) {
-      response.setContentType("application/vnd.ms-excel");
-    } else if (ReportType.HTML.equals(reportType)) {
-      response.setContentType("text/html");
+    if (parameterCommand.isAsynchronous()) {
+      ReportJob job = parameterCommand.submit();
+      log.trace("Leaving onSubmit");
+      return new ModelAndView("redirect:reportJob.do?jobId=" + job.getId());
     }
 
+    response.setContentType(parameterCommand.getReportType().getContentType());
     parameterCommand.setOutputStream(response.getOutputStream());
     parameterCommand.execute();
 
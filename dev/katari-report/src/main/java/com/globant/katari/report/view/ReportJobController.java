@@ -0,0 +1,130 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.view;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.validation.BindException;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractCommandController;
+
+import com.globant.katari.report.application.ReportJobCommand;
+import com.globant.katari.report.domain.ReportJob;
+import com.globant.katari.report.domain.ReportJobStatus;
+
+/**
+ * Controller that shows the state of a report generated in the background.
+ *
+ * The status page polls this controller until the report is finished. The
+ * same controller cancels the job and downloads the generated report. The
+ * job can only be cancelled with a POST.
+ */
+public abstract class ReportJobController extends AbstractCommandController {
+
+  /** The size of the buffer used to copy the report to the response. */
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Shows the job status, or writes the generated report on the servlet
+   * response if the user asked for the download.
+   *
+   * {@inheritDoc}
+   */
+  protected final ModelAndView handle(final HttpServletRequest request,
+      final HttpServletResponse response, final Object command,
+      final BindException error) throws Exception {
+
+    ReportJobCommand jobCommand = (ReportJobCommand) command;
+
+    if (jobCommand.isCancel() && !"POST".equals(request.getMethod())) {
+      response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED,
+          "The report can only be cancelled with a POST.");
+      return null;
+    }
+
+    ReportJob job = jobCommand.execute();
+    File result = null;
+    if (job != null && job.getStatus() == ReportJobStatus.DONE) {
+      result = job.getResult();
+    }
+    if (jobCommand.isDownload() && result != null) {
+      response.setContentType(job.getReportType().getContentType());
+      response.setHeader("Content-Disposition", "attachment; filename=\""
+          + toFileName(job.getReportName()) + "."
+          + job.getReportType().getExtension() + "\"");
+      response.setContentLength((int) result.length());
+      copy(result, response.getOutputStream());
+      return null;
+    }
+
+    ModelAndView mav = new ModelAndView("reportJob");
+    mav.addObject("command", jobCommand);
+    mav.addObject("job", job);
+    return mav;
+  }
+
+  /** Converts the report name to a file name that is safe to send in the
+   * Content-Disposition header.
+   *
+   * Every character other than an ascii letter, digit, space, dot, dash or
+   * underscore is replaced by an underscore.
+   *
+   * @param reportName the name of the report. It cannot be null.
+   *
+   * @return the file name, never null.
+   */
+  private String toFileName(final String reportName) {
+    return reportName.replaceAll("[^A-Za-z0-9 ._-]", "_");
+  }
+
+  /** Copies the content of a file to an output stream.
+   *
+   * @param file the file to copy. It cannot be null.
+   *
+   * @param output the stream to write to. It cannot be null.
+   *
+   * @throws Exception in case of error reading the file or writing the
+   * stream.
+   */
+  private void copy(final File file, final OutputStream output)
+      throws Exception {
+    InputStream input = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        output.write(buffer, 0, read);
+      }
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Retrieve a backing object for the current form from the given request.
+   *
+   * @param request The HTTP request we are processing.
+   *
+   * @exception Exception if the application logic throws an exception.
+   *
+   * @return The command bean object.
+   */
+  @Override
+  protected Object getCommand(final HttpServletRequest request)
+      throws Exception {
+    return createCommandBean();
+  }
+
+  /**
+   * This method is injected by AOP.
+   *
+   * @return Returns the command bean injected.
+   */
+  protected abstract ReportJobCommand createCommandBean();
+}
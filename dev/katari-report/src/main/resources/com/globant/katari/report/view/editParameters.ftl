@@ -1,19 +1,77 @@
 <#import "spring.ftl" as spring />
 
+<#-- A text input that fetches pages of options from dropdownOptions.do as
+     the user types, for dropdowns with too many options to load in full. The
+     selected value goes in a hidden input. -->
+<#macro pagedDropdown parameter>
+  <#assign labelKey = parameter.name + "_label"/>
+  <@spring.bind "command.values[${parameter.name}]"/>
+  <input type="hidden" id="value_${parameter.name}"
+    name="${spring.status.expression}"
+    value="${(command.values[parameter.name]!'')?html}"/>
+  <@spring.bind "command.values[${labelKey}]"/>
+  <span class="yui-skin-sam">
+    <input type="text" id="label_${parameter.name}"
+      name="${spring.status.expression}"
+      value="${(command.values[labelKey]!'')?html}"/>
+    <div id="options_${parameter.name}"></div>
+  </span>
+  <script type='text/javascript'>
+    typeaheads.push('${parameter.name}');
+  </script>
+</#macro>
+
 <html>
 <head>
   <title>Edit Parameters Descriptors</title>
   <!-- Load the YUI Loader script: -->
   <script type='text/javascript'>
     var loader = new YAHOO.util.YUILoader({
-        require: ["calendar"],
+        require: ["calendar", "autocomplete", "datasource", "connection",
+          "json"],
         base: '${baseweb}/module/ajax/yui/',
         loadOptional: false,
         onSuccess: function() {
+          YAHOO.util.Event.onDOMReady(function() {
+            for (var i = 0; i < typeaheads.length; i++) {
+              createTypeahead(typeaheads[i]);
+            }
+          });
         }
     });
     loader.insert();
 
+    // The names of the parameters with paged dropdowns.
+    var typeaheads = [];
+
+    function createTypeahead(name) {
+      var dataSource = new YAHOO.util.XHRDataSource('dropdownOptions.do');
+      dataSource.responseType = YAHOO.util.XHRDataSource.TYPE_JSON;
+      dataSource.responseSchema = {
+        resultsList: 'options', fields: ['label', 'value']
+      };
+      var autoComplete = new YAHOO.widget.AutoComplete('label_' + name,
+          'options_' + name, dataSource);
+      autoComplete.generateRequest = function(query) {
+        var request = '?reportId=${command.reportId?c}&parameterName='
+          + encodeURIComponent(name) + '&filter=' + query;
+        // Sends the other values, the dropdown query may use them.
+        var elements = document.getElementById('reportForm').elements;
+        for (var i = 0; i < elements.length; i++) {
+          var element = elements[i];
+          if (element.name.indexOf('values[') == 0 && element.value) {
+            request += '&' + encodeURIComponent(element.name) + '='
+              + encodeURIComponent(element.value);
+          }
+        }
+        return request;
+      };
+      autoComplete.itemSelectEvent.subscribe(function(type, args) {
+        document.getElementById('value_' + name).value = args[2][1];
+        reloadDropdown();
+      });
+    }
+
     function getActualDate(){
       actualDate = new Date();
       day = '' + actualDate.getDate() + '';
@@ -120,7 +178,9 @@
               <#break>
             <#case "java.lang.Integer">
               <td>
-                <#if parameter.dropdown>
+                <#if parameter.pagedDropdown>
+                  <@pagedDropdown parameter/>
+                <#elseif parameter.dropdown>
                   <@spring.formSingleSelect "command.values[${parameter.name}]", command.getDropdownOptions(parameter), "onChange=\"reloadDropdown();\"" />
                 <#else>
                   <@spring.formInput "command.values[${parameter.name}]"/>
@@ -130,7 +190,9 @@
               <#break>
             <#default>
               <td>
-                <#if parameter.dropdown>
+                <#if parameter.pagedDropdown>
+                  <@pagedDropdown parameter/>
+                <#elseif parameter.dropdown>
                   <@spring.formSingleSelect "command.values[${parameter.name}]", command.getDropdownOptions(parameter), "onChange=\"reloadDropdown();\"" />
                 <#else>
                   <@spring.formInput "command.values[${parameter.name}]"/>
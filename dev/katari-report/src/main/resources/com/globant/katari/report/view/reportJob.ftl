@@ -0,0 +1,59 @@
+<#import "spring.ftl" as spring />
+
+<html>
+  <head>
+    <title>Report Status</title>
+    <#if job?? && !job.status.finished>
+      <!-- Polls the job state until the report is finished. -->
+      <meta http-equiv="refresh" content="3"/>
+    </#if>
+  </head>
+
+  <body>
+    <#if !job??>
+      <h3>Report not found</h3>
+      <p>The report does not exist or it expired.</p>
+    <#else>
+      <h3>Report: ${job.reportName?html}</h3>
+
+      <table border='0' class='results' id='reportJob'
+          cellpadding='0' cellspacing='0'>
+        <tr>
+          <td>Status</td>
+          <td id='status'>${job.status}</td>
+        </tr>
+        <tr>
+          <td>Requested</td>
+          <td>${job.creationTime?datetime}</td>
+        </tr>
+        <#if job.finishTime??>
+          <tr>
+            <td>Finished</td>
+            <td>${job.finishTime?datetime}</td>
+          </tr>
+        </#if>
+        <#if job.errorMessage??>
+          <tr>
+            <td>Error</td>
+            <td class='error'>${job.errorMessage?html}</td>
+          </tr>
+        </#if>
+      </table>
+
+      <#if job.status == "DONE" && job.result??>
+        <a class='btn'
+          href='reportJob.do?jobId=${job.id}&amp;download=true'>Download</a>
+      </#if>
+      <#if !job.status.finished>
+        <form method="POST" action="reportJob.do" class="innerform">
+          <input type="hidden" name="jobId" value="${job.id}" />
+          <input type="hidden" name="cancel" value="true" />
+          <input type="submit" value="Cancel"
+            onclick="return confirm('Are you sure you want to cancel the report?');">
+        </form>
+      </#if>
+    </#if>
+    <a class='btn' href='reports.do'>Back</a>
+  </body>
+  <!-- vim: set ts=2 et sw=2 ai filetype=xml: -->
+</html>
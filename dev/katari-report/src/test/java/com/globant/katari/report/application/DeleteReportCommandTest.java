@@ -0,0 +1,39 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.application;
+
+import static org.easymock.EasyMock.*;
+
+import org.junit.Test;
+
+import com.globant.katari.report.domain.CompiledReportCache;
+import com.globant.katari.report.domain.JasperReportRepository;
+import com.globant.katari.report.domain.ReportDefinition;
+
+/** Tests the delete report command.
+ */
+public class DeleteReportCommandTest {
+
+  @Test
+  public void testExecute_invalidatesCompiledReport() {
+    ReportDefinition report = createMock(ReportDefinition.class);
+    JasperReportRepository repository;
+    repository = createMock(JasperReportRepository.class);
+    expect(repository.findReportDefinitionById(3)).andReturn(report);
+    repository.remove(report);
+    CompiledReportCache cache = createMock(CompiledReportCache.class);
+    cache.invalidate(3);
+    replay(report, repository, cache);
+
+    DeleteReportCommand command = new DeleteReportCommand(repository, cache);
+    command.setReportId(3);
+    command.execute();
+
+    verify(repository, cache);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_nullCache() {
+    new DeleteReportCommand(createMock(JasperReportRepository.class), null);
+  }
+}
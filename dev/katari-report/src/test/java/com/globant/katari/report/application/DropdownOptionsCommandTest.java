@@ -0,0 +1,168 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.application;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.acegisecurity.context.SecurityContextHolder;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.hibernate.coreuser.domain.Role;
+import com.globant.katari.hibernate.coreuser.domain.RoleDetails;
+import com.globant.katari.report.domain.CompiledReportCache;
+import com.globant.katari.report.domain.DropdownOptions;
+import com.globant.katari.report.domain.JasperReportRepository;
+import com.globant.katari.report.domain.ParameterDefinition;
+import com.globant.katari.report.domain.ReportDefinition;
+
+/** Tests the dropdown options command.
+ */
+public class DropdownOptionsCommandTest {
+
+  private ParameterDefinition parameter;
+
+  private ReportDefinition report;
+
+  private JasperReportRepository repository;
+
+  private DropdownOptionsCommand command;
+
+  @Before
+  public void setUp() {
+    Set<Role> roles = new HashSet<Role>();
+    roles.add(new Role("ADMINISTRATOR"));
+    RoleDetails user = createMock(RoleDetails.class);
+    expect(user.getUserRoles()).andReturn(roles).anyTimes();
+    replay(user);
+    SecurityContextHolder.getContext().setAuthentication(
+        new UsernamePasswordAuthenticationToken(user, "admin"));
+
+    parameter = new ParameterDefinition("country", "java.lang.String", false,
+        "select id as value, name as label from countries", 0, 2);
+    List<ParameterDefinition> parameters;
+    parameters = new ArrayList<ParameterDefinition>();
+    parameters.add(new ParameterDefinition("name", "java.lang.String", false,
+          null));
+    parameters.add(parameter);
+    report = createMock(ReportDefinition.class);
+    expect(report.getParameterDefinitions()).andReturn(parameters)
+      .anyTimes();
+    replay(report);
+
+    repository = createMock(JasperReportRepository.class);
+    expect(repository.findReportDefinitionById(1)).andReturn(report);
+
+    command = new DropdownOptionsCommand(repository);
+    command.setReportId(1);
+    command.setParameterName("country");
+    command.setFilter("a");
+  }
+
+  @After
+  public void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  private List<DropdownOptions> options(final int count) {
+    List<DropdownOptions> options = new ArrayList<DropdownOptions>();
+    for (int i = 0; i < count; ++i) {
+      options.add(new DropdownOptions(String.valueOf(i), "a" + i));
+    }
+    return options;
+  }
+
+  private String execute() throws Exception {
+    StringWriter writer = new StringWriter();
+    command.execute().write(writer);
+    return writer.toString();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testExecute_more() throws Exception {
+    expect(repository.getDropdownOptionsPage(eq(1L), same(parameter),
+          isA(Map.class), eq("a"), (String) isNull(), (String) isNull(),
+          eq(3)))
+      .andReturn(options(3));
+    replay(repository);
+
+    String json = execute();
+    assertTrue(json.contains("\"more\":true"));
+    assertTrue(json.contains("{\"value\":\"1\",\"label\":\"a1\"}")
+        || json.contains("{\"label\":\"a1\",\"value\":\"1\"}"));
+    assertFalse(json.contains("a2"));
+    verify(repository);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testExecute_lastPage() throws Exception {
+    command.setAfterLabel("a1");
+    command.setAfterValue("1");
+    expect(repository.getDropdownOptionsPage(eq(1L), same(parameter),
+          isA(Map.class), eq("a"), eq("a1"), eq("1"), eq(3)))
+      .andReturn(options(1));
+    replay(repository);
+
+    String json = execute();
+    assertTrue(json.contains("\"more\":false"));
+    assertTrue(json.contains("a0"));
+    verify(repository);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testExecute_cachedParameters() throws Exception {
+    List<ParameterDefinition> parameters;
+    parameters = new ArrayList<ParameterDefinition>();
+    parameters.add(parameter);
+    CompiledReportCache cache = createMock(CompiledReportCache.class);
+    expect(cache.getParameterDefinitions(report)).andReturn(parameters);
+    replay(cache);
+    command = new DropdownOptionsCommand(repository, cache);
+    command.setReportId(1);
+    command.setParameterName("country");
+    command.setFilter("a");
+    expect(repository.getDropdownOptionsPage(eq(1L), same(parameter),
+          isA(Map.class), eq("a"), (String) isNull(), (String) isNull(),
+          eq(3)))
+      .andReturn(options(1));
+    replay(repository);
+
+    assertTrue(execute().contains("a0"));
+    verify(cache);
+    verify(repository);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExecute_notDropdown() throws Exception {
+    replay(repository);
+    command.setParameterName("name");
+    command.execute();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExecute_noAccess() throws Exception {
+    RoleDetails user = createMock(RoleDetails.class);
+    expect(user.getUserRoles()).andReturn(new HashSet<Role>()).anyTimes();
+    replay(user);
+    SecurityContextHolder.getContext().setAuthentication(
+        new UsernamePasswordAuthenticationToken(user, "user"));
+    reset(report);
+    expect(report.getRoles()).andReturn(new HashSet<Role>()).anyTimes();
+    replay(report);
+    replay(repository);
+    command.execute();
+  }
+}
@@ -0,0 +1,79 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.application;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.acegisecurity.context.SecurityContextHolder;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.report.domain.ReportJob;
+import com.globant.katari.report.domain.ReportJobQueue;
+
+/** Tests the report job command.
+ */
+public class ReportJobCommandTest {
+
+  private ReportJobQueue queue;
+
+  private ReportJob job;
+
+  private ReportJobCommand command;
+
+  @Before
+  public void setUp() {
+    SecurityContextHolder.getContext().setAuthentication(
+        new UsernamePasswordAuthenticationToken("user", "password"));
+    queue = createMock(ReportJobQueue.class);
+    job = createMock(ReportJob.class);
+    expect(job.getOwner()).andReturn("user").anyTimes();
+    replay(job);
+    command = new ReportJobCommand(queue);
+    command.setJobId("1");
+  }
+
+  @After
+  public void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  @Test
+  public void testExecute() {
+    expect(queue.getJob("1")).andReturn(job);
+    replay(queue);
+    assertSame(job, command.execute());
+    verify(queue);
+  }
+
+  @Test
+  public void testExecute_cancel() {
+    expect(queue.getJob("1")).andReturn(job);
+    expect(queue.cancel("1")).andReturn(true);
+    replay(queue);
+    command.setCancel(true);
+    assertSame(job, command.execute());
+    verify(queue);
+  }
+
+  @Test
+  public void testExecute_expired() {
+    expect(queue.getJob("1")).andReturn(null);
+    replay(queue);
+    assertNull(command.execute());
+    verify(queue);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testExecute_otherUser() {
+    SecurityContextHolder.getContext().setAuthentication(
+        new UsernamePasswordAuthenticationToken("other", "password"));
+    expect(queue.getJob("1")).andReturn(job);
+    replay(queue);
+    command.setCancel(true);
+    command.execute();
+  }
+}
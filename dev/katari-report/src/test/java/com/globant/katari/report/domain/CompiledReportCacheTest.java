@@ -0,0 +1,180 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.domain;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.jasperreports.engine.JasperReport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.report.ReportsTestSupport;
+
+/** Tests the compiled report cache.
+ */
+public class CompiledReportCacheTest {
+
+  private static final String JASPER_DIRECTORY = "target/jasper-test";
+
+  private byte[] content;
+
+  private CompiledReportCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    File directory = new File(JASPER_DIRECTORY);
+    if (directory.exists()) {
+      for (File file : directory.listFiles()) {
+        file.delete();
+      }
+    }
+    content = ReportsTestSupport.getSampleReportBytes();
+    cache = new CompiledReportCache();
+  }
+
+  /** Creates a mock report definition with the given id and content.
+   */
+  private ReportDefinition createReport(final long id, final byte[] bytes) {
+    ReportDefinition report = createMock(ReportDefinition.class);
+    expect(report.getId()).andReturn(id).anyTimes();
+    expect(report.getReportContent()).andReturn(bytes).anyTimes();
+    replay(report);
+    return report;
+  }
+
+  /** Creates a mock report definition that expects its parameters to be
+   * parsed exactly once.
+   */
+  private ReportDefinition createParsedReport(final long id,
+      final byte[] bytes, final String parameterName) {
+    List<ParameterDefinition> definitions;
+    definitions = new ArrayList<ParameterDefinition>();
+    definitions.add(new ParameterDefinition(parameterName, "java.lang.String",
+          false, null));
+    ReportDefinition report = createMock(ReportDefinition.class);
+    expect(report.getId()).andReturn(id).anyTimes();
+    expect(report.getReportContent()).andReturn(bytes).anyTimes();
+    expect(report.getParameterDefinitions()).andReturn(definitions);
+    replay(report);
+    return report;
+  }
+
+  /** Returns the sample report with a different report name.
+   */
+  private byte[] modifiedContent() {
+    return new String(content).replaceFirst("name=\"[^\"]*\"",
+        "name=\"modified\"").getBytes();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_zeroSize() {
+    new CompiledReportCache(0);
+  }
+
+  @Test
+  public void testGetJasperReport_cached() {
+    ReportDefinition report = createReport(1, content);
+    JasperReport compiled = cache.getJasperReport(report);
+    assertNotNull(compiled);
+    assertEquals(JasperReport.WHEN_NO_DATA_TYPE_ALL_SECTIONS_NO_DETAIL,
+        compiled.getWhenNoDataType());
+    assertSame(compiled, cache.getJasperReport(report));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testGetJasperReport_contentChanged() {
+    JasperReport compiled = cache.getJasperReport(createReport(1, content));
+    JasperReport modified;
+    modified = cache.getJasperReport(createReport(1, modifiedContent()));
+    assertNotSame(compiled, modified);
+    assertEquals("modified", modified.getName());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testInvalidate() {
+    ReportDefinition report = createReport(1, content);
+    JasperReport compiled = cache.getJasperReport(report);
+    cache.getJasperReport(createReport(2, content));
+    cache.invalidate(1);
+    assertEquals(1, cache.size());
+    assertNotSame(compiled, cache.getJasperReport(report));
+  }
+
+  @Test
+  public void testGetJasperReport_reportProperties() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("net.sf.jasperreports.jdbc.fetch.size", "100");
+    cache.setReportProperties(properties);
+    JasperReport compiled = cache.getJasperReport(createReport(1, content));
+    assertEquals("100", compiled.getMainDataset().getPropertiesMap()
+        .getProperty("net.sf.jasperreports.jdbc.fetch.size"));
+  }
+
+  @Test
+  public void testGetJasperReport_jasperDirectory() {
+    cache.setJasperDirectory(JASPER_DIRECTORY);
+    ReportDefinition report = createReport(1, content);
+    cache.getJasperReport(report);
+    assertEquals(1, new File(JASPER_DIRECTORY).listFiles().length);
+
+    // A new cache loads the serialized report instead of compiling it.
+    CompiledReportCache other = new CompiledReportCache();
+    other.setJasperDirectory(JASPER_DIRECTORY);
+    assertNotNull(other.getJasperReport(report));
+
+    // A new version replaces the old file.
+    cache.getJasperReport(createReport(1, modifiedContent()));
+    File[] files = new File(JASPER_DIRECTORY).listFiles();
+    assertEquals(1, files.length);
+    assertTrue(files[0].getName().startsWith("report-1-"));
+    assertTrue(files[0].getName().endsWith(".jasper"));
+
+    cache.invalidate(1);
+    assertEquals(0, new File(JASPER_DIRECTORY).listFiles().length);
+  }
+
+  @Test
+  public void testGetParameterDefinitions_cached() {
+    ReportDefinition report = createParsedReport(1, content, "name");
+    List<ParameterDefinition> parameters;
+    parameters = cache.getParameterDefinitions(report);
+    assertEquals(1, parameters.size());
+    assertEquals("name", parameters.get(0).getName());
+    assertSame(parameters, cache.getParameterDefinitions(report));
+    verify(report);
+  }
+
+  @Test
+  public void testGetParameterDefinitions_contentChanged() {
+    ReportDefinition report = createParsedReport(1, content, "name");
+    cache.getParameterDefinitions(report);
+    ReportDefinition modified;
+    modified = createParsedReport(1, modifiedContent(), "other");
+    List<ParameterDefinition> parameters;
+    parameters = cache.getParameterDefinitions(modified);
+    assertEquals("other", parameters.get(0).getName());
+    verify(report);
+    verify(modified);
+  }
+
+  @Test
+  public void testGetParameterDefinitions_invalidate() {
+    ReportDefinition report = createParsedReport(1, content, "name");
+    cache.getParameterDefinitions(report);
+    cache.invalidate(1);
+    ReportDefinition reloaded = createParsedReport(1, content, "name");
+    cache.getParameterDefinitions(reloaded);
+    verify(reloaded);
+  }
+}
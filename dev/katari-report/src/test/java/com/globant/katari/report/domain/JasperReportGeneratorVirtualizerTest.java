@@ -0,0 +1,129 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.domain;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.report.ReportsTestSupport;
+
+/** Tests the generation of large reports with the swap file virtualizer.
+ *
+ * It uses its own in memory database, with a thousand users.
+ */
+public class JasperReportGeneratorVirtualizerTest {
+
+  private static final String SWAP_DIRECTORY = "target/swap-test";
+
+  private static final int USERS = 1000;
+
+  private Connection connection;
+
+  private JasperReportGenerator generator;
+
+  private Map<String, Object> parameters;
+
+  @Before
+  public void setUp() throws Exception {
+    Class.forName("org.hsqldb.jdbcDriver");
+    connection = DriverManager.getConnection(
+        "jdbc:hsqldb:mem:virtualizer", "sa", "");
+    Statement statement = connection.createStatement();
+    statement.execute("drop table users if exists");
+    statement.execute("create table users (id bigint, name varchar(50),"
+        + " email varchar(50), password varchar(50))");
+    statement.close();
+    PreparedStatement insert = connection.prepareStatement(
+        "insert into users values (?, ?, ?, ?)");
+    for (int i = 0; i < USERS; ++i) {
+      insert.setLong(1, i);
+      insert.setString(2, "user " + i);
+      insert.setString(3, "user" + i + "@nowhere.com");
+      insert.setString(4, "password");
+      insert.executeUpdate();
+    }
+    insert.close();
+
+    ReportDefinition report = createMock(ReportDefinition.class);
+    expect(report.getId()).andReturn(1L).anyTimes();
+    expect(report.getReportContent())
+      .andReturn(ReportsTestSupport.getSampleReportBytes()).anyTimes();
+    replay(report);
+    JasperReportRepository repository;
+    repository = createMock(JasperReportRepository.class);
+    expect(repository.findReportDefinitionById(1L)).andReturn(report)
+      .anyTimes();
+    replay(repository);
+
+    CompiledReportCache cache = new CompiledReportCache();
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("net.sf.jasperreports.jdbc.fetch.size", "100");
+    cache.setReportProperties(properties);
+    generator = new JasperReportGenerator(repository, cache);
+
+    new File(SWAP_DIRECTORY).mkdirs();
+    generator.setSwapDirectory(SWAP_DIRECTORY);
+
+    parameters = new HashMap<String, Object>();
+    parameters.put("TEST_PARAM_1", "Custom Example Text 1");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    connection.close();
+  }
+
+  private byte[] generate(final ReportType type) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    generator.generate(1, parameters, type, output, connection);
+    return output.toByteArray();
+  }
+
+  @Test
+  public void testGenerate_pdf() throws Exception {
+    byte[] plain = generate(ReportType.PDF);
+
+    generator.setVirtualizerMaxPages(2);
+    byte[] virtualized = generate(ReportType.PDF);
+
+    assertTrue(new String(virtualized, 0, 4).equals("%PDF"));
+    // Same pages, the ids of the pdf objects may differ.
+    assertTrue(Math.abs(plain.length - virtualized.length)
+        < plain.length / 100);
+    // The swap file was removed.
+    assertEquals(0, new File(SWAP_DIRECTORY).listFiles().length);
+  }
+
+  @Test
+  public void testGenerate_html() throws Exception {
+    generator.setVirtualizerMaxPages(2);
+    byte[] report = generate(ReportType.HTML);
+    assertTrue(report.length > 0);
+    assertEquals(0, new File(SWAP_DIRECTORY).listFiles().length);
+  }
+
+  @Test
+  public void testGenerate_doesNotModifyParameters() throws Exception {
+    generator.setVirtualizerMaxPages(2);
+    generate(ReportType.XML);
+    assertEquals(1, parameters.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetSwapDirectory_missing() {
+    generator.setSwapDirectory("target/does-not-exist");
+  }
+}
@@ -0,0 +1,224 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.domain;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests the dropdown options cache and pages of JasperReportRepository.
+ *
+ * It uses its own in memory database, with 50 countries.
+ */
+public class JasperReportRepositoryDropdownTest {
+
+  private static final String URL = "jdbc:hsqldb:mem:dropdown";
+
+  private static final String QUERY = "select id as value, name as label"
+    + " from countries";
+
+  private static final String CONTINENT_QUERY = QUERY
+    + " where continent = :continent";
+
+  private Connection connection;
+
+  private SessionFactory sessionFactory;
+
+  private JasperReportRepository repository;
+
+  private Map<String, String> values = new HashMap<String, String>();
+
+  @Before
+  public void setUp() throws Exception {
+    Class.forName("org.hsqldb.jdbcDriver");
+    connection = DriverManager.getConnection(URL, "sa", "");
+    Statement statement = connection.createStatement();
+    statement.execute("drop table countries if exists");
+    statement.execute("create table countries (id integer,"
+        + " name varchar(50), continent varchar(50))");
+    statement.close();
+    for (int i = 0; i < 50; ++i) {
+      insert(i);
+    }
+
+    sessionFactory = new Configuration()
+      .setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect")
+      .setProperty("hibernate.connection.driver_class",
+          "org.hsqldb.jdbcDriver")
+      .setProperty("hibernate.connection.url", URL)
+      .setProperty("hibernate.connection.username", "sa")
+      .buildSessionFactory();
+    repository = new JasperReportRepository();
+    repository.setSessionFactory(sessionFactory);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    sessionFactory.close();
+    connection.close();
+  }
+
+  /** Inserts a country named 'Country nn', in America if the number is even,
+   * in Europe otherwise.
+   */
+  private void insert(final int number) throws Exception {
+    PreparedStatement insert = connection.prepareStatement(
+        "insert into countries values (?, ?, ?)");
+    insert.setInt(1, number);
+    insert.setString(2, String.format("Country %02d", number));
+    insert.setString(3, number % 2 == 0 ? "America" : "Europe");
+    insert.executeUpdate();
+    insert.close();
+  }
+
+  private ParameterDefinition dropdown(final String query,
+      final int cacheSeconds) {
+    return new ParameterDefinition("country", "java.lang.String", false,
+        query, cacheSeconds, 10);
+  }
+
+  @Test
+  public void testGetDropdownOptions_notCached() throws Exception {
+    ParameterDefinition parameter = dropdown(QUERY, 0);
+    assertEquals(50, repository.getDropdownOptions(1, parameter,
+          values).size());
+    insert(50);
+    assertEquals(51, repository.getDropdownOptions(1, parameter,
+          values).size());
+  }
+
+  @Test
+  public void testGetDropdownOptions_cached() throws Exception {
+    ParameterDefinition parameter = dropdown(QUERY, 60);
+    List<DropdownOptions> options;
+    options = repository.getDropdownOptions(1, parameter, values);
+    assertEquals(50, options.size());
+    insert(50);
+    assertSame(options, repository.getDropdownOptions(1, parameter, values));
+
+    // Other reports do not share the options.
+    assertEquals(51, repository.getDropdownOptions(2, parameter,
+          values).size());
+
+    repository.clearDropdownCache();
+    assertEquals(51, repository.getDropdownOptions(1, parameter,
+          values).size());
+  }
+
+  @Test
+  public void testGetDropdownOptions_cachedByValue() throws Exception {
+    ParameterDefinition parameter = dropdown(CONTINENT_QUERY, 60);
+    values.put("continent", "America");
+    List<DropdownOptions> america;
+    america = repository.getDropdownOptions(1, parameter, values);
+    assertEquals(25, america.size());
+    assertEquals("Country 00", america.get(0).getLabel());
+
+    values.put("continent", "Europe");
+    List<DropdownOptions> europe;
+    europe = repository.getDropdownOptions(1, parameter, values);
+    assertEquals(25, europe.size());
+    assertEquals("Country 01", europe.get(0).getLabel());
+  }
+
+  @Test
+  public void testGetDropdownOptions_missingValue() throws Exception {
+    ParameterDefinition parameter = dropdown(CONTINENT_QUERY, 60);
+    assertTrue(repository.getDropdownOptions(1, parameter, values).isEmpty());
+  }
+
+  @Test
+  public void testGetDropdownOptionsPage() throws Exception {
+    ParameterDefinition parameter = dropdown(QUERY, 0);
+    List<DropdownOptions> page;
+    page = repository.getDropdownOptionsPage(1, parameter, values, null, null,
+        null, 10);
+    assertEquals(10, page.size());
+    assertEquals("Country 00", page.get(0).getLabel());
+    assertEquals("0", page.get(0).getValue());
+    assertEquals("Country 09", page.get(9).getLabel());
+
+    page = repository.getDropdownOptionsPage(1, parameter, values, null,
+        "Country 09", "9", 10);
+    assertEquals(10, page.size());
+    assertEquals("Country 10", page.get(0).getLabel());
+
+    page = repository.getDropdownOptionsPage(1, parameter, values, null,
+        "Country 45", "45", 10);
+    assertEquals(4, page.size());
+    assertEquals("Country 49", page.get(3).getLabel());
+  }
+
+  @Test
+  public void testGetDropdownOptionsPage_filter() throws Exception {
+    ParameterDefinition parameter = dropdown(CONTINENT_QUERY, 60);
+    values.put("continent", "Europe");
+    List<DropdownOptions> page;
+    page = repository.getDropdownOptionsPage(1, parameter, values,
+        " COUNTRY 1", null, null, 10);
+    assertEquals(5, page.size());
+    assertEquals("Country 11", page.get(0).getLabel());
+    assertEquals("Country 19", page.get(4).getLabel());
+
+    page = repository.getDropdownOptionsPage(1, parameter, values,
+        "country 1", "Country 15", "15", 10);
+    assertEquals(2, page.size());
+    assertEquals("Country 17", page.get(0).getLabel());
+  }
+
+  @Test
+  public void testGetDropdownOptionsPage_sameLabel() throws Exception {
+    ParameterDefinition parameter = dropdown(
+        "select id as value, continent as label from countries", 0);
+    List<DropdownOptions> page;
+    page = repository.getDropdownOptionsPage(1, parameter, values, null, null,
+        null, 20);
+    assertEquals(20, page.size());
+    assertEquals("America", page.get(19).getLabel());
+    assertEquals("38", page.get(19).getValue());
+
+    // The next page starts with the rest of the options labelled America.
+    page = repository.getDropdownOptionsPage(1, parameter, values, null,
+        "America", "38", 20);
+    assertEquals(20, page.size());
+    assertEquals("America", page.get(0).getLabel());
+    assertEquals("40", page.get(0).getValue());
+    assertEquals("Europe", page.get(5).getLabel());
+  }
+
+  @Test
+  public void testGetDropdownOptionsPage_filterNotCached() throws Exception {
+    ParameterDefinition parameter = dropdown(QUERY, 60);
+    List<DropdownOptions> page;
+    page = repository.getDropdownOptionsPage(1, parameter, values, null, null,
+        null, 60);
+    assertEquals(50, page.size());
+    page = repository.getDropdownOptionsPage(1, parameter, values,
+        "country 5", null, null, 10);
+    assertEquals(0, page.size());
+
+    insert(50);
+    // The unfiltered first page is cached, the filtered one is not.
+    assertEquals(50, repository.getDropdownOptionsPage(1, parameter, values,
+          null, null, null, 60).size());
+    assertEquals(1, repository.getDropdownOptionsPage(1, parameter, values,
+          "country 5", null, null, 10).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetDropdownCacheSize_zero() {
+    repository.setDropdownCacheSize(0);
+  }
+}
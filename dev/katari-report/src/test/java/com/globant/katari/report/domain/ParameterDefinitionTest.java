@@ -78,5 +78,38 @@ public class ParameterDefinitionTest extends TestCase {
     assertTrue((Boolean) string.convertValue("true"));
     assertFalse((Boolean) string.convertValue("false"));
   }
-}
 
+  public void testPagedDropdown() throws Exception {
+    ParameterDefinition parameter;
+    parameter = new ParameterDefinition("Test", "java.lang.String", false,
+        "select id as value, name as label from roles", 60, 20);
+    assertTrue(parameter.isDropdown());
+    assertTrue(parameter.isPagedDropdown());
+    assertEquals(60, parameter.getDropdownCacheSeconds());
+    assertEquals(20, parameter.getDropdownPageSize());
+  }
+
+  public void testPagedDropdown_default() throws Exception {
+    ParameterDefinition parameter;
+    parameter = new ParameterDefinition("Test", "java.lang.String", false,
+        "select id as value, name as label from roles");
+    assertFalse(parameter.isPagedDropdown());
+    assertEquals(0, parameter.getDropdownCacheSeconds());
+  }
+
+  public void testPagedDropdown_notDropdown() throws Exception {
+    ParameterDefinition parameter;
+    parameter = new ParameterDefinition("Test", "java.lang.String", false,
+        null, 0, 20);
+    assertFalse(parameter.isPagedDropdown());
+  }
+
+  public void testConstructor_negativeCacheSeconds() throws Exception {
+    try {
+      new ParameterDefinition("Test", "java.lang.String", false, null, -1, 0);
+      fail("A negative cache time should not be accepted.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.domain;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.report.ReportsTestSupport;
+
+/** Tests the report job queue.
+ *
+ * The reports are generated without a database connection.
+ */
+public class ReportJobQueueTest {
+
+  private static final String STORE = "target/report-jobs-test";
+
+  private ReportDefinition report;
+
+  private JasperReportRepository repository;
+
+  private DataSource dataSource;
+
+  private Map<String, Object> parameters;
+
+  private ReportJobQueue queue;
+
+  /** Released to let the blocked reports run. */
+  private CountDownLatch release = new CountDownLatch(1);
+
+  @Before
+  public void setUp() throws Exception {
+    report = createMock(ReportDefinition.class);
+    expect(report.getId()).andReturn(1L).anyTimes();
+    expect(report.getName()).andReturn("sample").anyTimes();
+    expect(report.getReportContent())
+      .andReturn(ReportsTestSupport.getSampleReportBytes()).anyTimes();
+    replay(report);
+
+    repository = createMock(JasperReportRepository.class);
+    dataSource = createMock(DataSource.class);
+    // Without a connection, the generator fills an empty data source.
+    expect(dataSource.getConnection()).andReturn(null).anyTimes();
+    replay(dataSource);
+
+    parameters = new HashMap<String, Object>();
+    parameters.put("TEST_PARAM_1", "Custom Example Text 1");
+    parameters.put("TEST_PARAM_2", Calendar.getInstance().getTime());
+    parameters.put("TEST_PARAM_3", 1);
+
+    queue = new ReportJobQueue(new JasperReportGenerator(repository),
+        dataSource, 1);
+    queue.setStoreDirectory(STORE);
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    queue.destroy();
+  }
+
+  /** Makes the repository return the report, after waiting for release if
+   * blocked is true.
+   */
+  private void expectReport(final boolean blocked) {
+    expect(repository.findReportDefinitionById(1L)).andAnswer(
+        new IAnswer<ReportDefinition>() {
+          public ReportDefinition answer() throws Throwable {
+            if (blocked) {
+              release.await(10, TimeUnit.SECONDS);
+            }
+            return report;
+          }
+        }).anyTimes();
+    replay(repository);
+  }
+
+  /** Waits for the job to finish and its worker to exit.
+   */
+  private void waitFor(final ReportJob job) throws Exception {
+    for (int i = 0; i < 500 && job.isActive(); ++i) {
+      Thread.sleep(20);
+    }
+  }
+
+  @Test
+  public void testSubmit() throws Exception {
+    expectReport(false);
+    ReportJob job = queue.submit("user", report, parameters, ReportType.PDF);
+    assertEquals("sample", job.getReportName());
+    assertEquals("user", job.getOwner());
+    assertSame(job, queue.getJob(job.getId()));
+
+    waitFor(job);
+
+    assertEquals(ReportJobStatus.DONE, job.getStatus());
+    assertNotNull(job.getFinishTime());
+    File result = job.getResult();
+    assertTrue(result.exists());
+    assertTrue(result.length() > 0);
+    assertTrue(result.getName().endsWith(".pdf"));
+    assertTrue(queue.canSubmit("user"));
+  }
+
+  @Test
+  public void testSubmit_failure() throws Exception {
+    ReportDefinition invalid = createMock(ReportDefinition.class);
+    expect(invalid.getId()).andReturn(2L).anyTimes();
+    expect(invalid.getName()).andReturn("invalid").anyTimes();
+    expect(invalid.getReportContent()).andReturn("<x/>".getBytes())
+      .anyTimes();
+    replay(invalid);
+    expect(repository.findReportDefinitionById(2L)).andReturn(invalid);
+    replay(repository);
+
+    ReportJob job = queue.submit("user", invalid, parameters, ReportType.PDF);
+    waitFor(job);
+
+    assertEquals(ReportJobStatus.FAILED, job.getStatus());
+    assertNotNull(job.getErrorMessage());
+    assertNull(job.getResult());
+  }
+
+  @Test
+  public void testSubmit_perUserLimit() throws Exception {
+    expectReport(true);
+    queue.setMaxJobsPerUser(2);
+    queue.submit("user", report, parameters, ReportType.PDF);
+    queue.submit("user", report, parameters, ReportType.PDF);
+    assertFalse(queue.canSubmit("user"));
+    try {
+      queue.submit("user", report, parameters, ReportType.PDF);
+      fail("The user should not be able to submit a third report.");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    // Other users are not affected.
+    assertTrue(queue.canSubmit("other"));
+    queue.submit("other", report, parameters, ReportType.PDF);
+    assertEquals(2, queue.getJobs("user").size());
+    assertEquals(1, queue.getJobs("other").size());
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    expectReport(true);
+    // The first job takes the only worker, the second one stays queued.
+    ReportJob running;
+    running = queue.submit("user", report, parameters, ReportType.PDF);
+    ReportJob queued;
+    queued = queue.submit("user", report, parameters, ReportType.EXCEL);
+    assertEquals(ReportJobStatus.QUEUED, queued.getStatus());
+
+    assertTrue(queue.cancel(queued.getId()));
+    assertEquals(ReportJobStatus.CANCELLED, queued.getStatus());
+    assertFalse(queue.cancel(queued.getId()));
+    assertTrue(queue.canSubmit("user"));
+
+    release.countDown();
+    waitFor(running);
+    assertEquals(ReportJobStatus.DONE, running.getStatus());
+    assertEquals(ReportJobStatus.CANCELLED, queued.getStatus());
+    assertNull(queued.getResult());
+  }
+
+  @Test
+  public void testCancel_running() throws Exception {
+    expectReport(true);
+    queue.setMaxJobsPerUser(1);
+    ReportJob job = queue.submit("user", report, parameters, ReportType.PDF);
+    // Waits for the worker to take the job.
+    for (int i = 0; i < 500
+        && job.getStatus() == ReportJobStatus.QUEUED; ++i) {
+      Thread.sleep(20);
+    }
+
+    assertTrue(queue.cancel(job.getId()));
+    assertEquals(ReportJobStatus.CANCELLED, job.getStatus());
+    // The worker is still running, so the user cannot submit another job.
+    assertFalse(queue.canSubmit("user"));
+
+    release.countDown();
+    waitFor(job);
+    assertTrue(queue.canSubmit("user"));
+    assertEquals(ReportJobStatus.CANCELLED, job.getStatus());
+    assertNull(job.getResult());
+  }
+
+  @Test
+  public void testPurgeExpired() throws Exception {
+    expectReport(false);
+    queue.setTimeToLive(0);
+    ReportJob job = queue.submit("user", report, parameters, ReportType.XML);
+    waitFor(job);
+    File result = job.getResult();
+    assertTrue(result.exists());
+
+    Thread.sleep(5);
+    assertNull(queue.getJob(job.getId()));
+    assertFalse(result.exists());
+    assertEquals(0, queue.getJobs("user").size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_noWorkers() {
+    new ReportJobQueue(new JasperReportGenerator(repository), dataSource, 0);
+  }
+
+  @Test
+  public void testDestroy_deletesResults() throws Exception {
+    expectReport(false);
+    ReportJob job = queue.submit("user", report, parameters, ReportType.HTML);
+    waitFor(job);
+    File result = job.getResult();
+    queue.destroy();
+    assertFalse(result.exists());
+  }
+}
@@ -82,7 +82,7 @@ public class ReportRepositoryTest {
       new ParameterDefinition("test_param",String.class.getName(), true,
           "select id as value, name as label from roles");
     List<DropdownOptions> options =
-      reportRepository.getDropdownOptions(
+      reportRepository.getDropdownOptions(1,
         parameterDefinition, MapUtils.EMPTY_MAP);
     assertEquals(3, options.size());
   }
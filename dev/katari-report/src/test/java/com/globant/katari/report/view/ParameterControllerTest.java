@@ -3,8 +3,6 @@
 package com.globant.katari.report.view;
 
 import static org.easymock.EasyMock.createStrictMock;
-import static org.easymock.EasyMock.expect;
-import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 
 import java.beans.PropertyEditor;
@@ -12,10 +10,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
-import org.easymock.EasyMock;
 import org.springframework.beans.propertyeditors.CustomDateEditor;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -23,6 +19,7 @@ import org.springframework.test.AbstractTransactionalSpringContextTests;
 import org.springframework.validation.BindException;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.ServletRequestDataBinder;
+import org.springframework.web.servlet.ModelAndView;
 
 import com.globant.katari.report.ReportsTestSupport;
 import com.globant.katari.report.application.GenerateReportCommand;
@@ -64,19 +61,14 @@ public class ParameterControllerTest extends
   /**
    * Tests the submit action for the editReport.do bean.
    *
-   * Tests that modifications on a report definition are persisted after calling
-   * the ReportController.doSubmitAction method.
+   * Tests that the report is queued and the user is redirected to the job
+   * status page. The response is not used.
    */
   public final void testEditParameterDoSubmitAction() throws Exception {
 
     MockHttpServletRequest req = new MockHttpServletRequest();
 
-    ServletOutputStream output = EasyMock.createMock(ServletOutputStream.class);
-
     HttpServletResponse resp = createStrictMock(HttpServletResponse.class);
-    resp.setContentType("application/pdf");
-    expectLastCall().times(1);
-    expect(resp.getOutputStream()).andReturn(output).times(1);
     replay(resp);
 
     BindingResult bindingResult = createStrictMock(BindingResult.class);
@@ -95,8 +87,10 @@ public class ParameterControllerTest extends
     command.setReportType(ReportType.PDF);
     command.init();
 
-    editParameterController.onSubmit(req, resp, command, errors);
+    ModelAndView mav;
+    mav = editParameterController.onSubmit(req, resp, command, errors);
 
+    assertTrue(mav.getViewName().startsWith("redirect:reportJob.do?jobId="));
     assertEquals(EDIT_PARAMETER_FORM_VIEW, editParameterController
         .getFormView());
   }
@@ -0,0 +1,152 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.report.view;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.validation.BindException;
+import org.springframework.web.servlet.ModelAndView;
+
+import com.globant.katari.report.application.ReportJobCommand;
+import com.globant.katari.report.domain.ReportJob;
+import com.globant.katari.report.domain.ReportJobStatus;
+import com.globant.katari.report.domain.ReportType;
+
+/** Tests the report job controller.
+ */
+public class ReportJobControllerTest {
+
+  private ReportJobCommand command;
+
+  private ReportJobController controller;
+
+  @Before
+  public void setUp() {
+    command = createMock(ReportJobCommand.class);
+    controller = new ReportJobController() {
+      protected ReportJobCommand createCommandBean() {
+        return command;
+      }
+    };
+  }
+
+  private ReportJob createJob(final ReportJobStatus status, final File file) {
+    ReportJob job = createMock(ReportJob.class);
+    expect(job.getStatus()).andReturn(status).anyTimes();
+    expect(job.getResult()).andReturn(file).anyTimes();
+    expect(job.getReportName()).andReturn("sample").anyTimes();
+    expect(job.getReportType()).andReturn(ReportType.PDF).anyTimes();
+    replay(job);
+    return job;
+  }
+
+  @Test
+  public void testHandle_status() throws Exception {
+    ReportJob job = createJob(ReportJobStatus.RUNNING, null);
+    expect(command.execute()).andReturn(job);
+    expect(command.isCancel()).andReturn(false).anyTimes();
+    expect(command.isDownload()).andReturn(false).anyTimes();
+    replay(command);
+
+    ModelAndView mav = controller.handle(new MockHttpServletRequest(),
+        new MockHttpServletResponse(), command, new BindException(command,
+          "command"));
+
+    assertEquals("reportJob", mav.getViewName());
+    assertSame(job, mav.getModel().get("job"));
+  }
+
+  @Test
+  public void testHandle_download() throws Exception {
+    File file = new File("target/report-job-controller-test.pdf");
+    OutputStream output = new FileOutputStream(file);
+    try {
+      output.write("content".getBytes());
+    } finally {
+      output.close();
+    }
+    ReportJob job = createJob(ReportJobStatus.DONE, file);
+    expect(command.execute()).andReturn(job);
+    expect(command.isCancel()).andReturn(false).anyTimes();
+    expect(command.isDownload()).andReturn(true).anyTimes();
+    replay(command);
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ModelAndView mav = controller.handle(new MockHttpServletRequest(),
+        response, command, new BindException(command, "command"));
+
+    assertNull(mav);
+    assertEquals("application/pdf", response.getContentType());
+    assertEquals("content", response.getContentAsString());
+    assertEquals("attachment; filename=\"sample.pdf\"",
+        response.getHeader("Content-Disposition"));
+  }
+
+  @Test
+  public void testHandle_downloadUnsafeName() throws Exception {
+    File file = new File("target/report-job-controller-test.pdf");
+    OutputStream output = new FileOutputStream(file);
+    try {
+      output.write("content".getBytes());
+    } finally {
+      output.close();
+    }
+    ReportJob job = createMock(ReportJob.class);
+    expect(job.getStatus()).andReturn(ReportJobStatus.DONE).anyTimes();
+    expect(job.getResult()).andReturn(file).anyTimes();
+    expect(job.getReportName()).andReturn("a\"b\r\nSet-Cookie: x").anyTimes();
+    expect(job.getReportType()).andReturn(ReportType.PDF).anyTimes();
+    replay(job);
+    expect(command.execute()).andReturn(job);
+    expect(command.isCancel()).andReturn(false).anyTimes();
+    expect(command.isDownload()).andReturn(true).anyTimes();
+    replay(command);
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    controller.handle(new MockHttpServletRequest(), response, command,
+        new BindException(command, "command"));
+
+    assertEquals("attachment; filename=\"a_b__Set-Cookie_ x.pdf\"",
+        response.getHeader("Content-Disposition"));
+  }
+
+  @Test
+  public void testHandle_cancelWithGet() throws Exception {
+    expect(command.isCancel()).andReturn(true).anyTimes();
+    replay(command);
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ModelAndView mav = controller.handle(new MockHttpServletRequest("GET",
+          "/reportJob.do"), response, command, new BindException(command,
+          "command"));
+
+    assertNull(mav);
+    assertEquals(405, response.getStatus());
+    // The command was not executed.
+    verify(command);
+  }
+
+  @Test
+  public void testHandle_downloadNotFinished() throws Exception {
+    ReportJob job = createJob(ReportJobStatus.QUEUED, null);
+    expect(command.execute()).andReturn(job);
+    expect(command.isCancel()).andReturn(false).anyTimes();
+    expect(command.isDownload()).andReturn(true).anyTimes();
+    replay(command);
+
+    ModelAndView mav = controller.handle(new MockHttpServletRequest(),
+        new MockHttpServletResponse(), command, new BindException(command,
+          "command"));
+
+    assertEquals("reportJob", mav.getViewName());
+  }
+}
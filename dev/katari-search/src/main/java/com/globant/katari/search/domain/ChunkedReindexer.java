@@ -0,0 +1,524 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.search.domain;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.hibernate.EntityMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.NullableType;
+
+import org.compass.core.Compass;
+import org.compass.core.CompassSession;
+import org.compass.core.CompassTransaction;
+
+/** Recreates the search index in small batches, reporting its progress.
+ *
+ * Each class adapted by a SearchAdapter is read from the database in batches
+ * of batchSize entities, ordered by id. Each batch is indexed in its own
+ * compass transaction and the hibernate session is cleared after each batch,
+ * so the memory used does not depend on the number of entities. The classes
+ * are indexed in parallel, in up to threads threads.
+ *
+ * After each batch, the last indexed id of the class is written to a
+ * checkpoint file. If a reindex is interrupted, the next one resumes from the
+ * checkpoint instead of starting again. The checkpoint is removed when the
+ * reindex finishes successfully. A class whose id cannot be converted to and
+ * from a string is restarted from the beginning.
+ *
+ * A reindex that does not resume first removes the class from the index, so
+ * the entities of a class may be missing from the search results while the
+ * class is being reindexed.
+ *
+ * This class is thread safe, but only one reindex runs at a time.
+ */
+public class ChunkedReindexer {
+
+  /** The class logger.
+   */
+  private static Logger log = LoggerFactory.getLogger(ChunkedReindexer.class);
+
+  /** The default number of entities indexed in each batch.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  /** The default maximum number of classes indexed in parallel.
+   */
+  public static final int DEFAULT_THREADS = 4;
+
+  /** The suffix of the checkpoint property that marks a class as done.
+   */
+  private static final String DONE = ".done";
+
+  /** The suffix of the checkpoint property with the number of indexed
+   * entities of a class.
+   */
+  private static final String PROCESSED = ".processed";
+
+  /** The compass instance used to update the index, never null.
+   */
+  private final Compass compass;
+
+  /** The hibernate session factory used to read the entities, never null.
+   */
+  private final SessionFactory sessionFactory;
+
+  /** The classes to reindex, never null.
+   */
+  private final List<Class<?>> indexedClasses = new ArrayList<Class<?>>();
+
+  /** The checkpoint file, never null.
+   */
+  private final File checkpointFile;
+
+  /** The checkpoint, written to checkpointFile after each batch.
+   *
+   * Access to this object must be synchronized on it. It is never null.
+   */
+  private final Properties checkpoint = new Properties();
+
+  /** The number of entities indexed in each batch.
+   */
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  /** The maximum number of classes indexed in parallel.
+   */
+  private int threads = DEFAULT_THREADS;
+
+  /** The progress of each class in the current or last reindex, never null.
+   *
+   * It is replaced at the beginning of each reindex.
+   */
+  private volatile Map<Class<?>, ClassProgress> progress
+    = new LinkedHashMap<Class<?>, ClassProgress>();
+
+  /** Whether a reindex is running.
+   */
+  private volatile boolean running = false;
+
+  /** Creates a new reindexer.
+   *
+   * @param theCompass the compass instance used to update the index. It
+   * cannot be null.
+   *
+   * @param theSessionFactory the session factory used to read the entities.
+   * It cannot be null.
+   *
+   * @param adapters the search adapters. The classes adapted by them are
+   * reindexed. It cannot be null.
+   *
+   * @param theCheckpointFile the name of the file where the position of the
+   * reindex is saved. It cannot be null.
+   */
+  public ChunkedReindexer(final Compass theCompass,
+      final SessionFactory theSessionFactory,
+      final List<SearchAdapter> adapters, final String theCheckpointFile) {
+    Validate.notNull(theCompass, "The compass instance cannot be null.");
+    Validate.notNull(theSessionFactory, "The session factory cannot be null.");
+    Validate.notNull(adapters, "The adapters cannot be null.");
+    Validate.notNull(theCheckpointFile, "The checkpoint file cannot be null.");
+    compass = theCompass;
+    sessionFactory = theSessionFactory;
+    for (SearchAdapter adapter : adapters) {
+      if (!indexedClasses.contains(adapter.getAdaptedClass())) {
+        indexedClasses.add(adapter.getAdaptedClass());
+      }
+    }
+    checkpointFile = new File(theCheckpointFile);
+  }
+
+  /** Sets the number of entities indexed in each batch.
+   *
+   * @param size the batch size. It must be greater than 0. It is
+   * DEFAULT_BATCH_SIZE by default.
+   */
+  public void setBatchSize(final int size) {
+    Validate.isTrue(size > 0, "The batch size must be greater than 0.");
+    batchSize = size;
+  }
+
+  /** Sets the maximum number of classes indexed in parallel.
+   *
+   * @param theThreads the number of threads. It must be greater than 0. It
+   * is DEFAULT_THREADS by default.
+   */
+  public void setThreads(final int theThreads) {
+    Validate.isTrue(theThreads > 0, "The number of threads must be positive.");
+    threads = theThreads;
+  }
+
+  /** Recreates the index, resuming an interrupted reindex if there is a
+   * checkpoint.
+   *
+   * If indexing a class fails, the other classes are still indexed, the
+   * checkpoint is kept and the first failure is thrown at the end.
+   */
+  public void reindex() {
+    synchronized (this) {
+      if (running) {
+        throw new IllegalStateException("A reindex is already running.");
+      }
+      running = true;
+    }
+    try {
+      loadCheckpoint();
+      Map<Class<?>, ClassProgress> current;
+      current = new LinkedHashMap<Class<?>, ClassProgress>();
+      for (Class<?> entityClass : indexedClasses) {
+        current.put(entityClass, createProgress(entityClass));
+      }
+      progress = current;
+      runAll(current);
+      checkpointFile.delete();
+      log.info("Reindex finished");
+    } finally {
+      running = false;
+    }
+  }
+
+  /** Indexes all the classes in parallel.
+   *
+   * @param current the progress of each class. It cannot be null.
+   */
+  private void runAll(final Map<Class<?>, ClassProgress> current) {
+    int poolSize = Math.max(1, Math.min(threads, current.size()));
+    ExecutorService executor = Executors.newFixedThreadPool(poolSize,
+        new ThreadFactory() {
+          public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "katari-search-reindex");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (final ClassProgress classProgress : current.values()) {
+        results.add(executor.submit(new Callable<Void>() {
+          public Void call() {
+            reindex(classProgress);
+            return null;
+          }
+        }));
+      }
+      RuntimeException failure = null;
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          log.error("Error reindexing", e.getCause());
+          if (failure == null) {
+            failure = new RuntimeException("Error reindexing, the next"
+                + " reindex will resume from the last checkpoint.",
+                e.getCause());
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Interrupted while reindexing.", e);
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Creates the progress of a class, counting its entities and restoring
+   * its position from the checkpoint.
+   *
+   * @param entityClass the class. It cannot be null.
+   *
+   * @return the progress of the class, never null.
+   */
+  private ClassProgress createProgress(final Class<?> entityClass) {
+    ClassMetadata metadata = sessionFactory.getClassMetadata(entityClass);
+    Validate.notNull(metadata, "The class " + entityClass.getName()
+        + " is not mapped in hibernate.");
+    ClassProgress classProgress = new ClassProgress(entityClass, metadata);
+    Session session = sessionFactory.openSession();
+    try {
+      Number count = (Number) session.createQuery("select count(*) from "
+          + metadata.getEntityName()).uniqueResult();
+      classProgress.total = count.longValue();
+    } finally {
+      session.close();
+    }
+    String name = entityClass.getName();
+    synchronized (checkpoint) {
+      classProgress.done = checkpoint.getProperty(name + DONE) != null;
+      String lastId = checkpoint.getProperty(name);
+      if (lastId != null
+          && metadata.getIdentifierType() instanceof NullableType) {
+        classProgress.lastId = (Serializable) ((NullableType)
+            metadata.getIdentifierType()).fromStringValue(lastId);
+      }
+      if (classProgress.done || classProgress.lastId != null) {
+        String processed = checkpoint.getProperty(name + PROCESSED, "0");
+        classProgress.processed.set(Long.parseLong(processed));
+      }
+    }
+    return classProgress;
+  }
+
+  /** Indexes all the entities of a class, starting after the last indexed
+   * id.
+   *
+   * @param classProgress the progress of the class. It cannot be null.
+   */
+  private void reindex(final ClassProgress classProgress) {
+    String name = classProgress.entityClass.getName();
+    if (classProgress.done) {
+      log.debug("Skipping {}, already indexed", name);
+      return;
+    }
+    if (classProgress.lastId == null) {
+      log.debug("Removing {} from the index", name);
+      CompassSession compassSession = compass.openSession();
+      try {
+        CompassTransaction transaction;
+        transaction = compassSession.beginLocalTransaction();
+        compassSession.delete(compassSession.queryBuilder().matchAll()
+            .setTypes(classProgress.entityClass));
+        transaction.commit();
+      } finally {
+        compassSession.close();
+      }
+    } else {
+      log.info("Resuming {} after id {}", name, classProgress.lastId);
+    }
+    ClassMetadata metadata = classProgress.metadata;
+    String idProperty = metadata.getIdentifierPropertyName();
+    Session session = sessionFactory.openSession();
+    session.setFlushMode(FlushMode.MANUAL);
+    try {
+      List<?> entities;
+      do {
+        StringBuilder hql = new StringBuilder("from ");
+        hql.append(metadata.getEntityName()).append(" e");
+        if (classProgress.lastId != null) {
+          hql.append(" where e.").append(idProperty).append(" > :lastId");
+        }
+        hql.append(" order by e.").append(idProperty);
+        Query query = session.createQuery(hql.toString());
+        if (classProgress.lastId != null) {
+          query.setParameter("lastId", classProgress.lastId);
+        }
+        query.setMaxResults(batchSize);
+        entities = query.list();
+        if (!entities.isEmpty()) {
+          indexBatch(entities);
+          Object last = entities.get(entities.size() - 1);
+          classProgress.lastId = metadata.getIdentifier(last,
+              EntityMode.POJO);
+          classProgress.processed.addAndGet(entities.size());
+          saveCheckpoint(classProgress);
+        }
+        session.clear();
+      } while (entities.size() == batchSize);
+    } finally {
+      session.close();
+    }
+    classProgress.done = true;
+    saveCheckpoint(classProgress);
+    log.debug("Finished reindexing {}", name);
+  }
+
+  /** Indexes a batch of entities in one compass transaction.
+   *
+   * @param entities the entities. It cannot be null.
+   */
+  private void indexBatch(final List<?> entities) {
+    CompassSession compassSession = compass.openSession();
+    CompassTransaction transaction = null;
+    try {
+      transaction = compassSession.beginLocalTransaction();
+      for (Object entity : entities) {
+        compassSession.save(entity);
+      }
+      transaction.commit();
+    } catch (RuntimeException e) {
+      if (transaction != null) {
+        transaction.rollback();
+      }
+      throw e;
+    } finally {
+      compassSession.close();
+    }
+  }
+
+  /** Loads the checkpoint of the last interrupted reindex, if any.
+   */
+  private void loadCheckpoint() {
+    synchronized (checkpoint) {
+      checkpoint.clear();
+      if (!checkpointFile.exists()) {
+        return;
+      }
+      log.info("Resuming reindex from {}", checkpointFile);
+      try {
+        InputStream input = new FileInputStream(checkpointFile);
+        try {
+          checkpoint.load(input);
+        } finally {
+          input.close();
+        }
+      } catch (IOException e) {
+        log.warn("Unable to read " + checkpointFile + ", starting over.", e);
+        checkpoint.clear();
+      }
+    }
+  }
+
+  /** Records the position of a class and writes the checkpoint file.
+   *
+   * @param classProgress the progress of the class. It cannot be null.
+   */
+  private void saveCheckpoint(final ClassProgress classProgress) {
+    String name = classProgress.entityClass.getName();
+    synchronized (checkpoint) {
+      if (classProgress.done) {
+        checkpoint.setProperty(name + DONE, "true");
+      }
+      if (classProgress.lastId != null
+          && classProgress.metadata.getIdentifierType()
+          instanceof NullableType) {
+        checkpoint.setProperty(name, ((NullableType) classProgress.metadata
+              .getIdentifierType()).toString(classProgress.lastId));
+      }
+      checkpoint.setProperty(name + PROCESSED,
+          Long.toString(classProgress.processed.get()));
+      try {
+        File parent = checkpointFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+          parent.mkdirs();
+        }
+        OutputStream output = new FileOutputStream(checkpointFile);
+        try {
+          checkpoint.store(output, "Search reindex checkpoint");
+        } finally {
+          output.close();
+        }
+      } catch (IOException e) {
+        log.warn("Unable to write " + checkpointFile
+            + ", the reindex will not be resumable.", e);
+      }
+    }
+  }
+
+  /** Indicates if a reindex is running.
+   *
+   * @return true if a reindex is running.
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /** Returns the progress of the running reindex.
+   *
+   * @return a number between 0 and 100, 0 if no reindex is running.
+   */
+  public int getProgressPercent() {
+    if (!running) {
+      return 0;
+    }
+    long total = 0;
+    long processed = 0;
+    for (ClassProgress classProgress : progress.values()) {
+      total += classProgress.total;
+      processed += classProgress.processed.get();
+    }
+    if (total == 0) {
+      return 0;
+    }
+    return (int) Math.min(100, processed * 100 / total);
+  }
+
+  /** Returns the progress of each class in the current or last reindex.
+   *
+   * @return a map of class name to a description of the progress, for
+   * example '150 of 1000'. Never returns null.
+   */
+  public Map<String, String> getClassProgress() {
+    Map<String, String> result = new LinkedHashMap<String, String>();
+    for (ClassProgress classProgress : progress.values()) {
+      StringBuilder description = new StringBuilder();
+      description.append(classProgress.processed.get());
+      description.append(" of ").append(classProgress.total);
+      if (classProgress.done) {
+        description.append(", done");
+      }
+      result.put(classProgress.entityClass.getSimpleName(),
+          description.toString());
+    }
+    return result;
+  }
+
+  /** The progress of the reindex of a class.
+   */
+  private static final class ClassProgress {
+
+    /** The class being reindexed, never null.
+     */
+    private final Class<?> entityClass;
+
+    /** The hibernate metadata of the class, never null.
+     */
+    private final ClassMetadata metadata;
+
+    /** The number of entities of the class when the reindex started.
+     */
+    private volatile long total = 0;
+
+    /** The number of entities indexed so far, never null.
+     */
+    private final AtomicLong processed = new AtomicLong();
+
+    /** The id of the last indexed entity, null if none.
+     */
+    private volatile Serializable lastId = null;
+
+    /** Whether all the entities of the class were indexed.
+     */
+    private volatile boolean done = false;
+
+    /** Creates the progress of a class.
+     *
+     * @param theEntityClass the class. It cannot be null.
+     *
+     * @param theMetadata the hibernate metadata of the class. It cannot be
+     * null.
+     */
+    private ClassProgress(final Class<?> theEntityClass,
+        final ClassMetadata theMetadata) {
+      entityClass = theEntityClass;
+      metadata = theMetadata;
+    }
+  }
+}
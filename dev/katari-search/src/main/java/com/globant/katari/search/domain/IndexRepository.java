@@ -8,7 +8,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.compass.core.Compass;
 // import org.compass.core.CompassSession;
@@ -20,12 +24,26 @@ import org.compass.core.support.search.CompassSearchCommand;
 import org.compass.core.support.search.CompassSearchHelper;
 import org.compass.gps.CompassGps;
 
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import com.globant.katari.core.cache.LruCache;
 import com.globant.katari.core.security.SecureUrlAccessHelper;
+import com.globant.katari.core.web.ModuleContextRegistrar;
 
 /** Provides the mechanism to find objects through a reverse text index.
  *
  * This is the main entry point to find objects indexed through compass.
  *
+ * The alias clause that restricts the query to the objects the user can see
+ * is cached by authority set. The results of the queries are also cached for
+ * a short time (resultTimeToLive), by normalized query, page and authority
+ * set. Both caches are discarded when the module configuration changes (see
+ * setModuleContextRegistrar). Call indexChanged after the whole index is
+ * rebuilt to discard the cached results. The changes indexed incrementally
+ * are not announced: they show up in the cached results after at most
+ * resultTimeToLive.
+ *
  * @author nira.amit@globant.com
  *
  * TODO Document the syntax of the query.
@@ -36,6 +54,18 @@ public class IndexRepository {
    */
   private static Logger log = LoggerFactory.getLogger(IndexRepository.class);
 
+  /** The default number of cached query results.
+   */
+  public static final int DEFAULT_RESULT_CACHE_SIZE = 500;
+
+  /** The default time, in milliseconds, that a query result is cached.
+   */
+  public static final long DEFAULT_RESULT_TIME_TO_LIVE = 30000;
+
+  /** The maximum number of authority sets with a cached alias clause.
+   */
+  private static final int ALIAS_CACHE_SIZE = 100;
+
   /** The GPS device for the compass object.
    *
    * It is never null.
@@ -68,6 +98,56 @@ public class IndexRepository {
    */
   private final SecureUrlAccessHelper urlAccessHelper;
 
+  /** The adapters, by adapted class.
+   *
+   * It is never null.
+   */
+  private final Map<Class<?>, SearchAdapter> adaptersByClass
+    = new HashMap<Class<?>, SearchAdapter>();
+
+  /** The compass alias of each adapted class, found on first use.
+   *
+   * It is never null.
+   */
+  private final Map<Class<?>, String> aliases
+    = new ConcurrentHashMap<Class<?>, String>();
+
+  /** The alias clause that restricts the query to the classes the users can
+   * see, by authority set.
+   *
+   * The clause is empty if the users cannot see any class. It is never null.
+   */
+  private final LruCache<String, String> aliasClauses
+    = new LruCache<String, String>(ALIAS_CACHE_SIZE);
+
+  /** The cached query results, by authority set, page and normalized query.
+   *
+   * It is null if the result cache is disabled.
+   */
+  private LruCache<String, CachedResult> results
+    = new LruCache<String, CachedResult>(DEFAULT_RESULT_CACHE_SIZE);
+
+  /** The time, in milliseconds, that a query result is cached.
+   */
+  private long resultTimeToLive = DEFAULT_RESULT_TIME_TO_LIVE;
+
+  /** A number that changes each time the index is updated.
+   */
+  private volatile long indexVersion = 0;
+
+  /** The registrar that holds the module configuration, used to discard the
+   * cached alias clauses and results when the role configuration changes.
+   *
+   * It is null if not set, in that case the alias clauses are never
+   * discarded.
+   */
+  private ModuleContextRegistrar contextRegistrar = null;
+
+  /** The configuration version of the registrar when the alias clauses were
+   * cached.
+   */
+  private volatile long configurationVersion = 0;
+
   /** Constructor, builds an index repository.
    *
    * @param gps the compass gps implementation, it cannot be null.
@@ -99,6 +179,58 @@ public class IndexRepository {
     compass = theCompass;
     adapters = theAdapters;
     urlAccessHelper = theUrlAccessHelper;
+    for (SearchAdapter adapter : adapters) {
+      adaptersByClass.put(adapter.getAdaptedClass(), adapter);
+    }
+  }
+
+  /** Sets the number of query results to cache.
+   *
+   * @param size the maximum number of cached results, 0 to disable the
+   * result cache. It cannot be negative. It is DEFAULT_RESULT_CACHE_SIZE by
+   * default.
+   */
+  public void setResultCacheSize(final int size) {
+    Validate.isTrue(size >= 0, "The cache size cannot be negative.");
+    if (size == 0) {
+      results = null;
+    } else {
+      results = new LruCache<String, CachedResult>(size);
+    }
+  }
+
+  /** Sets the time that a query result is cached.
+   *
+   * @param milliseconds the time to live of the results, in milliseconds. It
+   * must be greater than 0. It is DEFAULT_RESULT_TIME_TO_LIVE by default.
+   */
+  public void setResultTimeToLive(final long milliseconds) {
+    Validate.isTrue(milliseconds > 0, "The time to live must be positive.");
+    resultTimeToLive = milliseconds;
+  }
+
+  /** Sets the module context registrar, used to discard the cached alias
+   * clauses and results when the module configuration changes.
+   *
+   * @param theRegistrar the registrar. It cannot be null.
+   */
+  public void setModuleContextRegistrar(
+      final ModuleContextRegistrar theRegistrar) {
+    Validate.notNull(theRegistrar, "The registrar cannot be null.");
+    contextRegistrar = theRegistrar;
+    configurationVersion = theRegistrar.getConfigurationVersion();
+  }
+
+  /** Discards the cached query results.
+   *
+   * This must be called each time the whole index is rebuilt.
+   */
+  public void indexChanged() {
+    ++indexVersion;
+    LruCache<String, CachedResult> cache = results;
+    if (cache != null) {
+      cache.clear();
+    }
   }
 
   /** Recreate the index using the database information.
@@ -113,6 +245,7 @@ public class IndexRepository {
       throw new RuntimeException("Compass should have been started.");
     }
     compassGps.index();
+    indexChanged();
     log.trace("Leaving reIndex");
   }
 
@@ -133,6 +266,78 @@ public class IndexRepository {
       return new SearchResult();
     }
 
+    checkConfigurationVersion();
+
+    Authentication authentication;
+    authentication = SecurityContextHolder.getContext().getAuthentication();
+    String authoritiesKey = null;
+    if (authentication != null) {
+      authoritiesKey = SecureUrlAccessHelper.buildAuthoritiesKey(
+          authentication);
+    }
+
+    LruCache<String, CachedResult> cache = results;
+    String resultKey = null;
+    long version = indexVersion;
+    if (cache != null && authoritiesKey != null) {
+      resultKey = authoritiesKey + "\n" + pageNumber + "\n"
+        + query.trim().replaceAll("\\s+", " ");
+      CachedResult cached = cache.get(resultKey);
+      if (cached != null && cached.isValid(version)) {
+        log.trace("Leaving find with a cached result");
+        return cached.result;
+      }
+    }
+
+    String viewUrls = null;
+    if (authoritiesKey != null) {
+      viewUrls = aliasClauses.get(authoritiesKey);
+    }
+    if (viewUrls == null) {
+      viewUrls = buildAliasClause();
+      if (authoritiesKey != null) {
+        aliasClauses.put(authoritiesKey, viewUrls);
+      }
+    }
+
+    SearchResult result;
+    if (viewUrls.length() == 0) {
+      // There is nothing I have access to.
+      log.trace("Leaving find with no results");
+      result = new SearchResult();
+    } else {
+      result = search(query, viewUrls, pageNumber);
+    }
+
+    if (resultKey != null) {
+      cache.put(resultKey, new CachedResult(result, version));
+    }
+    return result;
+  }
+
+  /** Discards the cached alias clauses and results if the module
+   * configuration changed since they were cached.
+   */
+  private void checkConfigurationVersion() {
+    if (contextRegistrar == null) {
+      return;
+    }
+    long version = contextRegistrar.getConfigurationVersion();
+    if (version != configurationVersion) {
+      log.debug("Module configuration changed, clearing the search caches");
+      aliasClauses.clear();
+      indexChanged();
+      configurationVersion = version;
+    }
+  }
+
+  /** Builds the clause that restricts the query to the classes that the
+   * current user can see.
+   *
+   * @return the alias clause, or an empty string if the user cannot see any
+   * class. Never returns null.
+   */
+  private String buildAliasClause() {
     log.debug("Building query ...");
     StringBuilder viewUrls = new StringBuilder();
     for (SearchAdapter adapter: adapters) {
@@ -144,23 +349,43 @@ public class IndexRepository {
           viewUrls.append(" OR ");
         }
         viewUrls.append("(alias:");
-
-        String alias = ((InternalCompass) compass).getMapping()
-          .findRootMappingByClass(adapter.getAdaptedClass()).getAlias();
-
-        viewUrls.append(alias);
+        viewUrls.append(getAlias(adapter.getAdaptedClass()));
         viewUrls.append(")");
       }
     }
+    return viewUrls.toString();
+  }
 
-    if (viewUrls.length() == 0) {
-      // There is nothing I have access to.
-      log.trace("Leaving find with no results");
-      return new SearchResult();
+  /** Returns the compass alias of a class.
+   *
+   * @param adaptedClass the class. It cannot be null.
+   *
+   * @return the alias, never null.
+   */
+  private String getAlias(final Class<?> adaptedClass) {
+    String alias = aliases.get(adaptedClass);
+    if (alias == null) {
+      alias = ((InternalCompass) compass).getMapping()
+        .findRootMappingByClass(adaptedClass).getAlias();
+      aliases.put(adaptedClass, alias);
     }
+    return alias;
+  }
 
+  /** Searches the index.
+   *
+   * @param query the query entered by the user. It cannot be null.
+   *
+   * @param viewUrls the alias clause. It cannot be empty.
+   *
+   * @param pageNumber the page to get. 0 is the first page.
+   *
+   * @return the result of the query in the index. It never returns null.
+   */
+  private SearchResult search(final String query, final String viewUrls,
+      final int pageNumber) {
     // TODO: Check if the parens are balanced in query !!!
-    String refinedQuery = "(" + query + ") AND (" + viewUrls.toString() + ")";
+    String refinedQuery = "(" + query + ") AND (" + viewUrls + ")";
 
     log.debug("Executing query {}.", refinedQuery);
 
@@ -177,7 +402,7 @@ public class IndexRepository {
      */
     if (compassResults.getTotalHits() != 0) {
       result = new SearchResult(compassResults.getPages().length,
-          convert(compassResults));
+          Collections.unmodifiableList(convert(compassResults)));
       log.trace("Leaving find with {} hits", compassResults.getTotalHits());
       return result;
     } else {
@@ -287,12 +512,52 @@ public class IndexRepository {
   private SearchResultElement convert(final Object object, final float score) {
     Validate.notNull(object, "The object cannot be null");
 
-    for (SearchAdapter adapter : adapters) {
-      if (object.getClass().equals(adapter.getAdaptedClass())) {
-        return adapter.convert(object, score);
-      }
+    SearchAdapter adapter = adaptersByClass.get(object.getClass());
+    if (adapter == null) {
+      throw new RuntimeException("Could not convert object.");
+    }
+    return adapter.convert(object, score);
+  }
+
+  /** A query result in the cache.
+   */
+  private final class CachedResult {
+
+    /** The result, never null.
+     */
+    private final SearchResult result;
+
+    /** The version of the index the result was obtained from.
+     */
+    private final long version;
+
+    /** The time the result was obtained, in milliseconds.
+     */
+    private final long createdAt = System.currentTimeMillis();
+
+    /** Creates a cached result.
+     *
+     * @param theResult the result. It cannot be null.
+     *
+     * @param theVersion the version of the index the result was obtained
+     * from.
+     */
+    private CachedResult(final SearchResult theResult, final long theVersion) {
+      result = theResult;
+      version = theVersion;
+    }
+
+    /** Indicates if the result can still be used.
+     *
+     * @param currentVersion the current version of the index.
+     *
+     * @return true if the index did not change and the result did not
+     * expire.
+     */
+    private boolean isValid(final long currentVersion) {
+      return version == currentVersion
+        && System.currentTimeMillis() - createdAt < resultTimeToLive;
     }
-    throw new RuntimeException("Could not convert object.");
   }
 }
 
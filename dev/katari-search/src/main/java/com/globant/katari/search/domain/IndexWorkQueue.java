@@ -0,0 +1,580 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.search.domain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import org.compass.core.Compass;
+import org.compass.core.CompassSession;
+import org.compass.core.CompassTransaction;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support
+  .TransactionSynchronizationAdapter;
+import org.springframework.transaction.support
+  .TransactionSynchronizationManager;
+
+/** A queue of pending changes to the search index.
+ *
+ * Instead of updating the index in the same transaction that modifies a
+ * searchable entity, the modification is recorded in this queue and a
+ * background worker applies the pending changes to the index in batches.
+ *
+ * Changes added inside a spring transaction are only queued after the
+ * transaction commits, and are discarded if it rolls back. Multiple changes
+ * to the same entity are collapsed in one: the worker loads the current
+ * state of the entity from the database and indexes it, or removes it from
+ * the index if it no longer exists.
+ *
+ * If a batch fails, for example because the index is locked, its changes go
+ * back to the queue and are retried on the next flush, up to a maximum number
+ * of attempts. Only then they are discarded and counted as failed.
+ *
+ * Only entities whose class is adapted by a SearchAdapter are queued. If the
+ * index gets out of sync (for example, because a change was discarded), the
+ * full reindex in IndexRepository is still available.
+ *
+ * Call start to start the background worker, and destroy to stop it. If the
+ * queue is not asynchronous, changes are indexed as soon as the transaction
+ * commits, in the committing thread.
+ *
+ * This class is thread safe.
+ */
+public class IndexWorkQueue {
+
+  /** The class logger.
+   */
+  private static Logger log = LoggerFactory.getLogger(IndexWorkQueue.class);
+
+  /** The default maximum number of changes indexed in one compass
+   * transaction.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  /** The default number of milliseconds the worker waits for changes to
+   * accumulate before indexing them.
+   */
+  public static final long DEFAULT_INTERVAL = 1000;
+
+  /** The default number of times a change is tried before it is discarded.
+   */
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+  /** The compass instance used to update the index, never null.
+   */
+  private final Compass compass;
+
+  /** The hibernate session factory used to load the changed entities, never
+   * null.
+   */
+  private final SessionFactory sessionFactory;
+
+  /** The classes of the entities that are indexed through this queue, never
+   * null.
+   */
+  private final Set<Class<?>> indexedClasses = new HashSet<Class<?>>();
+
+  /** The pending changes, keyed by class name and id, in the order they were
+   * first queued, never null.
+   *
+   * Access to this map must be synchronized on itself.
+   */
+  private final Map<String, Work> pending = new LinkedHashMap<String, Work>();
+
+  /** The maximum number of changes indexed in one compass transaction.
+   */
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  /** The number of milliseconds the worker waits for changes to accumulate.
+   */
+  private long interval = DEFAULT_INTERVAL;
+
+  /** The number of times a change is tried before it is discarded.
+   */
+  private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+  /** Whether the changes are indexed by a background worker.
+   *
+   * If false, the changes are indexed in the thread that commits the
+   * transaction. It is true by default.
+   */
+  private boolean asynchronous = true;
+
+  /** The background worker, null if not started.
+   */
+  private Thread worker = null;
+
+  /** Whether the worker should stop.
+   */
+  private volatile boolean stopped = false;
+
+  /** The number of changes successfully applied to the index.
+   */
+  private final AtomicLong indexedCount = new AtomicLong();
+
+  /** The number of changes that could not be applied to the index.
+   */
+  private final AtomicLong failedCount = new AtomicLong();
+
+  /** The time, in milliseconds, that the last indexed change waited in the
+   * queue.
+   */
+  private volatile long lastLag = 0;
+
+  /** Creates a new index work queue.
+   *
+   * @param theCompass the compass instance used to update the index. It
+   * cannot be null.
+   *
+   * @param theSessionFactory the session factory used to load the entities to
+   * index. It cannot be null.
+   *
+   * @param adapters the search adapters. Only entities adapted by one of them
+   * are queued. It cannot be null.
+   */
+  public IndexWorkQueue(final Compass theCompass,
+      final SessionFactory theSessionFactory,
+      final List<SearchAdapter> adapters) {
+    Validate.notNull(theCompass, "The compass instance cannot be null.");
+    Validate.notNull(theSessionFactory, "The session factory cannot be null.");
+    Validate.notNull(adapters, "The adapters cannot be null.");
+    compass = theCompass;
+    sessionFactory = theSessionFactory;
+    for (SearchAdapter adapter : adapters) {
+      indexedClasses.add(adapter.getAdaptedClass());
+    }
+  }
+
+  /** Sets the maximum number of changes indexed in one compass transaction.
+   *
+   * @param size the batch size. It must be greater than 0. It is
+   * DEFAULT_BATCH_SIZE by default.
+   */
+  public void setBatchSize(final int size) {
+    Validate.isTrue(size > 0, "The batch size must be greater than 0.");
+    batchSize = size;
+  }
+
+  /** Sets the time that the worker waits for changes to accumulate before
+   * indexing them.
+   *
+   * @param milliseconds the interval in milliseconds. It must be greater than
+   * 0. It is DEFAULT_INTERVAL by default.
+   */
+  public void setInterval(final long milliseconds) {
+    Validate.isTrue(milliseconds > 0, "The interval must be greater than 0.");
+    interval = milliseconds;
+  }
+
+  /** Sets the number of times a change is tried before it is discarded.
+   *
+   * @param attempts the number of attempts. It must be greater than 0. It is
+   * DEFAULT_MAX_ATTEMPTS by default.
+   */
+  public void setMaxAttempts(final int attempts) {
+    Validate.isTrue(attempts > 0, "The max attempts must be greater than 0.");
+    maxAttempts = attempts;
+  }
+
+  /** Sets whether the changes are indexed by a background worker.
+   *
+   * @param isAsynchronous false to index the changes in the thread that
+   * commits the transaction. It is true by default.
+   */
+  public void setAsynchronous(final boolean isAsynchronous) {
+    asynchronous = isAsynchronous;
+  }
+
+  /** Indicates if the entities of the class are indexed through this queue.
+   *
+   * @param entityClass the class of the entity. It cannot be null.
+   *
+   * @return true if the class is adapted by a SearchAdapter.
+   */
+  public boolean isIndexed(final Class<?> entityClass) {
+    Validate.notNull(entityClass, "The entity class cannot be null.");
+    return indexedClasses.contains(entityClass);
+  }
+
+  /** Queues a change to an entity.
+   *
+   * If there is a spring transaction in progress, the change is queued when
+   * the transaction commits.
+   *
+   * @param entityClass the class of the entity. It cannot be null.
+   *
+   * @param id the id of the entity. It cannot be null.
+   *
+   * @param deleted true if the entity was deleted.
+   */
+  public void add(final Class<?> entityClass, final Serializable id,
+      final boolean deleted) {
+    Validate.notNull(entityClass, "The entity class cannot be null.");
+    Validate.notNull(id, "The entity id cannot be null.");
+    Work work = new Work(entityClass, id, deleted);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionBatch batch;
+      batch = (TransactionBatch) TransactionSynchronizationManager
+        .getResource(this);
+      if (batch == null) {
+        batch = new TransactionBatch();
+        TransactionSynchronizationManager.bindResource(this, batch);
+        TransactionSynchronizationManager.registerSynchronization(batch);
+      }
+      batch.works.add(work);
+    } else {
+      List<Work> works = new ArrayList<Work>();
+      works.add(work);
+      enqueue(works);
+    }
+  }
+
+  /** Adds the changes to the pending changes.
+   *
+   * @param works the changes. It cannot be null.
+   */
+  private void enqueue(final List<Work> works) {
+    synchronized (pending) {
+      for (Work work : works) {
+        Work previous = pending.get(work.key);
+        if (previous == null) {
+          pending.put(work.key, work);
+        } else {
+          // Keeps the position and the time of the first change.
+          previous.deleted = work.deleted;
+        }
+      }
+      if (pending.size() >= batchSize) {
+        pending.notifyAll();
+      }
+    }
+    if (!asynchronous) {
+      flush();
+    }
+  }
+
+  /** Puts back in the queue the changes of a failed batch, before the
+   * pending ones.
+   *
+   * If an entity changed again in the meantime, the failed change keeps its
+   * position and time, like in enqueue.
+   *
+   * @param works the changes to retry. It cannot be null.
+   */
+  private void requeue(final List<Work> works) {
+    synchronized (pending) {
+      Map<String, Work> queue = new LinkedHashMap<String, Work>();
+      for (Work work : works) {
+        queue.put(work.key, work);
+      }
+      for (Work work : pending.values()) {
+        Work previous = queue.get(work.key);
+        if (previous == null) {
+          queue.put(work.key, work);
+        } else {
+          previous.deleted = work.deleted;
+        }
+      }
+      pending.clear();
+      pending.putAll(queue);
+    }
+  }
+
+  /** Indexes all the pending changes in the calling thread.
+   *
+   * It stops at the first failed batch, its changes are retried on the next
+   * flush.
+   */
+  public void flush() {
+    drain();
+  }
+
+  /** Indexes the pending changes until the queue is empty or a batch fails.
+   *
+   * @return false if a batch failed.
+   */
+  private boolean drain() {
+    int indexed;
+    do {
+      indexed = indexBatch();
+      log.trace("Indexed {} changes", indexed);
+    } while (indexed > 0);
+    return indexed == 0;
+  }
+
+  /** Indexes the next batch of pending changes.
+   *
+   * If the batch fails, its changes go back to the queue, unless they were
+   * already tried maxAttempts times. In that case they are discarded, and a
+   * full reindex brings the index back in sync.
+   *
+   * @return the number of changes indexed, 0 if the queue was empty, or -1 if
+   * the batch failed.
+   */
+  synchronized int indexBatch() {
+    List<Work> batch = new ArrayList<Work>();
+    synchronized (pending) {
+      Iterator<Work> works = pending.values().iterator();
+      while (works.hasNext() && batch.size() < batchSize) {
+        batch.add(works.next());
+        works.remove();
+      }
+    }
+    if (batch.isEmpty()) {
+      return 0;
+    }
+    log.debug("Indexing {} changes", batch.size());
+    Session session = sessionFactory.openSession();
+    session.setFlushMode(FlushMode.MANUAL);
+    CompassSession compassSession = compass.openSession();
+    CompassTransaction transaction = null;
+    try {
+      transaction = compassSession.beginLocalTransaction();
+      for (Work work : batch) {
+        Object entity = null;
+        if (!work.deleted) {
+          entity = session.get(work.entityClass, work.id);
+        }
+        if (entity == null) {
+          compassSession.delete(work.entityClass, work.id);
+        } else {
+          compassSession.save(entity);
+        }
+      }
+      transaction.commit();
+      indexedCount.addAndGet(batch.size());
+      lastLag = System.currentTimeMillis() - batch.get(0).queuedAt;
+    } catch (RuntimeException e) {
+      if (transaction != null) {
+        transaction.rollback();
+      }
+      List<Work> retries = new ArrayList<Work>();
+      for (Work work : batch) {
+        work.attempts++;
+        if (work.attempts < maxAttempts) {
+          retries.add(work);
+        }
+      }
+      int discarded = batch.size() - retries.size();
+      if (discarded == 0) {
+        log.warn("Error indexing " + batch.size() + " changes, they will be"
+            + " retried.", e);
+      } else {
+        log.error("Error indexing " + batch.size() + " changes, " + discarded
+            + " were discarded, a reindex is needed to bring the index in"
+            + " sync.", e);
+        failedCount.addAndGet(discarded);
+      }
+      requeue(retries);
+      return -1;
+    } finally {
+      compassSession.close();
+      session.close();
+    }
+    return batch.size();
+  }
+
+  /** Starts the background worker.
+   *
+   * This does nothing if the queue is not asynchronous.
+   */
+  public synchronized void start() {
+    if (!asynchronous || worker != null) {
+      return;
+    }
+    log.debug("Starting the index worker");
+    stopped = false;
+    worker = new Thread(new Runnable() {
+      public void run() {
+        work();
+      }
+    }, "katari-search-indexer");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /** The body of the background worker.
+   *
+   * Waits for changes to accumulate and indexes them, until stopped.
+   */
+  private void work() {
+    // After a failure, waits before retrying even if the queue is full.
+    boolean failed = false;
+    while (!stopped) {
+      try {
+        synchronized (pending) {
+          if (!stopped && (failed || pending.size() < batchSize)) {
+            pending.wait(interval);
+          }
+        }
+        failed = !drain();
+      } catch (InterruptedException e) {
+        log.debug("Index worker interrupted");
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException e) {
+        log.error("Unexpected error in the index worker.", e);
+      }
+    }
+  }
+
+  /** Stops the background worker, indexing the remaining changes.
+   */
+  public void destroy() {
+    Thread current;
+    synchronized (this) {
+      current = worker;
+      worker = null;
+    }
+    if (current != null) {
+      log.debug("Stopping the index worker");
+      stopped = true;
+      synchronized (pending) {
+        pending.notifyAll();
+      }
+      try {
+        current.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+  }
+
+  /** Returns the number of changes waiting to be indexed.
+   *
+   * @return the queue depth.
+   */
+  public int getQueueDepth() {
+    synchronized (pending) {
+      return pending.size();
+    }
+  }
+
+  /** Returns how far behind the index is.
+   *
+   * @return the time, in milliseconds, that the oldest pending change has
+   * been waiting in the queue, or 0 if the queue is empty.
+   */
+  public long getIndexLag() {
+    synchronized (pending) {
+      if (pending.isEmpty()) {
+        return 0;
+      }
+      Work oldest = pending.values().iterator().next();
+      return System.currentTimeMillis() - oldest.queuedAt;
+    }
+  }
+
+  /** Returns the time that the last indexed change waited in the queue.
+   *
+   * @return the time in milliseconds, 0 if nothing was indexed yet.
+   */
+  public long getLastLag() {
+    return lastLag;
+  }
+
+  /** Returns the number of changes successfully applied to the index.
+   *
+   * @return the number of indexed changes.
+   */
+  public long getIndexedCount() {
+    return indexedCount.get();
+  }
+
+  /** Returns the number of changes that could not be applied to the index.
+   *
+   * @return the number of failed changes.
+   */
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  /** A change to an entity that must be reflected in the index.
+   */
+  private static final class Work {
+
+    /** The key that identifies the entity, never null.
+     */
+    private final String key;
+
+    /** The class of the entity, never null.
+     */
+    private final Class<?> entityClass;
+
+    /** The id of the entity, never null.
+     */
+    private final Serializable id;
+
+    /** Whether the entity was deleted.
+     */
+    private boolean deleted;
+
+    /** The number of failed attempts to index the change.
+     */
+    private int attempts = 0;
+
+    /** The time the change was created, in milliseconds.
+     */
+    private final long queuedAt = System.currentTimeMillis();
+
+    /** Creates a change.
+     *
+     * @param theEntityClass the class of the entity. It cannot be null.
+     *
+     * @param theId the id of the entity. It cannot be null.
+     *
+     * @param isDeleted whether the entity was deleted.
+     */
+    private Work(final Class<?> theEntityClass, final Serializable theId,
+        final boolean isDeleted) {
+      entityClass = theEntityClass;
+      id = theId;
+      deleted = isDeleted;
+      key = theEntityClass.getName() + "#" + theId;
+    }
+  }
+
+  /** The changes made in a transaction, queued when the transaction
+   * commits.
+   */
+  private final class TransactionBatch
+      extends TransactionSynchronizationAdapter {
+
+    /** The changes made in the transaction, never null.
+     */
+    private final List<Work> works = new ArrayList<Work>();
+
+    /** {@inheritDoc}
+     *
+     * Queues the changes if the transaction was committed.
+     */
+    @Override
+    public void afterCompletion(final int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(
+          IndexWorkQueue.this);
+      if (status == TransactionSynchronization.STATUS_COMMITTED) {
+        enqueue(works);
+      } else {
+        log.debug("Transaction not committed, discarding {} changes",
+            works.size());
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.search.integration;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.Validate;
+
+import org.hibernate.Hibernate;
+import org.hibernate.event.AbstractCollectionEvent;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostUpdateEvent;
+
+import org.compass.gps.device.hibernate.lifecycle.HibernateMirrorFilter;
+
+import com.globant.katari.search.domain.IndexWorkQueue;
+
+/** A compass mirror filter that sends the changes to searchable entities to
+ * the index work queue.
+ *
+ * Compass mirrors every hibernate insert, update and delete to the index in
+ * the same transaction. This filter intercepts the changes to the entities
+ * indexed through the IndexWorkQueue, queues them and tells compass to skip
+ * them. Changes to other entities are mirrored by compass as usual.
+ */
+public class QueueingMirrorFilter implements HibernateMirrorFilter {
+
+  /** The queue of pending changes to the index, never null.
+   */
+  private final IndexWorkQueue queue;
+
+  /** Creates a new filter.
+   *
+   * @param theQueue the queue that receives the changes. It cannot be null.
+   */
+  public QueueingMirrorFilter(final IndexWorkQueue theQueue) {
+    Validate.notNull(theQueue, "The index work queue cannot be null.");
+    queue = theQueue;
+  }
+
+  /** {@inheritDoc}
+   */
+  public boolean shouldFilterInsert(final PostInsertEvent event) {
+    return queue(event.getEntity(), event.getId(), false);
+  }
+
+  /** {@inheritDoc}
+   */
+  public boolean shouldFilterUpdate(final PostUpdateEvent event) {
+    return queue(event.getEntity(), event.getId(), false);
+  }
+
+  /** {@inheritDoc}
+   */
+  public boolean shouldFilterDelete(final PostDeleteEvent event) {
+    return queue(event.getEntity(), event.getId(), true);
+  }
+
+  /** {@inheritDoc}
+   *
+   * A change in a collection is queued as an update of its owner.
+   */
+  public boolean shouldFilterCollection(final AbstractCollectionEvent event) {
+    Object owner = event.getAffectedOwnerOrNull();
+    Serializable id = event.getAffectedOwnerIdOrNull();
+    if (owner == null || id == null) {
+      return false;
+    }
+    return queue(owner, id, false);
+  }
+
+  /** Queues the change if the entity is indexed through the queue.
+   *
+   * @param entity the changed entity. It cannot be null.
+   *
+   * @param id the id of the entity. It cannot be null.
+   *
+   * @param deleted true if the entity was deleted.
+   *
+   * @return true if the change was queued, so compass must not mirror it.
+   */
+  private boolean queue(final Object entity, final Serializable id,
+      final boolean deleted) {
+    Class<?> entityClass = Hibernate.getClass(entity);
+    if (!queue.isIndexed(entityClass)) {
+      return false;
+    }
+    queue.add(entityClass, id, deleted);
+    return true;
+  }
+}
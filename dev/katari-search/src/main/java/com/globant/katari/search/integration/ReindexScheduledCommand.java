@@ -6,10 +6,19 @@ import org.apache.commons.lang.Validate;
 import java.util.Map;
 import java.util.HashMap;
 
+import com.globant.katari.search.domain.ChunkedReindexer;
 import com.globant.katari.search.domain.IndexRepository;
+import com.globant.katari.search.domain.IndexWorkQueue;
 import com.globant.katari.quartz.domain.ScheduledCommand;
 
 /** Scheduled command that recreates the search index.
+ *
+ * The index is normally kept up to date by the IndexWorkQueue, so this is a
+ * fallback to bring it back in sync. The information of this command shows
+ * the state of the queue.
+ *
+ * If a ChunkedReindexer is provided, the reindex is done in batches with
+ * progress reporting, instead of the single compass gps index operation.
  */
 public class ReindexScheduledCommand implements ScheduledCommand {
 
@@ -19,6 +28,15 @@ public class ReindexScheduledCommand implements ScheduledCommand {
    */
   private IndexRepository indexRepository;
 
+  /** The queue of pending changes to the index, null if not available.
+   */
+  private IndexWorkQueue indexWorkQueue = null;
+
+  /** The reindexer that recreates the index in batches, null to use the index
+   * repository.
+   */
+  private ChunkedReindexer reindexer = null;
+
   /** Creates a command to schedule a reindex.
    *
    * @param repository the index repository. It cannot be null.
@@ -28,6 +46,39 @@ public class ReindexScheduledCommand implements ScheduledCommand {
     indexRepository = repository;
   }
 
+  /** Creates a command to schedule a reindex that also reports the state of
+   * the index work queue.
+   *
+   * @param repository the index repository. It cannot be null.
+   *
+   * @param queue the queue of pending changes to the index. It cannot be
+   * null.
+   */
+  public ReindexScheduledCommand(final IndexRepository repository,
+      final IndexWorkQueue queue) {
+    this(repository);
+    Validate.notNull(queue, "The index work queue cannot be null.");
+    indexWorkQueue = queue;
+  }
+
+  /** Creates a command to schedule a reindex in batches, with progress
+   * reporting.
+   *
+   * @param repository the index repository. It cannot be null.
+   *
+   * @param queue the queue of pending changes to the index. It cannot be
+   * null.
+   *
+   * @param theReindexer the reindexer used to recreate the index. It cannot
+   * be null.
+   */
+  public ReindexScheduledCommand(final IndexRepository repository,
+      final IndexWorkQueue queue, final ChunkedReindexer theReindexer) {
+    this(repository, queue);
+    Validate.notNull(theReindexer, "The reindexer cannot be null.");
+    reindexer = theReindexer;
+  }
+
   /** {@inheritDoc}
    */
   public String getDisplayName() {
@@ -36,22 +87,56 @@ public class ReindexScheduledCommand implements ScheduledCommand {
 
   /** {@inheritDoc}
    *
-   * This implementation returns null, we cannot yet measure progress.
+   * This implementation returns null if there is no reindexer, we cannot
+   * measure the progress of the compass gps index operation.
    */
   public Integer getProgressPercent() {
-    return null;
+    if (reindexer == null) {
+      return null;
+    }
+    return reindexer.getProgressPercent();
   }
 
   /** {@inheritDoc}
+   *
+   * Includes the queue depth and the index lag, if the queue is available,
+   * and the progress of each class, if there is a reindexer.
    */
   public Map<String, String> getInformation() {
-    return new HashMap<String, String>();
+    Map<String, String> information = new HashMap<String, String>();
+    if (indexWorkQueue != null) {
+      information.put("Pending index changes",
+          Integer.toString(indexWorkQueue.getQueueDepth()));
+      information.put("Index lag (ms)",
+          Long.toString(indexWorkQueue.getIndexLag()));
+      information.put("Last index lag (ms)",
+          Long.toString(indexWorkQueue.getLastLag()));
+      information.put("Indexed changes",
+          Long.toString(indexWorkQueue.getIndexedCount()));
+      information.put("Failed changes",
+          Long.toString(indexWorkQueue.getFailedCount()));
+    }
+    if (reindexer != null) {
+      for (Map.Entry<String, String> entry
+          : reindexer.getClassProgress().entrySet()) {
+        information.put("Reindexed " + entry.getKey(), entry.getValue());
+      }
+    }
+    return information;
   }
 
   /** {@inheritDoc}
    */
   public Void execute() {
-    indexRepository.reIndex();
+    if (reindexer == null) {
+      indexRepository.reIndex();
+    } else {
+      try {
+        reindexer.reindex();
+      } finally {
+        indexRepository.indexChanged();
+      }
+    }
     return null;
   }
 }
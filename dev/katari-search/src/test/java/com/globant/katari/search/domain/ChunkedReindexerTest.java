@@ -0,0 +1,253 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.search.domain;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.hibernate.EntityMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
+import org.hibernate.Query;
+import org.hibernate.SessionFactory;
+import org.hibernate.classic.Session;
+import org.hibernate.metadata.ClassMetadata;
+
+import org.compass.core.Compass;
+import org.compass.core.CompassQuery;
+import org.compass.core.CompassQueryBuilder;
+import org.compass.core.CompassSession;
+import org.compass.core.CompassTransaction;
+
+import com.globant.katari.search.domain.mock.User;
+import com.globant.katari.search.domain.mock.UserSearchAdapterExample;
+
+public class ChunkedReindexerTest {
+
+  private static final String CHECKPOINT = "target/reindex-test.properties";
+
+  private Compass compass;
+
+  private CompassSession compassSession;
+
+  private CompassTransaction compassTransaction;
+
+  private SessionFactory sessionFactory;
+
+  private Session session;
+
+  private ClassMetadata metadata;
+
+  private User user1 = new User("user 1", "email 1");
+
+  private User user2 = new User("user 2", "email 2");
+
+  private User user3 = new User("user 3", "email 3");
+
+  private ChunkedReindexer reindexer;
+
+  @Before
+  public void setUp() {
+    new File(CHECKPOINT).delete();
+
+    compass = createMock(Compass.class);
+    compassSession = createMock(CompassSession.class);
+    compassTransaction = createMock(CompassTransaction.class);
+    sessionFactory = createMock(SessionFactory.class);
+    session = createMock(Session.class);
+    metadata = createMock(ClassMetadata.class);
+
+    expect(sessionFactory.getClassMetadata(User.class)).andReturn(metadata);
+    expect(sessionFactory.openSession()).andReturn(session).anyTimes();
+    expect(session.close()).andReturn(null).anyTimes();
+    session.setFlushMode(FlushMode.MANUAL);
+    expectLastCall().anyTimes();
+
+    expect(metadata.getEntityName()).andReturn("User").anyTimes();
+    expect(metadata.getIdentifierPropertyName()).andReturn("id").anyTimes();
+    expect(metadata.getIdentifierType()).andReturn(Hibernate.LONG)
+      .anyTimes();
+    expect(metadata.getIdentifier(user1, EntityMode.POJO)).andReturn(1L)
+      .anyTimes();
+    expect(metadata.getIdentifier(user2, EntityMode.POJO)).andReturn(2L)
+      .anyTimes();
+    expect(metadata.getIdentifier(user3, EntityMode.POJO)).andReturn(3L)
+      .anyTimes();
+
+    Query count = createMock(Query.class);
+    expect(count.uniqueResult()).andReturn(3L);
+    expect(session.createQuery("select count(*) from User")).andReturn(count);
+    replay(count);
+
+    expect(compass.openSession()).andReturn(compassSession).anyTimes();
+    expect(compassSession.beginLocalTransaction())
+      .andReturn(compassTransaction).anyTimes();
+    compassSession.close();
+    expectLastCall().anyTimes();
+
+    List<SearchAdapter> adapters = new ArrayList<SearchAdapter>();
+    adapters.add(new UserSearchAdapterExample());
+    reindexer = new ChunkedReindexer(compass, sessionFactory, adapters,
+        CHECKPOINT);
+    reindexer.setBatchSize(2);
+  }
+
+  /** Expects a query for a page of users.
+   */
+  private void expectPage(final Long lastId, final List<?> result) {
+    Query query = createMock(Query.class);
+    if (lastId == null) {
+      expect(session.createQuery("from User e order by e.id"))
+        .andReturn(query);
+    } else {
+      expect(session.createQuery(
+            "from User e where e.id > :lastId order by e.id"))
+        .andReturn(query);
+      expect(query.setParameter("lastId", lastId)).andReturn(query);
+    }
+    expect(query.setMaxResults(2)).andReturn(query);
+    expect(query.list()).andReturn(result);
+    session.clear();
+    replay(query);
+  }
+
+  private void expectRemoveClass() {
+    CompassQueryBuilder builder = createMock(CompassQueryBuilder.class);
+    CompassQuery query = createMock(CompassQuery.class);
+    expect(compassSession.queryBuilder()).andReturn(builder);
+    expect(builder.matchAll()).andReturn(query);
+    expect(query.setTypes(User.class)).andReturn(query);
+    compassSession.delete(query);
+    compassTransaction.commit();
+    replay(builder, query);
+  }
+
+  private void replayAll() {
+    replay(compass, compassSession, compassTransaction, sessionFactory,
+        session, metadata);
+  }
+
+  private void verifyAll() {
+    verify(compass, compassSession, compassTransaction, sessionFactory,
+        session, metadata);
+  }
+
+  private static Properties load(final String fileName) throws Exception {
+    Properties properties = new Properties();
+    InputStream input = new FileInputStream(fileName);
+    try {
+      properties.load(input);
+    } finally {
+      input.close();
+    }
+    return properties;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_nullCheckpoint() {
+    new ChunkedReindexer(compass, sessionFactory,
+        new ArrayList<SearchAdapter>(), null);
+  }
+
+  @Test
+  public void testReindex() {
+    expectRemoveClass();
+    expectPage(null, Arrays.asList(user1, user2));
+    compassSession.save(user1);
+    compassSession.save(user2);
+    compassTransaction.commit();
+    expectPage(2L, Arrays.asList(user3));
+    compassSession.save(user3);
+    compassTransaction.commit();
+    replayAll();
+
+    reindexer.reindex();
+
+    verifyAll();
+    assertThat(new File(CHECKPOINT).exists(), is(false));
+    assertThat(reindexer.isRunning(), is(false));
+    assertThat(reindexer.getProgressPercent(), is(0));
+    assertThat(reindexer.getClassProgress().get("User"), is("3 of 3, done"));
+  }
+
+  @Test
+  public void testReindex_resume() throws Exception {
+    Properties checkpoint = new Properties();
+    checkpoint.setProperty(User.class.getName(), "2");
+    checkpoint.setProperty(User.class.getName() + ".processed", "2");
+    OutputStream output = new FileOutputStream(CHECKPOINT);
+    try {
+      checkpoint.store(output, null);
+    } finally {
+      output.close();
+    }
+
+    // The class is not removed from the index and the first page is skipped.
+    expectPage(2L, Arrays.asList(user3));
+    compassSession.save(user3);
+    compassTransaction.commit();
+    replayAll();
+
+    reindexer.reindex();
+
+    verifyAll();
+    assertThat(new File(CHECKPOINT).exists(), is(false));
+    assertThat(reindexer.getClassProgress().get("User"), is("3 of 3, done"));
+  }
+
+  @Test
+  public void testReindex_failureKeepsCheckpoint() throws Exception {
+    expectRemoveClass();
+    expectPage(null, Arrays.asList(user1, user2));
+    compassSession.save(user1);
+    compassSession.save(user2);
+    compassTransaction.commit();
+    Query query = createMock(Query.class);
+    expect(session.createQuery(
+          "from User e where e.id > :lastId order by e.id")).andReturn(query);
+    expect(query.setParameter("lastId", 2L)).andReturn(query);
+    expect(query.setMaxResults(2)).andReturn(query);
+    expect(query.list()).andReturn(Arrays.asList(user3));
+    replay(query);
+    compassSession.save(user3);
+    expectLastCall().andThrow(new RuntimeException("failed"));
+    compassTransaction.rollback();
+    replayAll();
+
+    try {
+      reindexer.reindex();
+      fail("The failure should have been thrown");
+    } catch (RuntimeException e) {
+      assertThat(e.getCause().getMessage(), is("failed"));
+    }
+
+    verifyAll();
+    Properties checkpoint = load(CHECKPOINT);
+    assertThat(checkpoint.getProperty(User.class.getName()), is("2"));
+    assertThat(checkpoint.getProperty(User.class.getName() + ".processed"),
+        is("2"));
+    assertThat(checkpoint.getProperty(User.class.getName() + ".done"),
+        is((String) null));
+    assertThat(reindexer.getClassProgress().get("User"), is("2 of 3"));
+  }
+
+  @Test
+  public void testGetProgressPercent_notRunning() {
+    assertThat(reindexer.getProgressPercent(), is(0));
+    assertThat(reindexer.getClassProgress().size(), is(0));
+  }
+}
@@ -0,0 +1,188 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.search.domain;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.compass.core.CompassHit;
+import org.compass.core.mapping.CompassMapping;
+import org.compass.core.mapping.ResourceMapping;
+import org.compass.core.spi.InternalCompass;
+import org.compass.core.support.search.CompassSearchCommand;
+import org.compass.core.support.search.CompassSearchHelper;
+import org.compass.core.support.search.CompassSearchResults;
+import org.compass.gps.CompassGps;
+
+import com.globant.katari.core.security.SecureUrlAccessHelper;
+import com.globant.katari.core.web.ModuleContextRegistrar;
+import com.globant.katari.tools.SecurityTestUtils;
+
+import com.globant.katari.search.domain.mock.User;
+import com.globant.katari.search.domain.mock.UserSearchAdapterExample;
+
+/** Tests the caches in IndexRepository, without a real compass index.
+ */
+public class IndexRepositoryCacheTest {
+
+  private static final String USER_URL = "/module/user/user.do";
+
+  private CompassSearchHelper searchHelper;
+
+  private SecureUrlAccessHelper urlAccessHelper;
+
+  private IndexRepository repository;
+
+  @Before
+  public void setUp() {
+    SecurityTestUtils.fakeUser("admin", "ROLE_ADMINISTRATOR");
+
+    ResourceMapping resourceMapping = createMock(ResourceMapping.class);
+    expect(resourceMapping.getAlias()).andReturn("User").anyTimes();
+    CompassMapping mapping = createMock(CompassMapping.class);
+    expect(mapping.findRootMappingByClass(User.class))
+      .andReturn(resourceMapping).anyTimes();
+    InternalCompass compass = createMock(InternalCompass.class);
+    expect(compass.getMapping()).andReturn(mapping).anyTimes();
+    replay(resourceMapping, mapping, compass);
+
+    searchHelper = createMock(CompassSearchHelper.class);
+    urlAccessHelper = createMock(SecureUrlAccessHelper.class);
+
+    List<SearchAdapter> adapters = new ArrayList<SearchAdapter>();
+    adapters.add(new UserSearchAdapterExample());
+    repository = new IndexRepository(createMock(CompassGps.class),
+        searchHelper, compass, adapters, urlAccessHelper);
+  }
+
+  /** Creates the compass results with one user.
+   */
+  private CompassSearchResults createResults() {
+    CompassHit hit = createMock(CompassHit.class);
+    expect(hit.getData()).andReturn(new User("name", "email")).anyTimes();
+    expect(hit.getScore()).andReturn(1f).anyTimes();
+    replay(hit);
+    CompassSearchResults results;
+    results = new CompassSearchResults(new CompassHit[] {hit}, 0, 1);
+    results.setPages(new CompassSearchResults.Page[] {
+      new CompassSearchResults.Page()});
+    return results;
+  }
+
+  @Test
+  public void testFind_cached() {
+    expect(urlAccessHelper.canAccessUrl(null, USER_URL)).andReturn(true);
+    expect(searchHelper.search(isA(CompassSearchCommand.class)))
+      .andReturn(createResults());
+    replay(searchHelper, urlAccessHelper);
+
+    SearchResult result = repository.find("name", 0);
+    assertThat(result.getElements().size(), is(1));
+    // Whitespace does not change the query.
+    assertThat(repository.find("  name ", 0), sameInstance(result));
+
+    verify(searchHelper, urlAccessHelper);
+  }
+
+  @Test
+  public void testFind_differentPage() {
+    expect(urlAccessHelper.canAccessUrl(null, USER_URL)).andReturn(true);
+    expect(searchHelper.search(isA(CompassSearchCommand.class)))
+      .andReturn(createResults()).times(2);
+    replay(searchHelper, urlAccessHelper);
+
+    repository.find("name", 0);
+    repository.find("name", 1);
+
+    verify(searchHelper, urlAccessHelper);
+  }
+
+  @Test
+  public void testFind_indexChanged() {
+    expect(urlAccessHelper.canAccessUrl(null, USER_URL)).andReturn(true);
+    expect(searchHelper.search(isA(CompassSearchCommand.class)))
+      .andReturn(createResults()).times(2);
+    replay(searchHelper, urlAccessHelper);
+
+    repository.find("name", 0);
+    repository.indexChanged();
+    repository.find("name", 0);
+
+    verify(searchHelper, urlAccessHelper);
+  }
+
+  @Test
+  public void testFind_configurationChanged() {
+    ModuleContextRegistrar registrar = createMock(ModuleContextRegistrar.class);
+    expect(registrar.getConfigurationVersion()).andReturn(1L).times(2);
+    expect(registrar.getConfigurationVersion()).andReturn(2L).times(2);
+    expect(urlAccessHelper.canAccessUrl(null, USER_URL)).andReturn(true);
+    expect(urlAccessHelper.canAccessUrl(null, USER_URL)).andReturn(false);
+    expect(searchHelper.search(isA(CompassSearchCommand.class)))
+      .andReturn(createResults());
+    replay(registrar, searchHelper, urlAccessHelper);
+    repository.setModuleContextRegistrar(registrar);
+
+    assertThat(repository.find("name", 0).getElements().size(), is(1));
+    // The roles changed, both the alias clause and the result are discarded.
+    assertThat(repository.find("name", 0).getElements().size(), is(0));
+    assertThat(repository.find("name", 0).getElements().size(), is(0));
+
+    verify(registrar, searchHelper, urlAccessHelper);
+  }
+
+  @Test
+  public void testFind_expired() throws Exception {
+    repository.setResultTimeToLive(1);
+    expect(urlAccessHelper.canAccessUrl(null, USER_URL)).andReturn(true);
+    expect(searchHelper.search(isA(CompassSearchCommand.class)))
+      .andReturn(createResults()).times(2);
+    replay(searchHelper, urlAccessHelper);
+
+    repository.find("name", 0);
+    Thread.sleep(10);
+    repository.find("name", 0);
+
+    verify(searchHelper, urlAccessHelper);
+  }
+
+  @Test
+  public void testFind_cacheDisabled() {
+    repository.setResultCacheSize(0);
+    // The alias clause is still cached.
+    expect(urlAccessHelper.canAccessUrl(null, USER_URL)).andReturn(true);
+    expect(searchHelper.search(isA(CompassSearchCommand.class)))
+      .andReturn(createResults()).times(2);
+    replay(searchHelper, urlAccessHelper);
+
+    repository.find("name", 0);
+    repository.find("name", 0);
+
+    verify(searchHelper, urlAccessHelper);
+  }
+
+  @Test
+  public void testFind_byAuthorities() {
+    expect(urlAccessHelper.canAccessUrl(null, USER_URL)).andReturn(true);
+    expect(urlAccessHelper.canAccessUrl(null, USER_URL)).andReturn(false);
+    expect(searchHelper.search(isA(CompassSearchCommand.class)))
+      .andReturn(createResults());
+    replay(searchHelper, urlAccessHelper);
+
+    assertThat(repository.find("name", 0).getElements().size(), is(1));
+
+    SecurityTestUtils.fakeUser("none", "IS_AUTHENTICATED_ANONYMOUSLY");
+    assertThat(repository.find("name", 0).getElements().size(), is(0));
+    // Cached, neither the access helper nor the search helper are called.
+    assertThat(repository.find("name", 0).getElements().size(), is(0));
+
+    verify(searchHelper, urlAccessHelper);
+  }
+}
@@ -0,0 +1,348 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.search.domain;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.hibernate.FlushMode;
+import org.hibernate.classic.Session;
+import org.hibernate.SessionFactory;
+
+import org.compass.core.Compass;
+import org.compass.core.CompassSession;
+import org.compass.core.CompassTransaction;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support
+  .TransactionSynchronizationManager;
+
+import com.globant.katari.search.domain.mock.Activity;
+import com.globant.katari.search.domain.mock.ActivitySearchAdapterExample;
+import com.globant.katari.search.domain.mock.User;
+import com.globant.katari.search.domain.mock.UserSearchAdapterExample;
+
+public class IndexWorkQueueTest {
+
+  private Compass compass;
+
+  private CompassSession compassSession;
+
+  private CompassTransaction compassTransaction;
+
+  private SessionFactory sessionFactory;
+
+  private Session session;
+
+  private IndexWorkQueue queue;
+
+  @Before
+  public void setUp() {
+    compass = createMock(Compass.class);
+    compassSession = createMock(CompassSession.class);
+    compassTransaction = createMock(CompassTransaction.class);
+    sessionFactory = createMock(SessionFactory.class);
+    session = createMock(Session.class);
+
+    List<SearchAdapter> adapters = new ArrayList<SearchAdapter>();
+    adapters.add(new UserSearchAdapterExample());
+    adapters.add(new ActivitySearchAdapterExample());
+    queue = new IndexWorkQueue(compass, sessionFactory, adapters);
+  }
+
+  @After
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  /** Expects one batch to be indexed.
+   */
+  private void expectBatch() {
+    expect(sessionFactory.openSession()).andReturn(session);
+    session.setFlushMode(FlushMode.MANUAL);
+    expect(session.close()).andReturn(null);
+    expect(compass.openSession()).andReturn(compassSession);
+    expect(compassSession.beginLocalTransaction())
+      .andReturn(compassTransaction);
+    compassTransaction.commit();
+    compassSession.close();
+  }
+
+  private void replayAll() {
+    replay(compass, compassSession, compassTransaction, sessionFactory,
+        session);
+  }
+
+  private void verifyAll() {
+    verify(compass, compassSession, compassTransaction, sessionFactory,
+        session);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_nullCompass() {
+    new IndexWorkQueue(null, sessionFactory, new ArrayList<SearchAdapter>());
+  }
+
+  @Test
+  public void testIsIndexed() {
+    assertThat(queue.isIndexed(User.class), is(true));
+    assertThat(queue.isIndexed(Activity.class), is(true));
+    assertThat(queue.isIndexed(String.class), is(false));
+  }
+
+  @Test
+  public void testFlush_emptyQueue() {
+    replayAll();
+    queue.flush();
+    verifyAll();
+    assertThat(queue.getIndexedCount(), is(0L));
+    assertThat(queue.getIndexLag(), is(0L));
+  }
+
+  @Test
+  public void testFlush_savesAndDeletes() {
+    User user = new User("name", "email");
+    expectBatch();
+    expect(session.get(User.class, 1L)).andReturn(user);
+    compassSession.save(user);
+    compassSession.delete(Activity.class, (Object) 2L);
+    // The user 3 is not in the database anymore.
+    expect(session.get(User.class, 3L)).andReturn(null);
+    compassSession.delete(User.class, (Object) 3L);
+    replayAll();
+
+    queue.add(User.class, 1L, false);
+    queue.add(Activity.class, 2L, true);
+    queue.add(User.class, 3L, false);
+    assertThat(queue.getQueueDepth(), is(3));
+
+    queue.flush();
+
+    verifyAll();
+    assertThat(queue.getQueueDepth(), is(0));
+    assertThat(queue.getIndexedCount(), is(3L));
+    assertThat(queue.getFailedCount(), is(0L));
+  }
+
+  @Test
+  public void testAdd_collapsesChanges() {
+    expectBatch();
+    compassSession.delete(User.class, (Object) 1L);
+    replayAll();
+
+    queue.add(User.class, 1L, false);
+    queue.add(User.class, 1L, false);
+    queue.add(User.class, 1L, true);
+    assertThat(queue.getQueueDepth(), is(1));
+
+    queue.flush();
+    verifyAll();
+    assertThat(queue.getIndexedCount(), is(1L));
+  }
+
+  @Test
+  public void testFlush_inBatches() {
+    queue.setBatchSize(2);
+    expectBatch();
+    expectBatch();
+    compassSession.delete(User.class, (Object) 1L);
+    compassSession.delete(User.class, (Object) 2L);
+    compassSession.delete(User.class, (Object) 3L);
+    replayAll();
+
+    queue.add(User.class, 1L, true);
+    queue.add(User.class, 2L, true);
+    queue.add(User.class, 3L, true);
+    queue.flush();
+
+    verifyAll();
+    assertThat(queue.getIndexedCount(), is(3L));
+  }
+
+  /** Expects one batch that fails and rolls back.
+   */
+  private void expectFailedBatch() {
+    expect(sessionFactory.openSession()).andReturn(session);
+    session.setFlushMode(FlushMode.MANUAL);
+    expect(session.close()).andReturn(null);
+    expect(compass.openSession()).andReturn(compassSession);
+    expect(compassSession.beginLocalTransaction())
+      .andReturn(compassTransaction);
+    compassTransaction.rollback();
+    compassSession.close();
+  }
+
+  @Test
+  public void testFlush_failure() {
+    queue.setMaxAttempts(1);
+    expectFailedBatch();
+    compassSession.delete(User.class, (Object) 1L);
+    expectLastCall().andThrow(new RuntimeException("failed"));
+    replayAll();
+
+    queue.add(User.class, 1L, true);
+    queue.flush();
+
+    verifyAll();
+    assertThat(queue.getQueueDepth(), is(0));
+    assertThat(queue.getIndexedCount(), is(0L));
+    assertThat(queue.getFailedCount(), is(1L));
+  }
+
+  @Test
+  public void testFlush_retry() {
+    User user = new User("name", "email");
+    expectFailedBatch();
+    expect(session.get(User.class, 1L)).andReturn(user);
+    compassSession.save(user);
+    expectLastCall().andThrow(new RuntimeException("index locked"));
+    expectBatch();
+    expect(session.get(User.class, 1L)).andReturn(user);
+    compassSession.save(user);
+    replayAll();
+
+    queue.add(User.class, 1L, false);
+    queue.flush();
+    // The failed change is back in the queue.
+    assertThat(queue.getQueueDepth(), is(1));
+    assertThat(queue.getIndexedCount(), is(0L));
+
+    queue.flush();
+
+    verifyAll();
+    assertThat(queue.getQueueDepth(), is(0));
+    assertThat(queue.getIndexedCount(), is(1L));
+    assertThat(queue.getFailedCount(), is(0L));
+  }
+
+  @Test
+  public void testFlush_retryKeepsLastChange() {
+    queue.setBatchSize(1);
+    expectFailedBatch();
+    compassSession.delete(User.class, (Object) 1L);
+    expectLastCall().andThrow(new RuntimeException("index locked"));
+    expectBatch();
+    compassSession.delete(User.class, (Object) 1L);
+    expectBatch();
+    compassSession.delete(User.class, (Object) 2L);
+    replayAll();
+
+    queue.add(User.class, 1L, true);
+    queue.add(User.class, 2L, true);
+    queue.flush();
+    assertThat(queue.getQueueDepth(), is(2));
+
+    // The user 1 changes again while its change waits to be retried.
+    queue.add(User.class, 1L, true);
+    assertThat(queue.getQueueDepth(), is(2));
+    queue.flush();
+
+    verifyAll();
+    assertThat(queue.getIndexedCount(), is(2L));
+  }
+
+  @Test
+  public void testFlush_retriesExhausted() {
+    queue.setMaxAttempts(2);
+    expectFailedBatch();
+    compassSession.delete(User.class, (Object) 1L);
+    expectLastCall().andThrow(new RuntimeException("failed"));
+    expectFailedBatch();
+    compassSession.delete(User.class, (Object) 1L);
+    expectLastCall().andThrow(new RuntimeException("failed"));
+    replayAll();
+
+    queue.add(User.class, 1L, true);
+    queue.flush();
+    assertThat(queue.getFailedCount(), is(0L));
+    queue.flush();
+
+    verifyAll();
+    assertThat(queue.getQueueDepth(), is(0));
+    assertThat(queue.getFailedCount(), is(1L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetMaxAttempts_zero() {
+    queue.setMaxAttempts(0);
+  }
+
+  @Test
+  public void testGetIndexLag() throws Exception {
+    queue.add(User.class, 1L, true);
+    Thread.sleep(20);
+    assertThat(queue.getIndexLag() >= 20, is(true));
+  }
+
+  @Test
+  public void testAdd_inTransactionCommitted() {
+    TransactionSynchronizationManager.initSynchronization();
+    queue.add(User.class, 1L, true);
+    queue.add(Activity.class, 2L, true);
+    // Nothing is queued until the transaction commits.
+    assertThat(queue.getQueueDepth(), is(0));
+
+    List<TransactionSynchronization> synchronizations;
+    synchronizations = TransactionSynchronizationManager.getSynchronizations();
+    assertThat(synchronizations.size(), is(1));
+    synchronizations.get(0).afterCompletion(
+        TransactionSynchronization.STATUS_COMMITTED);
+
+    assertThat(queue.getQueueDepth(), is(2));
+    assertThat(TransactionSynchronizationManager.hasResource(queue),
+        is(false));
+  }
+
+  @Test
+  public void testAdd_inTransactionRolledBack() {
+    TransactionSynchronizationManager.initSynchronization();
+    queue.add(User.class, 1L, true);
+
+    TransactionSynchronizationManager.getSynchronizations().get(0)
+      .afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+    assertThat(queue.getQueueDepth(), is(0));
+  }
+
+  @Test
+  public void testAdd_synchronous() {
+    queue.setAsynchronous(false);
+    expectBatch();
+    compassSession.delete(User.class, (Object) 1L);
+    replayAll();
+
+    queue.add(User.class, 1L, true);
+
+    verifyAll();
+    assertThat(queue.getQueueDepth(), is(0));
+    assertThat(queue.getIndexedCount(), is(1L));
+  }
+
+  @Test
+  public void testStart_indexesInBackground() throws Exception {
+    queue.setInterval(10);
+    expectBatch();
+    compassSession.delete(User.class, (Object) 1L);
+    replayAll();
+
+    queue.start();
+    queue.add(User.class, 1L, true);
+    for (int i = 0; i < 100 && queue.getIndexedCount() == 0; ++i) {
+      Thread.sleep(10);
+    }
+    queue.destroy();
+
+    verifyAll();
+    assertThat(queue.getIndexedCount(), is(1L));
+  }
+}
@@ -0,0 +1,100 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.search.integration;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.event.AbstractCollectionEvent;
+import org.hibernate.event.PostCollectionUpdateEvent;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostUpdateEvent;
+
+import org.compass.core.Compass;
+
+import com.globant.katari.hibernate.coreuser.domain.Role;
+import com.globant.katari.search.domain.IndexWorkQueue;
+import com.globant.katari.search.domain.SearchAdapter;
+import com.globant.katari.search.domain.mock.User;
+import com.globant.katari.search.domain.mock.UserSearchAdapterExample;
+
+public class QueueingMirrorFilterTest {
+
+  private IndexWorkQueue queue;
+
+  private QueueingMirrorFilter filter;
+
+  @Before
+  public void setUp() {
+    List<SearchAdapter> adapters = new ArrayList<SearchAdapter>();
+    adapters.add(new UserSearchAdapterExample());
+    queue = new IndexWorkQueue(createMock(Compass.class),
+        createMock(SessionFactory.class), adapters);
+    filter = new QueueingMirrorFilter(queue);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_nullQueue() {
+    new QueueingMirrorFilter(null);
+  }
+
+  @Test
+  public void testShouldFilterInsert() {
+    User user = new User("name", "email");
+    assertThat(filter.shouldFilterInsert(new PostInsertEvent(user, 1L, null,
+            null, null)), is(true));
+    assertThat(queue.getQueueDepth(), is(1));
+  }
+
+  @Test
+  public void testShouldFilterInsert_notAdapted() {
+    Role role = new Role("role");
+    assertThat(filter.shouldFilterInsert(new PostInsertEvent(role, 1L, null,
+            null, null)), is(false));
+    assertThat(queue.getQueueDepth(), is(0));
+  }
+
+  @Test
+  public void testShouldFilterUpdateAndDelete() {
+    User user = new User("name", "email");
+    assertThat(filter.shouldFilterUpdate(new PostUpdateEvent(user, 1L, null,
+            null, null, null)), is(true));
+    assertThat(filter.shouldFilterDelete(new PostDeleteEvent(user, 2L, null,
+            null, null)), is(true));
+    assertThat(queue.getQueueDepth(), is(2));
+  }
+
+  @Test
+  public void testShouldFilterCollection() {
+    User user = new User("name", "email");
+    AbstractCollectionEvent event = createMock(PostCollectionUpdateEvent.class);
+    expect(event.getAffectedOwnerOrNull()).andReturn(user);
+    expect(event.getAffectedOwnerIdOrNull()).andReturn(1L);
+    replay(event);
+
+    assertThat(filter.shouldFilterCollection(event), is(true));
+    assertThat(queue.getQueueDepth(), is(1));
+    verify(event);
+  }
+
+  @Test
+  public void testShouldFilterCollection_noOwner() {
+    AbstractCollectionEvent event = createMock(PostCollectionUpdateEvent.class);
+    expect(event.getAffectedOwnerOrNull()).andReturn(null);
+    expect(event.getAffectedOwnerIdOrNull()).andReturn(null);
+    replay(event);
+
+    assertThat(filter.shouldFilterCollection(event), is(false));
+    assertThat(queue.getQueueDepth(), is(0));
+    verify(event);
+  }
+}
@@ -1,11 +1,18 @@
 /* vim: set ts=2 et sw=2 cindent fo=qroca: */
 package com.globant.katari.search.integration;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.junit.Test;
 
 import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
 
+import com.globant.katari.search.domain.ChunkedReindexer;
 import com.globant.katari.search.domain.IndexRepository;
+import com.globant.katari.search.domain.IndexWorkQueue;
 
 public class ReindexScheduledCommandTest {
 
@@ -23,5 +30,77 @@ public class ReindexScheduledCommandTest {
     verify(repository);
   }
 
-}
+  @Test public void testGetInformation_noQueue() {
+    IndexRepository repository = createMock(IndexRepository.class);
+    ReindexScheduledCommand command = new ReindexScheduledCommand(repository);
+    assertThat(command.getInformation().size(), is(0));
+  }
+
+  @Test public void testGetInformation() {
+    IndexRepository repository = createMock(IndexRepository.class);
+    IndexWorkQueue queue = createMock(IndexWorkQueue.class);
+    expect(queue.getQueueDepth()).andReturn(5);
+    expect(queue.getIndexLag()).andReturn(1200L);
+    expect(queue.getLastLag()).andReturn(800L);
+    expect(queue.getIndexedCount()).andReturn(10L);
+    expect(queue.getFailedCount()).andReturn(1L);
+    replay(queue);
+
+    ReindexScheduledCommand command;
+    command = new ReindexScheduledCommand(repository, queue);
+    Map<String, String> information = command.getInformation();
+    assertThat(information.get("Pending index changes"), is("5"));
+    assertThat(information.get("Index lag (ms)"), is("1200"));
+    assertThat(information.get("Last index lag (ms)"), is("800"));
+    assertThat(information.get("Indexed changes"), is("10"));
+    assertThat(information.get("Failed changes"), is("1"));
+    verify(queue);
+  }
+
+  @Test public void testExecute_withReindexer() {
+    IndexRepository repository = createMock(IndexRepository.class);
+    IndexWorkQueue queue = createMock(IndexWorkQueue.class);
+    ChunkedReindexer reindexer = createMock(ChunkedReindexer.class);
+    reindexer.reindex();
+    // The cached search results are discarded after the reindex.
+    repository.indexChanged();
+    replay(repository, queue, reindexer);
 
+    ReindexScheduledCommand command;
+    command = new ReindexScheduledCommand(repository, queue, reindexer);
+    command.execute();
+    verify(repository, queue, reindexer);
+  }
+
+  @Test public void testGetProgressPercent() {
+    IndexRepository repository = createMock(IndexRepository.class);
+    IndexWorkQueue queue = createMock(IndexWorkQueue.class);
+    ChunkedReindexer reindexer = createMock(ChunkedReindexer.class);
+    expect(reindexer.getProgressPercent()).andReturn(42);
+    replay(reindexer);
+
+    assertThat(new ReindexScheduledCommand(repository).getProgressPercent(),
+        is((Integer) null));
+    ReindexScheduledCommand command;
+    command = new ReindexScheduledCommand(repository, queue, reindexer);
+    assertThat(command.getProgressPercent(), is(42));
+    verify(reindexer);
+  }
+
+  @Test public void testGetInformation_withReindexer() {
+    IndexRepository repository = createMock(IndexRepository.class);
+    IndexWorkQueue queue = createNiceMock(IndexWorkQueue.class);
+    ChunkedReindexer reindexer = createMock(ChunkedReindexer.class);
+    Map<String, String> progress = new LinkedHashMap<String, String>();
+    progress.put("User", "150 of 1000");
+    expect(reindexer.getClassProgress()).andReturn(progress);
+    replay(queue, reindexer);
+
+    ReindexScheduledCommand command;
+    command = new ReindexScheduledCommand(repository, queue, reindexer);
+    Map<String, String> information = command.getInformation();
+    assertThat(information.get("Reindexed User"), is("150 of 1000"));
+    assertThat(information.get("Pending index changes"), is("0"));
+    verify(reindexer);
+  }
+}
@@ -0,0 +1,73 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.tools;
+
+import org.apache.commons.lang.Validate;
+
+import org.hibernate.cfg.AnnotationConfiguration;
+
+/** Utility class to help test repositories against their own in memory
+ * database, without a spring application context.
+ */
+public final class HibernateTestUtils {
+
+  /** Private contructor, this is a utility class.
+   */
+  private HibernateTestUtils() {
+  }
+
+  /** Creates a hibernate configuration for an in memory hsql database.
+   *
+   * The schema is created when the session factory is built and dropped when
+   * it is closed. The second level and query caches are disabled, call
+   * enableCache to turn them on.
+   *
+   * @param database the name of the in memory database. Tests that run at
+   * the same time must use different names. It cannot be null.
+   *
+   * @param classes the annotated classes to map. It cannot be null.
+   *
+   * @return the configuration, ready to build the session factory. Never
+   * returns null.
+   */
+  public static AnnotationConfiguration createConfiguration(
+      final String database, final Class<?>... classes) {
+    Validate.notNull(database, "The database name cannot be null");
+    Validate.notNull(classes, "The classes cannot be null");
+    AnnotationConfiguration configuration = new AnnotationConfiguration();
+    for (Class<?> annotatedClass : classes) {
+      configuration.addAnnotatedClass(annotatedClass);
+    }
+    configuration
+      .setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect")
+      .setProperty("hibernate.connection.driver_class",
+          "org.hsqldb.jdbcDriver")
+      .setProperty("hibernate.connection.url", "jdbc:hsqldb:mem:" + database)
+      .setProperty("hibernate.connection.username", "sa")
+      .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+      .setProperty("hibernate.cache.use_second_level_cache", "false")
+      .setProperty("hibernate.cache.use_query_cache", "false");
+    return configuration;
+  }
+
+  /** Enables the second level and query caches on a configuration, backed by
+   * ehcache, and the statistics to check the cache hits.
+   *
+   * The caller must have ehcache in the classpath.
+   *
+   * @param configuration the configuration. It cannot be null.
+   *
+   * @return the same configuration. Never returns null.
+   */
+  public static AnnotationConfiguration enableCache(
+      final AnnotationConfiguration configuration) {
+    Validate.notNull(configuration, "The configuration cannot be null");
+    configuration
+      .setProperty("hibernate.cache.use_second_level_cache", "true")
+      .setProperty("hibernate.cache.use_query_cache", "true")
+      .setProperty("hibernate.cache.region.factory_class",
+          "net.sf.ehcache.hibernate.EhCacheRegionFactory")
+      .setProperty("hibernate.generate_statistics", "true");
+    return configuration;
+  }
+}
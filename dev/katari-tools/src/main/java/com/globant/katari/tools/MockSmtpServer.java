@@ -32,9 +32,9 @@ public final class MockSmtpServer {
   /** Will listen by default on this port. */
   private static final int DEFAULT_PORT = 3525;
 
-  /** The smtp server, null until the call to main.
+  /** The smtp server, null until the call to main and after stop.
    */
-  private static DummySmtpServer server = null;
+  private static volatile DummySmtpServer server = null;
 
   /** Private constructor, no instances of this class should be created.
    */
@@ -59,13 +59,15 @@ public final class MockSmtpServer {
       dumpInterval = Integer.valueOf(args[1]);
     }
 
-    server = DummySmtpServer.start(port);
+    DummySmtpServer started = DummySmtpServer.start(port);
+    server = started;
     System.out.println("Smtp server started, listening on port: "
-        + server.getPortNumber());
+        + started.getPortNumber());
     int lastSize = 0;
-    while(true) {
-      if (server.getReceivedEmailSize() > lastSize) {
-        Iterator<SmtpMessage> it = server.iterator();
+    // Runs until stop is called.
+    while (server == started) {
+      if (started.getReceivedEmailSize() > lastSize) {
+        Iterator<SmtpMessage> it = started.iterator();
         while (it.hasNext()) {
           SmtpMessage smtpMessage = (SmtpMessage) it.next();
           System.out.println("###################################");
@@ -75,14 +77,16 @@ public final class MockSmtpServer {
           System.out.println("###################################");
         }
       }
-      lastSize = server.getReceivedEmailSize();
+      lastSize = started.getReceivedEmailSize();
       Thread.sleep(dumpInterval);
     }
   }
 
-  /** Stops the server, only useful when testing this class.
+  /** Stops the server and makes main return.
+   *
+   * This is only useful for tests that start the server in their own thread.
    */
-  static void stop() {
+  public static void stop() {
     if (server != null) {
       server.stop();
       server = null;
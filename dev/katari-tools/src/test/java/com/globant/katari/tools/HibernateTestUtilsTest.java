@@ -0,0 +1,46 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.tools;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/* Test the HibernateTestUtils.
+ */
+public class HibernateTestUtilsTest {
+
+  @Test
+  public void testCreateConfiguration() throws Exception {
+    SessionFactory sessionFactory = HibernateTestUtils.createConfiguration(
+        "hibernateTestUtils", Client.class, Project.class, Activity.class)
+      .buildSessionFactory();
+    try {
+      Session session = sessionFactory.openSession();
+      session.beginTransaction();
+      Client client = new Client();
+      client.setName("client");
+      session.save(client);
+      session.getTransaction().commit();
+      session.close();
+
+      session = sessionFactory.openSession();
+      Client saved = (Client) session.get(Client.class, client.getId());
+      assertThat(saved.getName(), is("client"));
+      session.close();
+    } finally {
+      sessionFactory.close();
+    }
+  }
+
+  @Test
+  public void testEnableCache() throws Exception {
+    String useCache = HibernateTestUtils.enableCache(
+        HibernateTestUtils.createConfiguration("hibernateTestUtils"))
+      .getProperty("hibernate.cache.use_second_level_cache");
+    assertThat(useCache, is("true"));
+  }
+}
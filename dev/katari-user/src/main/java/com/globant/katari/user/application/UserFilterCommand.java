@@ -136,15 +136,33 @@ public class UserFilterCommand implements Command<List<User>> {
         + getSorting().getColumnName()
         + "&amp;sorting.ascendingOrder="
         + getSorting().isAscendingOrder();
+    if (paging.isEstimatedCount()) {
+      url += "&amp;paging.estimatedCount=true";
+    }
     return url;
   }
 
   /** Gets the url for the next page.
+   *
+   * The next page starts after the last user of the current page, so the
+   * database does not skip over all the previous users.
    *
    * @return Returns the url for the next page.
    */
   public String getUrlNextPage() {
-    return getUrlPaging(paging.getPageNumber() + 1);
+    String url = getUrlPaging(paging.getPageNumber() + 1);
+    if (paging.getLastId() != 0) {
+      url += "&amp;paging.afterId=" + paging.getLastId();
+      if (paging.getLastValue() != null) {
+        try {
+          url += "&amp;paging.afterValue="
+            + URLEncoder.encode(paging.getLastValue(), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+          throw new RuntimeException("UTF-8 Not supported.", e);
+        }
+      }
+    }
+    return url;
   }
 
   /** Gets the url for the previous page.
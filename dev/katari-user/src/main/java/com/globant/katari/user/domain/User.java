@@ -12,6 +12,7 @@ import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 import javax.persistence.DiscriminatorValue;
 
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 
@@ -40,6 +41,11 @@ public class User extends CoreUser {
    */
   private static final int PASSWORD_LENGTH = 20;
 
+  /** The number of users whose roles are loaded in a single query, for
+   * example for a page of users.
+   */
+  private static final int ROLES_BATCH_SIZE = 50;
+
   /** The email of the user.
    *
    * This is never null. Email must be unique.
@@ -59,9 +65,14 @@ public class User extends CoreUser {
   /* Tried w/ SearchableReference, but it did not work: the roles set is empty
    * after being found from index.  */
   /** The roles of the user.
+   *
+   * They are cached with the user, so that a user from the second level cache
+   * does not need a query to load its roles.
    */
   @ManyToMany(fetch = FetchType.EAGER)
   @JoinTable(name = "users_roles")
+  @BatchSize(size = ROLES_BATCH_SIZE)
+  @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
   @SearchableComponent
   private Set<Role> roles = new HashSet<Role>();
 
@@ -2,18 +2,36 @@
 
 package com.globant.katari.user.domain;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.hibernate.Criteria;
+import org.hibernate.EntityMode;
+import org.hibernate.FetchMode;
+import org.hibernate.Session;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.MatchMode;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.NullableType;
+import org.hibernate.type.Type;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.acegisecurity.providers.dao.UserCache;
 
+import com.globant.katari.hibernate.coreuser.domain.CoreUser;
 import com.globant.katari.user.domain.filter.ContainsFilter;
 import com.globant.katari.user.domain.filter.Paging;
 import com.globant.katari.user.domain.filter.Sorting;
@@ -26,34 +44,104 @@ public class UserRepository extends HibernateDaoSupport {
    */
   private static Logger log = LoggerFactory.getLogger(UserRepository.class);
 
+  /** The name of the user id property.
+   */
+  private static final String ID = "id";
+
+  /** The index used to search users by name and email.
+   *
+   * It is null if the searches are done in the database.
+   */
+  private UserTextIndex textIndex = null;
+
+  /** The lock held while the text index is loaded, so that only one thread
+   * loads it at a time. It is never null.
+   */
+  private final Object textIndexLoadLock = new Object();
+
+  /** The cache of the user details used to authenticate users.
+   *
+   * It is null if the user details are not cached.
+   */
+  private UserCache userDetailsCache = null;
+
+  /** Sets the index used to search users by name and email.
+   *
+   * Without an index, getUsers searches in the users table.
+   *
+   * @param theTextIndex the index. It cannot be null.
+   */
+  public void setTextIndex(final UserTextIndex theTextIndex) {
+    Validate.notNull(theTextIndex, "The text index cannot be null");
+    textIndex = theTextIndex;
+  }
+
+  /** Sets the cache of the user details used to authenticate users.
+   *
+   * The repository removes from this cache the users that it saves or
+   * removes, after the transaction commits.
+   *
+   * @param theUserDetailsCache the cache. It cannot be null.
+   */
+  public void setUserDetailsCache(final UserCache theUserDetailsCache) {
+    Validate.notNull(theUserDetailsCache,
+        "The user details cache cannot be null");
+    userDetailsCache = theUserDetailsCache;
+  }
+
   /** Removes the specified user from the database.
+   *
+   * The user is removed from the text index and the user details cache after
+   * the transaction commits.
    *
    * @param user The user to remove. It cannot be null.
    */
   public void remove(final User user) {
     Validate.notNull(user, "The user cannot be null");
     getHibernateTemplate().delete(user);
+    final long id = user.getId();
+    final String name = user.getName();
+    afterCommit(new Runnable() {
+      public void run() {
+        if (textIndex != null) {
+          textIndex.remove(id);
+        }
+        if (userDetailsCache != null) {
+          userDetailsCache.removeUserFromCache(name);
+        }
+      }
+    });
   }
 
   /** Finds a user by email.
+   *
+   * The email is unique, so the query is cached in the same region as the
+   * lookups by name. The query runs in the hibernate template, that releases
+   * the session if there is no transaction.
    *
    * @param email The email of the user to search for.
    *
    * @return Returns the user with the specified email or null if no such user
    * exists.
    */
-  @SuppressWarnings("unchecked")
   public User findUserByEmail(final String email) {
-    List<User> users = getHibernateTemplate().find("from User where email = ?",
-        email);
-    if (users.isEmpty()) {
-      return null;
-    } else {
-      return users.get(0);
-    }
+    return getHibernateTemplate().execute(new HibernateCallback<User>() {
+      public User doInHibernate(final Session session) {
+        return (User) session.createCriteria(User.class)
+          .add(Restrictions.eq("email", email))
+          .setCacheable(true)
+          .setCacheRegion(CoreUser.NATURAL_ID_REGION)
+          .uniqueResult();
+      }
+    });
   }
 
   /** Finds the user with the specified user name.
+   *
+   * The user is looked up by its natural id, so the query result is cached in
+   * the CoreUser.NATURAL_ID_REGION region and the user comes from the second
+   * level cache. The query runs in the hibernate template, that releases the
+   * session if there is no transaction.
    *
    * @param username The user name of the user to search for. It cannot be
    * null.
@@ -61,35 +149,85 @@ public class UserRepository extends HibernateDaoSupport {
    * @return Returns the user with the specified user name, or null if no such
    * user exists
    */
-  @SuppressWarnings("unchecked")
   public User findUserByName(final String username) {
 
     Validate.notNull(username, "The username cannot be null");
 
-    getHibernateTemplate().setCacheQueries(true);
-
-    List<User> users = getHibernateTemplate().find(
-        "from User user where user.name = ?", username);
-    if (users.isEmpty()) {
-      return null;
-    } else {
-      return users.get(0);
-    }
+    return getHibernateTemplate().execute(new HibernateCallback<User>() {
+      public User doInHibernate(final Session session) {
+        return (User) session.createCriteria(User.class)
+          .add(Restrictions.naturalId().set("name", username))
+          .setCacheable(true)
+          .setCacheRegion(CoreUser.NATURAL_ID_REGION)
+          .uniqueResult();
+      }
+    });
   }
 
   /** Saves a new user or updates an existing user to the database.
+   *
+   * The user is updated in the text index and removed from the user details
+   * cache after the transaction commits.
    *
    * @param user The user to save. It cannot be null.
    */
   public void save(final User user) {
     Validate.notNull(user, "The user cannot be null");
     getHibernateTemplate().saveOrUpdate(user);
+    final long id = user.getId();
+    final String name = user.getName();
+    final String email = user.getEmail();
+    afterCommit(new Runnable() {
+      public void run() {
+        if (textIndex != null) {
+          textIndex.put(id, name, email);
+        }
+        if (userDetailsCache != null) {
+          userDetailsCache.removeUserFromCache(name);
+        }
+      }
+    });
+  }
+
+  /** Runs an action after the current transaction commits.
+   *
+   * Other transactions do not see the changes until then, so the caches must
+   * not be updated before. The action runs immediately if there is no
+   * transaction.
+   *
+   * @param action the action to run. It cannot be null.
+   */
+  private void afterCommit(final Runnable action) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            public void afterCommit() {
+              action.run();
+            }
+          });
+    } else {
+      action.run();
+    }
   }
 
   /** Gets all the users using a filter.
+   *
+   * If the filter has a page size, this counts the matching users with a
+   * single count query, unless the paging asks for an estimated count. The
+   * page is then selected with a single query, by page number or, if the
+   * paging has an afterId, by seeking the users after the last one of the
+   * previous page. Either way, it only loads the users in the page. The roles
+   * of those users are loaded in a separate batch.
+   *
+   * The users are also ordered by id, so that the order is stable.
+   *
+   * The contains filter ignores case. If there is a text index, the users that
+   * contain a name or email are found in the index, that also selects the
+   * page. Then only the users in the page are loaded.
    *
    * @param userFilter Contain filter information. This parameter is passed by
-   * reference to add aditional. It cannot be null.
+   * reference to add aditional information: the total page number and the
+   * position of the last user of the page. It cannot be null.
    *
    * @return Returns a list with the user. If there are no users, it returns
    * the empty list. Never returns null.
@@ -99,59 +237,330 @@ public class UserRepository extends HibernateDaoSupport {
     log.trace("Entering getUsers");
     Validate.notNull(userFilter, "The user filter cannot be null");
 
-    Criteria criteria = getSession().createCriteria(User.class);
+    ContainsFilter contains = userFilter.getContainsFilter();
+    String column = getSortColumn(userFilter.getSorting());
+    if (textIndex != null && textIndex.supports(contains.getColumnName())
+        && !StringUtils.isBlank(contains.getValue())
+        && (column == null || textIndex.supports(column))) {
+      List<User> result = getUsersFromIndex(userFilter);
+      log.trace("Leaving getUsers");
+      return result;
+    }
+
+    Paging paging = userFilter.getPaging();
+    int pageSize = paging.getPageSize();
+
+    // Counts the matching users, without loading them.
+    if (pageSize > 0 && !paging.isEstimatedCount()) {
+      Criteria count = createCriteria(userFilter.getContainsFilter());
+      count.setProjection(Projections.rowCount());
+      int totalResult = ((Number) count.uniqueResult()).intValue();
+      int totalPageNumber = totalResult / pageSize;
+      if (totalResult % pageSize != 0) {
+        totalPageNumber++;
+      }
+      paging.setTotalPageNumber(totalPageNumber);
+    }
+
+    Criteria criteria = createCriteria(userFilter.getContainsFilter());
     criteria.setCacheable(true);
+    // Joining the roles would return a row per role, and break the page
+    // limits.
+    criteria.setFetchMode("roles", FetchMode.SELECT);
+
+    // Add the order criteria, by the sort column and then by id.
+    boolean ascending = isAscending(userFilter.getSorting());
+    if (column != null) {
+      criteria.addOrder(order(column, ascending));
+    }
+    criteria.addOrder(order(ID, ascending));
 
-    // Add the order criteria.
-    Sorting sorting = userFilter.getSorting();
-    if (!StringUtils.isBlank(sorting.getColumnName())) {
-      if (sorting.isAscendingOrder()) {
-        criteria.addOrder(org.hibernate.criterion.Order.asc(sorting
-            .getColumnName()));
+    // Set the paging configuration.
+    if (pageSize > 0) {
+      if (paging.getAfterId() != 0
+          && (column == null || paging.getAfterValue() != null)) {
+        criteria.add(after(column, ascending, paging));
+      } else {
+        criteria.setFirstResult(paging.getPageNumber() * pageSize);
+      }
+      if (paging.isEstimatedCount()) {
+        // One more user to know if there is a next page.
+        criteria.setMaxResults(pageSize + 1);
       } else {
-        criteria.addOrder(org.hibernate.criterion.Order.desc(sorting
-            .getColumnName()));
+        criteria.setMaxResults(pageSize);
       }
     }
 
-    // Add the restriction like.
-    ContainsFilter contains = userFilter.getContainsFilter();
-    if (!StringUtils.isBlank(contains.getColumnName())) {
-      criteria.add(Restrictions.like(contains.getColumnName(), "%"
-          + contains.getValue() + "%"));
+    List<User> result = criteria.list();
+
+    if (pageSize > 0 && paging.isEstimatedCount()) {
+      int totalPageNumber = paging.getPageNumber() + 1;
+      if (result.size() > pageSize) {
+        totalPageNumber++;
+        result = new ArrayList<User>(result.subList(0, pageSize));
+      }
+      paging.setTotalPageNumber(totalPageNumber);
     }
 
-    // Set the paging configuration.
+    setLastPosition(paging, result, column);
+    log.trace("Leaving getUsers");
+    return result;
+  }
+
+  /** Gets the users that contain a name or email, using the text index.
+   *
+   * The index finds, sorts and pages the matching users. Then this loads
+   * only the users in the page.
+   *
+   * @param userFilter the filter, with a contains filter by a column in the
+   * text index and sorted by a column in the index or by id. It cannot be
+   * null.
+   *
+   * @return the users in the page, never null.
+   */
+  @SuppressWarnings(value = { "unchecked" })
+  private List<User> getUsersFromIndex(final UserFilter userFilter) {
+    if (!textIndex.isLoaded()) {
+      loadTextIndex();
+    }
+    ContainsFilter contains = userFilter.getContainsFilter();
+    List<UserTextIndex.Entry> matches;
+    matches = textIndex.find(contains.getColumnName(), contains.getValue());
+
+    final String column = getSortColumn(userFilter.getSorting());
+    final boolean ascending = isAscending(userFilter.getSorting());
+    Collections.sort(matches, new Comparator<UserTextIndex.Entry>() {
+      public int compare(final UserTextIndex.Entry a,
+          final UserTextIndex.Entry b) {
+        int result = 0;
+        if (UserTextIndex.NAME.equals(column)) {
+          result = a.getName().compareTo(b.getName());
+        } else if (UserTextIndex.EMAIL.equals(column)) {
+          result = a.getEmail().compareTo(b.getEmail());
+        }
+        if (result == 0) {
+          result = a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0
+              : 1);
+        }
+        return ascending ? result : -result;
+      }
+    });
+
     Paging paging = userFilter.getPaging();
-    if (paging.getPageSize() > 0) {
-      int pageSize = paging.getPageSize();
-      int totalResult = criteria.list().size();
-      int totalPageNumber = totalResult / pageSize;
-      if (totalResult % pageSize != 0) {
+    int pageSize = paging.getPageSize();
+    int from = 0;
+    int to = matches.size();
+    if (pageSize > 0) {
+      // The index knows the exact count, there is no need to estimate it.
+      int totalPageNumber = matches.size() / pageSize;
+      if (matches.size() % pageSize != 0) {
         totalPageNumber++;
       }
       paging.setTotalPageNumber(totalPageNumber);
-      criteria.setFirstResult(paging.getPageNumber() * pageSize);
-      criteria.setMaxResults(pageSize);
+      from = paging.getPageNumber() * pageSize;
+      if (paging.getAfterId() != 0) {
+        for (int i = 0; i < matches.size(); ++i) {
+          if (matches.get(i).getId() == paging.getAfterId()) {
+            from = i + 1;
+          }
+        }
+      }
+      from = Math.min(from, matches.size());
+      to = Math.min(from + pageSize, matches.size());
     }
 
-    // Obtains the ids of the users matching the conditions.
-    criteria.setProjection(Projections.projectionList().add(Projections.id()));
-    List<Long> ids = criteria.list();
+    List<User> result = new ArrayList<User>();
+    if (from < to) {
+      List<Long> ids = new ArrayList<Long>();
+      for (UserTextIndex.Entry entry : matches.subList(from, to)) {
+        ids.add(entry.getId());
+      }
+      Criteria criteria = getSession().createCriteria(User.class);
+      criteria.add(Restrictions.in(ID, ids));
+      // Checks the users again, in case the index is out of date.
+      criteria.add(Restrictions.ilike(contains.getColumnName(),
+            contains.getValue(), MatchMode.ANYWHERE));
+      criteria.setFetchMode("roles", FetchMode.SELECT);
+      Map<Long, User> users = new HashMap<Long, User>();
+      for (User user : (List<User>) criteria.list()) {
+        users.put(user.getId(), user);
+      }
+      // Keeps the order of the index.
+      for (Long id : ids) {
+        User user = users.get(id);
+        if (user != null) {
+          result.add(user);
+        }
+      }
+    }
+    setLastPosition(paging, result, column);
+    return result;
+  }
 
-    List<User> result = new LinkedList<User>();
-    if (!ids.isEmpty()) {
-      criteria.add(Restrictions.in("id", ids));
+  /** Loads the id, name and email of all the users in the text index.
+   *
+   * Only one thread loads the index, the others wait for it and use the index
+   * it loaded. The users saved or removed while the index is loaded are kept.
+   */
+  @SuppressWarnings(value = { "unchecked" })
+  private void loadTextIndex() {
+    synchronized (textIndexLoadLock) {
+      if (textIndex.isLoaded()) {
+        return;
+      }
+      log.debug("Loading the user text index");
+      textIndex.startLoad();
+      try {
+        List<Object[]> rows = getSession().createQuery(
+            "select user.id, user.name, user.email from User user").list();
+        List<UserTextIndex.Entry> entries;
+        entries = new ArrayList<UserTextIndex.Entry>(rows.size());
+        for (Object[] row : rows) {
+          entries.add(new UserTextIndex.Entry((Long) row[0], (String) row[1],
+                (String) row[2]));
+        }
+        textIndex.load(entries);
+      } finally {
+        textIndex.endLoad();
+      }
+    }
+  }
 
-      // Clean up from the last critiera run
-      criteria.setProjection(null);
-      criteria.setFirstResult(0);
-      criteria.setMaxResults(Integer.MAX_VALUE);
-      criteria.setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY);
-      result = criteria.list();
+  /** Obtains the column to sort the users by, besides the id.
+   *
+   * @param sorting the sorting component. It cannot be null.
+   *
+   * @return the column, null if the users are only sorted by id.
+   */
+  private String getSortColumn(final Sorting sorting) {
+    if (StringUtils.isBlank(sorting.getColumnName())
+        || ID.equals(sorting.getColumnName())) {
+      return null;
     }
-    log.trace("Leaving getUsers");
-    return result;
+    return sorting.getColumnName();
+  }
+
+  /** Whether the users are sorted in ascending order.
+   *
+   * @param sorting the sorting component. It cannot be null.
+   *
+   * @return true if ascending, the default when there is no sort column.
+   */
+  private boolean isAscending(final Sorting sorting) {
+    return sorting.isAscendingOrder()
+      || StringUtils.isBlank(sorting.getColumnName());
+  }
+
+  /** Keeps the position of the last user of the page, to seek the next page.
+   *
+   * @param paging the paging to update. It cannot be null.
+   *
+   * @param page the users in the page. It cannot be null.
+   *
+   * @param column the sort column, null if the users are only sorted by id.
+   */
+  private void setLastPosition(final Paging paging, final List<User> page,
+      final String column) {
+    paging.setLastId(0);
+    paging.setLastValue(null);
+    if (!page.isEmpty()) {
+      User last = page.get(page.size() - 1);
+      paging.setLastId(last.getId());
+      if (column != null) {
+        Object value = getMetadata().getPropertyValue(last, column,
+            EntityMode.POJO);
+        paging.setLastValue(getSortType(column).toString(value));
+      }
+    }
+  }
+
+  /** Creates a criteria for the users that match the contains filter.
+   *
+   * @param contains the contains filter. It cannot be null.
+   *
+   * @return a new criteria, never null.
+   */
+  private Criteria createCriteria(final ContainsFilter contains) {
+    Criteria criteria = getSession().createCriteria(User.class);
+    if (!StringUtils.isBlank(contains.getColumnName())) {
+      criteria.add(Restrictions.ilike(contains.getColumnName(),
+            contains.getValue(), MatchMode.ANYWHERE));
+    }
+    return criteria;
+  }
+
+  /** Creates an order by a property.
+   *
+   * @param property the property name. It cannot be null.
+   *
+   * @param ascending whether the order is ascending.
+   *
+   * @return the order, never null.
+   */
+  private Order order(final String property, final boolean ascending) {
+    if (ascending) {
+      return Order.asc(property);
+    } else {
+      return Order.desc(property);
+    }
+  }
+
+  /** Creates a restriction for the users after the last user of the previous
+   * page, in the sort order.
+   *
+   * @param column the sort column, null if the users are only sorted by id.
+   *
+   * @param ascending whether the order is ascending.
+   *
+   * @param paging the paging with the afterId and afterValue of the last user
+   * of the previous page. It cannot be null.
+   *
+   * @return the restriction, never null.
+   */
+  private Criterion after(final String column, final boolean ascending,
+      final Paging paging) {
+    Long id = paging.getAfterId();
+    Criterion afterId;
+    if (ascending) {
+      afterId = Restrictions.gt(ID, id);
+    } else {
+      afterId = Restrictions.lt(ID, id);
+    }
+    if (column == null) {
+      return afterId;
+    }
+    Object value = getSortType(column).fromStringValue(paging.getAfterValue());
+    Criterion afterValue;
+    if (ascending) {
+      afterValue = Restrictions.gt(column, value);
+    } else {
+      afterValue = Restrictions.lt(column, value);
+    }
+    return Restrictions.or(afterValue, Restrictions.and(
+          Restrictions.eq(column, value), afterId));
+  }
+
+  /** Obtains the hibernate metadata of the users.
+   *
+   * @return the metadata, never null.
+   */
+  private ClassMetadata getMetadata() {
+    return getSessionFactory().getClassMetadata(User.class);
+  }
+
+  /** Obtains the type of a sort column, to convert its values from and to
+   * strings.
+   *
+   * @param column the name of the column. It cannot be null.
+   *
+   * @return the type, never null.
+   */
+  private NullableType getSortType(final String column) {
+    Type type = getMetadata().getPropertyType(column);
+    if (!(type instanceof NullableType)) {
+      throw new IllegalArgumentException("Cannot page by " + column);
+    }
+    return (NullableType) type;
   }
 
   /** Finds the user with the specified id.
@@ -162,7 +571,6 @@ public class UserRepository extends HibernateDaoSupport {
    * exists.
    */
   public User findUser(final long id) {
-    getHibernateTemplate().setCacheQueries(true);
     return (User) getHibernateTemplate().get(User.class, id);
   }
 }
@@ -0,0 +1,438 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.user.domain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.Validate;
+
+/** An in memory trigram index of the user names and emails.
+ *
+ * It finds the users whose name or email contain a value, ignoring case,
+ * without scanning the users table. For each column, the index maps every
+ * sequence of three characters (a trigram) to the users that contain it. A
+ * search intersects the users of each trigram in the value and then checks
+ * that the candidates really contain the value. Values shorter than a
+ * trigram are checked against every user in memory.
+ *
+ * The index is loaded from the database by the UserRepository, and kept up to
+ * date when the repository saves or removes users. Changes made by other
+ * means, like in other servers, are seen after the time to live, when the
+ * repository loads the index again. The changes made between startLoad and
+ * load are applied again after the load, because the loaded users may have
+ * been read before those changes were committed.
+ *
+ * This class is thread safe.
+ */
+public class UserTextIndex {
+
+  /** The name column. */
+  public static final String NAME = "name";
+
+  /** The email column. */
+  public static final String EMAIL = "email";
+
+  /** The length of the indexed character sequences. */
+  private static final int GRAM_LENGTH = 3;
+
+  /** The users in the index, by slot number.
+   *
+   * Removed users leave a null slot, their trigrams are discarded on the next
+   * load. It is never null.
+   */
+  private List<Entry> slots = new ArrayList<Entry>();
+
+  /** The slot of each user, by user id. It is never null. */
+  private Map<Long, Integer> slotById = new HashMap<Long, Integer>();
+
+  /** The slots of the users whose name contains each trigram.
+   *
+   * The slots in each list are in ascending order. It is never null.
+   */
+  private Map<String, SlotList> nameGrams = new HashMap<String, SlotList>();
+
+  /** The slots of the users whose email contains each trigram.
+   *
+   * The slots in each list are in ascending order. It is never null.
+   */
+  private Map<String, SlotList> emailGrams = new HashMap<String, SlotList>();
+
+  /** The users put or removed since startLoad, by user id.
+   *
+   * A null entry is a removed user. It is null if the index is not being
+   * loaded.
+   */
+  private Map<Long, Entry> changesInLoad = null;
+
+  /** The time the index was loaded, in milliseconds. 0 if not loaded. */
+  private long loadTime = 0;
+
+  /** The time until the index must be loaded again, in milliseconds.
+   *
+   * 0 means that the index does not expire.
+   */
+  private long timeToLive = 0;
+
+  /** Sets the time until the index must be loaded again.
+   *
+   * @param theTimeToLive the time in milliseconds, 0 so that the index never
+   * expires. It cannot be negative.
+   */
+  public synchronized void setTimeToLive(final long theTimeToLive) {
+    Validate.isTrue(theTimeToLive >= 0,
+        "The time to live cannot be negative.");
+    timeToLive = theTimeToLive;
+  }
+
+  /** Whether the index is loaded and not expired.
+   *
+   * @return false if the index must be loaded before use.
+   */
+  public synchronized boolean isLoaded() {
+    if (loadTime == 0) {
+      return false;
+    }
+    return timeToLive == 0
+      || System.currentTimeMillis() - loadTime < timeToLive;
+  }
+
+  /** Whether a column can be searched in this index.
+   *
+   * @param column the column name. It can be null.
+   *
+   * @return true for the name and email columns.
+   */
+  public boolean supports(final String column) {
+    return NAME.equals(column) || EMAIL.equals(column);
+  }
+
+  /** Starts recording the users that are put or removed, to apply them again
+   * after the next load.
+   *
+   * Call this before reading the users to load.
+   */
+  public synchronized void startLoad() {
+    changesInLoad = new LinkedHashMap<Long, Entry>();
+  }
+
+  /** Stops recording the users that are put or removed.
+   *
+   * Call this if the users to load could not be read. It does nothing after
+   * load.
+   */
+  public synchronized void endLoad() {
+    changesInLoad = null;
+  }
+
+  /** Replaces the content of the index.
+   *
+   * The users put or removed since startLoad are applied on top of the new
+   * content.
+   *
+   * @param users the users to index. It cannot be null.
+   */
+  public synchronized void load(final List<Entry> users) {
+    Validate.notNull(users, "The users cannot be null.");
+    slots = new ArrayList<Entry>(users.size());
+    slotById = new HashMap<Long, Integer>(users.size());
+    nameGrams = new HashMap<String, SlotList>();
+    emailGrams = new HashMap<String, SlotList>();
+    for (Entry user : users) {
+      add(user);
+    }
+    if (changesInLoad != null) {
+      for (Map.Entry<Long, Entry> change : changesInLoad.entrySet()) {
+        discard(change.getKey());
+        if (change.getValue() != null) {
+          add(change.getValue());
+        }
+      }
+      changesInLoad = null;
+    }
+    loadTime = System.currentTimeMillis();
+  }
+
+  /** Adds or updates a user in the index.
+   *
+   * @param id the user id.
+   *
+   * @param name the user name. It cannot be null.
+   *
+   * @param email the user email. It cannot be null.
+   */
+  public synchronized void put(final long id, final String name,
+      final String email) {
+    Entry user = new Entry(id, name, email);
+    discard(id);
+    add(user);
+    if (changesInLoad != null) {
+      changesInLoad.put(id, user);
+    }
+  }
+
+  /** Removes a user from the index.
+   *
+   * @param id the user id. Unknown ids are ignored.
+   */
+  public synchronized void remove(final long id) {
+    discard(id);
+    if (changesInLoad != null) {
+      changesInLoad.put(id, null);
+    }
+  }
+
+  /** Finds the users whose column contains the value, ignoring case.
+   *
+   * @param column the column name, name or email. It cannot be null.
+   *
+   * @param value the value to search for. It cannot be null.
+   *
+   * @return the matching users, in no particular order. Never null.
+   */
+  public synchronized List<Entry> find(final String column,
+      final String value) {
+    Validate.isTrue(supports(column), "The column " + column
+        + " is not indexed.");
+    Validate.notNull(value, "The value cannot be null.");
+    boolean name = NAME.equals(column);
+    String lowerValue = value.toLowerCase();
+
+    List<Entry> result = new ArrayList<Entry>();
+    if (lowerValue.length() < GRAM_LENGTH) {
+      for (Entry user : slots) {
+        if (user != null && user.contains(name, lowerValue)) {
+          result.add(user);
+        }
+      }
+      return result;
+    }
+
+    Map<String, SlotList> grams;
+    if (name) {
+      grams = nameGrams;
+    } else {
+      grams = emailGrams;
+    }
+    SlotList candidates = null;
+    for (String gram : trigrams(lowerValue)) {
+      SlotList slotList = grams.get(gram);
+      if (slotList == null) {
+        return result;
+      }
+      if (candidates == null) {
+        candidates = slotList;
+      } else {
+        candidates = candidates.intersect(slotList);
+      }
+    }
+    for (int i = 0; i < candidates.size; ++i) {
+      Entry user = slots.get(candidates.slots[i]);
+      // The trigrams may be in a different order, check the whole value.
+      if (user != null && user.contains(name, lowerValue)) {
+        result.add(user);
+      }
+    }
+    return result;
+  }
+
+  /** Returns the number of users in the index.
+   *
+   * @return the number of users.
+   */
+  public synchronized int size() {
+    return slotById.size();
+  }
+
+  /** Empties the slot of a user.
+   *
+   * @param id the user id. Unknown ids are ignored.
+   */
+  private void discard(final long id) {
+    Integer slot = slotById.remove(id);
+    if (slot != null) {
+      slots.set(slot, null);
+    }
+  }
+
+  /** Adds a user in a new slot.
+   *
+   * @param user the user to add. It cannot be null.
+   */
+  private void add(final Entry user) {
+    int slot = slots.size();
+    slots.add(user);
+    slotById.put(user.getId(), slot);
+    addGrams(nameGrams, user.lowerName, slot);
+    addGrams(emailGrams, user.lowerEmail, slot);
+  }
+
+  /** Adds a slot to the lists of each trigram of a value.
+   *
+   * @param grams the lists of slots by trigram. It cannot be null.
+   *
+   * @param lowerValue the lower case value. It cannot be null.
+   *
+   * @param slot the slot, greater than any slot already in the lists.
+   */
+  private static void addGrams(final Map<String, SlotList> grams,
+      final String lowerValue, final int slot) {
+    for (String gram : trigrams(lowerValue)) {
+      SlotList slotList = grams.get(gram);
+      if (slotList == null) {
+        slotList = new SlotList();
+        grams.put(gram, slotList);
+      }
+      slotList.add(slot);
+    }
+  }
+
+  /** Obtains the distinct trigrams of a value.
+   *
+   * @param value the value. It cannot be null.
+   *
+   * @return the trigrams, empty if the value is shorter than a trigram.
+   */
+  private static Set<String> trigrams(final String value) {
+    Set<String> result = new LinkedHashSet<String>();
+    for (int i = 0; i + GRAM_LENGTH <= value.length(); ++i) {
+      result.add(value.substring(i, i + GRAM_LENGTH));
+    }
+    return result;
+  }
+
+  /** A user in the index.
+   */
+  public static final class Entry {
+
+    /** The user id. */
+    private final long id;
+
+    /** The user name, never null. */
+    private final String name;
+
+    /** The user email, never null. */
+    private final String email;
+
+    /** The lower case user name, never null. */
+    private final String lowerName;
+
+    /** The lower case user email, never null. */
+    private final String lowerEmail;
+
+    /** Creates an index entry.
+     *
+     * @param theId the user id.
+     *
+     * @param theName the user name. It cannot be null.
+     *
+     * @param theEmail the user email. It cannot be null.
+     */
+    public Entry(final long theId, final String theName,
+        final String theEmail) {
+      Validate.notNull(theName, "The name cannot be null.");
+      Validate.notNull(theEmail, "The email cannot be null.");
+      id = theId;
+      name = theName;
+      email = theEmail;
+      lowerName = theName.toLowerCase();
+      lowerEmail = theEmail.toLowerCase();
+    }
+
+    /** Returns the user id.
+     *
+     * @return the id.
+     */
+    public long getId() {
+      return id;
+    }
+
+    /** Returns the user name.
+     *
+     * @return the name, never null.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /** Returns the user email.
+     *
+     * @return the email, never null.
+     */
+    public String getEmail() {
+      return email;
+    }
+
+    /** Whether the name or the email contains a value.
+     *
+     * @param name true to check the name, false to check the email.
+     *
+     * @param lowerValue the lower case value. It cannot be null.
+     *
+     * @return true if the column contains the value, ignoring case.
+     */
+    private boolean contains(final boolean name, final String lowerValue) {
+      if (name) {
+        return lowerName.contains(lowerValue);
+      } else {
+        return lowerEmail.contains(lowerValue);
+      }
+    }
+  }
+
+  /** A growable list of slots, in ascending order.
+   */
+  private static final class SlotList {
+
+    /** The initial capacity of the list. */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** The slots, only the first size elements are used. Never null. */
+    private int[] slots = new int[INITIAL_CAPACITY];
+
+    /** The number of slots in the list. */
+    private int size = 0;
+
+    /** Adds a slot at the end of the list.
+     *
+     * @param slot the slot, greater than the last one in the list.
+     */
+    private void add(final int slot) {
+      if (size == slots.length) {
+        int[] grown = new int[size * 2];
+        System.arraycopy(slots, 0, grown, 0, size);
+        slots = grown;
+      }
+      slots[size++] = slot;
+    }
+
+    /** Returns the slots that are in this list and in other.
+     *
+     * @param other the other list. It cannot be null.
+     *
+     * @return a new list, never null.
+     */
+    private SlotList intersect(final SlotList other) {
+      SlotList result = new SlotList();
+      int i = 0;
+      int j = 0;
+      while (i < size && j < other.size) {
+        if (slots[i] < other.slots[j]) {
+          ++i;
+        } else if (slots[i] > other.slots[j]) {
+          ++j;
+        } else {
+          result.add(slots[i]);
+          ++i;
+          ++j;
+        }
+      }
+      return result;
+    }
+  }
+}
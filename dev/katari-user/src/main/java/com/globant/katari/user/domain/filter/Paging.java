@@ -6,6 +6,11 @@ package com.globant.katari.user.domain.filter;
  *
  * For an entity to match this filter, the result set must to contain
  * elements correspondign to the paging information specified.
+ *
+ * Pages are normally selected by page number. To move to the next page
+ * without skipping over all the previous rows, set afterId and afterValue to
+ * the lastId and lastValue obtained with the current page. The page number is
+ * then only used to compute the total page number.
  */
 public class Paging {
 
@@ -27,6 +32,32 @@ public class Paging {
    */
   private int totalPageNumber = 0;
 
+  /** Whether the total page number is estimated instead of counted.
+   */
+  private boolean estimatedCount = false;
+
+  /** The id of the last row of the previous page, 0 to select the page by
+   * number.
+   */
+  private long afterId = 0;
+
+  /** The value of the sort column in the last row of the previous page.
+   *
+   * It is null if there is no previous page or the page is selected by
+   * number.
+   */
+  private String afterValue = null;
+
+  /** The id of the last row of the current page, 0 if the page is empty.
+   */
+  private long lastId = 0;
+
+  /** The value of the sort column in the last row of the current page.
+   *
+   * It is null if the page is empty or there is no sort column.
+   */
+  private String lastValue = null;
+
   /** Get the page Number.
    *
    * @return Returns the page number.
@@ -76,4 +107,90 @@ public class Paging {
   public final void setTotalPageNumber(final int theTotalPageNumber) {
     this.totalPageNumber = theTotalPageNumber;
   }
+
+  /** Whether the total page number is estimated instead of counted.
+   *
+   * @return true if the total page number is estimated.
+   */
+  public final boolean isEstimatedCount() {
+    return estimatedCount;
+  }
+
+  /** Sets whether the total page number is estimated instead of counted.
+   *
+   * Counting the rows of a large table is expensive. When estimated, the
+   * total page number is the current page plus one if there are more rows,
+   * so it is only good to know if there is a next page.
+   *
+   * @param theEstimatedCount true to estimate the total page number.
+   */
+  public final void setEstimatedCount(final boolean theEstimatedCount) {
+    estimatedCount = theEstimatedCount;
+  }
+
+  /** Gets the id of the last row of the previous page.
+   *
+   * @return the id, 0 if the page is selected by number.
+   */
+  public final long getAfterId() {
+    return afterId;
+  }
+
+  /** Sets the id of the last row of the previous page.
+   *
+   * @param theAfterId the id, 0 to select the page by number.
+   */
+  public final void setAfterId(final long theAfterId) {
+    afterId = theAfterId;
+  }
+
+  /** Gets the value of the sort column in the last row of the previous page.
+   *
+   * @return the value, null if not set.
+   */
+  public final String getAfterValue() {
+    return afterValue;
+  }
+
+  /** Sets the value of the sort column in the last row of the previous page.
+   *
+   * @param theAfterValue the value. It is ignored if afterId is 0 or there is
+   * no sort column.
+   */
+  public final void setAfterValue(final String theAfterValue) {
+    afterValue = theAfterValue;
+  }
+
+  /** Gets the id of the last row of the current page.
+   *
+   * @return the id, 0 if the page is empty.
+   */
+  public final long getLastId() {
+    return lastId;
+  }
+
+  /** Sets the id of the last row of the current page.
+   *
+   * @param theLastId the id, 0 if the page is empty.
+   */
+  public final void setLastId(final long theLastId) {
+    lastId = theLastId;
+  }
+
+  /** Gets the value of the sort column in the last row of the current page.
+   *
+   * @return the value, null if the page is empty or there is no sort column.
+   */
+  public final String getLastValue() {
+    return lastValue;
+  }
+
+  /** Sets the value of the sort column in the last row of the current page.
+   *
+   * @param theLastValue the value, null if the page is empty or there is no
+   * sort column.
+   */
+  public final void setLastValue(final String theLastValue) {
+    lastValue = theLastValue;
+  }
 }
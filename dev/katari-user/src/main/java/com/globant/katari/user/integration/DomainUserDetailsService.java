@@ -16,6 +16,11 @@ import com.globant.katari.user.domain.UserRepository;
 
 /** A user details service needed by acegi, that that obtains the user
  * information from the application domain.
+ *
+ * If configured with a user cache, the user id is first looked up in the
+ * cache, and the user is loaded by id. This reads the user from the hibernate
+ * second level cache, if enabled, instead of querying it by name. Each call
+ * obtains its own user instance.
  */
 public class DomainUserDetailsService implements UserDetailsService {
 
@@ -30,6 +35,12 @@ public class DomainUserDetailsService implements UserDetailsService {
    */
   private UserRepository userRepository;
 
+  /** The cache of user details.
+   *
+   * It is null if the user details are not cached.
+   */
+  private UserDetailsCache userCache = null;
+
   /** Builds an instance of this service.
    *
    * @param theUserRepository The user repository to get the domain user from.
@@ -40,6 +51,15 @@ public class DomainUserDetailsService implements UserDetailsService {
     userRepository = theUserRepository;
   }
 
+  /** Sets the cache of user details.
+   *
+   * @param theUserCache The cache. It cannot be null.
+   */
+  public void setUserCache(final UserDetailsCache theUserCache) {
+    Validate.notNull(theUserCache, "The user cache cannot be null");
+    userCache = theUserCache;
+  }
+
   /** Obtains the user details from a user name.
    *
    * @param username The user name to search. This cannot be null.
@@ -53,13 +73,33 @@ public class DomainUserDetailsService implements UserDetailsService {
 
     Validate.notNull(username, "The username cannot be null");
 
-    User user = userRepository.findUserByName(username);
+    User user = null;
+    if (userCache != null) {
+      UserDetailsCache.CachedUser cached;
+      cached = userCache.getUserFromCache(username);
+      if (cached != null) {
+        user = userRepository.findUser(cached.getUserId());
+        if (user != null && !username.equals(user.getName())) {
+          // Renamed since it was cached.
+          user = null;
+        }
+      }
+    }
+    if (user != null) {
+      log.trace("Leaving loadUserByUsername with a cached user");
+      return new DomainUserDetails(user);
+    }
+
+    user = userRepository.findUserByName(username);
 
     if (user == null) {
       throw new UsernameNotFoundException("User not found: " + username);
     }
 
     UserDetails userDetails = new DomainUserDetails(user);
+    if (userCache != null) {
+      userCache.putUserInCache(userDetails);
+    }
 
     log.trace("Leaving loadUserByUsername");
     return userDetails;
@@ -0,0 +1,181 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.user.integration;
+
+import org.apache.commons.lang.Validate;
+
+import org.acegisecurity.providers.dao.UserCache;
+import org.acegisecurity.userdetails.UserDetails;
+
+import com.globant.katari.core.cache.LruCache;
+import com.globant.katari.hibernate.coreuser.domain.CoreUserDetails;
+
+/** A small in memory cache of user details, by user name, that expire after a
+ * time to live.
+ *
+ * The DomainUserDetailsService uses this cache so that authenticating a user
+ * on every request does not go to the database. The cache keeps a snapshot of
+ * the name, password, roles and user id of each user, never the user entity,
+ * so no entity is shared between requests. The UserRepository evicts the
+ * users it saves or removes, so a password change or a deactivation is seen
+ * on the next request. Changes made by other means, like in other servers or
+ * a user renamed (the old name is not evicted), are seen after the time to
+ * live.
+ *
+ * This class is thread safe.
+ */
+public class UserDetailsCache implements UserCache {
+
+  /** The default maximum number of cached users.
+   */
+  private static final int DEFAULT_MAX_SIZE = 1000;
+
+  /** The default time to live of the cached users, in milliseconds.
+   */
+  private static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+  /** The cached user details, by user name.
+   *
+   * It is never null.
+   */
+  private final LruCache<String, Entry> cache;
+
+  /** The time that the user details are kept in the cache, in milliseconds.
+   */
+  private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+  /** Creates a cache of up to 1000 users.
+   */
+  public UserDetailsCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /** Creates a cache.
+   *
+   * @param theMaxSize the maximum number of cached users. It must be greater
+   * than 0.
+   */
+  public UserDetailsCache(final int theMaxSize) {
+    cache = new LruCache<String, Entry>(theMaxSize);
+  }
+
+  /** Sets the time that the user details are kept in the cache.
+   *
+   * @param theTimeToLive the time to live in milliseconds. It must be greater
+   * than 0.
+   */
+  public void setTimeToLive(final long theTimeToLive) {
+    Validate.isTrue(theTimeToLive > 0, "The time to live must be positive.");
+    timeToLive = theTimeToLive;
+  }
+
+  /** Obtains the snapshot of the user details of a user, if cached and not
+   * expired.
+   *
+   * @param username the user name. It cannot be null.
+   *
+   * @return the snapshot of the user details, or null if not in the cache.
+   */
+  public CachedUser getUserFromCache(final String username) {
+    Validate.notNull(username, "The user name cannot be null.");
+    Entry entry = cache.get(username);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiration <= System.currentTimeMillis()) {
+      cache.remove(username);
+      return null;
+    }
+    return entry.user;
+  }
+
+  /** Adds a snapshot of the user details to the cache, replacing the cached
+   * ones for the same user name.
+   *
+   * @param user the user details. It cannot be null.
+   */
+  public void putUserInCache(final UserDetails user) {
+    Validate.notNull(user, "The user details cannot be null.");
+    cache.put(user.getUsername(), new Entry(new CachedUser(user),
+          System.currentTimeMillis() + timeToLive));
+  }
+
+  /** Removes a user from the cache.
+   *
+   * @param username the user name. It cannot be null. Users not in the cache
+   * are ignored.
+   */
+  public void removeUserFromCache(final String username) {
+    Validate.notNull(username, "The user name cannot be null.");
+    cache.remove(username);
+  }
+
+  /** Removes all the users from the cache.
+   */
+  public void clear() {
+    cache.clear();
+  }
+
+  /** An immutable snapshot of the user details of a user.
+   */
+  public static final class CachedUser
+      extends org.acegisecurity.userdetails.User {
+
+    /** The serialization version number.
+     *
+     * This number must change every time a new serialization incompatible
+     * change is introduced in the class.
+     */
+    private static final long serialVersionUID = 1;
+
+    /** The id of the user, 0 if the user details do not come from a core
+     * user.
+     */
+    private final long userId;
+
+    /** Copies the user details.
+     *
+     * @param user the user details. It cannot be null.
+     */
+    private CachedUser(final UserDetails user) {
+      super(user.getUsername(), user.getPassword(), user.isEnabled(),
+          user.isAccountNonExpired(), user.isCredentialsNonExpired(),
+          user.isAccountNonLocked(), user.getAuthorities());
+      if (user instanceof CoreUserDetails) {
+        userId = ((CoreUserDetails) user).getCoreUser().getId();
+      } else {
+        userId = 0;
+      }
+    }
+
+    /** Returns the id of the user.
+     *
+     * @return the id, 0 if the user details do not come from a core user.
+     */
+    public long getUserId() {
+      return userId;
+    }
+  }
+
+  /** A cached user details with its expiration time.
+   */
+  private static final class Entry {
+
+    /** The snapshot of the user details, never null. */
+    private final CachedUser user;
+
+    /** The time the entry expires, in milliseconds. */
+    private final long expiration;
+
+    /** Creates an entry.
+     *
+     * @param theUser the snapshot of the user details. It cannot be null.
+     *
+     * @param theExpiration the time the entry expires, in milliseconds.
+     */
+    private Entry(final CachedUser theUser, final long theExpiration) {
+      user = theUser;
+      expiration = theExpiration;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.user.domain;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.acegisecurity.providers.dao.UserCache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.orm.hibernate3.HibernateTemplate;
+
+import com.globant.katari.hibernate.coreuser.domain.CoreUser;
+import com.globant.katari.hibernate.coreuser.domain.Role;
+import com.globant.katari.tools.HibernateTestUtils;
+
+/** Tests the cached user lookups of UserRepository.
+ *
+ * It uses its own in memory database with the second level and query caches
+ * enabled. Each lookup runs in a new session, so the users come from the
+ * second level cache and not from the session.
+ */
+public class UserRepositoryCacheTest {
+
+  private SessionFactory sessionFactory;
+
+  private Statistics statistics;
+
+  private UserRepository repository;
+
+  @Before
+  public void setUp() {
+    sessionFactory = HibernateTestUtils.enableCache(
+        HibernateTestUtils.createConfiguration("usercache", CoreUser.class,
+          User.class, Role.class)).buildSessionFactory();
+    statistics = sessionFactory.getStatistics();
+
+    Session session = sessionFactory.openSession();
+    session.beginTransaction();
+    Role admin = new Role("ADMINISTRATOR");
+    session.save(admin);
+    for (int i = 0; i < 3; ++i) {
+      User user = new User("user " + i, "user" + i + "@none");
+      user.addRole(admin);
+      session.save(user);
+    }
+    session.getTransaction().commit();
+    session.close();
+
+    repository = new UserRepository();
+    repository.setSessionFactory(sessionFactory);
+  }
+
+  @After
+  public void tearDown() {
+    sessionFactory.close();
+  }
+
+  @Test
+  public void testFindUserByName_cached() {
+    User user = repository.findUserByName("user 1");
+    assertEquals("user1@none", user.getEmail());
+
+    statistics.clear();
+    user = repository.findUserByName("user 1");
+    assertEquals("user1@none", user.getEmail());
+    assertEquals(1, user.getRoles().size());
+    assertEquals(0, statistics.getPrepareStatementCount());
+    assertEquals(1, statistics.getQueryCacheHitCount());
+
+    // Unknown users are never cached.
+    assertNull(repository.findUserByName("none"));
+  }
+
+  @Test
+  public void testFindUserByEmail_cached() {
+    assertEquals("user 2", repository.findUserByEmail("user2@none").getName());
+
+    statistics.clear();
+    assertEquals("user 2", repository.findUserByEmail("user2@none").getName());
+    assertEquals(0, statistics.getPrepareStatementCount());
+  }
+
+  @Test
+  public void testFindUserByName_closesSession() {
+    statistics.clear();
+    // There is no transaction, each lookup opens and closes its session.
+    repository.findUserByName("user 1");
+    repository.findUserByEmail("user1@none");
+    assertEquals(2, statistics.getSessionOpenCount());
+    assertEquals(2, statistics.getSessionCloseCount());
+  }
+
+  @Test
+  public void testFindUserByName_renamed() {
+    User user = repository.findUserByName("user 1");
+
+    Session session = sessionFactory.openSession();
+    session.beginTransaction();
+    user = (User) session.get(User.class, user.getId());
+    user.modify("renamed", "renamed@none");
+    session.getTransaction().commit();
+    session.close();
+
+    assertNull(repository.findUserByName("user 1"));
+    assertEquals("renamed@none",
+        repository.findUserByName("renamed").getEmail());
+  }
+
+  @Test
+  public void testSave_evictsUserDetails() {
+    User user = new User("user 5", "user5@none");
+    HibernateTemplate template = createMock(HibernateTemplate.class);
+    template.saveOrUpdate(user);
+    template.delete(user);
+    replay(template);
+    UserCache cache = createMock(UserCache.class);
+    cache.removeUserFromCache("user 5");
+    expectLastCall().times(2);
+    replay(cache);
+
+    repository.setHibernateTemplate(template);
+    repository.setUserDetailsCache(cache);
+    repository.save(user);
+    repository.remove(user);
+    verify(template);
+    verify(cache);
+  }
+}
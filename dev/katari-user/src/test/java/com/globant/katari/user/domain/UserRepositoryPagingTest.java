@@ -0,0 +1,281 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.user.domain;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.orm.hibernate3.HibernateTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.globant.katari.hibernate.coreuser.domain.CoreUser;
+import com.globant.katari.hibernate.coreuser.domain.Role;
+import com.globant.katari.tools.HibernateTestUtils;
+import com.globant.katari.user.domain.filter.Paging;
+
+/** Tests the pagination of UserRepository.getUsers.
+ *
+ * It uses its own in memory database, with 30 users named 'user nn', saved
+ * in reverse order so that the name order is different from the id order.
+ */
+public class UserRepositoryPagingTest {
+
+  private static final int USERS = 30;
+
+  private SessionFactory sessionFactory;
+
+  private UserRepository repository;
+
+  @Before
+  public void setUp() {
+    sessionFactory = HibernateTestUtils.createConfiguration("paging",
+        CoreUser.class, User.class, Role.class).buildSessionFactory();
+
+    Session session = sessionFactory.openSession();
+    session.beginTransaction();
+    Role admin = new Role("ADMINISTRATOR");
+    Role guest = new Role("GUEST");
+    session.save(admin);
+    session.save(guest);
+    for (int i = USERS - 1; i >= 0; --i) {
+      String name = String.format("user %02d", i);
+      User user = new User(name, name + "@none");
+      user.addRole(admin);
+      user.addRole(guest);
+      session.save(user);
+    }
+    session.getTransaction().commit();
+    session.close();
+
+    repository = new UserRepository();
+    repository.setSessionFactory(sessionFactory);
+  }
+
+  @After
+  public void tearDown() {
+    sessionFactory.close();
+  }
+
+  private UserFilter filter(final int pageSize, final String column,
+      final boolean ascending) {
+    UserFilter filter = new UserFilter();
+    filter.getPaging().setPageSize(pageSize);
+    filter.getSorting().setColumnName(column);
+    filter.getSorting().setAscendingOrder(ascending);
+    return filter;
+  }
+
+  private List<String> names(final List<User> users) {
+    List<String> names = new ArrayList<String>();
+    for (User user : users) {
+      names.add(user.getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void testGetUsers_count() {
+    UserFilter filter = filter(7, "name", true);
+    filter.getPaging().setPageNumber(4);
+    List<User> users = repository.getUsers(filter);
+    assertEquals(5, filter.getPaging().getTotalPageNumber());
+    assertEquals(2, users.size());
+    assertEquals("user 28", users.get(0).getName());
+    // The roles are loaded, and do not multiply the users in the page.
+    assertEquals(2, users.get(0).getRoles().size());
+  }
+
+  @Test
+  public void testGetUsers_estimatedCount() {
+    UserFilter filter = filter(10, "name", true);
+    filter.getPaging().setEstimatedCount(true);
+    List<User> users = repository.getUsers(filter);
+    assertEquals(10, users.size());
+    assertEquals(2, filter.getPaging().getTotalPageNumber());
+
+    filter.getPaging().setPageNumber(2);
+    users = repository.getUsers(filter);
+    assertEquals(10, users.size());
+    assertEquals("user 29", users.get(9).getName());
+    assertEquals(3, filter.getPaging().getTotalPageNumber());
+  }
+
+  @Test
+  public void testGetUsers_containsCount() {
+    UserFilter filter = filter(4, "name", true);
+    filter.getContainsFilter().setColumnName("name");
+    filter.getContainsFilter().setValue("user 1");
+    List<User> users = repository.getUsers(filter);
+    assertEquals(4, users.size());
+    assertEquals(3, filter.getPaging().getTotalPageNumber());
+  }
+
+  /** Walks all the pages seeking after the last user of each page.
+   */
+  private List<String> seekAll(final UserFilter filter) {
+    Paging paging = filter.getPaging();
+    List<String> names = new ArrayList<String>();
+    List<User> page = repository.getUsers(filter);
+    while (!page.isEmpty()) {
+      names.addAll(names(page));
+      paging.setAfterId(paging.getLastId());
+      paging.setAfterValue(paging.getLastValue());
+      paging.setPageNumber(paging.getPageNumber() + 1);
+      page = repository.getUsers(filter);
+    }
+    return names;
+  }
+
+  @Test
+  public void testGetUsers_seekByName() {
+    List<String> names = seekAll(filter(7, "name", true));
+    assertEquals(USERS, names.size());
+    for (int i = 0; i < USERS; ++i) {
+      assertEquals(String.format("user %02d", i), names.get(i));
+    }
+  }
+
+  @Test
+  public void testGetUsers_seekByNameDescending() {
+    List<String> names = seekAll(filter(8, "name", false));
+    assertEquals(USERS, names.size());
+    for (int i = 0; i < USERS; ++i) {
+      assertEquals(String.format("user %02d", USERS - 1 - i), names.get(i));
+    }
+  }
+
+  @Test
+  public void testGetUsers_seekById() {
+    List<String> names = seekAll(filter(7, "", true));
+    assertEquals(USERS, names.size());
+    // Saved in reverse order.
+    assertEquals("user 29", names.get(0));
+    assertEquals("user 00", names.get(USERS - 1));
+  }
+
+  @Test
+  public void testGetUsers_lastPosition() {
+    UserFilter filter = filter(5, "email", true);
+    repository.getUsers(filter);
+    assertEquals("user 04@none", filter.getPaging().getLastValue());
+    assertTrue(filter.getPaging().getLastId() != 0);
+
+    filter.getPaging().setPageNumber(10);
+    assertTrue(repository.getUsers(filter).isEmpty());
+    assertEquals(0, filter.getPaging().getLastId());
+    assertNull(filter.getPaging().getLastValue());
+  }
+
+  @Test
+  public void testGetUsers_noPaging() {
+    UserFilter filter = filter(0, "name", true);
+    assertEquals(USERS, repository.getUsers(filter).size());
+  }
+
+  private UserFilter contains(final String column, final String value) {
+    UserFilter filter = filter(4, "name", true);
+    filter.getContainsFilter().setColumnName(column);
+    filter.getContainsFilter().setValue(value);
+    return filter;
+  }
+
+  @Test
+  public void testGetUsers_containsIgnoresCase() {
+    UserFilter filter = contains("name", "USER 2");
+    filter.getPaging().setPageSize(0);
+    assertEquals(10, repository.getUsers(filter).size());
+  }
+
+  @Test
+  public void testGetUsers_textIndex() {
+    repository.setTextIndex(new UserTextIndex());
+    UserFilter filter = contains("email", "R 1");
+    filter.getPaging().setPageNumber(1);
+    List<User> users = repository.getUsers(filter);
+    assertEquals(3, filter.getPaging().getTotalPageNumber());
+    assertEquals("[user 14, user 15, user 16, user 17]",
+        names(users).toString());
+    assertEquals(2, users.get(0).getRoles().size());
+
+    // Seeks the next page.
+    filter.getPaging().setAfterId(filter.getPaging().getLastId());
+    filter.getPaging().setPageNumber(2);
+    assertEquals("[user 18, user 19]",
+        names(repository.getUsers(filter)).toString());
+  }
+
+  @Test
+  public void testGetUsers_textIndexDescending() {
+    repository.setTextIndex(new UserTextIndex());
+    UserFilter filter = contains("name", "2");
+    filter.getSorting().setAscendingOrder(false);
+    List<User> users = repository.getUsers(filter);
+    assertEquals(3, filter.getPaging().getTotalPageNumber());
+    assertEquals("[user 29, user 28, user 27, user 26]",
+        names(users).toString());
+  }
+
+  @Test
+  public void testGetUsers_textIndexUpdated() {
+    UserTextIndex index = new UserTextIndex();
+    repository.setTextIndex(index);
+    repository.getUsers(contains("name", "user"));
+    assertEquals(USERS, index.size());
+
+    Session session = sessionFactory.openSession();
+    session.beginTransaction();
+    User user = (User) session.createQuery(
+        "from User where name = 'user 05'").uniqueResult();
+    user.modify("renamed", "renamed@none");
+    session.getTransaction().commit();
+    session.close();
+
+    // Changed outside the repository: the index is out of date, but the
+    // users are checked again in the database.
+    assertTrue(repository.getUsers(contains("name", "user 05")).isEmpty());
+    assertTrue(repository.getUsers(contains("name", "renamed")).isEmpty());
+
+    index.put(user.getId(), user.getName(), user.getEmail());
+    assertEquals("[renamed]",
+        names(repository.getUsers(contains("name", "RENAMED"))).toString());
+  }
+
+  @Test
+  public void testSave_textIndexAfterCommit() {
+    final UserTextIndex index = new UserTextIndex();
+    repository.setTextIndex(index);
+    repository.getUsers(contains("name", "user"));
+
+    TransactionTemplate transaction = new TransactionTemplate(
+        new HibernateTransactionManager(sessionFactory));
+    transaction.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(
+          final TransactionStatus status) {
+        repository.save(new User("rolled back", "rolled@none"));
+        assertEquals(USERS, index.size());
+        status.setRollbackOnly();
+      }
+    });
+    assertEquals(USERS, index.size());
+
+    transaction.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(
+          final TransactionStatus status) {
+        repository.save(new User("committed", "committed@none"));
+        assertEquals(USERS, index.size());
+      }
+    });
+    assertEquals(USERS + 1, index.size());
+    assertEquals("[committed]",
+        names(repository.getUsers(contains("name", "commit"))).toString());
+  }
+}
@@ -0,0 +1,128 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.user.domain;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests the user text index.
+ */
+public class UserTextIndexTest {
+
+  private UserTextIndex index;
+
+  @Before
+  public void setUp() {
+    List<UserTextIndex.Entry> users = new ArrayList<UserTextIndex.Entry>();
+    users.add(new UserTextIndex.Entry(1, "Nicolas", "nico@none.com"));
+    users.add(new UserTextIndex.Entry(2, "nicanor", "nicanor@other.com"));
+    users.add(new UserTextIndex.Entry(3, "juan", "juan@none.com"));
+    users.add(new UserTextIndex.Entry(4, "ramon", "ramon@other.com"));
+    index = new UserTextIndex();
+    index.load(users);
+  }
+
+  private List<Long> ids(final List<UserTextIndex.Entry> entries) {
+    List<Long> ids = new ArrayList<Long>();
+    for (UserTextIndex.Entry entry : entries) {
+      ids.add(entry.getId());
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+
+  @Test
+  public void testFind_name() {
+    assertEquals("[1, 2]", ids(index.find("name", "NIC")).toString());
+    assertEquals("[1]", ids(index.find("name", "icol")).toString());
+    assertEquals("[]", ids(index.find("name", "nicx")).toString());
+  }
+
+  @Test
+  public void testFind_trigramsInOtherOrder() {
+    // Contains 'ama' and 'mar' but not 'amar'.
+    index.put(5, "amamar", "x@none.com");
+    index.put(6, "mara ama", "y@none.com");
+    assertEquals("[5]", ids(index.find("name", "amar")).toString());
+  }
+
+  @Test
+  public void testFind_email() {
+    assertEquals("[2, 4]", ids(index.find("email", "other")).toString());
+    assertEquals("[1, 3]", ids(index.find("email", "@NONE")).toString());
+  }
+
+  @Test
+  public void testFind_short() {
+    assertEquals("[1, 2, 3, 4]", ids(index.find("name", "n")).toString());
+    assertEquals("[3]", ids(index.find("name", "ju")).toString());
+  }
+
+  @Test
+  public void testPut_update() {
+    index.put(3, "john", "john@none.com");
+    assertEquals("[]", ids(index.find("name", "juan")).toString());
+    assertEquals("[3]", ids(index.find("name", "john")).toString());
+    assertEquals(4, index.size());
+  }
+
+  @Test
+  public void testRemove() {
+    index.remove(1);
+    assertEquals("[2]", ids(index.find("name", "nic")).toString());
+    assertEquals(3, index.size());
+    // Unknown ids are ignored.
+    index.remove(100);
+  }
+
+  @Test
+  public void testIsLoaded() throws Exception {
+    assertFalse(new UserTextIndex().isLoaded());
+    assertTrue(index.isLoaded());
+    index.setTimeToLive(1);
+    Thread.sleep(5);
+    assertFalse(index.isLoaded());
+  }
+
+  @Test
+  public void testLoad_changesDuringLoad() {
+    List<UserTextIndex.Entry> users = new ArrayList<UserTextIndex.Entry>();
+    users.add(new UserTextIndex.Entry(1, "Nicolas", "nico@none.com"));
+    users.add(new UserTextIndex.Entry(3, "juan", "juan@none.com"));
+
+    index.startLoad();
+    // Saved and removed after the users were read.
+    index.put(3, "john", "john@none.com");
+    index.put(5, "pedro", "pedro@none.com");
+    index.remove(1);
+    index.load(users);
+
+    assertEquals("[3, 5]", ids(index.find("name", "o")).toString());
+    assertEquals("[]", ids(index.find("name", "juan")).toString());
+    assertEquals(2, index.size());
+
+    // The changes are not applied again on the next load.
+    index.load(users);
+    assertEquals("[1, 3]", ids(index.find("name", "n")).toString());
+  }
+
+  @Test
+  public void testEndLoad() {
+    index.startLoad();
+    index.put(5, "pedro", "pedro@none.com");
+    index.endLoad();
+    index.load(new ArrayList<UserTextIndex.Entry>());
+    assertEquals(0, index.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFind_notIndexed() {
+    index.find("password", "x");
+  }
+}
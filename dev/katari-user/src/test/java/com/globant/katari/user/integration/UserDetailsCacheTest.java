@@ -0,0 +1,110 @@
+/* vim: set ts=2 et sw=2 cindent fo=qroca: */
+
+package com.globant.katari.user.integration;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.acegisecurity.userdetails.UserDetails;
+import org.acegisecurity.userdetails.UsernameNotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.globant.katari.user.domain.User;
+import com.globant.katari.user.domain.UserRepository;
+
+/** Tests the user details cache, and its use from the user details service.
+ */
+public class UserDetailsCacheTest {
+
+  private UserDetailsCache cache;
+
+  private UserDetails admin;
+
+  @Before
+  public void setUp() {
+    cache = new UserDetailsCache(2);
+    admin = new DomainUserDetails(new User("admin", "admin@none"));
+  }
+
+  @Test
+  public void testGetUserFromCache() {
+    assertNull(cache.getUserFromCache("admin"));
+    cache.putUserInCache(admin);
+    UserDetailsCache.CachedUser cached = cache.getUserFromCache("admin");
+    // The cache keeps a copy, not the user entity.
+    assertNotSame(admin, cached);
+    assertEquals("admin", cached.getUsername());
+    assertEquals(admin.getPassword(), cached.getPassword());
+    assertEquals(0, cached.getUserId());
+    cache.removeUserFromCache("admin");
+    assertNull(cache.getUserFromCache("admin"));
+  }
+
+  @Test
+  public void testGetUserFromCache_expired() throws Exception {
+    cache.setTimeToLive(1);
+    cache.putUserInCache(admin);
+    Thread.sleep(5);
+    assertNull(cache.getUserFromCache("admin"));
+  }
+
+  @Test
+  public void testPutUserInCache_full() {
+    cache.putUserInCache(admin);
+    cache.putUserInCache(new DomainUserDetails(new User("a", "a@none")));
+    cache.putUserInCache(new DomainUserDetails(new User("b", "b@none")));
+    assertNull(cache.getUserFromCache("admin"));
+    assertNotNull(cache.getUserFromCache("b"));
+  }
+
+  @Test
+  public void testClear() {
+    cache.putUserInCache(admin);
+    cache.clear();
+    assertNull(cache.getUserFromCache("admin"));
+  }
+
+  @Test
+  public void testLoadUserByUsername_cached() {
+    User user = new User("admin", "admin@none");
+    User copy = new User("admin", "admin@none");
+    UserRepository repository = createMock(UserRepository.class);
+    expect(repository.findUserByName("admin")).andReturn(user);
+    expect(repository.findUser(0)).andReturn(copy);
+    replay(repository);
+
+    DomainUserDetailsService service;
+    service = new DomainUserDetailsService(repository);
+    service.setUserCache(cache);
+    DomainUserDetails userDetails;
+    userDetails = (DomainUserDetails) service.loadUserByUsername("admin");
+    assertSame(user, userDetails.getUser());
+    // The second time the user is looked up by id, not by name, and it is
+    // not the instance of the first call.
+    userDetails = (DomainUserDetails) service.loadUserByUsername("admin");
+    assertSame(copy, userDetails.getUser());
+    verify(repository);
+  }
+
+  @Test
+  public void testLoadUserByUsername_renamed() {
+    User renamed = new User("renamed", "admin@none");
+    UserRepository repository = createMock(UserRepository.class);
+    expect(repository.findUser(0)).andReturn(renamed);
+    expect(repository.findUserByName("admin")).andReturn(null);
+    replay(repository);
+
+    DomainUserDetailsService service;
+    service = new DomainUserDetailsService(repository);
+    service.setUserCache(cache);
+    cache.putUserInCache(admin);
+    try {
+      service.loadUserByUsername("admin");
+      fail("The user should not be found");
+    } catch (UsernameNotFoundException e) {
+      // Expected.
+    }
+    verify(repository);
+  }
+}